@@ -74,6 +74,8 @@ dependencies {
     implementation(libs.mpandroidchart)
 
     testImplementation(libs.junit)
+    // org.json in android.jar is stubbed out for local tests
+    testImplementation(libs.json)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
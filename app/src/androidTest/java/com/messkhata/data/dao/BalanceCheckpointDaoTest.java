@@ -0,0 +1,330 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.MemberLedger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Seeds a mess with meals, expenses and payments over the four months
+ * before this one, checkpoints them, and checks that back-dated writes
+ * remove the checkpoints of their month and later ones (per member for
+ * meals and payments, for everyone for expenses and rates), and that
+ * as-of balances match the same balances summed without checkpoints.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BalanceCheckpointDaoTest {
+
+    private static final int MESS_ID = 900003;
+    private static final int MEMBERS = 3;
+    private static final int MONTHS = 4;
+
+    private MessKhataDatabase dbHelper;
+    private BalanceCheckpointDao checkpointDao;
+    private int[] userIds = new int[MEMBERS];
+
+    // Year and month (0-11) of the seeded months, oldest first
+    private int[][] months = new int[MONTHS][];
+
+    @Before
+    public void seed() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = MessKhataDatabase.getInstance(context);
+        checkpointDao = new BalanceCheckpointDao(context);
+        removeSeed();
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.MONTH, -MONTHS);
+        for (int i = 0; i < MONTHS; i++) {
+            months[i] = new int[]{calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH)};
+            calendar.add(Calendar.MONTH, 1);
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues mess = new ContentValues();
+            mess.put("messId", MESS_ID);
+            mess.put("messName", "Checkpoint Test");
+            db.insert(MessKhataDatabase.TABLE_MESS, null, mess);
+
+            for (int i = 0; i < MEMBERS; i++) {
+                ContentValues user = new ContentValues();
+                user.put("fullName", "Member " + i);
+                user.put("email", "checkpoint" + i + "@" + MESS_ID);
+                user.put("phoneNumber", "checkpoint" + MESS_ID + i);
+                user.put("password", "x");
+                user.put("messId", MESS_ID);
+                user.put("joinedDate", day(0, 1) - 86400);
+                userIds[i] = (int) db.insert(MessKhataDatabase.TABLE_USERS, null, user);
+            }
+
+            ContentValues rate = new ContentValues();
+            rate.put("messId", MESS_ID);
+            rate.put("effectiveFrom", day(0, 1));
+            rate.put("grocery", 40);
+            rate.put("cooking", 10);
+            db.insert(MessKhataDatabase.TABLE_MEAL_RATES, null, rate);
+
+            for (int month = 0; month < MONTHS; month++) {
+                insertExpense(db, day(month, 5), 300);
+                for (int i = 0; i < MEMBERS; i++) {
+                    insertMeal(db, userIds[i], day(month, 10), i + 1);
+                    insertPayment(db, userIds[i], day(month, 20), 500 + 100 * i);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void removeSeed() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] messArg = new String[]{String.valueOf(MESS_ID)};
+        db.delete(MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEAL_RATES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_PAYMENTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEALS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_BILLS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEMBER_LEDGER, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_STATS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_DAILY_HEADCOUNTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_USERS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MESS, "messId = ?", messArg);
+    }
+
+    @Test
+    public void checkpointsEveryMonthFromTheFirst() {
+        assertEquals(MONTHS, checkpointLastMonth());
+        for (int month = 0; month < MONTHS; month++) {
+            assertTrue(checkpointDao.isMonthCheckpointed(MESS_ID, months[month][1] + 1, months[month][0]));
+        }
+        assertEquals(0, checkpointLastMonth());
+        assertMatchesRecompute();
+    }
+
+    @Test
+    public void backdatedMealDropsThatMembersCheckpointsFromItsMonth() {
+        checkpointLastMonth();
+        insertMeal(dbHelper.getWritableDatabase(), userIds[0], day(1, 15), 2);
+
+        assertEquals(Arrays.asList(monthKey(0)), checkpointMonths(userIds[0]));
+        assertEquals(allMonthKeys(), checkpointMonths(userIds[1]));
+        assertMatchesRecompute();
+
+        assertEquals(MONTHS - 1, checkpointLastMonth());
+        assertEquals(allMonthKeys(), checkpointMonths(userIds[0]));
+        assertMatchesRecompute();
+    }
+
+    @Test
+    public void backdatedPaymentDropsThatMembersCheckpointsFromItsMonth() {
+        checkpointLastMonth();
+        ContentValues values = new ContentValues();
+        values.put("amount", 50);
+        dbHelper.getWritableDatabase().update(MessKhataDatabase.TABLE_PAYMENTS, values,
+                "userId = ? AND paidDate = ?",
+                new String[]{String.valueOf(userIds[1]), String.valueOf(day(2, 20))});
+
+        assertEquals(Arrays.asList(monthKey(0), monthKey(1)), checkpointMonths(userIds[1]));
+        assertEquals(allMonthKeys(), checkpointMonths(userIds[2]));
+        assertMatchesRecompute();
+
+        assertEquals(MONTHS - 2, checkpointLastMonth());
+        assertMatchesRecompute();
+    }
+
+    @Test
+    public void backdatedExpenseDropsEveryonesCheckpointsFromItsMonth() {
+        checkpointLastMonth();
+        dbHelper.getWritableDatabase().delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ? AND expenseDate = ?",
+                new String[]{String.valueOf(MESS_ID), String.valueOf(day(1, 5))});
+
+        for (int userId : userIds) {
+            assertEquals(Arrays.asList(monthKey(0)), checkpointMonths(userId));
+        }
+        assertMatchesRecompute();
+
+        assertEquals(MONTHS - 1, checkpointLastMonth());
+        assertMatchesRecompute();
+    }
+
+    @Test
+    public void newMealRateDropsEveryonesCheckpointsFromItsMonth() {
+        checkpointLastMonth();
+        ContentValues rate = new ContentValues();
+        rate.put("messId", MESS_ID);
+        rate.put("effectiveFrom", day(2, 1));
+        rate.put("grocery", 55);
+        rate.put("cooking", 15);
+        dbHelper.getWritableDatabase().insert(MessKhataDatabase.TABLE_MEAL_RATES, null, rate);
+
+        for (int userId : userIds) {
+            assertEquals(Arrays.asList(monthKey(0), monthKey(1)), checkpointMonths(userId));
+        }
+        assertMatchesRecompute();
+
+        assertEquals(MONTHS - 2, checkpointLastMonth());
+        assertMatchesRecompute();
+    }
+
+    @Test
+    public void newJoinDateDropsThatMembersCheckpoints() {
+        checkpointLastMonth();
+        ContentValues values = new ContentValues();
+        values.put("joinedDate", day(1, 8));
+        dbHelper.getWritableDatabase().update(MessKhataDatabase.TABLE_USERS, values,
+                "userId = ?", new String[]{String.valueOf(userIds[2])});
+
+        assertTrue(checkpointMonths(userIds[2]).isEmpty());
+        assertEquals(allMonthKeys(), checkpointMonths(userIds[0]));
+        assertMatchesRecompute();
+
+        // The member no longer shares the expenses spent before joining
+        assertEquals(0, checkpointDao.getBalanceAsOf(userIds[2], MESS_ID, day(1, 7)).getSharedCharges(), 1e-9);
+
+        assertEquals(MONTHS, checkpointLastMonth());
+        assertMatchesRecompute();
+    }
+
+    /**
+     * Check as-of balances within and at the end of each month against the
+     * same balances with the checkpoints removed, which sums every row
+     * The removal is rolled back, so the checkpoints are left as they were.
+     */
+    private void assertMatchesRecompute() {
+        List<Long> dates = new ArrayList<>();
+        for (int month = 0; month < MONTHS; month++) {
+            dates.add(day(month, 12));
+            dates.add(day(month + 1, 1) - 1);
+        }
+        dates.add(System.currentTimeMillis() / 1000);
+
+        List<MemberLedger> withCheckpoints = new ArrayList<>();
+        for (int userId : userIds) {
+            for (long date : dates) {
+                withCheckpoints.add(checkpointDao.getBalanceAsOf(userId, MESS_ID, date));
+            }
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS, "messId = ?",
+                    new String[]{String.valueOf(MESS_ID)});
+            int i = 0;
+            for (int userId : userIds) {
+                for (long date : dates) {
+                    MemberLedger expected = checkpointDao.getBalanceAsOf(userId, MESS_ID, date);
+                    MemberLedger actual = withCheckpoints.get(i++);
+                    String what = "member " + userId + " as of " + date;
+                    assertEquals(what, expected.getMealCount(), actual.getMealCount());
+                    assertEquals(what, expected.getMealCharges(), actual.getMealCharges(), 1e-6);
+                    assertEquals(what, expected.getSharedCharges(), actual.getSharedCharges(), 1e-6);
+                    assertEquals(what, expected.getTotalPaid(), actual.getTotalPaid(), 1e-6);
+                }
+            }
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private int checkpointLastMonth() {
+        int[] last = months[MONTHS - 1];
+        return checkpointDao.checkpointMissingMonths(MESS_ID, last[1] + 1, last[0]);
+    }
+
+    private List<Integer> checkpointMonths(int userId) {
+        List<Integer> monthKeys = new ArrayList<>();
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT monthKey FROM " +
+                        MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS +
+                        " WHERE messId = ? AND userId = ? ORDER BY monthKey",
+                new String[]{String.valueOf(MESS_ID), String.valueOf(userId)});
+        while (cursor.moveToNext()) {
+            monthKeys.add(cursor.getInt(0));
+        }
+        cursor.close();
+        return monthKeys;
+    }
+
+    private List<Integer> allMonthKeys() {
+        List<Integer> monthKeys = new ArrayList<>();
+        for (int month = 0; month < MONTHS; month++) {
+            monthKeys.add(monthKey(month));
+        }
+        return monthKeys;
+    }
+
+    private int monthKey(int month) {
+        return months[month][0] * 100 + months[month][1] + 1;
+    }
+
+    /**
+     * Local midnight of a day of a seeded month, in seconds
+     * @param month Index into months; MONTHS is the current month
+     */
+    private long day(int month, int dayOfMonth) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(months[0][0], months[0][1], dayOfMonth);
+        calendar.add(Calendar.MONTH, month);
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    private static void insertMeal(SQLiteDatabase db, int userId, long date, int lunch) {
+        ContentValues meal = new ContentValues();
+        meal.put("userId", userId);
+        meal.put("messId", MESS_ID);
+        meal.put("mealDate", date);
+        meal.put("breakfast", 1);
+        meal.put("lunch", lunch);
+        meal.put("dinner", 1);
+        db.insert(MessKhataDatabase.TABLE_MEALS, null, meal);
+    }
+
+    private void insertExpense(SQLiteDatabase db, long date, double amount) {
+        ContentValues expense = new ContentValues();
+        expense.put("messId", MESS_ID);
+        expense.put("addedBy", userIds[0]);
+        expense.put("category", ExpenseCategory.GROCERY.getName());
+        expense.put("categoryCode", ExpenseCategory.GROCERY.getCode());
+        expense.put("amount", amount);
+        expense.put("title", "Bazar");
+        expense.put("expenseDate", date);
+        expense.put("memberCountAtTime", MEMBERS);
+        db.insert(MessKhataDatabase.TABLE_EXPENSES, null, expense);
+    }
+
+    private static void insertPayment(SQLiteDatabase db, int userId, long date, double amount) {
+        ContentValues payment = new ContentValues();
+        payment.put("billId", 0);
+        payment.put("userId", userId);
+        payment.put("messId", MESS_ID);
+        payment.put("amount", amount);
+        payment.put("paidDate", date);
+        payment.put("addedBy", userId);
+        db.insert(MessKhataDatabase.TABLE_PAYMENTS, null, payment);
+    }
+}
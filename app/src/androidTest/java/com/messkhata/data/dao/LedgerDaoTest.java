@@ -0,0 +1,285 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.MemberLedger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes meals, expenses and payments to a seeded mess and checks that the
+ * MemberLedger and MonthlyBills rows the triggers keep agree with a full
+ * recompute: LedgerDao.reconcile() rebuilds them from the source tables
+ * and must find nothing to repair.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LedgerDaoTest {
+
+    private static final int MESS_ID = 900005;
+    private static final int MEMBERS = 3;
+    private static final double RATE = 50;
+    private static final double DELTA = 1e-6;
+
+    private MessKhataDatabase dbHelper;
+    private LedgerDao ledgerDao;
+    private int[] userIds = new int[MEMBERS];
+
+    // Year and month (0-11) of two months ago; the seeded months are it and the next
+    private int year;
+    private int month;
+
+    @Before
+    public void seed() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = MessKhataDatabase.getInstance(context);
+        ledgerDao = new LedgerDao(context);
+        removeSeed();
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.MONTH, -2);
+        year = calendar.get(Calendar.YEAR);
+        month = calendar.get(Calendar.MONTH);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues mess = new ContentValues();
+            mess.put("messId", MESS_ID);
+            mess.put("messName", "Ledger Test");
+            db.insert(MessKhataDatabase.TABLE_MESS, null, mess);
+
+            for (int i = 0; i < MEMBERS; i++) {
+                ContentValues user = new ContentValues();
+                user.put("fullName", "Member " + i);
+                user.put("email", "ledger" + i + "@" + MESS_ID);
+                user.put("phoneNumber", "ledger" + MESS_ID + i);
+                user.put("password", "x");
+                user.put("messId", MESS_ID);
+                user.put("joinedDate", day(0, 1) - 86400);
+                userIds[i] = (int) db.insert(MessKhataDatabase.TABLE_USERS, null, user);
+            }
+
+            ContentValues rate = new ContentValues();
+            rate.put("messId", MESS_ID);
+            rate.put("effectiveFrom", day(0, 1));
+            rate.put("grocery", RATE - 10);
+            rate.put("cooking", 10);
+            db.insert(MessKhataDatabase.TABLE_MEAL_RATES, null, rate);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void removeSeed() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] messArg = new String[]{String.valueOf(MESS_ID)};
+        db.delete(MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEAL_RATES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_PAYMENTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEALS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_BILLS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEMBER_LEDGER, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_STATS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_DAILY_HEADCOUNTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_USERS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MESS, "messId = ?", messArg);
+    }
+
+    @Test
+    public void insertsKeepTheLedgerInStep() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        insertMeal(db, userIds[0], day(0, 3), 1, 1, 1);
+        insertMeal(db, userIds[1], day(0, 3), 0, 1, 0);
+        insertMeal(db, userIds[0], day(1, 4), 0, 1, 1);
+        insertExpense(db, day(0, 5), 300);
+        insertExpense(db, day(1, 6), 90);
+        insertPayment(db, userIds[0], day(0, 20), 500);
+        insertPayment(db, userIds[0], day(1, 20), 200);
+
+        MemberLedger ledger = ledgerDao.getLedger(userIds[0], MESS_ID);
+        assertEquals(5, ledger.getMealCount());
+        assertEquals(5 * RATE, ledger.getMealCharges(), DELTA);
+        assertEquals(100 + 30, ledger.getSharedCharges(), DELTA);
+        assertEquals(700, ledger.getTotalPaid(), DELTA);
+
+        ledger = ledgerDao.getLedger(userIds[2], MESS_ID);
+        assertEquals(0, ledger.getMealCount());
+        assertEquals(100 + 30, ledger.getSharedCharges(), DELTA);
+        assertEquals(0, ledger.getTotalPaid(), DELTA);
+
+        assertEquals(0, ledgerDao.reconcile(MESS_ID));
+    }
+
+    @Test
+    public void updatesAndDeletesKeepTheLedgerInStep() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long meal = insertMeal(db, userIds[0], day(0, 3), 1, 1, 1);
+        long movedMeal = insertMeal(db, userIds[1], day(0, 4), 1, 0, 1);
+        insertMeal(db, userIds[2], day(1, 4), 1, 1, 1);
+        long expense = insertExpense(db, day(0, 5), 300);
+        long movedExpense = insertExpense(db, day(0, 6), 150);
+        long payment = insertPayment(db, userIds[0], day(0, 20), 500);
+        insertPayment(db, userIds[1], day(0, 20), 400);
+
+        ContentValues values = new ContentValues();
+        values.put("lunch", 0);
+        values.put("dinner", 2);
+        update(db, MessKhataDatabase.TABLE_MEALS, values, "mealId", meal);
+
+        // Into the next month and to another member
+        values = new ContentValues();
+        values.put("mealDate", day(1, 9));
+        values.put("userId", userIds[2]);
+        update(db, MessKhataDatabase.TABLE_MEALS, values, "mealId", movedMeal);
+
+        values = new ContentValues();
+        values.put("amount", 360);
+        values.put("memberCountAtTime", 2);
+        update(db, MessKhataDatabase.TABLE_EXPENSES, values, "expenseId", expense);
+
+        values = new ContentValues();
+        values.put("expenseDate", day(1, 7));
+        update(db, MessKhataDatabase.TABLE_EXPENSES, values, "expenseId", movedExpense);
+
+        values = new ContentValues();
+        values.put("amount", 450);
+        update(db, MessKhataDatabase.TABLE_PAYMENTS, values, "paymentId", payment);
+        assertEquals(0, ledgerDao.reconcile(MESS_ID));
+
+        db.delete(MessKhataDatabase.TABLE_EXPENSES, "expenseId = ?", new String[]{String.valueOf(expense)});
+        db.delete(MessKhataDatabase.TABLE_MEALS, "mealId = ?", new String[]{String.valueOf(meal)});
+        db.delete(MessKhataDatabase.TABLE_PAYMENTS, "paymentId = ?", new String[]{String.valueOf(payment)});
+        assertEquals(0, ledgerDao.reconcile(MESS_ID));
+
+        MemberLedger ledger = ledgerDao.getLedger(userIds[0], MESS_ID);
+        assertEquals(0, ledger.getMealCount());
+        assertEquals(0, ledger.getMealCharges(), DELTA);
+        assertEquals(50, ledger.getSharedCharges(), DELTA);
+        assertEquals(0, ledger.getTotalPaid(), DELTA);
+    }
+
+    @Test
+    public void newJoinDateKeepsTheLedgerInStep() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        insertExpense(db, day(0, 5), 300);
+        insertExpense(db, day(1, 5), 90);
+
+        // The member now shares only the expense after they joined
+        ContentValues values = new ContentValues();
+        values.put("joinedDate", day(1, 1));
+        update(db, MessKhataDatabase.TABLE_USERS, values, "userId", userIds[2]);
+        assertEquals(30, ledgerDao.getLedger(userIds[2], MESS_ID).getSharedCharges(), DELTA);
+        assertEquals(0, ledgerDao.reconcile(MESS_ID));
+
+        values.put("joinedDate", day(0, 1) - 86400);
+        update(db, MessKhataDatabase.TABLE_USERS, values, "userId", userIds[2]);
+        assertEquals(130, ledgerDao.getLedger(userIds[2], MESS_ID).getSharedCharges(), DELTA);
+        assertEquals(0, ledgerDao.reconcile(MESS_ID));
+    }
+
+    @Test
+    public void reconcileRepairsRowsThatDrifted() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        insertMeal(db, userIds[0], day(0, 3), 1, 1, 1);
+        insertExpense(db, day(0, 5), 300);
+
+        ContentValues drift = new ContentValues();
+        drift.put("mealCharges", 1);
+        db.update(MessKhataDatabase.TABLE_MEMBER_LEDGER, drift, "userId = ?",
+                new String[]{String.valueOf(userIds[0])});
+        assertEquals(1, ledgerDao.reconcile(MESS_ID));
+        assertEquals(3 * RATE, ledgerDao.getLedger(userIds[0], MESS_ID).getMealCharges(), DELTA);
+        assertEquals(0, ledgerDao.reconcile(MESS_ID));
+    }
+
+    /**
+     * Local midnight of a day in the seeded months, in seconds
+     * @param offset 0 for two months ago, 1 for last month
+     */
+    private long day(int offset, int dayOfMonth) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, dayOfMonth);
+        calendar.add(Calendar.MONTH, offset);
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    private static void update(SQLiteDatabase db, String table, ContentValues values, String idColumn, long id) {
+        assertEquals(1, db.update(table, values, idColumn + " = ?", new String[]{String.valueOf(id)}));
+    }
+
+    private static long insertMeal(SQLiteDatabase db, int userId, long date, int breakfast, int lunch,
+                                   int dinner) {
+        ContentValues meal = new ContentValues();
+        meal.put("userId", userId);
+        meal.put("messId", MESS_ID);
+        meal.put("mealDate", date);
+        meal.put("breakfast", breakfast);
+        meal.put("lunch", lunch);
+        meal.put("dinner", dinner);
+        return db.insert(MessKhataDatabase.TABLE_MEALS, null, meal);
+    }
+
+    private long insertExpense(SQLiteDatabase db, long date, double amount) {
+        ContentValues expense = new ContentValues();
+        expense.put("messId", MESS_ID);
+        expense.put("addedBy", userIds[0]);
+        expense.put("category", ExpenseCategory.UTILITY.getName());
+        expense.put("categoryCode", ExpenseCategory.UTILITY.getCode());
+        expense.put("amount", amount);
+        expense.put("title", "Bill");
+        expense.put("expenseDate", date);
+        expense.put("memberCountAtTime", MEMBERS);
+        return db.insert(MessKhataDatabase.TABLE_EXPENSES, null, expense);
+    }
+
+    /**
+     * Add a payment against the member's bill for the month of the date,
+     * adding the bill if the member has none yet
+     */
+    private static long insertPayment(SQLiteDatabase db, int userId, long date, double amount) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date * 1000);
+        ContentValues bill = new ContentValues();
+        bill.put("userId", userId);
+        bill.put("messId", MESS_ID);
+        bill.put("month", calendar.get(Calendar.MONTH) + 1);
+        bill.put("year", calendar.get(Calendar.YEAR));
+        db.insertWithOnConflict(MessKhataDatabase.TABLE_MONTHLY_BILLS, null, bill, SQLiteDatabase.CONFLICT_IGNORE);
+        Cursor cursor = db.rawQuery("SELECT billId FROM " + MessKhataDatabase.TABLE_MONTHLY_BILLS +
+                        " WHERE userId = ? AND messId = ? AND month = ? AND year = ?",
+                new String[]{String.valueOf(userId), String.valueOf(MESS_ID),
+                        String.valueOf(calendar.get(Calendar.MONTH) + 1),
+                        String.valueOf(calendar.get(Calendar.YEAR))});
+        assertTrue(cursor.moveToFirst());
+        long billId = cursor.getLong(0);
+        cursor.close();
+
+        ContentValues payment = new ContentValues();
+        payment.put("billId", billId);
+        payment.put("userId", userId);
+        payment.put("messId", MESS_ID);
+        payment.put("amount", amount);
+        payment.put("paidDate", date);
+        payment.put("addedBy", userId);
+        return db.insert(MessKhataDatabase.TABLE_PAYMENTS, null, payment);
+    }
+}
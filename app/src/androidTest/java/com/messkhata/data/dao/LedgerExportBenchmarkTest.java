@@ -0,0 +1,218 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.export.CsvTableWriter;
+import com.messkhata.data.export.LedgerExporter;
+import com.messkhata.data.export.TableWriter;
+import com.messkhata.data.model.ExpenseCategory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports the ledger of a seeded mess of about 100k rows to CSV, logging
+ * the throughput and checking that the heap retained while exporting does
+ * not grow with the rows written. Timings are written to logcat under the
+ * ExportBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LedgerExportBenchmarkTest {
+
+    private static final String TAG = "ExportBenchmark";
+    private static final int MESS_ID = 900002;
+    private static final int MEMBERS = 40;
+    private static final int DAYS = 2500;
+    private static final int ROWS = MEMBERS * DAYS + DAYS + MEMBERS * (DAYS / 30);
+
+    // Rows between heap samples, and how far the retained heap may drift
+    private static final int SAMPLE_ROWS = 20000;
+    private static final long MAX_HEAP_GROWTH = 4L * 1024 * 1024;
+
+    private Context context;
+    private MessKhataDatabase dbHelper;
+    private ExportDao exportDao;
+    private File output;
+
+    @Before
+    public void seed() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = MessKhataDatabase.getInstance(context);
+        exportDao = new ExportDao(context);
+        output = new File(context.getCacheDir(), "export-benchmark.csv");
+        removeSeed();
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -DAYS);
+        calendar.set(Calendar.HOUR_OF_DAY, 12);
+        long firstDay = calendar.getTimeInMillis() / 1000;
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues mess = new ContentValues();
+            mess.put("messId", MESS_ID);
+            mess.put("messName", "Export Benchmark");
+            db.insert(MessKhataDatabase.TABLE_MESS, null, mess);
+
+            int[] userIds = new int[MEMBERS];
+            for (int i = 0; i < MEMBERS; i++) {
+                ContentValues user = new ContentValues();
+                user.put("fullName", "Member " + i);
+                user.put("email", "export" + i + "@" + MESS_ID);
+                user.put("phoneNumber", "export" + MESS_ID + i);
+                user.put("password", "x");
+                user.put("messId", MESS_ID);
+                user.put("joinedDate", firstDay - 86400);
+                userIds[i] = (int) db.insert(MessKhataDatabase.TABLE_USERS, null, user);
+            }
+
+            SQLiteStatement meal = db.compileStatement("INSERT INTO " + MessKhataDatabase.TABLE_MEALS +
+                    " (userId, messId, mealDate, breakfast, lunch, dinner) VALUES (?, ?, ?, ?, 1, 1)");
+            SQLiteStatement expense = db.compileStatement("INSERT INTO " + MessKhataDatabase.TABLE_EXPENSES +
+                    " (messId, addedBy, category, categoryCode, amount, title, expenseDate, memberCountAtTime)" +
+                    " VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            SQLiteStatement payment = db.compileStatement("INSERT INTO " + MessKhataDatabase.TABLE_PAYMENTS +
+                    " (billId, userId, messId, amount, paidDate, addedBy) VALUES (0, ?, ?, ?, ?, ?)");
+            for (int day = 0; day < DAYS; day++) {
+                long date = firstDay + day * 86400L;
+                for (int i = 0; i < MEMBERS; i++) {
+                    meal.bindLong(1, userIds[i]);
+                    meal.bindLong(2, MESS_ID);
+                    meal.bindLong(3, date);
+                    meal.bindLong(4, (day + i) % 2);
+                    meal.executeInsert();
+                    if (day % 30 == 29) {
+                        payment.bindLong(1, userIds[i]);
+                        payment.bindLong(2, MESS_ID);
+                        payment.bindDouble(3, 3000);
+                        payment.bindLong(4, date);
+                        payment.bindLong(5, userIds[0]);
+                        payment.executeInsert();
+                    }
+                }
+                ExpenseCategory category = ExpenseCategory.fromCode(day % ExpenseCategory.COUNT);
+                expense.bindLong(1, MESS_ID);
+                expense.bindLong(2, userIds[0]);
+                expense.bindString(3, category.getName());
+                expense.bindLong(4, category.getCode());
+                expense.bindDouble(5, 100 + day % 37);
+                expense.bindString(6, "Expense, day " + day);
+                expense.bindLong(7, date);
+                expense.bindLong(8, MEMBERS);
+                expense.executeInsert();
+            }
+            meal.close();
+            expense.close();
+            payment.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void removeSeed() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] messArg = new String[]{String.valueOf(MESS_ID)};
+        db.delete(MessKhataDatabase.TABLE_PAYMENTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEALS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_BILLS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEMBER_LEDGER, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_STATS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_DAILY_HEADCOUNTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_USERS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MESS, "messId = ?", messArg);
+        if (output != null) {
+            output.delete();
+        }
+    }
+
+    /**
+     * Passes rows on to a CSV writer, sampling the heap left after a GC
+     */
+    private static class SamplingWriter implements TableWriter {
+        private final TableWriter writer;
+        private int rows;
+        private long minHeap = Long.MAX_VALUE;
+        private long maxHeap;
+
+        SamplingWriter(TableWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void startTable(String title, String[] columns) throws IOException {
+            writer.startTable(title, columns);
+        }
+
+        @Override
+        public void writeRow(String[] cells) throws IOException {
+            writer.writeRow(cells);
+            if (++rows % SAMPLE_ROWS == 0) {
+                Runtime runtime = Runtime.getRuntime();
+                runtime.gc();
+                long used = runtime.totalMemory() - runtime.freeMemory();
+                minHeap = Math.min(minHeap, used);
+                maxHeap = Math.max(maxHeap, used);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void ledgerExportsInConstantMemory() throws IOException {
+        SamplingWriter writer = new SamplingWriter(new CsvTableWriter(new FileOutputStream(output)));
+        long start = SystemClock.elapsedRealtimeNanos();
+        int rows = exportDao.exportMessLedger(MESS_ID, writer);
+        writer.close();
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, String.format("%d rows, %.1f MB in %.0f ms (%.0f rows/s), retained heap %d-%d KB",
+                rows, output.length() / 1e6, nanos / 1e6, rows / (nanos / 1e9),
+                writer.minHeap / 1024, writer.maxHeap / 1024));
+
+        assertEquals(ROWS, rows);
+        assertTrue("retained heap grew by " + (writer.maxHeap - writer.minHeap) + " bytes",
+                writer.maxHeap - writer.minHeap < MAX_HEAP_GROWTH);
+    }
+
+    @Test
+    public void statementsExportToPdf() throws IOException {
+        Calendar calendar = Calendar.getInstance();
+        File file = new LedgerExporter(context).exportStatements(MESS_ID, 0,
+                calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.YEAR), LedgerExporter.Format.PDF);
+
+        assertNotNull(file);
+        byte[] header = new byte[5];
+        try (FileInputStream in = new FileInputStream(file)) {
+            assertEquals(5, in.read(header));
+        }
+        assertEquals("%PDF-", new String(header, "US-ASCII"));
+        file.delete();
+    }
+}
@@ -0,0 +1,221 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+import com.messkhata.data.model.ExpenseCategory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Closes last month of a seeded mess and checks the actual meal rate and
+ * adjusted meal charges written to MonthlyBills, and that back-dated
+ * grocery expenses and meals recompute a closed month but leave an open
+ * one alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MonthCloseDaoTest {
+
+    private static final int MESS_ID = 900004;
+    private static final int MEMBERS = 3;
+    private static final double COOKING = 10;
+    private static final double DELTA = 1e-6;
+
+    private MessKhataDatabase dbHelper;
+    private MonthCloseDao monthCloseDao;
+    private int[] userIds = new int[MEMBERS];
+    private int year;
+    private int month;  // 1-12
+
+    @Before
+    public void seed() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = MessKhataDatabase.getInstance(context);
+        monthCloseDao = new MonthCloseDao(context);
+        removeSeed();
+
+        Calendar lastMonth = Calendar.getInstance();
+        lastMonth.add(Calendar.MONTH, -1);
+        year = lastMonth.get(Calendar.YEAR);
+        month = lastMonth.get(Calendar.MONTH) + 1;
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues mess = new ContentValues();
+            mess.put("messId", MESS_ID);
+            mess.put("messName", "Month Close Test");
+            db.insert(MessKhataDatabase.TABLE_MESS, null, mess);
+
+            for (int i = 0; i < MEMBERS; i++) {
+                ContentValues user = new ContentValues();
+                user.put("fullName", "Member " + i);
+                user.put("email", "close" + i + "@" + MESS_ID);
+                user.put("phoneNumber", "close" + MESS_ID + i);
+                user.put("password", "x");
+                user.put("messId", MESS_ID);
+                user.put("joinedDate", day(1) - 86400);
+                userIds[i] = (int) db.insert(MessKhataDatabase.TABLE_USERS, null, user);
+            }
+
+            ContentValues rate = new ContentValues();
+            rate.put("messId", MESS_ID);
+            rate.put("effectiveFrom", day(1));
+            rate.put("grocery", 40);
+            rate.put("cooking", COOKING);
+            db.insert(MessKhataDatabase.TABLE_MEAL_RATES, null, rate);
+
+            // 4 meals and 400 of groceries; the rent is not a meal cost.
+            // The third member eats nothing this month.
+            insertMeal(db, userIds[0], day(5), 1, 1, 1);
+            insertMeal(db, userIds[1], day(6), 0, 1, 0);
+            insertExpense(db, ExpenseCategory.GROCERY, day(7), 400);
+            insertExpense(db, ExpenseCategory.RENT, day(8), 3000);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void removeSeed() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] messArg = new String[]{String.valueOf(MESS_ID)};
+        db.delete(MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEAL_RATES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEALS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_BILLS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEMBER_LEDGER, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_STATS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_DAILY_HEADCOUNTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_USERS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MESS, "messId = ?", messArg);
+    }
+
+    @Test
+    public void closingStoresTheActualRateAndAdjustedCharges() {
+        assertFalse(monthCloseDao.isMonthClosed(MESS_ID, month, year));
+        assertTrue(monthCloseDao.closeMonth(MESS_ID, month, year) > 0);
+        assertTrue(monthCloseDao.isMonthClosed(MESS_ID, month, year));
+
+        double rate = 400.0 / 4 + COOKING;
+        assertEquals(rate, monthCloseDao.getActualMealRate(MESS_ID, month, year), DELTA);
+        assertBill(userIds[0], rate, 3 * rate);
+        assertBill(userIds[1], rate, rate);
+    }
+
+    @Test
+    public void lateGroceryExpenseRecomputesAClosedMonth() {
+        monthCloseDao.closeMonth(MESS_ID, month, year);
+
+        insertExpense(dbHelper.getWritableDatabase(), ExpenseCategory.GROCERY, day(9), 400);
+        double rate = 800.0 / 4 + COOKING;
+        assertBill(userIds[0], rate, 3 * rate);
+        assertBill(userIds[1], rate, rate);
+
+        dbHelper.getWritableDatabase().delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ? AND expenseDate = ?",
+                new String[]{String.valueOf(MESS_ID), String.valueOf(day(9))});
+        rate = 400.0 / 4 + COOKING;
+        assertBill(userIds[0], rate, 3 * rate);
+
+        // Other categories are not part of the meal rate
+        insertExpense(dbHelper.getWritableDatabase(), ExpenseCategory.RENT, day(10), 500);
+        assertBill(userIds[0], rate, 3 * rate);
+        assertTrue(monthCloseDao.isMonthClosed(MESS_ID, month, year));
+    }
+
+    @Test
+    public void lateMealRecomputesAClosedMonth() {
+        monthCloseDao.closeMonth(MESS_ID, month, year);
+
+        insertMeal(dbHelper.getWritableDatabase(), userIds[1], day(11), 1, 1, 1);
+        double rate = 400.0 / 7 + COOKING;
+        assertBill(userIds[0], rate, 3 * rate);
+        assertBill(userIds[1], rate, 4 * rate);
+
+        // A member's first meal of the month adds their bill, closed like the rest
+        insertMeal(dbHelper.getWritableDatabase(), userIds[2], day(12), 1, 0, 0);
+        rate = 400.0 / 8 + COOKING;
+        assertBill(userIds[0], rate, 3 * rate);
+        assertBill(userIds[2], rate, rate);
+    }
+
+    @Test
+    public void writesToAnOpenMonthLeaveItOpen() {
+        insertExpense(dbHelper.getWritableDatabase(), ExpenseCategory.GROCERY, day(9), 400);
+        insertMeal(dbHelper.getWritableDatabase(), userIds[2], day(12), 1, 0, 0);
+        assertFalse(monthCloseDao.isMonthClosed(MESS_ID, month, year));
+
+        SQLiteStatement recompute = dbHelper.getWritableDatabase().compileStatement(
+                SchemaSql.recomputeBillsSql("?1", "?2", true));
+        recompute.bindLong(1, MESS_ID);
+        recompute.bindLong(2, year * 100 + month);
+        assertEquals(0, recompute.executeUpdateDelete());
+        recompute.close();
+        assertFalse(monthCloseDao.isMonthClosed(MESS_ID, month, year));
+    }
+
+    private void assertBill(int userId, double actualMealRate, double adjustedMealExpense) {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT actualMealRate, adjustedMealExpense, " +
+                        "closedAt FROM " + MessKhataDatabase.TABLE_MONTHLY_BILLS +
+                        " WHERE userId = ? AND messId = ? AND month = ? AND year = ?",
+                new String[]{String.valueOf(userId), String.valueOf(MESS_ID),
+                        String.valueOf(month), String.valueOf(year)});
+        assertTrue("no bill for member " + userId, cursor.moveToFirst());
+        assertEquals(actualMealRate, cursor.getDouble(0), DELTA);
+        assertEquals(adjustedMealExpense, cursor.getDouble(1), DELTA);
+        assertFalse("bill of member " + userId + " not closed", cursor.isNull(2));
+        cursor.close();
+    }
+
+    /**
+     * Local midnight of a day of last month, in seconds
+     */
+    private long day(int dayOfMonth) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, dayOfMonth);
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    private static void insertMeal(SQLiteDatabase db, int userId, long date,
+                                   int breakfast, int lunch, int dinner) {
+        ContentValues meal = new ContentValues();
+        meal.put("userId", userId);
+        meal.put("messId", MESS_ID);
+        meal.put("mealDate", date);
+        meal.put("breakfast", breakfast);
+        meal.put("lunch", lunch);
+        meal.put("dinner", dinner);
+        db.insert(MessKhataDatabase.TABLE_MEALS, null, meal);
+    }
+
+    private void insertExpense(SQLiteDatabase db, ExpenseCategory category, long date, double amount) {
+        ContentValues expense = new ContentValues();
+        expense.put("messId", MESS_ID);
+        expense.put("addedBy", userIds[0]);
+        expense.put("category", category.getName());
+        expense.put("categoryCode", category.getCode());
+        expense.put("amount", amount);
+        expense.put("title", category.getName());
+        expense.put("expenseDate", date);
+        expense.put("memberCountAtTime", MEMBERS);
+        db.insert(MessKhataDatabase.TABLE_EXPENSES, null, expense);
+    }
+}
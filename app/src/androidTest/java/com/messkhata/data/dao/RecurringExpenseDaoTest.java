@@ -0,0 +1,202 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.Expense;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.RecurringExpenseRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Adds the due occurrences of recurring rules for a seeded mess and checks
+ * that running again adds nothing, that rules further behind than the
+ * per-rule and per-run caps catch up over later runs, and that each
+ * expense is split between the members who had joined before its date.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecurringExpenseDaoTest {
+
+    private static final int MESS_ID = 900006;
+
+    private MessKhataDatabase dbHelper;
+    private RecurringExpenseDao recurringExpenseDao;
+    private int adminId;
+    private long today;
+
+    @Before
+    public void seed() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = MessKhataDatabase.getInstance(context);
+        recurringExpenseDao = new RecurringExpenseDao(context);
+        removeSeed();
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        today = calendar.getTimeInMillis() / 1000;
+
+        ContentValues mess = new ContentValues();
+        mess.put("messId", MESS_ID);
+        mess.put("messName", "Recurring Expense Test");
+        dbHelper.getWritableDatabase().insert(MessKhataDatabase.TABLE_MESS, null, mess);
+        adminId = insertMember(0, daysAgo(400));
+    }
+
+    @After
+    public void removeSeed() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] messArg = new String[]{String.valueOf(MESS_ID)};
+        db.delete(MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_RECURRING_EXPENSE_RULES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_BILLS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEMBER_LEDGER, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_STATS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_USERS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MESS, "messId = ?", messArg);
+    }
+
+    @Test
+    public void runningAgainAddsNothing() {
+        int ruleId = addDailyRule(daysAgo(5));
+        assertEquals(6, recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        assertEquals(0, recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        assertEquals(6, countExpenses(ruleId));
+        assertEquals(6, nextOccurrence(ruleId));
+
+        // A retry from an older nextOccurrence finds the occurrences already stored
+        ContentValues values = new ContentValues();
+        values.put("nextOccurrence", 0);
+        dbHelper.getWritableDatabase().update(MessKhataDatabase.TABLE_RECURRING_EXPENSE_RULES, values,
+                "ruleId = ?", new String[]{String.valueOf(ruleId)});
+        assertEquals(0, recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        assertEquals(6, countExpenses(ruleId));
+        assertEquals(6, nextOccurrence(ruleId));
+    }
+
+    @Test
+    public void ruleFurtherBehindThanTheCatchUpCapResumes() {
+        int due = RecurringExpenseDao.MAX_CATCH_UP + 10;
+        int ruleId = addDailyRule(daysAgo(due - 1));
+
+        assertEquals(RecurringExpenseDao.MAX_CATCH_UP, recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        assertEquals(RecurringExpenseDao.MAX_CATCH_UP, nextOccurrence(ruleId));
+
+        List<Expense> rest = recurringExpenseDao.addDueExpenses(MESS_ID, today);
+        assertEquals(10, rest.size());
+        assertEquals(daysAgo(9), rest.get(0).getExpenseDate());
+        assertEquals(today, rest.get(9).getExpenseDate());
+        assertEquals(0, recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        assertEquals(due, countExpenses(ruleId));
+        assertEquals(due, nextOccurrence(ruleId));
+    }
+
+    @Test
+    public void runOverThePerRunCapResumes() {
+        // Each rule is MAX_CATCH_UP behind, so only the run cap limits a run
+        int rules = RecurringExpenseDao.MAX_PER_RUN / RecurringExpenseDao.MAX_CATCH_UP + 2;
+        int[] ruleIds = new int[rules];
+        for (int i = 0; i < rules; i++) {
+            ruleIds[i] = addDailyRule(daysAgo(RecurringExpenseDao.MAX_CATCH_UP - 1));
+        }
+        int due = rules * RecurringExpenseDao.MAX_CATCH_UP;
+
+        assertEquals(RecurringExpenseDao.MAX_PER_RUN, recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        assertEquals(due - RecurringExpenseDao.MAX_PER_RUN,
+                recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        assertEquals(0, recurringExpenseDao.addDueExpenses(MESS_ID, today).size());
+        for (int ruleId : ruleIds) {
+            assertEquals(RecurringExpenseDao.MAX_CATCH_UP, countExpenses(ruleId));
+            assertEquals(RecurringExpenseDao.MAX_CATCH_UP, nextOccurrence(ruleId));
+        }
+    }
+
+    @Test
+    public void memberCountIncludesMembersWhoJoinedBeforeTheDate() {
+        // Each joins on an occurrence's date, which is not before it
+        insertMember(1, daysAgo(1));
+        insertMember(2, today);
+        int ruleId = addDailyRule(daysAgo(2));
+
+        List<Expense> added = recurringExpenseDao.addDueExpenses(MESS_ID, today);
+        assertEquals(3, added.size());
+        assertEquals(1, added.get(0).getMemberCountAtTime());
+        assertEquals(1, added.get(1).getMemberCountAtTime());
+        assertEquals(2, added.get(2).getMemberCountAtTime());
+
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT memberCountAtTime FROM " +
+                        MessKhataDatabase.TABLE_EXPENSES + " WHERE recurringRuleId = ? ORDER BY expenseDate",
+                new String[]{String.valueOf(ruleId)});
+        for (Expense expense : added) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(expense.getMemberCountAtTime(), cursor.getInt(0));
+        }
+        cursor.close();
+    }
+
+    private int addDailyRule(long startDate) {
+        RecurringExpenseRule rule = new RecurringExpenseRule(MESS_ID, adminId, ExpenseCategory.UTILITY.getName(),
+                100, "Water", null, RecurringExpenseRule.CUSTOM, 1, startDate);
+        long ruleId = recurringExpenseDao.addRule(rule);
+        assertTrue(ruleId > 0);
+        return (int) ruleId;
+    }
+
+    private int insertMember(int index, long joinedDate) {
+        ContentValues user = new ContentValues();
+        user.put("fullName", "Member " + index);
+        user.put("email", "recurring" + index + "@" + MESS_ID);
+        user.put("phoneNumber", "recurring" + MESS_ID + index);
+        user.put("password", "x");
+        user.put("messId", MESS_ID);
+        user.put("joinedDate", joinedDate);
+        return (int) dbHelper.getWritableDatabase().insert(MessKhataDatabase.TABLE_USERS, null, user);
+    }
+
+    private int countExpenses(int ruleId) {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " +
+                MessKhataDatabase.TABLE_EXPENSES + " WHERE recurringRuleId = ?", new String[]{String.valueOf(ruleId)});
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+
+    private int nextOccurrence(int ruleId) {
+        for (RecurringExpenseRule rule : recurringExpenseDao.getActiveRules(MESS_ID)) {
+            if (rule.getRuleId() == ruleId) {
+                return rule.getNextOccurrence();
+            }
+        }
+        fail("rule " + ruleId + " is not active");
+        return -1;
+    }
+
+    /**
+     * Local midnight a number of days before today, in seconds
+     */
+    private long daysAgo(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(today * 1000);
+        calendar.add(Calendar.DAY_OF_MONTH, -days);
+        return calendar.getTimeInMillis() / 1000;
+    }
+}
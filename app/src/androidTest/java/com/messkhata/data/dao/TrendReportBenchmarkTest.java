@@ -0,0 +1,171 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.messkhata.data.cache.ReportCache;
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.TrendReport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the 12-month trend load with twelve single-month loads on a
+ * seeded mess, and checks that both give the same numbers.
+ * Timings are written to logcat under the TrendBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TrendReportBenchmarkTest {
+
+    private static final String TAG = "TrendBenchmark";
+    private static final int MESS_ID = 900001;
+    private static final int MEMBERS = 8;
+    private static final int MONTHS = 12;
+    private static final int RUNS = 5;
+
+    private MessKhataDatabase dbHelper;
+    private ReportDao reportDao;
+    private MealDao mealDao;
+    private int[] userIds = new int[MEMBERS];
+    private int endYear;
+    private int endMonth;
+
+    @Before
+    public void seed() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbHelper = MessKhataDatabase.getInstance(context);
+        reportDao = new ReportDao(context);
+        mealDao = new MealDao(context);
+        removeSeed();
+
+        Calendar calendar = Calendar.getInstance();
+        endYear = calendar.get(Calendar.YEAR);
+        endMonth = calendar.get(Calendar.MONTH) + 1;
+        calendar.add(Calendar.MONTH, -(MONTHS - 1));
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 12);
+        long firstDay = calendar.getTimeInMillis() / 1000;
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues mess = new ContentValues();
+            mess.put("messId", MESS_ID);
+            mess.put("messName", "Benchmark");
+            db.insert(MessKhataDatabase.TABLE_MESS, null, mess);
+
+            for (int i = 0; i < MEMBERS; i++) {
+                ContentValues user = new ContentValues();
+                user.put("fullName", "Member " + i);
+                user.put("email", "bench" + i + "@" + MESS_ID);
+                user.put("phoneNumber", "bench" + MESS_ID + i);
+                user.put("password", "x");
+                user.put("messId", MESS_ID);
+                user.put("joinedDate", firstDay - 86400);
+                userIds[i] = (int) db.insert(MessKhataDatabase.TABLE_USERS, null, user);
+            }
+
+            int days = (int) ((System.currentTimeMillis() / 1000 - firstDay) / 86400);
+            for (int day = 0; day <= days; day++) {
+                long date = firstDay + day * 86400L;
+                for (int i = 0; i < MEMBERS; i++) {
+                    ContentValues meal = new ContentValues();
+                    meal.put("userId", userIds[i]);
+                    meal.put("messId", MESS_ID);
+                    meal.put("mealDate", date);
+                    meal.put("breakfast", (day + i) % 2);
+                    meal.put("lunch", 1);
+                    meal.put("dinner", 1);
+                    db.insert(MessKhataDatabase.TABLE_MEALS, null, meal);
+                }
+                ContentValues expense = new ContentValues();
+                ExpenseCategory category = ExpenseCategory.fromCode(day % ExpenseCategory.COUNT);
+                expense.put("messId", MESS_ID);
+                expense.put("addedBy", userIds[0]);
+                expense.put("category", category.getName());
+                expense.put("categoryCode", category.getCode());
+                expense.put("amount", 100 + day % 37);
+                expense.put("title", "Expense " + day);
+                expense.put("expenseDate", date);
+                expense.put("memberCountAtTime", MEMBERS);
+                db.insert(MessKhataDatabase.TABLE_EXPENSES, null, expense);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void removeSeed() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] messArg = new String[]{String.valueOf(MESS_ID)};
+        db.delete(MessKhataDatabase.TABLE_MEALS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_EXPENSES, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_BILLS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MEMBER_LEDGER, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MONTHLY_STATS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_DAILY_HEADCOUNTS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_USERS, "messId = ?", messArg);
+        db.delete(MessKhataDatabase.TABLE_MESS, "messId = ?", messArg);
+    }
+
+    @Test
+    public void trendLoadMatchesMonthlyLoads() {
+        TrendReport trend = null;
+        long trendNanos = Long.MAX_VALUE;
+        long monthlyNanos = Long.MAX_VALUE;
+        double[][] spend = new double[MONTHS][];
+        int[][] meals = new int[MONTHS][MEMBERS];
+        int[] monthKeys = TrendReport.monthRange(endYear, endMonth, MONTHS);
+
+        // Best of several runs, so a cold cache does not decide the result.
+        // The seed bypasses the DAOs, and the report cache would otherwise
+        // answer every run after the first, so it is cleared each time.
+        for (int run = 0; run < RUNS; run++) {
+            ReportCache.getInstance().clear();
+            long start = SystemClock.elapsedRealtimeNanos();
+            trend = reportDao.getTrendReport(MESS_ID, endMonth, endYear, MONTHS);
+            trendNanos = Math.min(trendNanos, SystemClock.elapsedRealtimeNanos() - start);
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int m = 0; m < MONTHS; m++) {
+                int year = monthKeys[m] / 100;
+                int month = monthKeys[m] % 100;
+                spend[m] = reportDao.getExpenseBreakdown(MESS_ID, month, year);
+                for (int i = 0; i < MEMBERS; i++) {
+                    meals[m][i] = mealDao.getTotalMealsForMonth(userIds[i], month, year);
+                }
+            }
+            monthlyNanos = Math.min(monthlyNanos, SystemClock.elapsedRealtimeNanos() - start);
+        }
+
+        Log.i(TAG, String.format("12-month trend: %.2f ms, 12 single-month loads: %.2f ms",
+                trendNanos / 1e6, monthlyNanos / 1e6));
+
+        assertEquals(MONTHS, trend.getMonthCount());
+        assertEquals(MEMBERS, trend.getMemberCount());
+        for (int m = 0; m < MONTHS; m++) {
+            for (ExpenseCategory category : ExpenseCategory.values()) {
+                assertEquals(spend[m][category.getCode()], trend.getSpend(m, category), 0.001);
+            }
+            for (int i = 0; i < MEMBERS; i++) {
+                assertEquals(meals[m][i], trend.getMeals(m, trend.indexOfMember(userIds[i])));
+            }
+        }
+    }
+}
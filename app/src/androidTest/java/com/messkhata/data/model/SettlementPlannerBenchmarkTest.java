@@ -0,0 +1,78 @@
+package com.messkhata.data.model;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times planning a settlement for messes of 10 to 500 members, and then
+ * recording every planned transfer one by one, which re-plans after each.
+ * Timings are written to logcat under the SettlementBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SettlementPlannerBenchmarkTest {
+
+    private static final String TAG = "SettlementBenchmark";
+    private static final int[] MESS_SIZES = {10, 50, 100, 250, 500};
+    private static final int RUNS = 5;
+
+    /**
+     * Random balances in minor units that net to zero
+     */
+    private static SettlementPlanner randomMess(Random random, int members) {
+        SettlementPlanner planner = new SettlementPlanner();
+        long total = 0;
+        for (int id = 1; id < members; id++) {
+            long balance = random.nextInt(2_000_001) - 1_000_000;
+            planner.setBalance(id, balance);
+            total += balance;
+        }
+        planner.setBalance(members, -total);
+        return planner;
+    }
+
+    @Test
+    public void planAndSettleMessesOfEverySize() {
+        Random random = new Random(1);
+        for (int members : MESS_SIZES) {
+            long planNanos = Long.MAX_VALUE;
+            long settleNanos = Long.MAX_VALUE;
+            int transfers = 0;
+
+            // Best of several runs, each on a fresh mess
+            for (int run = 0; run < RUNS; run++) {
+                SettlementPlanner planner = randomMess(random, members);
+                long start = SystemClock.elapsedRealtimeNanos();
+                List<SettlementPlanner.Transfer> plan = new ArrayList<>(planner.getPlan());
+                planNanos = Math.min(planNanos, SystemClock.elapsedRealtimeNanos() - start);
+                transfers = plan.size();
+                assertTrue(transfers <= members - 1);
+
+                start = SystemClock.elapsedRealtimeNanos();
+                for (SettlementPlanner.Transfer transfer : plan) {
+                    planner.recordPayment(transfer.getFromUserId(), transfer.getToUserId(),
+                            transfer.getAmountMinor());
+                }
+                settleNanos = Math.min(settleNanos, SystemClock.elapsedRealtimeNanos() - start);
+
+                assertTrue(planner.getPlan().isEmpty());
+                for (long id = 1; id <= members; id++) {
+                    assertEquals(0, planner.getBalance(id));
+                }
+            }
+
+            Log.i(TAG, String.format("%d members: %d transfers, plan %.3f ms, record all %.3f ms",
+                    members, transfers, planNanos / 1e6, settleNanos / 1e6));
+        }
+    }
+}
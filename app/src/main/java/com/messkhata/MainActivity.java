@@ -36,6 +36,9 @@ import com.messkhata.utils.PreferenceManager;
  */
 public class MainActivity extends AppCompatActivity {
 
+    // Minimum age of the last full sync before resuming triggers another
+    private static final long FULL_SYNC_STALE_MS = 15 * 60 * 1000;
+
     private PreferenceManager prefManager;
     private BottomNavigationView bottomNav;
 
@@ -213,11 +216,16 @@ public class MainActivity extends AppCompatActivity {
                 int messId = Integer.parseInt(messIdStr);
                 if (messId > 0) {
                     // Start real-time listeners for automatic updates
+                    // (no-op if the foreground tracker already started them)
                     RealtimeSyncManager.getInstance(this).startListening(messId);
 
-                    // Also do an initial sync to ensure data is up to date
+                    // Listeners catch up on recent changes; only run a full
+                    // sync if the periodic one hasn't run for a while
                     SyncManager syncManager = SyncManager.getInstance(this);
-                    syncManager.performFullSync(messId);
+                    long sinceLastSync = System.currentTimeMillis() - syncManager.getLastSyncTimestamp();
+                    if (sinceLastSync > FULL_SYNC_STALE_MS) {
+                        syncManager.performFullSync(messId);
+                    }
                 }
             } catch (NumberFormatException e) {
                 // Ignore
@@ -225,18 +233,14 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        // Stop real-time listeners when app goes to background
-        RealtimeSyncManager.getInstance(this).stopListening();
-    }
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Ensure listeners are stopped
-        RealtimeSyncManager.getInstance(this).stopListening();
+        // Listeners follow app foreground state; stop them here only when
+        // leaving the main screen for good (e.g. logout)
+        if (isFinishing()) {
+            RealtimeSyncManager.getInstance(this).stopListening();
+        }
         // Unregister network callback
         NetworkChangeReceiver.unregisterNetworkCallback(this);
     }
@@ -12,7 +12,12 @@ import androidx.work.WorkManager;
 import com.google.firebase.FirebaseApp;
 import com.messkhata.data.database.MessKhataDatabase;
 import com.messkhata.data.sync.FirebaseRepository;
+import com.messkhata.data.sync.RealtimeSyncManager;
 import com.messkhata.data.sync.SyncWorker;
+import com.messkhata.service.MealAutoChargeWorker;
+import com.messkhata.service.ConsistencyCheckWorker;
+import com.messkhata.service.RecurringExpenseWorker;
+import com.messkhata.utils.AppForegroundTracker;
 import com.messkhata.utils.Constants;
 import com.messkhata.utils.PreferenceManager;
 
@@ -38,6 +43,19 @@ public class MessKhataApplication extends Application implements Configuration.P
         // Schedule periodic sync
         scheduleSyncWork();
 
+        // Keep realtime listeners attached only while the app is visible
+        registerActivityLifecycleCallbacks(new AppForegroundTracker(new AppForegroundTracker.Listener() {
+            @Override
+            public void onAppForeground() {
+                RealtimeSyncManager.getInstance(MessKhataApplication.this).onAppForeground();
+            }
+
+            @Override
+            public void onAppBackground() {
+                RealtimeSyncManager.getInstance(MessKhataApplication.this).onAppBackground();
+            }
+        }));
+
         Log.d(TAG, "MessKhata Application initialized");
     }
 
@@ -67,6 +85,9 @@ public class MessKhataApplication extends Application implements Configuration.P
     private void scheduleSyncWork() {
         try {
             SyncWorker.schedulePeriodicSync(this);
+            MealAutoChargeWorker.scheduleDailyCharge(this);
+            ConsistencyCheckWorker.scheduleDailyCheck(this);
+            RecurringExpenseWorker.scheduleDaily(this);
             Log.d(TAG, "Sync work scheduled");
         } catch (Exception e) {
             Log.e(TAG, "Failed to schedule sync work", e);
@@ -0,0 +1,112 @@
+package com.messkhata.data.cache;
+
+import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write versions of the local tables, bumped by the DAOs on every mutation
+ *
+ * Each table has counters at three scopes: one month of one mess, all
+ * months of one mess, and the whole table. Cached results are stamped with
+ * the counters they depend on (see ReportCache), so a write to one month
+ * only invalidates results for that month. messId 0 stands for "any mess",
+ * for readers that do not filter by mess.
+ */
+public class DataVersions {
+
+    /** Month key for stamps that cover every month of a mess */
+    public static final int ALL_MONTHS = 0;
+
+    private static DataVersions instance;
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    DataVersions() {
+    }
+
+    public static synchronized DataVersions getInstance() {
+        if (instance == null) {
+            instance = new DataVersions();
+        }
+        return instance;
+    }
+
+    /**
+     * Local year * 100 + month of a date in seconds, matching
+     * SchemaSql.monthKeySql
+     */
+    public static int monthKey(long dateSeconds) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(dateSeconds * 1000);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * Record a write to the rows of one month
+     * @param date Date of the written row (seconds)
+     */
+    public void bumpMonth(String table, int messId, long date) {
+        int key = monthKey(date);
+        for (int mess : scopes(messId)) {
+            increment(table + "|" + mess + "|" + key);
+            increment(table + "|" + mess + "|any");
+        }
+    }
+
+    /**
+     * Record a write that can affect every month of a mess, e.g. a rate change
+     */
+    public void bumpMess(String table, int messId) {
+        for (int mess : scopes(messId)) {
+            increment(table + "|" + mess + "|wide");
+            increment(table + "|" + mess + "|any");
+        }
+    }
+
+    /**
+     * Record a write whose mess is not known; invalidates everything that
+     * depends on the table
+     */
+    public void bumpTable(String table) {
+        increment(table);
+    }
+
+    /**
+     * Current versions of the given tables as seen by a reader of one month
+     * @param monthKey year * 100 + month, or ALL_MONTHS
+     */
+    public long[] stamp(int messId, int monthKey, String... tables) {
+        long[] stamp = new long[tables.length * 3];
+        for (int i = 0; i < tables.length; i++) {
+            String prefix = tables[i] + "|" + messId + "|";
+            stamp[i * 3] = get(tables[i]);
+            if (monthKey == ALL_MONTHS) {
+                stamp[i * 3 + 1] = get(prefix + "any");
+            } else {
+                stamp[i * 3 + 1] = get(prefix + "wide");
+                stamp[i * 3 + 2] = get(prefix + monthKey);
+            }
+        }
+        return stamp;
+    }
+
+    private static int[] scopes(int messId) {
+        return messId == 0 ? new int[]{0} : new int[]{messId, 0};
+    }
+
+    private void increment(String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            counters.putIfAbsent(key, new AtomicLong());
+            counter = counters.get(key);
+        }
+        counter.incrementAndGet();
+    }
+
+    private long get(String key) {
+        AtomicLong counter = counters.get(key);
+        return counter != null ? counter.get() : 0;
+    }
+}
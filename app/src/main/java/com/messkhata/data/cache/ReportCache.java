@@ -0,0 +1,108 @@
+package com.messkhata.data.cache;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of report query results keyed by (messId, month, kind)
+ *
+ * Each entry keeps the DataVersions stamp taken before it was loaded; it is
+ * served only while the stamp is unchanged. A write that lands during the
+ * load therefore leaves the entry stale rather than hiding the write.
+ */
+public class ReportCache {
+
+    // Enough for a year of months across the cached query kinds
+    private static final int MAX_ENTRIES = 128;
+
+    /**
+     * Loads a result on a cache miss
+     */
+    public interface Loader<T> {
+        T load();
+    }
+
+    private static ReportCache instance;
+
+    private final DataVersions versions;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private int hits;
+    private int misses;
+
+    private static class Entry {
+        final long[] stamp;
+        final Object value;
+
+        Entry(long[] stamp, Object value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    public static synchronized ReportCache getInstance() {
+        if (instance == null) {
+            instance = new ReportCache(DataVersions.getInstance());
+        }
+        return instance;
+    }
+
+    ReportCache(DataVersions versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * Return the cached result if none of the tables it was read from has
+     * changed for that month, otherwise load and cache it
+     *
+     * @param kind     Query kind, including any extra arguments (e.g. "meals:" + userId)
+     * @param monthKey year * 100 + month, or DataVersions.ALL_MONTHS
+     * @param tables   Tables the query reads
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String kind, int messId, int monthKey, Loader<T> loader, String... tables) {
+        String key = kind + "|" + messId + "|" + monthKey;
+        long[] stamp = versions.stamp(messId, monthKey, tables);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && Arrays.equals(entry.stamp, stamp)) {
+                hits++;
+                return (T) entry.value;
+            }
+            misses++;
+        }
+
+        T value = loader.load();
+        synchronized (entries) {
+            entries.put(key, new Entry(stamp, value));
+        }
+        return value;
+    }
+
+    /**
+     * Drop every entry, e.g. when the local database is cleared
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+import com.messkhata.data.model.MemberLedger;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Data Access Object for monthly balance checkpoints
+ *
+ * A checkpoint holds a member's ledger totals as of the end of a closed
+ * month. An as-of balance is the latest checkpoint before the date plus
+ * the meals, expenses and payments after it, so the rows scanned depend on
+ * how long ago the last month was checkpointed, not on the age of the mess.
+ * Back-dated writes delete the checkpoints they affect (see
+ * MessKhataDatabase), and those months fall back to an older checkpoint
+ * until they are checkpointed again.
+ */
+public class BalanceCheckpointDao {
+
+    private MessKhataDatabase dbHelper;
+
+    public BalanceCheckpointDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+    }
+
+    /**
+     * Get a member's ledger totals as they stood at a given time
+     * @param asOfDate Seconds; rows dated up to and including it are counted
+     * @return Totals as of the date, all zero if nothing was recorded by then
+     */
+    public MemberLedger getBalanceAsOf(int userId, int messId, long asOfDate) {
+        return getBalanceAsOf(dbHelper.getReadableDatabase(), userId, messId, asOfDate);
+    }
+
+    /**
+     * Write the checkpoints of every current member for the end of a month
+     * Called when a month closes; writing one again just refreshes it.
+     * @param month 1-12
+     * @return Number of checkpoints written, -1 if failed
+     */
+    public int checkpointMonth(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long monthEnd = monthStart(year, month, 1) - 1;
+        int monthKey = year * 100 + month;
+
+        db.beginTransaction();
+        try {
+            List<Integer> members = new ArrayList<>();
+            Cursor cursor = db.rawQuery("SELECT userId FROM " + MessKhataDatabase.TABLE_USERS +
+                    " WHERE messId = ?", new String[]{String.valueOf(messId)});
+            while (cursor.moveToNext()) {
+                members.add(cursor.getInt(0));
+            }
+            cursor.close();
+
+            for (int userId : members) {
+                MemberLedger ledger = getBalanceAsOf(db, userId, messId, monthEnd);
+                ContentValues values = new ContentValues();
+                values.put("messId", messId);
+                values.put("monthKey", monthKey);
+                values.put("userId", userId);
+                values.put("mealCount", ledger.getMealCount());
+                values.put("mealCharges", ledger.getMealCharges());
+                values.put("sharedCharges", ledger.getSharedCharges());
+                values.put("totalPaid", ledger.getTotalPaid());
+                values.put("createdAt", System.currentTimeMillis() / 1000);
+                db.insertWithOnConflict(MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+            return members.size();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Check if every current member has a checkpoint for a month, i.e. it
+     * was checkpointed and no back-dated write has removed one since
+     * @param month 1-12
+     */
+    public boolean isMonthCheckpointed(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + MessKhataDatabase.TABLE_USERS + " u " +
+                "WHERE u.messId = ? AND NOT EXISTS (SELECT 1 FROM " + MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS +
+                " c WHERE c.messId = u.messId AND c.monthKey = ? AND c.userId = u.userId)",
+                new String[]{String.valueOf(messId), String.valueOf(year * 100 + month)});
+        boolean complete = cursor.moveToFirst() && cursor.getInt(0) == 0;
+        cursor.close();
+        return complete;
+    }
+
+    /**
+     * Checkpoint every month up to a given one that is missing a member's
+     * checkpoint, oldest first, so each builds on the one before it
+     * A back-dated write removes the checkpoints of its month and every
+     * later one, so refreshing only the last month would leave the rest to
+     * be summed from the write on in every as-of balance.
+     * @param month 1-12, the last month to checkpoint
+     * @return Number of months checkpointed, -1 if failed
+     */
+    public int checkpointMissingMonths(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String mess = String.valueOf(messId);
+        int lastMonthKey = year * 100 + month;
+
+        // Nothing can be missing before the mess's first meal, expense or payment
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, 1);
+        Cursor cursor = db.rawQuery("SELECT MIN(firstDate) FROM (" +
+                "SELECT MIN(mealDate) AS firstDate FROM " + MessKhataDatabase.TABLE_MEALS + " WHERE messId = ? " +
+                "UNION ALL SELECT MIN(expenseDate) FROM " + MessKhataDatabase.TABLE_EXPENSES + " WHERE messId = ? " +
+                "UNION ALL SELECT MIN(paidDate) FROM " + MessKhataDatabase.TABLE_PAYMENTS + " WHERE messId = ?)",
+                new String[]{mess, mess, mess});
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            Calendar first = Calendar.getInstance();
+            first.setTimeInMillis(cursor.getLong(0) * 1000);
+            if (first.before(calendar)) {
+                calendar.set(first.get(Calendar.YEAR), first.get(Calendar.MONTH), 1);
+            }
+        }
+        cursor.close();
+        int firstMonthKey = calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+
+        // Months in range where every current member still has a checkpoint
+        Set<Integer> complete = new HashSet<>();
+        cursor = db.rawQuery("SELECT c.monthKey FROM " + MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS + " c " +
+                "JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = c.userId AND u.messId = c.messId " +
+                "WHERE c.messId = ? AND c.monthKey BETWEEN ? AND ? GROUP BY c.monthKey " +
+                "HAVING COUNT(*) = (SELECT COUNT(*) FROM " + MessKhataDatabase.TABLE_USERS + " WHERE messId = ?)",
+                new String[]{mess, String.valueOf(firstMonthKey), String.valueOf(lastMonthKey), mess});
+        while (cursor.moveToNext()) {
+            complete.add(cursor.getInt(0));
+        }
+        cursor.close();
+
+        int checkpointed = 0;
+        for (int monthKey = firstMonthKey; monthKey <= lastMonthKey;
+                calendar.add(Calendar.MONTH, 1),
+                monthKey = calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1) {
+            if (complete.contains(monthKey)) {
+                continue;
+            }
+            if (checkpointMonth(messId, monthKey % 100, monthKey / 100) < 0) {
+                return -1;
+            }
+            checkpointed++;
+        }
+        return checkpointed;
+    }
+
+    private static MemberLedger getBalanceAsOf(SQLiteDatabase db, int userId, int messId, long asOfDate) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(asOfDate * 1000);
+        int asOfMonthKey = calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+
+        // Latest checkpoint of a month that ended before the date
+        MemberLedger ledger = new MemberLedger(userId, messId);
+        long fromDate = Long.MIN_VALUE;
+        Cursor cursor = db.rawQuery("SELECT * FROM " + MessKhataDatabase.TABLE_BALANCE_CHECKPOINTS +
+                        " WHERE messId = ? AND userId = ? AND monthKey < ? ORDER BY monthKey DESC LIMIT 1",
+                new String[]{String.valueOf(messId), String.valueOf(userId), String.valueOf(asOfMonthKey)});
+        if (cursor.moveToFirst()) {
+            ledger = LedgerDao.fromCursor(cursor);
+            int monthKey = cursor.getInt(cursor.getColumnIndexOrThrow("monthKey"));
+            fromDate = monthStart(monthKey / 100, monthKey % 100, 1);
+        }
+        cursor.close();
+
+        // Plus everything dated after it, counted as MemberLedger counts it
+        String[] memberArgs = new String[]{String.valueOf(userId), String.valueOf(messId),
+                String.valueOf(fromDate), String.valueOf(asOfDate)};
+        String meals = "(m.breakfast + m.lunch + m.dinner)";
+        cursor = db.rawQuery("SELECT COALESCE(SUM(" + meals + "), 0), " +
+                "COALESCE(SUM(" + meals + " * " + SchemaSql.effectiveRateSql("m") + "), 0) FROM " +
+                MessKhataDatabase.TABLE_MEALS + " m " +
+                "WHERE m.userId = ? AND m.messId = ? AND m.mealDate >= ? AND m.mealDate <= ?", memberArgs);
+        if (cursor.moveToFirst()) {
+            ledger.setMealCount(ledger.getMealCount() + cursor.getInt(0));
+            ledger.setMealCharges(ledger.getMealCharges() + cursor.getDouble(1));
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT COALESCE(SUM(" + SchemaSql.expenseShareSql("e") + "), 0) FROM " +
+                MessKhataDatabase.TABLE_USERS + " u JOIN " + MessKhataDatabase.TABLE_EXPENSES + " e " +
+                "ON e.messId = ? AND e.expenseDate > u.joinedDate " +
+                "WHERE u.userId = ? AND e.expenseDate >= ? AND e.expenseDate <= ?",
+                new String[]{String.valueOf(messId), String.valueOf(userId),
+                        String.valueOf(fromDate), String.valueOf(asOfDate)});
+        if (cursor.moveToFirst()) {
+            ledger.setSharedCharges(ledger.getSharedCharges() + cursor.getDouble(0));
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT COALESCE(SUM(amount), 0) FROM " + MessKhataDatabase.TABLE_PAYMENTS +
+                " WHERE userId = ? AND messId = ? AND paidDate >= ? AND paidDate <= ?", memberArgs);
+        if (cursor.moveToFirst()) {
+            ledger.setTotalPaid(ledger.getTotalPaid() + cursor.getDouble(0));
+        }
+        cursor.close();
+        return ledger;
+    }
+
+    /**
+     * Local midnight (seconds) starting the month offset months after the given one
+     * @param month 1-12
+     */
+    private static long monthStart(int year, int month, int offset) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, 1);
+        calendar.add(Calendar.MONTH, offset);
+        return calendar.getTimeInMillis() / 1000;
+    }
+}
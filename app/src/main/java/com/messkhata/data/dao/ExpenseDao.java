@@ -5,12 +5,18 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.cache.ReportCache;
 import com.messkhata.data.database.MessKhataDatabase;
 import com.messkhata.data.model.Expense;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.ExpenseFilter;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Data Access Object for Expense operations
@@ -18,9 +24,15 @@ import java.util.List;
 public class ExpenseDao {
 
     private MessKhataDatabase dbHelper;
+    private IdMappingDao idMappingDao;
+    private DataVersions versions;
+    private ReportCache reportCache;
 
     public ExpenseDao(Context context) {
         this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.idMappingDao = new IdMappingDao(context);
+        this.versions = DataVersions.getInstance();
+        this.reportCache = ReportCache.getInstance();
     }
 
     /**
@@ -40,7 +52,7 @@ public class ExpenseDao {
             ContentValues values = new ContentValues();
             values.put("messId", messId);
             values.put("addedBy", addedBy);
-            values.put("category", category);
+            putCategory(values, category);
             values.put("amount", amount);
             values.put("title", title);
             values.put("description", description);
@@ -49,7 +61,11 @@ public class ExpenseDao {
             values.put("createdAt", System.currentTimeMillis() / 1000);
             values.put("updatedAt", System.currentTimeMillis() / 1000);
 
-            return db.insert(MessKhataDatabase.TABLE_EXPENSES, null, values);
+            long expenseId = db.insert(MessKhataDatabase.TABLE_EXPENSES, null, values);
+            if (expenseId != -1) {
+                versions.bumpMonth(MessKhataDatabase.TABLE_EXPENSES, messId, expenseDate / 1000);
+            }
+            return expenseId;
         } catch (Exception e) {
             e.printStackTrace();
             return -1;
@@ -58,10 +74,18 @@ public class ExpenseDao {
 
     /**
      * Get all expenses for a mess in a specific month
+     * Served from the report cache while the month is unchanged.
      * 
      * @return List of Expense objects with addedByName populated
      */
     public List<Expense> getExpensesByMonth(int messId, int month, int year) {
+        List<Expense> expenses = reportCache.get("expenses", messId, year * 100 + month,
+                () -> loadExpensesByMonth(messId, month, year),
+                MessKhataDatabase.TABLE_EXPENSES, MessKhataDatabase.TABLE_USERS);
+        return new ArrayList<>(expenses);
+    }
+
+    private List<Expense> loadExpensesByMonth(int messId, int month, int year) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
         List<Expense> expenses = new ArrayList<>();
 
@@ -105,9 +129,208 @@ public class ExpenseDao {
         return expenses;
     }
 
+    /**
+     * Get one page of a month's expenses, newest first
+     *
+     * @param beforeDate expenseDate of the last row of the previous page, in
+     *                   seconds; Long.MAX_VALUE for the first page
+     * @param beforeId   expenseId of that row; ignored for the first page
+     * @return Up to limit expenses with addedByName populated
+     */
+    public List<Expense> getExpensePage(int messId, int month, int year,
+            long beforeDate, int beforeId, int limit) {
+        // Calculate start and end timestamps for the month
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(year, month - 1, 1, 0, 0, 0);
+        ExpenseFilter filter = new ExpenseFilter();
+        filter.setFromDate(calendar.getTimeInMillis() / 1000);
+
+        calendar.add(Calendar.MONTH, 1);
+        filter.setToDate(calendar.getTimeInMillis() / 1000);
+
+        return searchExpenses(messId, filter, beforeDate, beforeId, limit);
+    }
+
+    /**
+     * Get one page of the expenses matching a filter, newest first
+     * Pages are keyed on (expenseDate, expenseId) rather than an offset, so
+     * each page is a seek however far the list is scrolled, and rows added
+     * meanwhile never shift a page. Text is looked up in the ExpenseSearch
+     * full-text index, never scanned with LIKE.
+     *
+     * @param beforeDate expenseDate of the last row of the previous page, in
+     *                   seconds; Long.MAX_VALUE for the first page
+     * @param beforeId   expenseId of that row; ignored for the first page
+     * @return Up to limit expenses with addedByName populated
+     */
+    public List<Expense> searchExpenses(int messId, ExpenseFilter filter,
+            long beforeDate, int beforeId, int limit) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        List<Expense> expenses = new ArrayList<>();
+
+        if (filter.getToDate() > 0 && beforeDate >= filter.getToDate()) {
+            beforeDate = filter.getToDate();
+            beforeId = 0; // every matching row lies before the end of the range
+        }
+
+        List<String> args = new ArrayList<>();
+        String query = "SELECT expenseId, messId, addedBy, category, amount, title, description, " +
+                "expenseDate, memberCountAtTime, createdAt FROM " + MessKhataDatabase.TABLE_EXPENSES +
+                " WHERE " + filterSql(messId, filter, args) +
+                " AND expenseDate <= ? AND (expenseDate < ? OR expenseId < ?) " +
+                "ORDER BY expenseDate DESC, expenseId DESC LIMIT " + limit;
+        args.add(String.valueOf(beforeDate));
+        args.add(String.valueOf(beforeDate));
+        args.add(String.valueOf(beforeId));
+
+        Cursor cursor = db.rawQuery(query, args.toArray(new String[0]));
+
+        Map<Integer, String> names = getUserNames();
+        while (cursor.moveToNext()) {
+            Expense expense = new Expense(
+                    cursor.getInt(0),
+                    cursor.getInt(1),
+                    cursor.getInt(2),
+                    cursor.getString(3),
+                    cursor.getDouble(4),
+                    cursor.getString(5),
+                    cursor.getString(6),
+                    cursor.getLong(7),
+                    cursor.getInt(8),
+                    cursor.getLong(9));
+            expense.setAddedByName(names.get(expense.getAddedBy()));
+            expenses.add(expense);
+        }
+        cursor.close();
+        return expenses;
+    }
+
+    /**
+     * Get the number and total amount of the expenses matching a filter
+     *
+     * @return {count, total}
+     */
+    public double[] getSearchCountAndTotal(int messId, ExpenseFilter filter) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        List<String> args = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT COUNT(*), TOTAL(amount) FROM " +
+                        MessKhataDatabase.TABLE_EXPENSES + " WHERE " + filterSql(messId, filter, args),
+                args.toArray(new String[0]));
+
+        double[] summary = new double[2];
+        if (cursor.moveToFirst()) {
+            summary[0] = cursor.getInt(0);
+            summary[1] = cursor.getDouble(1);
+        }
+        cursor.close();
+        return summary;
+    }
+
+    /**
+     * WHERE clause for a filter over Expenses; date, category and addedBy
+     * are served by idx_expenses_mess_date, idx_expenses_mess_category and
+     * idx_expenses_mess_added
+     */
+    private static String filterSql(int messId, ExpenseFilter filter, List<String> args) {
+        StringBuilder where = new StringBuilder("messId = ?");
+        args.add(String.valueOf(messId));
+
+        String match = filter.getMatchQuery();
+        if (match != null) {
+            where.append(" AND expenseId IN (SELECT docid FROM ").append(MessKhataDatabase.TABLE_EXPENSE_SEARCH)
+                    .append(" WHERE ").append(MessKhataDatabase.TABLE_EXPENSE_SEARCH).append(" MATCH ?)");
+            args.add(match);
+        }
+        if (filter.getAddedBy() != ExpenseFilter.ANY) {
+            where.append(" AND addedBy = ?");
+            args.add(String.valueOf(filter.getAddedBy()));
+        }
+        if (filter.getFromDate() > 0) {
+            where.append(" AND expenseDate >= ?");
+            args.add(String.valueOf(filter.getFromDate()));
+        }
+        if (filter.getToDate() > 0) {
+            where.append(" AND expenseDate < ?");
+            args.add(String.valueOf(filter.getToDate()));
+        }
+        if (filter.getCategoryCode() != ExpenseFilter.ANY) {
+            where.append(" AND categoryCode = ?");
+            args.add(String.valueOf(filter.getCategoryCode()));
+        }
+        if (filter.getMinAmount() > 0) {
+            where.append(" AND amount >= ?");
+            args.add(String.valueOf(filter.getMinAmount()));
+        }
+        if (filter.getMaxAmount() > 0) {
+            where.append(" AND amount <= ?");
+            args.add(String.valueOf(filter.getMaxAmount()));
+        }
+        return where.toString();
+    }
+
+    /**
+     * Get the number and total amount of a month's expenses with one query
+     * Served from the report cache while the month is unchanged.
+     *
+     * @return {count, total}
+     */
+    public double[] getMonthCountAndTotal(int messId, int month, int year) {
+        double[] summary = reportCache.get("expenseSummary", messId, year * 100 + month,
+                () -> loadMonthCountAndTotal(messId, month, year),
+                MessKhataDatabase.TABLE_EXPENSES);
+        return summary.clone();
+    }
+
+    private double[] loadMonthCountAndTotal(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        // Calculate start and end timestamps for the month
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(year, month - 1, 1, 0, 0, 0);
+        long startDate = calendar.getTimeInMillis() / 1000;
+
+        calendar.add(Calendar.MONTH, 1);
+        long endDate = calendar.getTimeInMillis() / 1000;
+
+        Cursor cursor = db.rawQuery("SELECT COUNT(*), TOTAL(amount) FROM " +
+                        MessKhataDatabase.TABLE_EXPENSES +
+                        " WHERE messId = ? AND expenseDate >= ? AND expenseDate < ?",
+                new String[] {
+                        String.valueOf(messId),
+                        String.valueOf(startDate),
+                        String.valueOf(endDate)
+                });
+
+        double[] summary = new double[2];
+        if (cursor.moveToFirst()) {
+            summary[0] = cursor.getInt(0);
+            summary[1] = cursor.getDouble(1);
+        }
+        cursor.close();
+        return summary;
+    }
+
+    /**
+     * Names of all local users by userId, looked up in memory for each
+     * listed expense instead of joining Users per row
+     */
+    private Map<Integer, String> getUserNames() {
+        return reportCache.get("userNames", 0, DataVersions.ALL_MONTHS, () -> {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            Map<Integer, String> names = new HashMap<>();
+            Cursor cursor = db.rawQuery("SELECT userId, fullName FROM " + MessKhataDatabase.TABLE_USERS, null);
+            while (cursor.moveToNext()) {
+                names.put(cursor.getInt(0), cursor.getString(1));
+            }
+            cursor.close();
+            return names;
+        }, MessKhataDatabase.TABLE_USERS);
+    }
+
     /**
      * Get expenses filtered by category for a specific month
      * 
+     * @param category Category name; legacy names match their canonical category
      * @return List of Expense objects
      */
     public List<Expense> getExpensesByCategory(int messId, String category,
@@ -127,13 +350,13 @@ public class ExpenseDao {
                 "FROM " + MessKhataDatabase.TABLE_EXPENSES + " e " +
                 "LEFT JOIN " + MessKhataDatabase.TABLE_USERS + " u " +
                 "ON e.addedBy = u.userId " +
-                "WHERE e.messId = ? AND e.category = ? " +
+                "WHERE e.messId = ? AND e.categoryCode = ? " +
                 "AND e.expenseDate >= ? AND e.expenseDate < ? " +
                 "ORDER BY e.expenseDate DESC";
 
         Cursor cursor = db.rawQuery(query, new String[] {
                 String.valueOf(messId),
-                category,
+                String.valueOf(ExpenseCategory.fromName(category).getCode()),
                 String.valueOf(startDate),
                 String.valueOf(endDate)
         });
@@ -158,12 +381,19 @@ public class ExpenseDao {
     }
 
     /**
-     * Get total expense amount by category for a specific month
+     * Get the total of every category for a specific month with one grouped query
+     * Served from the report cache while the month is unchanged.
      * 
-     * @return Total amount
+     * @return Totals indexed by ExpenseCategory code
      */
-    public double getTotalExpenseByCategory(int messId, String category,
-            int month, int year) {
+    public double[] getCategoryTotals(int messId, int month, int year) {
+        double[] totals = reportCache.get("categoryTotals", messId, year * 100 + month,
+                () -> loadCategoryTotals(messId, month, year),
+                MessKhataDatabase.TABLE_EXPENSES);
+        return totals.clone();
+    }
+
+    private double[] loadCategoryTotals(int messId, int month, int year) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
 
         // Calculate start and end timestamps for the month
@@ -174,24 +404,23 @@ public class ExpenseDao {
         calendar.add(Calendar.MONTH, 1);
         long endDate = calendar.getTimeInMillis() / 1000;
 
-        String query = "SELECT SUM(amount) as total FROM " +
+        String query = "SELECT categoryCode, SUM(amount) FROM " +
                 MessKhataDatabase.TABLE_EXPENSES +
-                " WHERE messId = ? AND category = ? " +
-                "AND expenseDate >= ? AND expenseDate < ?";
+                " WHERE messId = ? AND expenseDate >= ? AND expenseDate < ? " +
+                "GROUP BY categoryCode";
 
         Cursor cursor = db.rawQuery(query, new String[] {
                 String.valueOf(messId),
-                category,
                 String.valueOf(startDate),
                 String.valueOf(endDate)
         });
 
-        double total = 0.0;
-        if (cursor.moveToFirst() && !cursor.isNull(0)) {
-            total = cursor.getDouble(0);
+        double[] totals = new double[ExpenseCategory.COUNT];
+        while (cursor.moveToNext()) {
+            totals[ExpenseCategory.fromCode(cursor.getInt(0)).getCode()] += cursor.getDouble(1);
         }
         cursor.close();
-        return total;
+        return totals;
     }
 
     /**
@@ -211,6 +440,9 @@ public class ExpenseDao {
                 values,
                 "expenseId = ?",
                 new String[] { String.valueOf(expenseId) });
+        if (rows > 0) {
+            bumpExpenseMonth(findExpenseMonth(db, expenseId));
+        }
         return rows > 0;
     }
 
@@ -222,9 +454,11 @@ public class ExpenseDao {
     public boolean deleteExpense(int expenseId) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
 
+        long[] month = findExpenseMonth(db, expenseId);
         int rows = db.delete(MessKhataDatabase.TABLE_EXPENSES,
                 "expenseId = ?",
                 new String[] { String.valueOf(expenseId) });
+        bumpExpenseMonth(month);
         return rows > 0;
     }
 
@@ -414,9 +648,67 @@ public class ExpenseDao {
     public boolean addOrUpdateExpense(int expenseId, int messId, int addedBy, String category,
             double amount, String title, String description,
             long expenseDate, int memberCountAtTime, long createdAt) {
+        return upsertExpense(-1, messId, addedBy, category, amount, title, description,
+                expenseDate, memberCountAtTime, createdAt) != -1;
+    }
+
+    /**
+     * Add or update an expense downloaded from Firebase
+     * The row is found through the ID mapping when one exists; otherwise it
+     * falls back to matching on content and records the mapping.
+     *
+     * @return true if successful
+     */
+    public boolean addOrUpdateExpense(String firebaseId, int messId, int addedBy, String category,
+            double amount, String title, String description,
+            long expenseDate, int memberCountAtTime, long createdAt) {
+        long mappedId = idMappingDao.getLocalId(IdMappingDao.ENTITY_EXPENSE, firebaseId);
+
+        long localId = upsertExpense(mappedId, messId, addedBy, category, amount, title,
+                description, expenseDate, memberCountAtTime, createdAt);
+        if (localId == -1) {
+            return false;
+        }
+        if (localId != mappedId) {
+            idMappingDao.saveMapping(IdMappingDao.ENTITY_EXPENSE, localId, firebaseId);
+        }
+        return true;
+    }
+
+    /**
+     * Update the given row (if it still exists) or the expense with the same
+     * content, inserting a new row if neither is found
+     *
+     * @return local expenseId, or -1 on failure
+     */
+    private long upsertExpense(long knownId, int messId, int addedBy, String category,
+            double amount, String title, String description,
+            long expenseDate, int memberCountAtTime, long createdAt) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
 
         try {
+            ContentValues values = new ContentValues();
+            values.put("messId", messId);
+            values.put("addedBy", addedBy);
+            putCategory(values, category);
+            values.put("amount", amount);
+            values.put("title", title);
+            values.put("description", description);
+            values.put("expenseDate", expenseDate);
+            values.put("memberCountAtTime", memberCountAtTime);
+            values.put("updatedAt", System.currentTimeMillis() / 1000);
+
+            if (knownId != -1) {
+                long[] oldMonth = findExpenseMonth(db, knownId);
+                int rows = db.update(MessKhataDatabase.TABLE_EXPENSES, values,
+                        "expenseId = ?", new String[] { String.valueOf(knownId) });
+                if (rows > 0) {
+                    bumpExpenseMonth(oldMonth); // the month it may have moved out of
+                    versions.bumpMonth(MessKhataDatabase.TABLE_EXPENSES, messId, expenseDate);
+                    return knownId;
+                }
+            }
+
             // Check if expense already exists by checking for same messId, addedBy,
             // expenseDate, and amount
             // (since expenseId might differ between devices)
@@ -430,35 +722,55 @@ public class ExpenseDao {
                     title
             });
 
-            ContentValues values = new ContentValues();
-            values.put("messId", messId);
-            values.put("addedBy", addedBy);
-            values.put("category", category);
-            values.put("amount", amount);
-            values.put("title", title);
-            values.put("description", description);
-            values.put("expenseDate", expenseDate);
-            values.put("memberCountAtTime", memberCountAtTime);
-            values.put("updatedAt", System.currentTimeMillis() / 1000);
-
-            boolean success;
+            long localId;
             if (cursor.moveToFirst()) {
                 // Update existing expense
-                int existingId = cursor.getInt(0);
+                long existingId = cursor.getLong(0);
                 int rows = db.update(MessKhataDatabase.TABLE_EXPENSES, values,
                         "expenseId = ?", new String[] { String.valueOf(existingId) });
-                success = rows > 0;
+                localId = rows > 0 ? existingId : -1;
             } else {
                 // Insert new expense
                 values.put("createdAt", createdAt > 0 ? createdAt : System.currentTimeMillis() / 1000);
-                long result = db.insert(MessKhataDatabase.TABLE_EXPENSES, null, values);
-                success = result != -1;
+                localId = db.insert(MessKhataDatabase.TABLE_EXPENSES, null, values);
             }
             cursor.close();
-            return success;
+            if (localId != -1) {
+                versions.bumpMonth(MessKhataDatabase.TABLE_EXPENSES, messId, expenseDate);
+            }
+            return localId;
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
+            return -1;
         }
     }
+
+    /**
+     * Find the mess and date an expense is filed under
+     * @return {messId, expenseDate}, or null if the row does not exist
+     */
+    private long[] findExpenseMonth(SQLiteDatabase db, long expenseId) {
+        Cursor cursor = db.rawQuery("SELECT messId, expenseDate FROM " + MessKhataDatabase.TABLE_EXPENSES +
+                " WHERE expenseId = ?", new String[] { String.valueOf(expenseId) });
+        long[] month = cursor.moveToFirst() ? new long[] { cursor.getLong(0), cursor.getLong(1) } : null;
+        cursor.close();
+        return month;
+    }
+
+    // Called after the write, so readers that stamped before it reload
+    private void bumpExpenseMonth(long[] month) {
+        if (month != null) {
+            versions.bumpMonth(MessKhataDatabase.TABLE_EXPENSES, (int) month[0], month[1]);
+        }
+    }
+
+    /**
+     * Store the canonical name and code of a category, so legacy free-text
+     * names ("utilities", "cleaning", ...) are normalized on every write
+     */
+    private static void putCategory(ContentValues values, String category) {
+        ExpenseCategory canonical = ExpenseCategory.fromName(category);
+        values.put("category", canonical.getName());
+        values.put("categoryCode", canonical.getCode());
+    }
 }
@@ -0,0 +1,234 @@
+package com.messkhata.data.dao;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+import com.messkhata.data.export.TableWriter;
+import com.messkhata.data.model.MemberLedger;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Data Access Object for exporting the ledger and member statements
+ *
+ * Every table is read with one forward-only cursor in index order and each
+ * row is handed to the TableWriter as soon as it is read, so no Meal or
+ * Expense objects are built and memory use does not grow with the history
+ * being exported.
+ */
+public class ExportDao {
+
+    private static final String[] MEAL_COLUMNS =
+            {"Date", "Member", "Breakfast", "Lunch", "Dinner", "Rate", "Charge"};
+    private static final String[] EXPENSE_COLUMNS =
+            {"Date", "Category", "Title", "Amount", "Added By", "Members", "Share"};
+    private static final String[] PAYMENT_COLUMNS =
+            {"Date", "Member", "Amount", "Method", "Added By", "Notes"};
+    private static final String[] STATEMENT_COLUMNS =
+            {"Date", "Item", "Meals", "Amount", "Balance"};
+
+    // Statement entry kinds, also their order within a day
+    private static final int ENTRY_MEALS = 0;
+    private static final int ENTRY_EXPENSE = 1;
+    private static final int ENTRY_PAYMENT = 2;
+
+    private MessKhataDatabase dbHelper;
+    private BalanceCheckpointDao checkpointDao;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    private final Date date = new Date();
+
+    public ExportDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.checkpointDao = new BalanceCheckpointDao(context);
+    }
+
+    /**
+     * Export every meal, expense and payment of a mess, oldest first
+     * @return Number of rows written, -1 if failed
+     */
+    public int exportMessLedger(int messId, TableWriter writer) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String[] messArg = new String[]{String.valueOf(messId)};
+        int rows = 0;
+        Cursor cursor = null;
+        try {
+            writer.startTable("Meals", MEAL_COLUMNS);
+            cursor = db.rawQuery("SELECT m.mealDate, u.fullName, m.breakfast, m.lunch, m.dinner, " +
+                    SchemaSql.effectiveRateSql("m") + " FROM " + MessKhataDatabase.TABLE_MEALS + " m " +
+                    "LEFT JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = m.userId " +
+                    "WHERE m.messId = ? ORDER BY m.mealDate", messArg);
+            String[] cells = new String[MEAL_COLUMNS.length];
+            while (cursor.moveToNext()) {
+                int meals = cursor.getInt(2) + cursor.getInt(3) + cursor.getInt(4);
+                double rate = cursor.getDouble(5);
+                cells[0] = formatDate(cursor.getLong(0));
+                cells[1] = cursor.getString(1);
+                cells[2] = cursor.getString(2);
+                cells[3] = cursor.getString(3);
+                cells[4] = cursor.getString(4);
+                cells[5] = formatAmount(rate);
+                cells[6] = formatAmount(meals * rate);
+                writer.writeRow(cells);
+                rows++;
+            }
+            cursor.close();
+
+            writer.startTable("Expenses", EXPENSE_COLUMNS);
+            cursor = db.rawQuery("SELECT e.expenseDate, e.category, e.title, e.amount, u.fullName, " +
+                    "e.memberCountAtTime, " + SchemaSql.expenseShareSql("e") + " FROM " +
+                    MessKhataDatabase.TABLE_EXPENSES + " e " +
+                    "LEFT JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = e.addedBy " +
+                    "WHERE e.messId = ? ORDER BY e.expenseDate", messArg);
+            cells = new String[EXPENSE_COLUMNS.length];
+            while (cursor.moveToNext()) {
+                cells[0] = formatDate(cursor.getLong(0));
+                cells[1] = cursor.getString(1);
+                cells[2] = cursor.getString(2);
+                cells[3] = formatAmount(cursor.getDouble(3));
+                cells[4] = cursor.getString(4);
+                cells[5] = cursor.getString(5);
+                cells[6] = formatAmount(cursor.getDouble(6));
+                writer.writeRow(cells);
+                rows++;
+            }
+            cursor.close();
+
+            writer.startTable("Payments", PAYMENT_COLUMNS);
+            cursor = db.rawQuery("SELECT p.paidDate, u.fullName, p.amount, p.paymentMethod, a.fullName, " +
+                    "p.notes FROM " + MessKhataDatabase.TABLE_PAYMENTS + " p " +
+                    "LEFT JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = p.userId " +
+                    "LEFT JOIN " + MessKhataDatabase.TABLE_USERS + " a ON a.userId = p.addedBy " +
+                    "WHERE p.messId = ? ORDER BY p.paidDate", messArg);
+            cells = new String[PAYMENT_COLUMNS.length];
+            while (cursor.moveToNext()) {
+                cells[0] = formatDate(cursor.getLong(0));
+                cells[1] = cursor.getString(1);
+                cells[2] = formatAmount(cursor.getDouble(2));
+                cells[3] = cursor.getString(3);
+                cells[4] = cursor.getString(4);
+                cells[5] = cursor.getString(5);
+                writer.writeRow(cells);
+                rows++;
+            }
+            return rows;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Export monthly statements: each member's opening balance, the month's
+     * meals, expense shares and payments with a running balance, and the
+     * closing balance
+     * @param userId Member to export, or 0 for every member of the mess
+     * @param month 1-12
+     * @return Number of rows written, -1 if failed
+     */
+    public int exportMemberStatements(int messId, int userId, int month, int year, TableWriter writer) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, 1);
+        long monthStart = calendar.getTimeInMillis() / 1000;
+        calendar.add(Calendar.MONTH, 1);
+        long monthEnd = calendar.getTimeInMillis() / 1000;
+        String monthName = new SimpleDateFormat("MMMM yyyy", Locale.US).format(new Date(monthStart * 1000));
+
+        int rows = 0;
+        Cursor members = db.rawQuery("SELECT userId, fullName, joinedDate FROM " +
+                MessKhataDatabase.TABLE_USERS + " WHERE messId = ?" + (userId > 0 ? " AND userId = ?" : "") +
+                " ORDER BY fullName", userId > 0
+                ? new String[]{String.valueOf(messId), String.valueOf(userId)}
+                : new String[]{String.valueOf(messId)});
+        try {
+            while (members.moveToNext()) {
+                int memberId = members.getInt(0);
+                writer.startTable(members.getString(1) + " - " + monthName, STATEMENT_COLUMNS);
+                rows += writeStatement(db, memberId, messId, members.getLong(2), monthStart, monthEnd, writer);
+            }
+            return rows;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            members.close();
+        }
+    }
+
+    private int writeStatement(SQLiteDatabase db, int userId, int messId, long joinedDate,
+            long monthStart, long monthEnd, TableWriter writer) throws IOException {
+        String[] cells = new String[STATEMENT_COLUMNS.length];
+        MemberLedger opening = checkpointDao.getBalanceAsOf(userId, messId, monthStart - 1);
+        double balance = opening.getDue();
+        cells[0] = formatDate(monthStart);
+        cells[1] = "Opening balance";
+        cells[4] = formatAmount(balance);
+        writer.writeRow(cells);
+        int rows = 1;
+
+        // One member-month of entries, so the sort stays small however old the mess is
+        String member = String.valueOf(userId);
+        String mess = String.valueOf(messId);
+        String start = String.valueOf(monthStart);
+        String end = String.valueOf(monthEnd);
+        Cursor cursor = db.rawQuery("SELECT m.mealDate AS entryDate, " + ENTRY_MEALS + " AS kind, " +
+                        "'Meals' AS item, (m.breakfast + m.lunch + m.dinner) AS meals, " +
+                        "(m.breakfast + m.lunch + m.dinner) * " + SchemaSql.effectiveRateSql("m") + " AS amount " +
+                        "FROM " + MessKhataDatabase.TABLE_MEALS + " m " +
+                        "WHERE m.userId = ? AND m.messId = ? AND m.mealDate >= ? AND m.mealDate < ? " +
+                        "UNION ALL SELECT e.expenseDate, " + ENTRY_EXPENSE + ", e.title, NULL, " +
+                        SchemaSql.expenseShareSql("e") + " FROM " + MessKhataDatabase.TABLE_EXPENSES + " e " +
+                        "WHERE e.messId = ? AND e.expenseDate >= ? AND e.expenseDate < ? AND e.expenseDate > ? " +
+                        "UNION ALL SELECT p.paidDate, " + ENTRY_PAYMENT + ", 'Payment (' || " +
+                        "COALESCE(p.paymentMethod, 'Cash') || ')', NULL, -p.amount FROM " +
+                        MessKhataDatabase.TABLE_PAYMENTS + " p " +
+                        "WHERE p.userId = ? AND p.messId = ? AND p.paidDate >= ? AND p.paidDate < ? " +
+                        "ORDER BY entryDate, kind",
+                new String[]{member, mess, start, end, mess, start, end, String.valueOf(joinedDate),
+                        member, mess, start, end});
+        try {
+            while (cursor.moveToNext()) {
+                double amount = cursor.getDouble(4);
+                balance += amount;
+                cells[0] = formatDate(cursor.getLong(0));
+                cells[1] = cursor.getString(2);
+                cells[2] = cursor.isNull(3) ? null : cursor.getString(3);
+                cells[3] = formatAmount(amount);
+                cells[4] = formatAmount(balance);
+                writer.writeRow(cells);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cells[0] = formatDate(monthEnd - 1);
+        cells[1] = balance > 0 ? "Closing balance (due)" : "Closing balance";
+        cells[2] = null;
+        cells[3] = null;
+        cells[4] = formatAmount(balance);
+        writer.writeRow(cells);
+        return rows + 1;
+    }
+
+    private String formatDate(long seconds) {
+        date.setTime(seconds * 1000);
+        return dateFormat.format(date);
+    }
+
+    private static String formatAmount(double amount) {
+        return String.format(Locale.US, "%.2f", amount);
+    }
+}
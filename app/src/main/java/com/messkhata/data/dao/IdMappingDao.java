@@ -0,0 +1,287 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.messkhata.data.database.IdMappingCache;
+import com.messkhata.data.database.MessKhataDatabase;
+
+import java.util.Map;
+
+/**
+ * Data Access Object for local ID <-> Firebase document ID mappings.
+ * Reads go through the shared in-memory cache and only fall back to the
+ * indexed IdMappings table on a miss.
+ */
+public class IdMappingDao {
+
+    public static final String ENTITY_MESS = "mess";
+    public static final String ENTITY_USER = "user";
+    public static final String ENTITY_MEAL = "meal";
+    public static final String ENTITY_EXPENSE = "expense";
+
+    private MessKhataDatabase dbHelper;
+    private IdMappingCache cache;
+
+    public IdMappingDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.cache = dbHelper.getIdMappingCache();
+    }
+
+    /**
+     * Save (or replace) the mapping for a local row
+     * Any other local row mapped to the same Firebase ID is unlinked first
+     */
+    public boolean saveMapping(String entityType, long localId, String firebaseId) {
+        return saveMapping(entityType, localId, firebaseId, null);
+    }
+
+    /**
+     * Save (or replace) the mapping for a local row, with an optional invitation code
+     */
+    public boolean saveMapping(String entityType, long localId, String firebaseId,
+            String invitationCode) {
+        if (firebaseId == null || firebaseId.isEmpty()) {
+            return false;
+        }
+        if (firebaseId.equals(cache.getRemote(entityType, localId)) && invitationCode == null) {
+            return true;
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            upsertMapping(db, entityType, localId, firebaseId, invitationCode,
+                    System.currentTimeMillis() / 1000);
+            db.setTransactionSuccessful();
+            cache.put(entityType, localId, firebaseId);
+            return true;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Save several mappings of one entity type in a single transaction
+     * @param mappings local ID -> Firebase ID
+     */
+    public boolean saveMappings(String entityType, Map<Long, String> mappings) {
+        if (mappings.isEmpty()) {
+            return true;
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long now = System.currentTimeMillis() / 1000;
+            for (Map.Entry<Long, String> entry : mappings.entrySet()) {
+                long localId = entry.getKey();
+                String firebaseId = entry.getValue();
+                if (firebaseId == null || firebaseId.equals(cache.getRemote(entityType, localId))) {
+                    continue;
+                }
+
+                upsertMapping(db, entityType, localId, firebaseId, null, now);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+
+        for (Map.Entry<Long, String> entry : mappings.entrySet()) {
+            if (entry.getValue() != null) {
+                cache.put(entityType, entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get Firebase ID for a local row, or null if not mapped
+     */
+    public String getFirebaseId(String entityType, long localId) {
+        String cached = cache.getRemote(entityType, localId);
+        if (cached != null) {
+            return cached;
+        }
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(
+                    "SELECT firebaseId FROM " + MessKhataDatabase.TABLE_ID_MAPPINGS +
+                            " WHERE entityType = ? AND localId = ?",
+                    new String[] { entityType, String.valueOf(localId) });
+
+            if (cursor != null && cursor.moveToFirst()) {
+                String firebaseId = cursor.getString(0);
+                cache.put(entityType, localId, firebaseId);
+                return firebaseId;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get local row ID for a Firebase ID, or -1 if not mapped
+     */
+    public long getLocalId(String entityType, String firebaseId) {
+        if (firebaseId == null) {
+            return -1;
+        }
+        Long cached = cache.getLocal(entityType, firebaseId);
+        if (cached != null) {
+            return cached;
+        }
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(
+                    "SELECT localId FROM " + MessKhataDatabase.TABLE_ID_MAPPINGS +
+                            " WHERE entityType = ? AND firebaseId = ?",
+                    new String[] { entityType, firebaseId });
+
+            if (cursor != null && cursor.moveToFirst()) {
+                long localId = cursor.getLong(0);
+                cache.put(entityType, localId, firebaseId);
+                return localId;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get stored invitation code for a local row, or null if none
+     */
+    public String getInvitationCode(String entityType, long localId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try {
+            return queryInvitationCode(db, entityType, localId);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Remove the mapping for a local row
+     */
+    public boolean removeMapping(String entityType, long localId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            int rows = db.delete(MessKhataDatabase.TABLE_ID_MAPPINGS,
+                    "entityType = ? AND localId = ?",
+                    new String[] { entityType, String.valueOf(localId) });
+            cache.remove(entityType, localId);
+            return rows > 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Get the version (remote lastModified) last applied for a Firebase ID
+     * @return version, or 0 if unknown
+     */
+    public long getVersion(String entityType, String firebaseId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(
+                    "SELECT version FROM " + MessKhataDatabase.TABLE_ID_MAPPINGS +
+                            " WHERE entityType = ? AND firebaseId = ?",
+                    new String[] { entityType, firebaseId });
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Raise the stored version for a Firebase ID; older versions are ignored
+     */
+    public void updateVersion(String entityType, String firebaseId, long version) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            db.execSQL("UPDATE " + MessKhataDatabase.TABLE_ID_MAPPINGS +
+                    " SET version = ? WHERE entityType = ? AND firebaseId = ? AND version < ?",
+                    new Object[] { version, entityType, firebaseId, version });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Point a local row at a Firebase ID, unlinking any other row that had it.
+     * The stored version is kept while the Firebase ID stays the same.
+     */
+    private void upsertMapping(SQLiteDatabase db, String entityType, long localId,
+            String firebaseId, String invitationCode, long now) {
+        db.delete(MessKhataDatabase.TABLE_ID_MAPPINGS,
+                "entityType = ? AND firebaseId = ? AND localId != ?",
+                new String[] { entityType, firebaseId, String.valueOf(localId) });
+
+        db.execSQL("UPDATE " + MessKhataDatabase.TABLE_ID_MAPPINGS +
+                " SET version = CASE WHEN firebaseId = ? THEN version ELSE 0 END, " +
+                "firebaseId = ?, invitationCode = COALESCE(?, invitationCode), updatedAt = ? " +
+                "WHERE entityType = ? AND localId = ?",
+                new Object[] { firebaseId, firebaseId, invitationCode, now, entityType, localId });
+
+        ContentValues values = new ContentValues();
+        values.put("entityType", entityType);
+        values.put("localId", localId);
+        values.put("firebaseId", firebaseId);
+        values.put("invitationCode", invitationCode);
+        values.put("updatedAt", now);
+        db.insertWithOnConflict(MessKhataDatabase.TABLE_ID_MAPPINGS, null,
+                values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    private String queryInvitationCode(SQLiteDatabase db, String entityType, long localId) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(
+                    "SELECT invitationCode FROM " + MessKhataDatabase.TABLE_ID_MAPPINGS +
+                            " WHERE entityType = ? AND localId = ?",
+                    new String[] { entityType, String.valueOf(localId) });
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getString(0);
+            }
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
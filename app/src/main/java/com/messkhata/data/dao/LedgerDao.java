@@ -0,0 +1,245 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+import com.messkhata.data.model.MemberLedger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Data Access Object for member running balances (MemberLedger) and the
+ * per-month MonthlyBills rows behind them
+ *
+ * Both are kept current by triggers on Meals, Expenses, Payments and Users
+ * (see MessKhataDatabase); reconcile() rebuilds them from those tables and
+ * repairs any row that has drifted.
+ */
+public class LedgerDao {
+
+    // Amounts closer than this are treated as equal when checking bills
+    private static final double AMOUNT_EPSILON = 0.005;
+
+    private MessKhataDatabase dbHelper;
+
+    public LedgerDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+    }
+
+    /**
+     * Get a member's running balance with a single primary-key read
+     * @return Ledger row, all zero if the member has no charges or payments
+     */
+    public MemberLedger getLedger(int userId, int messId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + MessKhataDatabase.TABLE_MEMBER_LEDGER +
+                        " WHERE userId = ? AND messId = ?",
+                new String[]{String.valueOf(userId), String.valueOf(messId)});
+
+        MemberLedger ledger = cursor.moveToFirst() ? fromCursor(cursor) : new MemberLedger(userId, messId);
+        cursor.close();
+        return ledger;
+    }
+
+    /**
+     * Rebuild the ledger and bills of current mess members from Meals,
+     * Expenses and Payments, compare with the stored rows and repair
+     * the ones that differ
+     *
+     * @return Number of rows repaired, -1 if failed
+     */
+    public int reconcile(int messId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] messArg = new String[]{String.valueOf(messId)};
+        String members = " JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = x.userId AND u.messId = x.messId ";
+        String meals = "(x.breakfast + x.lunch + x.dinner)";
+        String mealCharge = meals + " * " + SchemaSql.effectiveRateSql("x");
+
+        db.beginTransaction();
+        try {
+            // Expected ledger rows, one per current member
+            Map<Integer, MemberLedger> expected = new HashMap<>();
+            Cursor cursor = db.rawQuery("SELECT userId FROM " + MessKhataDatabase.TABLE_USERS +
+                    " WHERE messId = ?", messArg);
+            while (cursor.moveToNext()) {
+                expected.put(cursor.getInt(0), new MemberLedger(cursor.getInt(0), messId));
+            }
+            cursor.close();
+
+            cursor = db.rawQuery("SELECT x.userId, SUM(" + meals + "), SUM(" + mealCharge + ") FROM " +
+                    MessKhataDatabase.TABLE_MEALS + " x" + members +
+                    "WHERE x.messId = ? GROUP BY x.userId", messArg);
+            while (cursor.moveToNext()) {
+                MemberLedger ledger = expected.get(cursor.getInt(0));
+                ledger.setMealCount(cursor.getInt(1));
+                ledger.setMealCharges(cursor.getDouble(2));
+            }
+            cursor.close();
+
+            cursor = db.rawQuery("SELECT u.userId, SUM(" + SchemaSql.expenseShareSql("e") + ") FROM " +
+                    MessKhataDatabase.TABLE_USERS + " u JOIN " + MessKhataDatabase.TABLE_EXPENSES + " e " +
+                    "ON e.messId = u.messId AND e.expenseDate > u.joinedDate " +
+                    "WHERE u.messId = ? GROUP BY u.userId", messArg);
+            while (cursor.moveToNext()) {
+                expected.get(cursor.getInt(0)).setSharedCharges(cursor.getDouble(1));
+            }
+            cursor.close();
+
+            cursor = db.rawQuery("SELECT x.userId, SUM(x.amount) FROM " +
+                    MessKhataDatabase.TABLE_PAYMENTS + " x" + members +
+                    "WHERE x.messId = ? GROUP BY x.userId", messArg);
+            while (cursor.moveToNext()) {
+                expected.get(cursor.getInt(0)).setTotalPaid(cursor.getDouble(1));
+            }
+            cursor.close();
+
+            int repaired = 0;
+            cursor = db.rawQuery("SELECT x.* FROM " + MessKhataDatabase.TABLE_MEMBER_LEDGER + " x" + members +
+                    "WHERE x.messId = ?", messArg);
+            Map<Integer, MemberLedger> stored = new HashMap<>();
+            while (cursor.moveToNext()) {
+                MemberLedger ledger = fromCursor(cursor);
+                stored.put(ledger.getUserId(), ledger);
+            }
+            cursor.close();
+            for (MemberLedger ledger : expected.values()) {
+                if (!ledger.matches(stored.get(ledger.getUserId()))) {
+                    writeLedger(db, ledger);
+                    repaired++;
+                }
+            }
+
+            repaired += reconcileBills(db, messId, members, mealCharge);
+
+            if (repaired > 0) {
+                // Repaired rows differ from what may have been cached
+                DataVersions.getInstance().bumpMess(MessKhataDatabase.TABLE_MEMBER_LEDGER, messId);
+            }
+            db.setTransactionSuccessful();
+            return repaired;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Rebuild MonthlyBills totals of current members; key is userId and month
+     */
+    private int reconcileBills(SQLiteDatabase db, int messId, String members, String mealCharge) {
+        String[] messArg = new String[]{String.valueOf(messId)};
+        Map<String, double[]> expected = new HashMap<>(); // {meal, other, paid}
+
+        Cursor cursor = db.rawQuery("SELECT x.userId, " + SchemaSql.monthKeySql("x.mealDate") +
+                " AS monthKey, SUM(" + mealCharge + ") FROM " + MessKhataDatabase.TABLE_MEALS + " x" + members +
+                "WHERE x.messId = ? GROUP BY x.userId, monthKey", messArg);
+        while (cursor.moveToNext()) {
+            billTotals(expected, cursor.getInt(0), cursor.getInt(1))[0] = cursor.getDouble(2);
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT u.userId, " + SchemaSql.monthKeySql("e.expenseDate") +
+                " AS monthKey, SUM(" + SchemaSql.expenseShareSql("e") + ") FROM " +
+                MessKhataDatabase.TABLE_USERS + " u JOIN " + MessKhataDatabase.TABLE_EXPENSES + " e " +
+                "ON e.messId = u.messId AND e.expenseDate > u.joinedDate " +
+                "WHERE u.messId = ? GROUP BY u.userId, monthKey", messArg);
+        while (cursor.moveToNext()) {
+            billTotals(expected, cursor.getInt(0), cursor.getInt(1))[1] = cursor.getDouble(2);
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT x.userId, x.year * 100 + x.month, SUM(p.amount) FROM " +
+                MessKhataDatabase.TABLE_PAYMENTS + " p JOIN " + MessKhataDatabase.TABLE_MONTHLY_BILLS + " x " +
+                "ON x.billId = p.billId" + members +
+                "WHERE x.messId = ? GROUP BY x.billId", messArg);
+        while (cursor.moveToNext()) {
+            billTotals(expected, cursor.getInt(0), cursor.getInt(1))[2] = cursor.getDouble(2);
+        }
+        cursor.close();
+
+        int repaired = 0;
+        cursor = db.rawQuery("SELECT x.userId, x.year * 100 + x.month, x.totalMealExpense, " +
+                "x.totalOtherExpenses, x.totalPaid FROM " + MessKhataDatabase.TABLE_MONTHLY_BILLS + " x" + members +
+                "WHERE x.messId = ?", messArg);
+        while (cursor.moveToNext()) {
+            int userId = cursor.getInt(0);
+            int monthKey = cursor.getInt(1);
+            double[] totals = expected.remove(userId + ":" + monthKey);
+            if (totals == null) {
+                totals = new double[3];
+            }
+            if (Math.abs(totals[0] - cursor.getDouble(2)) > AMOUNT_EPSILON
+                    || Math.abs(totals[1] - cursor.getDouble(3)) > AMOUNT_EPSILON
+                    || Math.abs(totals[2] - cursor.getDouble(4)) > AMOUNT_EPSILON) {
+                writeBill(db, userId, messId, monthKey, totals);
+                repaired++;
+            }
+        }
+        cursor.close();
+
+        // Months with charges but no bill row at all
+        for (Map.Entry<String, double[]> entry : expected.entrySet()) {
+            String[] key = entry.getKey().split(":");
+            writeBill(db, Integer.parseInt(key[0]), messId, Integer.parseInt(key[1]), entry.getValue());
+            repaired++;
+        }
+        return repaired;
+    }
+
+    private static double[] billTotals(Map<String, double[]> bills, int userId, int monthKey) {
+        String key = userId + ":" + monthKey;
+        double[] totals = bills.get(key);
+        if (totals == null) {
+            totals = new double[3];
+            bills.put(key, totals);
+        }
+        return totals;
+    }
+
+    private static void writeBill(SQLiteDatabase db, int userId, int messId, int monthKey, double[] totals) {
+        String[] billArgs = new String[]{String.valueOf(userId), String.valueOf(messId),
+                String.valueOf(monthKey % 100), String.valueOf(monthKey / 100)};
+        db.execSQL("INSERT OR IGNORE INTO " + MessKhataDatabase.TABLE_MONTHLY_BILLS +
+                " (userId, messId, month, year) VALUES (?, ?, ?, ?)", billArgs);
+
+        // Updating the totals lets trg_monthly_bills_status set the status
+        ContentValues values = new ContentValues();
+        values.put("totalMealExpense", totals[0]);
+        values.put("totalOtherExpenses", totals[1]);
+        values.put("totalPaid", totals[2]);
+        db.update(MessKhataDatabase.TABLE_MONTHLY_BILLS, values,
+                "userId = ? AND messId = ? AND month = ? AND year = ?", billArgs);
+    }
+
+    private static void writeLedger(SQLiteDatabase db, MemberLedger ledger) {
+        ContentValues values = new ContentValues();
+        values.put("userId", ledger.getUserId());
+        values.put("messId", ledger.getMessId());
+        values.put("mealCount", ledger.getMealCount());
+        values.put("mealCharges", ledger.getMealCharges());
+        values.put("sharedCharges", ledger.getSharedCharges());
+        values.put("totalPaid", ledger.getTotalPaid());
+        values.put("updatedAt", System.currentTimeMillis() / 1000);
+        db.insertWithOnConflict(MessKhataDatabase.TABLE_MEMBER_LEDGER, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    static MemberLedger fromCursor(Cursor cursor) {
+        MemberLedger ledger = new MemberLedger(
+                cursor.getInt(cursor.getColumnIndexOrThrow("userId")),
+                cursor.getInt(cursor.getColumnIndexOrThrow("messId")));
+        ledger.setMealCount(cursor.getInt(cursor.getColumnIndexOrThrow("mealCount")));
+        ledger.setMealCharges(cursor.getDouble(cursor.getColumnIndexOrThrow("mealCharges")));
+        ledger.setSharedCharges(cursor.getDouble(cursor.getColumnIndexOrThrow("sharedCharges")));
+        ledger.setTotalPaid(cursor.getDouble(cursor.getColumnIndexOrThrow("totalPaid")));
+        return ledger;
+    }
+}
@@ -4,23 +4,40 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.cache.ReportCache;
 import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+import com.messkhata.data.model.DailyHeadcount;
 import com.messkhata.data.model.Meal;
+import com.messkhata.data.model.MealCounters;
+import com.messkhata.data.model.MealPlan;
+import com.messkhata.data.model.PNCounter;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Data Access Object for Meal operations
  */
 public class MealDao {
 
+    // Days of preference history kept in the MealPreferences log
+    private static final int PREFERENCE_HISTORY_DAYS = 90;
+
     private MessKhataDatabase dbHelper;
+    private DataVersions versions;
+    private ReportCache reportCache;
 
     public MealDao(Context context) {
         this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.versions = DataVersions.getInstance();
+        this.reportCache = ReportCache.getInstance();
     }
 
     /**
@@ -42,14 +59,19 @@ public class MealDao {
             values.put("mealRate", mealRate);
             values.put("updatedAt", System.currentTimeMillis() / 1000);
 
-            // Try to insert, if conflict (unique constraint) then update
-            long result = db.insertWithOnConflict(
-                MessKhataDatabase.TABLE_MEALS,
-                null,
-                values,
-                SQLiteDatabase.CONFLICT_REPLACE
-            );
-
+            // Update in place, insert if there is no entry yet. (REPLACE would
+            // delete the row without firing the Meals delete trigger.)
+            int rows = db.update(MessKhataDatabase.TABLE_MEALS, values,
+                    "userId = ? AND mealDate = ?",
+                    new String[]{String.valueOf(userId), String.valueOf(date)});
+            if (rows > 0) {
+                versions.bumpMonth(MessKhataDatabase.TABLE_MEALS, messId, date);
+                return true;
+            }
+            long result = db.insert(MessKhataDatabase.TABLE_MEALS, null, values);
+            if (result != -1) {
+                versions.bumpMonth(MessKhataDatabase.TABLE_MEALS, messId, date);
+            }
             return result != -1;
         } catch (Exception e) {
             e.printStackTrace();
@@ -57,6 +79,256 @@ public class MealDao {
         }
     }
 
+    /**
+     * Apply a local meal edit as counter deltas from this device
+     * Deltas are added to this replica's own counters only, so concurrent
+     * edits from other devices are never overwritten. They are changes to the
+     * shown (clamped) counts and are applied relative to the raw counter sum
+     * (see MealCounters.rawDelta).
+     * @return true if successful
+     */
+    public boolean applyMealDelta(int userId, int messId, long date, String replicaId,
+                                  int breakfastDelta, int lunchDelta, int dinnerDelta,
+                                  double mealRate) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            ensureMealCounters(db, userId, messId, date, mealRate);
+
+            int[] deltas = {breakfastDelta, lunchDelta, dinnerDelta};
+            for (int i = 0; i < MealCounters.SLOTS.length; i++) {
+                if (deltas[i] == 0) {
+                    continue;
+                }
+                String slot = MealCounters.SLOTS[i];
+                long delta = MealCounters.rawDelta(rawSlotValue(db, userId, date, slot), deltas[i]);
+                if (delta == 0) {
+                    continue;
+                }
+                insertCounterRow(db, userId, date, slot, replicaId);
+                db.execSQL("UPDATE " + MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                                " SET increments = increments + ?, decrements = decrements + ?" +
+                                " WHERE userId = ? AND mealDate = ? AND slot = ? AND replicaId = ?",
+                        new Object[]{Math.max(0, delta), Math.max(0, -delta),
+                                userId, date, slot, replicaId});
+            }
+
+            refreshMealFromCounters(db, userId, date);
+
+            ContentValues values = new ContentValues();
+            values.put("mealRate", mealRate);
+            db.update(MessKhataDatabase.TABLE_MEALS, values,
+                    "userId = ? AND mealDate = ?",
+                    new String[]{String.valueOf(userId), String.valueOf(date)});
+
+            db.setTransactionSuccessful();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            db.endTransaction();
+            versions.bumpMonth(MessKhataDatabase.TABLE_MEALS, messId, date);
+        }
+    }
+
+    /**
+     * Merge meal counters received from another device
+     * Takes the per-replica maximum, so applying the same remote state twice
+     * or in any order yields the same result.
+     * @return true if successful
+     */
+    public boolean mergeMealCounters(int userId, int messId, long date,
+                                     MealCounters remote, double mealRate) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            ensureMealCounters(db, userId, messId, date, mealRate);
+
+            for (String slot : MealCounters.SLOTS) {
+                PNCounter counter = remote.getSlot(slot);
+                Set<String> replicas = new HashSet<>(counter.getIncrements().keySet());
+                replicas.addAll(counter.getDecrements().keySet());
+
+                for (String replicaId : replicas) {
+                    insertCounterRow(db, userId, date, slot, replicaId);
+                    db.execSQL("UPDATE " + MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                                    " SET increments = MAX(increments, ?), decrements = MAX(decrements, ?)" +
+                                    " WHERE userId = ? AND mealDate = ? AND slot = ? AND replicaId = ?",
+                            new Object[]{counter.getIncrement(replicaId), counter.getDecrement(replicaId),
+                                    userId, date, slot, replicaId});
+                }
+            }
+
+            refreshMealFromCounters(db, userId, date);
+
+            db.setTransactionSuccessful();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            db.endTransaction();
+            versions.bumpMonth(MessKhataDatabase.TABLE_MEALS, messId, date);
+        }
+    }
+
+    /**
+     * Get replicated counters for a user's meal on a specific date
+     * @return MealCounters (empty if the day has never been edited)
+     */
+    public MealCounters getMealCounters(int userId, long date) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        MealCounters counters = new MealCounters();
+
+        Cursor cursor = db.rawQuery("SELECT slot, replicaId, increments, decrements FROM " +
+                        MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                        " WHERE userId = ? AND mealDate = ?",
+                new String[]{String.valueOf(userId), String.valueOf(date)});
+
+        while (cursor.moveToNext()) {
+            String slot = cursor.getString(0);
+            if (!MealCounters.SLOT_BREAKFAST.equals(slot) && !MealCounters.SLOT_LUNCH.equals(slot)
+                    && !MealCounters.SLOT_DINNER.equals(slot)) {
+                continue;
+            }
+            counters.getSlot(slot).mergeReplica(cursor.getString(1), cursor.getLong(2), cursor.getLong(3));
+        }
+        cursor.close();
+        return counters;
+    }
+
+    /**
+     * Make sure a meal row exists and carries counters
+     * A row written before counters existed (or by auto charge) is converted by
+     * seeding its current counts under the shared seed replica. Devices that
+     * converted diverging copies of the row merge to the larger seed per slot
+     * (see MealCounters.SEED_REPLICA).
+     */
+    private void ensureMealCounters(SQLiteDatabase db, int userId, int messId, long date, double mealRate) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                        " WHERE userId = ? AND mealDate = ?",
+                new String[]{String.valueOf(userId), String.valueOf(date)});
+        boolean hasCounters = cursor.moveToFirst() && cursor.getInt(0) > 0;
+        cursor.close();
+        if (hasCounters) {
+            return;
+        }
+
+        Cursor mealCursor = db.rawQuery("SELECT breakfast, lunch, dinner FROM " +
+                        MessKhataDatabase.TABLE_MEALS + " WHERE userId = ? AND mealDate = ?",
+                new String[]{String.valueOf(userId), String.valueOf(date)});
+        int[] existing = null;
+        if (mealCursor.moveToFirst()) {
+            existing = new int[]{mealCursor.getInt(0), mealCursor.getInt(1), mealCursor.getInt(2)};
+        }
+        mealCursor.close();
+
+        if (existing == null) {
+            ContentValues values = new ContentValues();
+            values.put("userId", userId);
+            values.put("messId", messId);
+            values.put("mealDate", date);
+            values.put("breakfast", 0);
+            values.put("lunch", 0);
+            values.put("dinner", 0);
+            values.put("mealRate", mealRate);
+            values.put("updatedAt", System.currentTimeMillis() / 1000);
+            db.insertWithOnConflict(MessKhataDatabase.TABLE_MEALS, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            return;
+        }
+
+        for (int i = 0; i < MealCounters.SLOTS.length; i++) {
+            if (existing[i] > 0) {
+                db.execSQL("INSERT OR IGNORE INTO " + MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                                " (userId, mealDate, slot, replicaId, increments, decrements)" +
+                                " VALUES (?, ?, ?, ?, ?, 0)",
+                        new Object[]{userId, date, MealCounters.SLOTS[i],
+                                MealCounters.SEED_REPLICA, existing[i]});
+            }
+        }
+    }
+
+    /**
+     * Unclamped counter value of a slot, summed over all replicas
+     */
+    private long rawSlotValue(SQLiteDatabase db, int userId, long date, String slot) {
+        Cursor cursor = db.rawQuery("SELECT COALESCE(SUM(increments - decrements), 0) FROM " +
+                        MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                        " WHERE userId = ? AND mealDate = ? AND slot = ?",
+                new String[]{String.valueOf(userId), String.valueOf(date), slot});
+        long value = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        cursor.close();
+        return value;
+    }
+
+    private void insertCounterRow(SQLiteDatabase db, int userId, long date, String slot, String replicaId) {
+        db.execSQL("INSERT OR IGNORE INTO " + MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                        " (userId, mealDate, slot, replicaId, increments, decrements)" +
+                        " VALUES (?, ?, ?, ?, 0, 0)",
+                new Object[]{userId, date, slot, replicaId});
+    }
+
+    /**
+     * Materialise Meals.breakfast/lunch/dinner from the counters, clamped to 0..MAX_PER_SLOT
+     */
+    private void refreshMealFromCounters(SQLiteDatabase db, int userId, long date) {
+        db.execSQL("UPDATE " + MessKhataDatabase.TABLE_MEALS + " SET " +
+                        "breakfast = " + slotValueSql(MealCounters.SLOT_BREAKFAST) + ", " +
+                        "lunch = " + slotValueSql(MealCounters.SLOT_LUNCH) + ", " +
+                        "dinner = " + slotValueSql(MealCounters.SLOT_DINNER) + ", " +
+                        "updatedAt = strftime('%s', 'now') " +
+                        "WHERE userId = ? AND mealDate = ?",
+                new Object[]{userId, date});
+    }
+
+    private static String slotValueSql(String slot) {
+        return "MAX(0, MIN(" + MealCounters.MAX_PER_SLOT + ", COALESCE((" +
+                "SELECT SUM(c.increments - c.decrements) FROM " + MessKhataDatabase.TABLE_MEAL_COUNTERS + " c " +
+                "WHERE c.userId = " + MessKhataDatabase.TABLE_MEALS + ".userId " +
+                "AND c.mealDate = " + MessKhataDatabase.TABLE_MEALS + ".mealDate " +
+                "AND c.slot = '" + slot + "'), 0)))";
+    }
+
+    /**
+     * Check whether a day has replicated counters
+     * Legacy full-value writes must not overwrite such a row.
+     */
+    public boolean hasMealCounters(int userId, long date) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT 1 FROM " + MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                        " WHERE userId = ? AND mealDate = ? LIMIT 1",
+                new String[]{String.valueOf(userId), String.valueOf(date)});
+        boolean exists = cursor.moveToFirst();
+        cursor.close();
+        return exists;
+    }
+
+    /**
+     * Get the total of a replica's increments and decrements for a day
+     * It grows with every delta applied from the replica, so comparing it
+     * before and after tells whether a delta was written.
+     * @return The total, -1 if failed
+     */
+    public long getReplicaWrites(int userId, long date, String replicaId) {
+        try {
+            Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                    "SELECT COALESCE(SUM(increments + decrements), 0) FROM " +
+                            MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                            " WHERE userId = ? AND mealDate = ? AND replicaId = ?",
+                    new String[]{String.valueOf(userId), String.valueOf(date), replicaId});
+            long writes = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            cursor.close();
+            return writes;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
     /**
      * Get meal entry for a specific date
      * @return Meal object or null if not found
@@ -133,9 +405,17 @@ public class MealDao {
 
     /**
      * Get total meals for a user in a specific month
+     * Served from the report cache while the month is unchanged.
      * @return Total number of meals
      */
     public int getTotalMealsForMonth(int userId, int month, int year) {
+        // Not filtered by mess, so stamped with the any-mess versions
+        return reportCache.get("userMeals:" + userId, 0, year * 100 + month,
+                () -> loadTotalMealsForMonth(userId, month, year),
+                MessKhataDatabase.TABLE_MEALS);
+    }
+
+    private int loadTotalMealsForMonth(int userId, int month, int year) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
 
         // Calculate start and end timestamps for the month
@@ -166,9 +446,16 @@ public class MealDao {
 
     /**
      * Get total meals consumed by all members in a mess for a specific month
+     * Served from the report cache while the month is unchanged.
      * @return Total number of meals
      */
     public int getTotalMessMealsForMonth(int messId, int month, int year) {
+        return reportCache.get("messMeals", messId, year * 100 + month,
+                () -> loadTotalMessMealsForMonth(messId, month, year),
+                MessKhataDatabase.TABLE_MEALS);
+    }
+
+    private int loadTotalMessMealsForMonth(int messId, int month, int year) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
 
         // Calculate start and end timestamps for the month
@@ -198,13 +485,18 @@ public class MealDao {
     }
 
     /**
-     * Save meal preference for a user
+     * Save meal preference for a user, effective from tomorrow
+     * Updates the member's current preference and appends to the history log
+     * in one transaction; history older than PREFERENCE_HISTORY_DAYS is pruned,
+     * except the entry still in effect at the cutoff, so plans can look back
+     * through every change within that window (see MealScheduleDao.compilePlan).
      * @return true if successful
      */
     public boolean saveMealPreference(int userId, int messId, int breakfast, 
                                      int lunch, int dinner) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
 
+        db.beginTransaction();
         try {
             // Calculate tomorrow's date as effectiveFrom
             Calendar calendar = Calendar.getInstance();
@@ -212,7 +504,31 @@ public class MealDao {
             calendar.set(Calendar.HOUR_OF_DAY, 0);
             calendar.set(Calendar.MINUTE, 0);
             calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
             long effectiveFrom = calendar.getTimeInMillis() / 1000;
+            long now = System.currentTimeMillis() / 1000;
+
+            // A preference already in effect becomes the previous one; one
+            // saved earlier today (not yet in effect) is simply replaced
+            db.execSQL("UPDATE " + MessKhataDatabase.TABLE_CURRENT_MEAL_PREFERENCES + " SET " +
+                    "prevBreakfast = CASE WHEN effectiveFrom < ? THEN breakfast ELSE prevBreakfast END, " +
+                    "prevLunch = CASE WHEN effectiveFrom < ? THEN lunch ELSE prevLunch END, " +
+                    "prevDinner = CASE WHEN effectiveFrom < ? THEN dinner ELSE prevDinner END, " +
+                    "breakfast = ?, lunch = ?, dinner = ?, effectiveFrom = ?, updatedAt = ? " +
+                    "WHERE userId = ? AND messId = ?",
+                    new Object[]{effectiveFrom, effectiveFrom, effectiveFrom,
+                            breakfast, lunch, dinner, effectiveFrom, now, userId, messId});
+
+            ContentValues current = new ContentValues();
+            current.put("userId", userId);
+            current.put("messId", messId);
+            current.put("breakfast", breakfast);
+            current.put("lunch", lunch);
+            current.put("dinner", dinner);
+            current.put("effectiveFrom", effectiveFrom);
+            current.put("updatedAt", now);
+            db.insertWithOnConflict(MessKhataDatabase.TABLE_CURRENT_MEAL_PREFERENCES, null, current,
+                    SQLiteDatabase.CONFLICT_IGNORE);
 
             ContentValues values = new ContentValues();
             values.put("userId", userId);
@@ -221,13 +537,29 @@ public class MealDao {
             values.put("lunch", lunch);
             values.put("dinner", dinner);
             values.put("effectiveFrom", effectiveFrom);
-            values.put("createdAt", System.currentTimeMillis() / 1000);
+            values.put("createdAt", now);
 
             long result = db.insert(MessKhataDatabase.TABLE_MEAL_PREFERENCES, null, values);
-            return result != -1;
+            if (result == -1) {
+                return false;
+            }
+
+            long cutoff = now - PREFERENCE_HISTORY_DAYS * 24L * 60 * 60;
+            String[] pruneArgs = new String[]{String.valueOf(userId), String.valueOf(messId),
+                    String.valueOf(cutoff)};
+            db.execSQL("DELETE FROM " + MessKhataDatabase.TABLE_MEAL_PREFERENCES +
+                    " WHERE userId = ?1 AND messId = ?2 AND effectiveFrom < ?3 AND preferenceId NOT IN (" +
+                    "SELECT preferenceId FROM " + MessKhataDatabase.TABLE_MEAL_PREFERENCES +
+                    " WHERE userId = ?1 AND messId = ?2 AND effectiveFrom < ?3" +
+                    " ORDER BY effectiveFrom DESC, createdAt DESC, preferenceId DESC LIMIT 1)", pruneArgs);
+
+            db.setTransactionSuccessful();
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
+        } finally {
+            db.endTransaction();
         }
     }
 
@@ -235,15 +567,14 @@ public class MealDao {
      * Get user's current meal preference
      * @return int array [breakfast, lunch, dinner] or null if no preference set
      */
-    public int[] getMealPreference(int userId) {
+    public int[] getMealPreference(int userId, int messId) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
 
-        // Get the most recent preference
         String query = "SELECT breakfast, lunch, dinner FROM " + 
-                MessKhataDatabase.TABLE_MEAL_PREFERENCES +
-                " WHERE userId = ? ORDER BY createdAt DESC LIMIT 1";
+                MessKhataDatabase.TABLE_CURRENT_MEAL_PREFERENCES +
+                " WHERE userId = ? AND messId = ?";
         
-        Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(userId)});
+        Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(userId), String.valueOf(messId)});
 
         int[] preference = null;
         if (cursor.moveToFirst()) {
@@ -262,10 +593,17 @@ public class MealDao {
      */
     public boolean deleteMeal(int userId, long date) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] args = new String[]{String.valueOf(userId), String.valueOf(date)};
 
-        int rows = db.delete(MessKhataDatabase.TABLE_MEALS,
-                "userId = ? AND mealDate = ?",
-                new String[]{String.valueOf(userId), String.valueOf(date)});
+        Cursor cursor = db.rawQuery("SELECT messId FROM " + MessKhataDatabase.TABLE_MEALS +
+                " WHERE userId = ? AND mealDate = ?", args);
+        int messId = cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        cursor.close();
+
+        int rows = db.delete(MessKhataDatabase.TABLE_MEALS, "userId = ? AND mealDate = ?", args);
+        if (rows > 0) {
+            versions.bumpMonth(MessKhataDatabase.TABLE_MEALS, messId, date);
+        }
         return rows > 0;
     }
 
@@ -284,9 +622,9 @@ public class MealDao {
         calendar.add(Calendar.MONTH, 1);
         long endDate = calendar.getTimeInMillis() / 1000;
 
-        String query = "SELECT SUM((breakfast + lunch + dinner) * mealRate) as totalExpense FROM " +
-                MessKhataDatabase.TABLE_MEALS +
-                " WHERE userId = ? AND mealDate >= ? AND mealDate < ?";
+        String query = "SELECT SUM((m.breakfast + m.lunch + m.dinner) * " + SchemaSql.effectiveRateSql("m") +
+                ") as totalExpense FROM " + MessKhataDatabase.TABLE_MEALS + " m" +
+                " WHERE m.userId = ? AND m.mealDate >= ? AND m.mealDate < ?";
 
         Cursor cursor = db.rawQuery(query, new String[]{
                 String.valueOf(userId),
@@ -314,9 +652,9 @@ public class MealDao {
 
         // Show ALL user's meals regardless of join date
         // Personal meals belong to the user from when they were added
-        String query = "SELECT SUM((breakfast + lunch + dinner) * mealRate) as totalExpense FROM " +
-                MessKhataDatabase.TABLE_MEALS +
-                " WHERE userId = ?";
+        String query = "SELECT SUM((m.breakfast + m.lunch + m.dinner) * " + SchemaSql.effectiveRateSql("m") +
+                ") as totalExpense FROM " + MessKhataDatabase.TABLE_MEALS + " m" +
+                " WHERE m.userId = ?";
 
         Cursor cursor = db.rawQuery(query, new String[]{
                 String.valueOf(userId)
@@ -331,120 +669,121 @@ public class MealDao {
     }
 
     /**
-     * Get all active meal preferences for a specific mess
-     * Returns the most recent preference for each user
-     * Used by MealAutoChargeService for automatic daily charging
-     * 
-     * @param messId The mess ID
-     * @return Cursor containing userId, breakfast, lunch, dinner for each user with preferences
+     * Get the mess-wide headcounts recorded for a date range
+     * Served from DailyHeadcounts, which triggers keep in step with Meals.
+     * @return Headcounts of days that have meals, in date order
      */
-    public Cursor getActivePreferences(int messId) {
+    public List<DailyHeadcount> getDailyHeadcounts(int messId, long fromDate, long toDate) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
+        List<DailyHeadcount> headcounts = new ArrayList<>();
 
-        // Get the most recent preference for each user in this mess
-        // Using a subquery to get only the latest preference per user
-        String query = "SELECT mp.userId, mp.breakfast, mp.lunch, mp.dinner " +
-                "FROM " + MessKhataDatabase.TABLE_MEAL_PREFERENCES + " mp " +
-                "INNER JOIN ( " +
-                "    SELECT userId, MAX(createdAt) as maxCreated " +
-                "    FROM " + MessKhataDatabase.TABLE_MEAL_PREFERENCES + " " +
-                "    WHERE messId = ? " +
-                "    GROUP BY userId " +
-                ") latest ON mp.userId = latest.userId AND mp.createdAt = latest.maxCreated " +
-                "WHERE mp.messId = ?";
-
-        return db.rawQuery(query, new String[]{String.valueOf(messId), String.valueOf(messId)});
+        Cursor cursor = db.rawQuery("SELECT mealDate, breakfast, lunch, dinner FROM " +
+                        MessKhataDatabase.TABLE_DAILY_HEADCOUNTS +
+                        " WHERE messId = ? AND mealDate >= ? AND mealDate <= ? ORDER BY mealDate",
+                new String[]{String.valueOf(messId), String.valueOf(fromDate), String.valueOf(toDate)});
+        while (cursor.moveToNext()) {
+            headcounts.add(new DailyHeadcount(cursor.getLong(0),
+                    cursor.getInt(1), cursor.getInt(2), cursor.getInt(3), false));
+        }
+        cursor.close();
+        return headcounts;
     }
 
     /**
-     * Update meal rate for all meals on a specific date
-     * Used when admin updates mess meal rate - updates today's meals to new rate
+     * Get all active meal preferences for a specific mess
+     * Returns the most recent preference for each user
+     * 
      * @param messId The mess ID
-     * @param mealDate The date (timestamp) of meals to update
-     * @param newMealRate The new meal rate
-     * @return Number of rows updated
+     * @return Cursor containing userId, breakfast, lunch, dinner for each user with preferences
      */
-    public int updateMealRateForDate(int messId, long mealDate, double newMealRate) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put("mealRate", newMealRate);
-        values.put("updatedAt", System.currentTimeMillis() / 1000);
+    public Cursor getActivePreferences(int messId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
 
-        int rows = db.update(MessKhataDatabase.TABLE_MEALS,
-                values,
-                "messId = ? AND mealDate = ?",
-                new String[]{String.valueOf(messId), String.valueOf(mealDate)});
+        String query = "SELECT userId, breakfast, lunch, dinner " +
+                "FROM " + MessKhataDatabase.TABLE_CURRENT_MEAL_PREFERENCES + " " +
+                "WHERE messId = ?";
 
-        android.util.Log.d("MealDao", "Updated " + rows + " meals to new rate: " + newMealRate);
-        return rows;
+        return db.rawQuery(query, new String[]{String.valueOf(messId)});
     }
 
     /**
-     * Update meal rate for today's and future meals
-     * @return Number of rows updated
+     * Charge every member in a compiled plan for each day of the plan, in one
+     * transaction. Days that already have a Meals row (entered by hand, or
+     * charged before) are left alone.
+     *
+     * The packed plan is staged in a TEMP table and charged with one
+     * INSERT ... SELECT, so the whole run is a single statement against Meals.
+     *
+     * @param mealRate Rate stored on the new rows
+     * @return Number of Meals rows inserted, or -1 on error
      */
-    public int updateMealRateForTodayAndFuture(int messId, double newMealRate) {
+    public int chargePlannedMeals(int messId, MealPlan plan, double mealRate) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
+        List<Long> chargedMonths = new ArrayList<>(); // a day in each month that gets rows
+        int inserted;
 
-        // Get today's timestamp (midnight)
-        Calendar calendar = Calendar.getInstance();
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        long todayTimestamp = calendar.getTimeInMillis() / 1000;
-
-        ContentValues values = new ContentValues();
-        values.put("mealRate", newMealRate);
-        values.put("updatedAt", System.currentTimeMillis() / 1000);
-
-        int rows = db.update(MessKhataDatabase.TABLE_MEALS,
-                values,
-                "messId = ? AND mealDate >= ?",
-                new String[]{String.valueOf(messId), String.valueOf(todayTimestamp)});
-
-        android.util.Log.d("MealDao", "Updated " + rows + " meals (today and future) to new rate: " + newMealRate);
-        return rows;
-    }
-
-    /**
-     * Get all meals for today and future dates in a mess
-     * @return List of Meal objects
-     */
-    public List<Meal> getMealsForTodayAndFuture(int messId) {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        List<Meal> meals = new ArrayList<>();
-
-        // Get today's timestamp (midnight)
-        Calendar calendar = Calendar.getInstance();
-        calendar.set(Calendar.HOUR_OF_DAY, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-        long todayTimestamp = calendar.getTimeInMillis() / 1000;
-
-        String query = "SELECT * FROM " + MessKhataDatabase.TABLE_MEALS +
-                " WHERE messId = ? AND mealDate >= ?";
-
-        Cursor cursor = db.rawQuery(query, new String[]{
-                String.valueOf(messId),
-                String.valueOf(todayTimestamp)
-        });
+        db.beginTransaction();
+        try {
+            db.execSQL("CREATE TEMP TABLE IF NOT EXISTS PlannedMeals (" +
+                    "userId INTEGER NOT NULL, mealDate INTEGER NOT NULL, planned INTEGER NOT NULL)");
+            db.execSQL("DELETE FROM temp.PlannedMeals");
+
+            SQLiteStatement stage = db.compileStatement(
+                    "INSERT INTO temp.PlannedMeals (userId, mealDate, planned) VALUES (?, ?, ?)");
+            try {
+                for (int userId : plan.getUserIds()) {
+                    int[] days = plan.getDays(userId);
+                    for (int i = 0; i < days.length; i++) {
+                        if (days[i] == 0) {
+                            continue; // Nothing planned
+                        }
+                        stage.bindLong(1, userId);
+                        stage.bindLong(2, plan.getDayStart(i));
+                        stage.bindLong(3, days[i]);
+                        stage.executeInsert();
+                    }
+                }
+            } finally {
+                stage.close();
+            }
+
+            // Months that will get new rows, for the report cache
+            Cursor cursor = db.rawQuery("SELECT MIN(t.mealDate) FROM temp.PlannedMeals t " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM " + MessKhataDatabase.TABLE_MEALS + " m " +
+                    "WHERE m.userId = t.userId AND m.mealDate = t.mealDate) " +
+                    "GROUP BY " + SchemaSql.monthKeySql("t.mealDate"), null);
+            while (cursor.moveToNext()) {
+                chargedMonths.add(cursor.getLong(0));
+            }
+            cursor.close();
+
+            SQLiteStatement charge = db.compileStatement("INSERT OR IGNORE INTO " +
+                    MessKhataDatabase.TABLE_MEALS +
+                    " (userId, messId, mealDate, breakfast, lunch, dinner, mealRate) " +
+                    "SELECT userId, ?, mealDate, planned & " + MealPlan.SLOT_MASK + ", " +
+                    "(planned >> " + MealPlan.SLOT_BITS + ") & " + MealPlan.SLOT_MASK + ", " +
+                    "(planned >> " + (2 * MealPlan.SLOT_BITS) + ") & " + MealPlan.SLOT_MASK + ", ? " +
+                    "FROM temp.PlannedMeals");
+            try {
+                charge.bindLong(1, messId);
+                charge.bindDouble(2, mealRate);
+                inserted = charge.executeUpdateDelete();
+            } finally {
+                charge.close();
+            }
+
+            db.execSQL("DROP TABLE temp.PlannedMeals");
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
 
-        while (cursor.moveToNext()) {
-            Meal meal = new Meal(
-                    cursor.getInt(cursor.getColumnIndexOrThrow("mealId")),
-                    cursor.getInt(cursor.getColumnIndexOrThrow("userId")),
-                    cursor.getInt(cursor.getColumnIndexOrThrow("messId")),
-                    cursor.getLong(cursor.getColumnIndexOrThrow("mealDate")),
-                    cursor.getInt(cursor.getColumnIndexOrThrow("breakfast")),
-                    cursor.getInt(cursor.getColumnIndexOrThrow("lunch")),
-                    cursor.getInt(cursor.getColumnIndexOrThrow("dinner")),
-                    cursor.getDouble(cursor.getColumnIndexOrThrow("mealRate"))
-            );
-            meals.add(meal);
+        for (long day : chargedMonths) {
+            versions.bumpMonth(MessKhataDatabase.TABLE_MEALS, messId, day);
         }
-        cursor.close();
-        return meals;
+        return inserted;
     }
 }
-
@@ -0,0 +1,269 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.DailyHeadcount;
+import com.messkhata.data.model.MealPlan;
+import com.messkhata.data.model.MealPlanCompiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Data Access Object for weekday meal schedules and date-range overrides
+ */
+public class MealScheduleDao {
+
+    private MessKhataDatabase dbHelper;
+    private MealDao mealDao;
+
+    public MealScheduleDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.mealDao = new MealDao(context);
+    }
+
+    /**
+     * Set a member's meals for one weekday
+     * @param weekday Calendar.SUNDAY ... Calendar.SATURDAY
+     * @return true if successful
+     */
+    public boolean saveWeekdaySchedule(int userId, int messId, int weekday,
+                                       int breakfast, int lunch, int dinner) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("userId", userId);
+            values.put("messId", messId);
+            values.put("weekday", weekday);
+            values.put("breakfast", breakfast);
+            values.put("lunch", lunch);
+            values.put("dinner", dinner);
+            values.put("updatedAt", System.currentTimeMillis() / 1000);
+            return db.insertWithOnConflict(MessKhataDatabase.TABLE_MEAL_SCHEDULES, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE) != -1;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Remove a member's schedule for one weekday (the preference applies again)
+     */
+    public boolean clearWeekdaySchedule(int userId, int messId, int weekday) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rows = db.delete(MessKhataDatabase.TABLE_MEAL_SCHEDULES,
+                "userId = ? AND messId = ? AND weekday = ?",
+                new String[]{String.valueOf(userId), String.valueOf(messId), String.valueOf(weekday)});
+        return rows > 0;
+    }
+
+    /**
+     * Get a member's weekday schedules
+     * @return Cursor with weekday, breakfast, lunch, dinner
+     */
+    public Cursor getWeekdaySchedules(int userId, int messId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        return db.rawQuery("SELECT weekday, breakfast, lunch, dinner FROM " +
+                        MessKhataDatabase.TABLE_MEAL_SCHEDULES +
+                        " WHERE userId = ? AND messId = ? ORDER BY weekday",
+                new String[]{String.valueOf(userId), String.valueOf(messId)});
+    }
+
+    /**
+     * Override a member's meals for a date range, e.g. 0/0/0 while away
+     * @param startDate Local midnight of the first day (seconds)
+     * @param endDate Local midnight of the last day, inclusive (seconds)
+     * @return Override ID or -1 if failed
+     */
+    public long addOverride(int userId, int messId, long startDate, long endDate,
+                            int breakfast, int lunch, int dinner) {
+        if (endDate < startDate) {
+            return -1;
+        }
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put("userId", userId);
+        values.put("messId", messId);
+        values.put("startDate", startDate);
+        values.put("endDate", endDate);
+        values.put("breakfast", breakfast);
+        values.put("lunch", lunch);
+        values.put("dinner", dinner);
+        values.put("createdAt", System.currentTimeMillis() / 1000);
+        return db.insert(MessKhataDatabase.TABLE_MEAL_SCHEDULE_OVERRIDES, null, values);
+    }
+
+    /**
+     * Delete an override
+     * @return true if successful
+     */
+    public boolean deleteOverride(long overrideId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rows = db.delete(MessKhataDatabase.TABLE_MEAL_SCHEDULE_OVERRIDES,
+                "overrideId = ?", new String[]{String.valueOf(overrideId)});
+        return rows > 0;
+    }
+
+    /**
+     * Get a member's overrides that end on or after a date
+     * @return Cursor with overrideId, startDate, endDate, breakfast, lunch, dinner
+     */
+    public Cursor getUpcomingOverrides(int userId, int messId, long fromDate) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        return db.rawQuery("SELECT overrideId, startDate, endDate, breakfast, lunch, dinner FROM " +
+                        MessKhataDatabase.TABLE_MEAL_SCHEDULE_OVERRIDES +
+                        " WHERE userId = ? AND messId = ? AND endDate >= ? ORDER BY startDate",
+                new String[]{String.valueOf(userId), String.valueOf(messId), String.valueOf(fromDate)});
+    }
+
+    /**
+     * Delete overrides that ended before a date
+     * @return Number of overrides deleted
+     */
+    public int pruneOverrides(int messId, long beforeDate) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        return db.delete(MessKhataDatabase.TABLE_MEAL_SCHEDULE_OVERRIDES,
+                "messId = ? AND endDate < ?",
+                new String[]{String.valueOf(messId), String.valueOf(beforeDate)});
+    }
+
+    /**
+     * Compile the planned meals of every active member of a mess
+     * Reads preferences, schedules and overrides once each; any day in the
+     * range can then be looked up in the returned plan without queries.
+     *
+     * @param firstDay Local midnight of the first day (seconds)
+     * @param dayCount Number of consecutive days
+     */
+    public MealPlan compilePlan(int messId, long firstDay, int dayCount) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        MealPlanCompiler compiler = new MealPlanCompiler(firstDay, dayCount);
+        String[] messArg = new String[]{String.valueOf(messId)};
+
+        Cursor cursor = db.rawQuery("SELECT u.userId, p.breakfast, p.lunch, p.dinner, p.effectiveFrom, " +
+                "p.prevBreakfast, p.prevLunch, p.prevDinner FROM " + MessKhataDatabase.TABLE_USERS + " u " +
+                "LEFT JOIN " + MessKhataDatabase.TABLE_CURRENT_MEAL_PREFERENCES + " p " +
+                "ON p.userId = u.userId AND p.messId = u.messId " +
+                "WHERE u.messId = ? AND u.isActive = 1", messArg);
+        while (cursor.moveToNext()) {
+            int userId = cursor.getInt(0);
+            compiler.addMember(userId);
+            if (!cursor.isNull(1)) {
+                int previous = cursor.isNull(5) ? 0
+                        : MealPlan.pack(cursor.getInt(5), cursor.getInt(6), cursor.getInt(7));
+                compiler.setPreference(userId, cursor.getInt(1), cursor.getInt(2), cursor.getInt(3),
+                        cursor.getLong(4), previous);
+            }
+        }
+        cursor.close();
+
+        // Earlier preferences, for days before the current one took effect;
+        // the previous preference above only covers the last change
+        long lastDay = compiler.getLastDayStart();
+        cursor = db.rawQuery("SELECT p.userId, p.breakfast, p.lunch, p.dinner, p.effectiveFrom FROM " +
+                MessKhataDatabase.TABLE_MEAL_PREFERENCES + " p " +
+                "JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = p.userId AND u.messId = p.messId " +
+                "WHERE p.messId = ? AND p.effectiveFrom <= ? AND u.isActive = 1 " +
+                "ORDER BY p.effectiveFrom, p.createdAt, p.preferenceId",
+                new String[]{String.valueOf(messId), String.valueOf(lastDay)});
+        while (cursor.moveToNext()) {
+            compiler.addPreference(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2), cursor.getInt(3),
+                    cursor.getLong(4));
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT s.userId, s.weekday, s.breakfast, s.lunch, s.dinner FROM " +
+                MessKhataDatabase.TABLE_MEAL_SCHEDULES + " s " +
+                "JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = s.userId AND u.messId = s.messId " +
+                "WHERE s.messId = ? AND u.isActive = 1", messArg);
+        while (cursor.moveToNext()) {
+            compiler.setWeekday(cursor.getInt(0), cursor.getInt(1),
+                    cursor.getInt(2), cursor.getInt(3), cursor.getInt(4));
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT o.userId, o.startDate, o.endDate, o.breakfast, o.lunch, o.dinner FROM " +
+                MessKhataDatabase.TABLE_MEAL_SCHEDULE_OVERRIDES + " o " +
+                "JOIN " + MessKhataDatabase.TABLE_USERS + " u ON u.userId = o.userId AND u.messId = o.messId " +
+                "WHERE o.messId = ? AND o.endDate >= ? AND o.startDate <= ? AND u.isActive = 1 " +
+                "ORDER BY o.createdAt, o.overrideId",
+                new String[]{String.valueOf(messId), String.valueOf(firstDay), String.valueOf(lastDay)});
+        while (cursor.moveToNext()) {
+            compiler.addOverride(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2),
+                    cursor.getInt(3), cursor.getInt(4), cursor.getInt(5));
+        }
+        cursor.close();
+
+        return compiler.compile();
+    }
+
+    /**
+     * Get the mess-wide headcount for each day of a range, for the cook view
+     * Merged per member: a member's recorded meals are used on days they have
+     * a Meals row, and their compiled plan on days they do not, so a day where
+     * only some members are charged still counts the rest. A day is marked as
+     * a forecast if any of its counts come from the plan.
+     *
+     * @param firstDay Local midnight of the first day (seconds)
+     * @param dayCount Number of consecutive days
+     */
+    public List<DailyHeadcount> getHeadcountForecast(int messId, long firstDay, int dayCount) {
+        MealPlan plan = compilePlan(messId, firstDay, dayCount);
+        List<DailyHeadcount> result = new ArrayList<>(dayCount);
+        if (dayCount <= 0) {
+            return result;
+        }
+        long lastDay = plan.getDayStart(dayCount - 1);
+
+        Map<Long, DailyHeadcount> recorded = new HashMap<>();
+        for (DailyHeadcount headcount : mealDao.getDailyHeadcounts(messId, firstDay, lastDay)) {
+            recorded.put(headcount.getMealDate(), headcount);
+        }
+
+        // Members with a Meals row, by day
+        Map<Long, Set<Integer>> recordedMembers = new HashMap<>();
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT mealDate, userId FROM " +
+                        MessKhataDatabase.TABLE_MEALS + " WHERE messId = ? AND mealDate >= ? AND mealDate <= ?",
+                new String[]{String.valueOf(messId), String.valueOf(firstDay), String.valueOf(lastDay)});
+        while (cursor.moveToNext()) {
+            Set<Integer> members = recordedMembers.get(cursor.getLong(0));
+            if (members == null) {
+                members = new HashSet<>();
+                recordedMembers.put(cursor.getLong(0), members);
+            }
+            members.add(cursor.getInt(1));
+        }
+        cursor.close();
+
+        for (int i = 0; i < dayCount; i++) {
+            long day = plan.getDayStart(i);
+            DailyHeadcount headcount = recorded.get(day);
+            Set<Integer> members = recordedMembers.get(day);
+            int[] counts = headcount != null
+                    ? new int[]{headcount.getBreakfast(), headcount.getLunch(), headcount.getDinner()}
+                    : new int[3];
+            boolean forecast = headcount == null;
+            for (int userId : plan.getUserIds()) {
+                int planned = plan.getDay(userId, i);
+                if (planned == 0 || (members != null && members.contains(userId))) {
+                    continue;
+                }
+                counts[0] += MealPlan.breakfast(planned);
+                counts[1] += MealPlan.lunch(planned);
+                counts[2] += MealPlan.dinner(planned);
+                forecast = true;
+            }
+            result.add(new DailyHeadcount(day, counts[0], counts[1], counts[2], forecast));
+        }
+        return result;
+    }
+}
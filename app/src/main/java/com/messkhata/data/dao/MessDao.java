@@ -4,15 +4,33 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import com.messkhata.data.cache.DataVersions;
 import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.MealRate;
 import com.messkhata.data.model.Mess;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class MessDao {
 
+    // SharedPreferences keys used for Firebase mappings before the IdMappings table
+    private static final String LEGACY_FIREBASE_MESS_ID = "firebase_mess_id_";
+    private static final String LEGACY_INVITATION_CODE = "invitation_code_";
+    private static final String LEGACY_LOCAL_MESS_ID = "local_mess_id_";
+
     private MessKhataDatabase dbHelper;
+    private IdMappingDao idMappingDao;
+    private MonthlyStatsDao monthlyStatsDao;
+    private LedgerDao ledgerDao;
 
     public MessDao(Context context) {
         this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.idMappingDao = new IdMappingDao(context);
+        this.monthlyStatsDao = new MonthlyStatsDao(context);
+        this.ledgerDao = new LedgerDao(context);
     }
 
     /**
@@ -67,6 +85,7 @@ public class MessDao {
                         userValues,
                         "userId = ?",
                         new String[] { String.valueOf(creatorUserId) });
+                DataVersions.getInstance().bumpTable(MessKhataDatabase.TABLE_USERS);
             }
 
             return messId;
@@ -109,6 +128,9 @@ public class MessDao {
                         values,
                         "userId = ?",
                         new String[] { String.valueOf(userId) });
+                if (rows > 0) {
+                    DataVersions.getInstance().bumpTable(MessKhataDatabase.TABLE_USERS);
+                }
                 return rows > 0;
             }
 
@@ -156,9 +178,111 @@ public class MessDao {
                 values,
                 "messId = ?",
                 new String[] { String.valueOf(messId) });
+        if (rows > 0) {
+            DataVersions.getInstance().bumpMess(MessKhataDatabase.TABLE_MESS, messId);
+        }
         return rows > 0;
     }
 
+    /**
+     * Change the mess meal rates from a given day onwards
+     * Updates the current rates and records the change in the rate history,
+     * so meals before effectiveFrom keep the rate they were eaten at.
+     *
+     * @param effectiveFrom Day the new rates apply from (seconds, local midnight)
+     */
+    public boolean changeMealRates(int messId, long effectiveFrom,
+            double groceryBudget, double cookingCharge) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (!updateMessRates(messId, groceryBudget, cookingCharge)) {
+                return false;
+            }
+            insertMealRate(db, new MealRate(messId, effectiveFrom, groceryBudget, cookingCharge));
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+        DataVersions.getInstance().bumpMess(MessKhataDatabase.TABLE_MEAL_RATES, messId);
+        // Meals from effectiveFrom on are now charged at the new rate
+        monthlyStatsDao.reconcile(messId, effectiveFrom);
+        ledgerDao.reconcile(messId);
+        return true;
+    }
+
+    /**
+     * Save rate history received from the cloud
+     * Rows for the same day are replaced, so applying a history twice is a no-op.
+     */
+    public void saveMealRates(int messId, List<MealRate> rates) {
+        if (rates == null || rates.isEmpty()) {
+            return;
+        }
+        Map<Long, MealRate> existing = new HashMap<>();
+        for (MealRate rate : getMealRates(messId)) {
+            existing.put(rate.getEffectiveFrom(), rate);
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long firstChanged = Long.MAX_VALUE;
+        db.beginTransaction();
+        try {
+            for (MealRate rate : rates) {
+                MealRate current = existing.get(rate.getEffectiveFrom());
+                if (current != null && current.getGrocery() == rate.getGrocery()
+                        && current.getCooking() == rate.getCooking()) {
+                    continue;
+                }
+                insertMealRate(db, new MealRate(messId, rate.getEffectiveFrom(),
+                        rate.getGrocery(), rate.getCooking()));
+                firstChanged = Math.min(firstChanged, rate.getEffectiveFrom());
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            db.endTransaction();
+        }
+        if (firstChanged != Long.MAX_VALUE) {
+            DataVersions.getInstance().bumpMess(MessKhataDatabase.TABLE_MEAL_RATES, messId);
+            monthlyStatsDao.reconcile(messId, Math.max(firstChanged, 1));
+            ledgerDao.reconcile(messId);
+        }
+    }
+
+    /**
+     * Get the rate history of a mess, oldest first
+     */
+    public List<MealRate> getMealRates(int messId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        List<MealRate> rates = new ArrayList<>();
+        Cursor cursor = db.rawQuery(
+                "SELECT effectiveFrom, grocery, cooking FROM " + MessKhataDatabase.TABLE_MEAL_RATES +
+                        " WHERE messId = ? ORDER BY effectiveFrom",
+                new String[] { String.valueOf(messId) });
+        while (cursor.moveToNext()) {
+            rates.add(new MealRate(messId, cursor.getLong(0), cursor.getDouble(1), cursor.getDouble(2)));
+        }
+        cursor.close();
+        return rates;
+    }
+
+    private void insertMealRate(SQLiteDatabase db, MealRate rate) {
+        ContentValues values = new ContentValues();
+        values.put("messId", rate.getMessId());
+        values.put("effectiveFrom", rate.getEffectiveFrom());
+        values.put("grocery", rate.getGrocery());
+        values.put("cooking", rate.getCooking());
+        values.put("updatedAt", System.currentTimeMillis() / 1000);
+        db.insertWithOnConflict(MessKhataDatabase.TABLE_MEAL_RATES, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
     /**
      * Get mess by ID as Mess object
      * 
@@ -217,52 +341,84 @@ public class MessDao {
                 values,
                 "messId = ?",
                 new String[] { String.valueOf(messId) });
+        if (rows > 0) {
+            DataVersions.getInstance().bumpMess(MessKhataDatabase.TABLE_MESS, messId);
+        }
         return rows > 0;
     }
 
     /**
      * Save Firebase mess ID and invitation code mapping
-     * Uses SharedPreferences for simplicity (could also use a separate table)
      */
     public void saveFirebaseMessId(int localMessId, String firebaseMessId, String invitationCode) {
-        android.content.SharedPreferences prefs = dbHelper.getWritableDatabase()
-                .getPath() != null ? android.preference.PreferenceManager.getDefaultSharedPreferences(
-                        com.messkhata.MessKhataApplication.getInstance()) : null;
-
-        if (prefs != null) {
-            prefs.edit()
-                    .putString("firebase_mess_id_" + localMessId, firebaseMessId)
-                    .putString("invitation_code_" + localMessId, invitationCode)
-                    .putInt("local_mess_id_" + firebaseMessId, localMessId)
-                    .apply();
-        }
+        idMappingDao.saveMapping(IdMappingDao.ENTITY_MESS, localMessId, firebaseMessId, invitationCode);
     }
 
     /**
      * Get Firebase mess ID for a local mess ID
      */
     public String getFirebaseMessId(int localMessId) {
-        android.content.SharedPreferences prefs = android.preference.PreferenceManager.getDefaultSharedPreferences(
-                com.messkhata.MessKhataApplication.getInstance());
-        return prefs.getString("firebase_mess_id_" + localMessId, null);
+        String firebaseMessId = idMappingDao.getFirebaseId(IdMappingDao.ENTITY_MESS, localMessId);
+        if (firebaseMessId == null && migrateLegacyMapping(localMessId)) {
+            firebaseMessId = idMappingDao.getFirebaseId(IdMappingDao.ENTITY_MESS, localMessId);
+        }
+        return firebaseMessId;
     }
 
     /**
      * Get local mess ID by Firebase ID
      */
     public int getMessIdByFirebaseId(String firebaseMessId) {
-        android.content.SharedPreferences prefs = android.preference.PreferenceManager.getDefaultSharedPreferences(
-                com.messkhata.MessKhataApplication.getInstance());
-        return prefs.getInt("local_mess_id_" + firebaseMessId, -1);
+        long localMessId = idMappingDao.getLocalId(IdMappingDao.ENTITY_MESS, firebaseMessId);
+        if (localMessId == -1 && firebaseMessId != null) {
+            android.content.SharedPreferences prefs = legacyPrefs();
+            int legacyId = prefs.getInt(LEGACY_LOCAL_MESS_ID + firebaseMessId, -1);
+            if (legacyId != -1 && migrateLegacyMapping(legacyId)) {
+                localMessId = idMappingDao.getLocalId(IdMappingDao.ENTITY_MESS, firebaseMessId);
+            }
+        }
+        return (int) localMessId;
     }
 
     /**
      * Get saved invitation code for a local mess
      */
     public String getSavedInvitationCode(int localMessId) {
-        android.content.SharedPreferences prefs = android.preference.PreferenceManager.getDefaultSharedPreferences(
+        String code = idMappingDao.getInvitationCode(IdMappingDao.ENTITY_MESS, localMessId);
+        if (code == null && migrateLegacyMapping(localMessId)) {
+            code = idMappingDao.getInvitationCode(IdMappingDao.ENTITY_MESS, localMessId);
+        }
+        return code != null ? code : getInvitationCode(localMessId);
+    }
+
+    /**
+     * Move a mapping written by older versions (SharedPreferences) into the
+     * IdMappings table and drop the old keys
+     * @return true if a legacy mapping was found
+     */
+    private boolean migrateLegacyMapping(int localMessId) {
+        android.content.SharedPreferences prefs = legacyPrefs();
+        String firebaseMessId = prefs.getString(LEGACY_FIREBASE_MESS_ID + localMessId, null);
+        if (firebaseMessId == null) {
+            return false;
+        }
+        String invitationCode = prefs.getString(LEGACY_INVITATION_CODE + localMessId, null);
+        if (!idMappingDao.saveMapping(IdMappingDao.ENTITY_MESS, localMessId, firebaseMessId,
+                invitationCode)) {
+            return false;
+        }
+
+        prefs.edit()
+                .remove(LEGACY_FIREBASE_MESS_ID + localMessId)
+                .remove(LEGACY_INVITATION_CODE + localMessId)
+                .remove(LEGACY_LOCAL_MESS_ID + firebaseMessId)
+                .apply();
+        return true;
+    }
+
+    private android.content.SharedPreferences legacyPrefs() {
+        return android.preference.PreferenceManager.getDefaultSharedPreferences(
                 com.messkhata.MessKhataApplication.getInstance());
-        return prefs.getString("invitation_code_" + localMessId, getInvitationCode(localMessId));
     }
 
     /**
@@ -0,0 +1,98 @@
+package com.messkhata.data.dao;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+
+/**
+ * Data Access Object for closing a month
+ *
+ * Closing works out the month's actual meal rate, grocery spend over meals
+ * eaten plus the cooking charge, and writes it with each member's adjusted
+ * meal charge to their MonthlyBills row in one UPDATE. Triggers (see
+ * MessKhataDatabase) run the same UPDATE again when a back-dated grocery
+ * expense or meal lands in a closed month, for that month only.
+ */
+public class MonthCloseDao {
+
+    private MessKhataDatabase dbHelper;
+    private BalanceCheckpointDao checkpointDao;
+
+    public MonthCloseDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.checkpointDao = new BalanceCheckpointDao(context);
+    }
+
+    /**
+     * Close a month: store its actual meal rate and members' adjusted meal
+     * charges in MonthlyBills and checkpoint members' balances
+     * Closing an already closed month recomputes it.
+     * @param month 1-12
+     * @return Number of bills updated, -1 if failed
+     */
+    public int closeMonth(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int updated;
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement(SchemaSql.recomputeBillsSql("?1", "?2", false));
+            statement.bindLong(1, messId);
+            statement.bindLong(2, year * 100 + month);
+            updated = statement.executeUpdateDelete();
+            statement.close();
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+
+        if (checkpointDao.checkpointMonth(messId, month, year) < 0) {
+            return -1;
+        }
+        return updated;
+    }
+
+    /**
+     * Check if a month has been closed
+     * @param month 1-12
+     */
+    public boolean isMonthClosed(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT 1 FROM " + MessKhataDatabase.TABLE_MONTHLY_BILLS +
+                        " WHERE messId = ? AND month = ? AND year = ? AND closedAt IS NOT NULL LIMIT 1",
+                new String[]{String.valueOf(messId), String.valueOf(month), String.valueOf(year)});
+        boolean closed = cursor.moveToFirst();
+        cursor.close();
+        return closed;
+    }
+
+    /**
+     * Get the actual meal rate of a month
+     * The stored rate of a closed month, otherwise the rate so far this month.
+     * @param month 1-12
+     */
+    public double getActualMealRate(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String[] args = new String[]{String.valueOf(messId), String.valueOf(month), String.valueOf(year)};
+        Cursor cursor = db.rawQuery("SELECT actualMealRate FROM " + MessKhataDatabase.TABLE_MONTHLY_BILLS +
+                " WHERE messId = ? AND month = ? AND year = ? AND closedAt IS NOT NULL LIMIT 1", args);
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            double rate = cursor.getDouble(0);
+            cursor.close();
+            return rate;
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT " + SchemaSql.actualMealRateSql("?1", "?2"),
+                new String[]{String.valueOf(messId), String.valueOf(year * 100 + month)});
+        double rate = cursor.moveToFirst() ? cursor.getDouble(0) : 0;
+        cursor.close();
+        return rate;
+    }
+}
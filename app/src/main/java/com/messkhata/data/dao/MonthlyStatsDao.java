@@ -0,0 +1,183 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.MonthlyStats;
+
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Data Access Object for the MessMonthlyStats summary table
+ *
+ * Rows are kept current by triggers on Expenses and Meals (see
+ * MessKhataDatabase); reconcile() recomputes them from the source tables
+ * and repairs any row that has drifted.
+ */
+public class MonthlyStatsDao {
+
+    private MessKhataDatabase dbHelper;
+
+    public MonthlyStatsDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+    }
+
+    /**
+     * Get the totals of one month with a single primary-key read
+     * @param month 1-12
+     * @return Stats row, all zero if the month has no expenses or meals
+     */
+    public MonthlyStats getMonthlyStats(int messId, int month, int year) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + MessKhataDatabase.TABLE_MONTHLY_STATS +
+                        " WHERE messId = ? AND year = ? AND month = ?",
+                new String[]{String.valueOf(messId), String.valueOf(year), String.valueOf(month)});
+
+        MonthlyStats stats = cursor.moveToFirst() ? fromCursor(cursor) : new MonthlyStats(messId, year, month);
+        cursor.close();
+        return stats;
+    }
+
+    /**
+     * Recompute the stats of a mess from Expenses and Meals and repair rows
+     * that differ, e.g. after a rate change or a device timezone change
+     *
+     * @param fromDate Only months from the one containing this date (seconds);
+     *                 0 checks every month
+     * @return Number of rows written or deleted, -1 if failed
+     */
+    public int reconcile(int messId, long fromDate) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long fromStart = 0;
+        int fromKey = 0;
+        if (fromDate > 0) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(fromDate * 1000);
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            fromStart = calendar.getTimeInMillis() / 1000;
+            fromKey = calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+        }
+        String[] args = new String[]{String.valueOf(messId), String.valueOf(fromStart)};
+
+        db.beginTransaction();
+        try {
+            Map<Integer, MonthlyStats> expected = new TreeMap<>();
+
+            Cursor cursor = db.rawQuery("SELECT " + SchemaSql.monthKeySql("e.expenseDate") + " AS monthKey, " +
+                    "e.categoryCode, COUNT(*), SUM(e.amount) FROM " + MessKhataDatabase.TABLE_EXPENSES + " e " +
+                    "WHERE e.messId = ? AND e.expenseDate >= ? GROUP BY monthKey, e.categoryCode", args);
+            while (cursor.moveToNext()) {
+                MonthlyStats stats = expectedRow(expected, messId, cursor.getInt(0));
+                ExpenseCategory category = ExpenseCategory.fromCode(cursor.getInt(1));
+                stats.setExpenseCount(stats.getExpenseCount() + cursor.getInt(2));
+                stats.setCategoryTotal(category, stats.getCategoryTotal(category) + cursor.getDouble(3));
+            }
+            cursor.close();
+
+            cursor = db.rawQuery("SELECT " + SchemaSql.monthKeySql("m.mealDate") + " AS monthKey, COUNT(*), " +
+                    "SUM(m.breakfast + m.lunch + m.dinner), " +
+                    "SUM((m.breakfast + m.lunch + m.dinner) * " + SchemaSql.effectiveRateSql("m") + ") " +
+                    "FROM " + MessKhataDatabase.TABLE_MEALS + " m " +
+                    "WHERE m.messId = ? AND m.mealDate >= ? GROUP BY monthKey", args);
+            while (cursor.moveToNext()) {
+                MonthlyStats stats = expectedRow(expected, messId, cursor.getInt(0));
+                stats.setMealCount(cursor.getInt(1));
+                stats.setTotalMeals(cursor.getInt(2));
+                stats.setMealExpenses(cursor.getDouble(3));
+            }
+            cursor.close();
+
+            int repaired = 0;
+            cursor = db.rawQuery("SELECT * FROM " + MessKhataDatabase.TABLE_MONTHLY_STATS +
+                            " WHERE messId = ? AND year * 100 + month >= ?",
+                    new String[]{String.valueOf(messId), String.valueOf(fromKey)});
+            while (cursor.moveToNext()) {
+                MonthlyStats stored = fromCursor(cursor);
+                MonthlyStats stats = expected.remove(stored.getYear() * 100 + stored.getMonth());
+                if (stats == null) {
+                    db.delete(MessKhataDatabase.TABLE_MONTHLY_STATS,
+                            "messId = ? AND year = ? AND month = ?",
+                            new String[]{String.valueOf(messId), String.valueOf(stored.getYear()),
+                                    String.valueOf(stored.getMonth())});
+                    repaired++;
+                } else if (!stats.matches(stored)) {
+                    writeRow(db, stats);
+                    repaired++;
+                }
+            }
+            cursor.close();
+
+            // Months with data but no stats row at all
+            for (MonthlyStats stats : expected.values()) {
+                writeRow(db, stats);
+                repaired++;
+            }
+
+            if (repaired > 0) {
+                // Repaired rows differ from what may have been cached
+                DataVersions.getInstance().bumpMess(MessKhataDatabase.TABLE_MONTHLY_STATS, messId);
+            }
+            db.setTransactionSuccessful();
+            return repaired;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static MonthlyStats expectedRow(Map<Integer, MonthlyStats> expected, int messId, int monthKey) {
+        MonthlyStats stats = expected.get(monthKey);
+        if (stats == null) {
+            stats = new MonthlyStats(messId, monthKey / 100, monthKey % 100);
+            expected.put(monthKey, stats);
+        }
+        return stats;
+    }
+
+    private static void writeRow(SQLiteDatabase db, MonthlyStats stats) {
+        ContentValues values = new ContentValues();
+        values.put("messId", stats.getMessId());
+        values.put("year", stats.getYear());
+        values.put("month", stats.getMonth());
+        for (ExpenseCategory category : ExpenseCategory.values()) {
+            values.put(SchemaSql.CATEGORY_COLUMNS[category.getCode()], stats.getCategoryTotal(category));
+        }
+        values.put("expenseCount", stats.getExpenseCount());
+        values.put("totalMealsConsumed", stats.getTotalMeals());
+        values.put("totalMealExpenses", stats.getMealExpenses());
+        values.put("mealCount", stats.getMealCount());
+        values.put("updatedAt", System.currentTimeMillis() / 1000);
+        db.insertWithOnConflict(MessKhataDatabase.TABLE_MONTHLY_STATS, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static MonthlyStats fromCursor(Cursor cursor) {
+        MonthlyStats stats = new MonthlyStats(
+                cursor.getInt(cursor.getColumnIndexOrThrow("messId")),
+                cursor.getInt(cursor.getColumnIndexOrThrow("year")),
+                cursor.getInt(cursor.getColumnIndexOrThrow("month")));
+        for (ExpenseCategory category : ExpenseCategory.values()) {
+            stats.setCategoryTotal(category,
+                    cursor.getDouble(cursor.getColumnIndexOrThrow(SchemaSql.CATEGORY_COLUMNS[category.getCode()])));
+        }
+        stats.setExpenseCount(cursor.getInt(cursor.getColumnIndexOrThrow("expenseCount")));
+        stats.setTotalMeals(cursor.getInt(cursor.getColumnIndexOrThrow("totalMealsConsumed")));
+        stats.setMealExpenses(cursor.getDouble(cursor.getColumnIndexOrThrow("totalMealExpenses")));
+        stats.setMealCount(cursor.getInt(cursor.getColumnIndexOrThrow("mealCount")));
+        return stats;
+    }
+}
@@ -0,0 +1,117 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+
+/**
+ * Data Access Object for member payments
+ * Each payment is filed under the member's MonthlyBills row for the month
+ * it was paid in; the ledger and bill totals follow through triggers.
+ */
+public class PaymentDao {
+
+    private MessKhataDatabase dbHelper;
+    private DataVersions versions;
+
+    public PaymentDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.versions = DataVersions.getInstance();
+    }
+
+    /**
+     * Record a payment from a member
+     * @param paidDate Payment date (seconds)
+     * @param addedBy User who recorded the payment
+     * @return Payment ID or -1 if failed
+     */
+    public long recordPayment(int userId, int messId, double amount, long paidDate,
+                              int addedBy, String paymentMethod, String notes) {
+        if (amount <= 0) {
+            return -1;
+        }
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long billId = getOrCreateBill(db, userId, messId, paidDate);
+            if (billId == -1) {
+                return -1;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put("billId", billId);
+            values.put("userId", userId);
+            values.put("messId", messId);
+            values.put("amount", amount);
+            values.put("paidDate", paidDate);
+            values.put("addedBy", addedBy);
+            if (paymentMethod != null) {
+                values.put("paymentMethod", paymentMethod);
+            }
+            values.put("notes", notes);
+            long paymentId = db.insert(MessKhataDatabase.TABLE_PAYMENTS, null, values);
+            if (paymentId != -1) {
+                db.setTransactionSuccessful();
+            }
+            return paymentId;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            db.endTransaction();
+            versions.bumpMonth(MessKhataDatabase.TABLE_PAYMENTS, messId, paidDate);
+        }
+    }
+
+    /**
+     * Delete a payment recorded by mistake
+     * @return true if successful
+     */
+    public boolean deletePayment(long paymentId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String[] args = new String[]{String.valueOf(paymentId)};
+
+        Cursor cursor = db.rawQuery("SELECT messId, paidDate FROM " + MessKhataDatabase.TABLE_PAYMENTS +
+                " WHERE paymentId = ?", args);
+        long[] month = cursor.moveToFirst() ? new long[]{cursor.getLong(0), cursor.getLong(1)} : null;
+        cursor.close();
+
+        int rows = db.delete(MessKhataDatabase.TABLE_PAYMENTS, "paymentId = ?", args);
+        if (rows > 0 && month != null) {
+            versions.bumpMonth(MessKhataDatabase.TABLE_PAYMENTS, (int) month[0], month[1]);
+        }
+        return rows > 0;
+    }
+
+    /**
+     * Get a member's payments, newest first
+     * @return Cursor with paymentId, amount, paidDate, paymentMethod, notes
+     */
+    public Cursor getPaymentsForUser(int userId, int messId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        return db.rawQuery("SELECT paymentId, amount, paidDate, paymentMethod, notes FROM " +
+                        MessKhataDatabase.TABLE_PAYMENTS +
+                        " WHERE userId = ? AND messId = ? ORDER BY paidDate DESC, paymentId DESC",
+                new String[]{String.valueOf(userId), String.valueOf(messId)});
+    }
+
+    private long getOrCreateBill(SQLiteDatabase db, int userId, int messId, long date) {
+        String monthKey = SchemaSql.monthKeySql(String.valueOf(date));
+        String[] args = new String[]{String.valueOf(userId), String.valueOf(messId)};
+        db.execSQL("INSERT OR IGNORE INTO " + MessKhataDatabase.TABLE_MONTHLY_BILLS +
+                " (userId, messId, month, year) VALUES (?, ?, " +
+                monthKey + " % 100, " + monthKey + " / 100)", args);
+
+        Cursor cursor = db.rawQuery("SELECT billId FROM " + MessKhataDatabase.TABLE_MONTHLY_BILLS +
+                " WHERE userId = ? AND messId = ? AND month = " + monthKey + " % 100 AND year = " +
+                monthKey + " / 100", args);
+        long billId = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        cursor.close();
+        return billId;
+    }
+}
@@ -0,0 +1,210 @@
+package com.messkhata.data.dao;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.Expense;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.RecurringExpenseRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data Access Object for recurring expense rules
+ *
+ * Rules are materialised lazily: addDueExpenses() adds every occurrence
+ * that has fallen due since the last run, for all rules of a mess, in one
+ * transaction that also advances each rule's nextOccurrence. An occurrence
+ * is stored with its rule and date under a UNIQUE index, so running again,
+ * or after a run that failed part way, never adds it twice.
+ */
+public class RecurringExpenseDao {
+
+    // Occurrences of one rule added per run; a rule further behind (device
+    // off for months, or a start date long ago) catches up over later runs
+    static final int MAX_CATCH_UP = 31;
+
+    // Expenses added per run, Firestore's limit on writes per batch
+    static final int MAX_PER_RUN = 500;
+
+    private MessKhataDatabase dbHelper;
+    private DataVersions versions;
+
+    public RecurringExpenseDao(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.versions = DataVersions.getInstance();
+    }
+
+    /**
+     * Add a rule; its first occurrence is its start date
+     * @return ruleId if successful, -1 if failed
+     */
+    public long addRule(RecurringExpenseRule rule) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        try {
+            ContentValues values = new ContentValues();
+            values.put("messId", rule.getMessId());
+            values.put("addedBy", rule.getAddedBy());
+            values.put("category", ExpenseCategory.fromName(rule.getCategory()).getName());
+            values.put("amount", rule.getAmount());
+            values.put("title", rule.getTitle());
+            values.put("description", rule.getDescription());
+            values.put("frequency", rule.getFrequency());
+            values.put("repeatInterval", rule.getInterval());
+            values.put("startDate", rule.getStartDate());
+            if (rule.getEndDate() > 0) {
+                values.put("endDate", rule.getEndDate());
+            }
+            values.put("nextOccurrence", rule.getNextOccurrence());
+            values.put("isActive", 1);
+
+            long ruleId = db.insert(MessKhataDatabase.TABLE_RECURRING_EXPENSE_RULES, null, values);
+            if (ruleId != -1) {
+                rule.setRuleId((int) ruleId);
+            }
+            return ruleId;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Get the rules of a mess that still repeat, oldest first
+     */
+    public List<RecurringExpenseRule> getActiveRules(int messId) {
+        List<RecurringExpenseRule> rules = new ArrayList<>();
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT ruleId, messId, addedBy, category, " +
+                        "amount, title, description, frequency, repeatInterval, startDate, endDate, " +
+                        "nextOccurrence FROM " + MessKhataDatabase.TABLE_RECURRING_EXPENSE_RULES +
+                        " WHERE messId = ? AND isActive = 1 ORDER BY ruleId",
+                new String[]{String.valueOf(messId)});
+
+        while (cursor.moveToNext()) {
+            RecurringExpenseRule rule = new RecurringExpenseRule(cursor.getInt(1), cursor.getInt(2),
+                    cursor.getString(3), cursor.getDouble(4), cursor.getString(5), cursor.getString(6),
+                    cursor.getString(7), cursor.getInt(8), cursor.getLong(9));
+            rule.setRuleId(cursor.getInt(0));
+            rule.setEndDate(cursor.isNull(10) ? 0 : cursor.getLong(10));
+            rule.setNextOccurrence(cursor.getInt(11));
+            rules.add(rule);
+        }
+        cursor.close();
+        return rules;
+    }
+
+    /**
+     * Stop a rule repeating; expenses it already added are kept
+     * @return true if successful
+     */
+    public boolean stopRule(int ruleId) {
+        ContentValues values = new ContentValues();
+        values.put("isActive", 0);
+        return dbHelper.getWritableDatabase().update(MessKhataDatabase.TABLE_RECURRING_EXPENSE_RULES, values,
+                "ruleId = ?", new String[]{String.valueOf(ruleId)}) > 0;
+    }
+
+    /**
+     * Add the occurrences of all active rules of a mess that are due by a
+     * day, at most MAX_CATCH_UP per rule and MAX_PER_RUN in all
+     *
+     * Each expense is split between the members who had joined by its date,
+     * as the ledger triggers split it (see SchemaSql.sharingMembersSql).
+     *
+     * @param dayStart Local midnight of the last day due, in seconds
+     * @return The expenses added, for upload; null on error
+     */
+    public List<Expense> addDueExpenses(int messId, long dayStart) {
+        List<RecurringExpenseRule> rules = getActiveRules(messId);
+        List<Expense> added = new ArrayList<>();
+        if (rules.isEmpty()) {
+            return added;
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + MessKhataDatabase.TABLE_EXPENSES +
+                " (messId, addedBy, category, categoryCode, amount, title, description, expenseDate, " +
+                "memberCountAtTime, recurringRuleId, recurrenceDate, createdAt, updatedAt) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement sharingMembers = db.compileStatement("SELECT COUNT(*) FROM " +
+                MessKhataDatabase.TABLE_USERS + " WHERE messId = ? AND joinedDate < ?");
+        SQLiteStatement advance = db.compileStatement("UPDATE " +
+                MessKhataDatabase.TABLE_RECURRING_EXPENSE_RULES +
+                " SET nextOccurrence = ?, isActive = ? WHERE ruleId = ?");
+
+        Map<Integer, Long> addedMonths = new HashMap<>(); // monthKey -> a day in it
+        long now = System.currentTimeMillis() / 1000;
+        db.beginTransaction();
+        try {
+            for (RecurringExpenseRule rule : rules) {
+                ExpenseCategory category = ExpenseCategory.fromName(rule.getCategory());
+                int occurrence = rule.getNextOccurrence();
+                int caughtUp = 0;
+                while (caughtUp < MAX_CATCH_UP && added.size() < MAX_PER_RUN
+                        && rule.isDue(occurrence, dayStart)) {
+                    long date = rule.getOccurrenceDate(occurrence);
+                    sharingMembers.bindLong(1, messId);
+                    sharingMembers.bindLong(2, date);
+                    int memberCount = (int) Math.max(1, sharingMembers.simpleQueryForLong());
+
+                    insert.clearBindings();
+                    insert.bindLong(1, messId);
+                    insert.bindLong(2, rule.getAddedBy());
+                    insert.bindString(3, category.getName());
+                    insert.bindLong(4, category.getCode());
+                    insert.bindDouble(5, rule.getAmount());
+                    insert.bindString(6, rule.getTitle());
+                    if (rule.getDescription() != null) {
+                        insert.bindString(7, rule.getDescription());
+                    }
+                    insert.bindLong(8, date);
+                    insert.bindLong(9, memberCount);
+                    insert.bindLong(10, rule.getRuleId());
+                    insert.bindLong(11, date);
+                    insert.bindLong(12, now);
+                    insert.bindLong(13, now);
+                    long expenseId = insert.executeInsert();
+                    if (expenseId != -1) {
+                        added.add(new Expense((int) expenseId, messId, rule.getAddedBy(), category.getName(),
+                                rule.getAmount(), rule.getTitle(), rule.getDescription(), date, memberCount, now));
+                        addedMonths.put(DataVersions.monthKey(date), date);
+                    }
+                    occurrence++;
+                    caughtUp++;
+                }
+
+                boolean finished = rule.isFinished(occurrence);
+                if (occurrence != rule.getNextOccurrence() || finished) {
+                    advance.bindLong(1, occurrence);
+                    advance.bindLong(2, finished ? 0 : 1);
+                    advance.bindLong(3, rule.getRuleId());
+                    advance.executeUpdateDelete();
+                    rule.setNextOccurrence(occurrence);
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            db.endTransaction();
+            insert.close();
+            sharingMembers.close();
+            advance.close();
+        }
+
+        for (long day : addedMonths.values()) {
+            versions.bumpMonth(MessKhataDatabase.TABLE_EXPENSES, messId, day);
+        }
+        return added;
+    }
+}
@@ -4,8 +4,15 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.cache.ReportCache;
 import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.database.SchemaSql;
+import com.messkhata.data.model.ExpenseCategory;
 import com.messkhata.data.model.MemberBalance;
+import com.messkhata.data.model.MonthlyStats;
+import com.messkhata.data.model.SettlementPlanner;
+import com.messkhata.data.model.TrendReport;
 
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -19,65 +26,101 @@ public class ReportDao {
     private MessKhataDatabase dbHelper;
     private MealDao mealDao;
     private ExpenseDao expenseDao;
+    private MonthlyStatsDao monthlyStatsDao;
+    private MonthCloseDao monthCloseDao;
+    private ReportCache reportCache;
 
     public ReportDao(Context context) {
         this.dbHelper = MessKhataDatabase.getInstance(context);
         this.mealDao = new MealDao(context);
         this.expenseDao = new ExpenseDao(context);
+        this.monthlyStatsDao = new MonthlyStatsDao(context);
+        this.monthCloseDao = new MonthCloseDao(context);
+        this.reportCache = ReportCache.getInstance();
+    }
+
+    /**
+     * Get the month summary: category totals, meals and meal expenses
+     * Read from the trigger-maintained MessMonthlyStats row.
+     * @return Stats for the month, all zero if nothing was recorded
+     */
+    public MonthlyStats getMonthlyStats(int messId, int month, int year) {
+        return reportCache.get("monthlyStats", messId, year * 100 + month,
+                () -> monthlyStatsDao.getMonthlyStats(messId, month, year),
+                MessKhataDatabase.TABLE_MONTHLY_STATS, MessKhataDatabase.TABLE_EXPENSES,
+                MessKhataDatabase.TABLE_MEALS, MessKhataDatabase.TABLE_MEAL_RATES);
     }
 
     /**
      * Get member expense summary (all-time cumulative)
-     * Shows each member's total meals and total expenses since they joined
+     * Reads each member's running totals from the trigger-maintained
+     * MemberLedger: all meals, share of expenses since joining, and payments.
      * @return List of MemberBalance objects with cumulative data
      */
     public List<MemberBalance> getMemberBalances(int messId, int month, int year) {
+        // Cumulative, so a write to any month of the mess invalidates it
+        return new ArrayList<>(reportCache.get("memberBalances", messId, DataVersions.ALL_MONTHS,
+                () -> loadMemberBalances(messId),
+                MessKhataDatabase.TABLE_USERS, MessKhataDatabase.TABLE_MEMBER_LEDGER,
+                MessKhataDatabase.TABLE_MEALS, MessKhataDatabase.TABLE_EXPENSES,
+                MessKhataDatabase.TABLE_PAYMENTS, MessKhataDatabase.TABLE_MEAL_RATES));
+    }
+
+    private List<MemberBalance> loadMemberBalances(int messId) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
         List<MemberBalance> balances = new ArrayList<>();
 
-        // Get all members of the mess
-        String query = "SELECT userId, fullName, joinedDate FROM " + MessKhataDatabase.TABLE_USERS +
-                " WHERE messId = ? AND isActive = 1 ORDER BY fullName ASC";
+        String query = "SELECT u.userId, u.fullName, " +
+                "COALESCE(l.mealCount, 0), COALESCE(l.mealCharges, 0) + COALESCE(l.sharedCharges, 0), " +
+                "COALESCE(l.totalPaid, 0) FROM " + MessKhataDatabase.TABLE_USERS + " u " +
+                "LEFT JOIN " + MessKhataDatabase.TABLE_MEMBER_LEDGER + " l " +
+                "ON l.userId = u.userId AND l.messId = u.messId " +
+                "WHERE u.messId = ? AND u.isActive = 1 ORDER BY u.fullName ASC";
         Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(messId)});
 
         while (cursor.moveToNext()) {
-            long userId = cursor.getLong(0);
-            String fullName = cursor.getString(1);
-            long joinedDate = cursor.getLong(2);
-
-            // Get ALL-TIME total meals for this user (cumulative)
-            String mealQuery = "SELECT SUM(breakfast + lunch + dinner) as total FROM " +
-                    MessKhataDatabase.TABLE_MEALS + " WHERE userId = ?";
-            Cursor mealCursor = db.rawQuery(mealQuery, new String[]{String.valueOf(userId)});
-            int totalMeals = 0;
-            if (mealCursor.moveToFirst() && !mealCursor.isNull(0)) {
-                totalMeals = mealCursor.getInt(0);
-            }
-            mealCursor.close();
-
-            // Get cumulative meal expense (all user's meals)
-            double mealExpense = mealDao.getCumulativeMealExpenseFromJoinDate((int) userId, joinedDate);
-
-            // Get user's share of shared expenses (only expenses after they joined)
-            double sharedExpense = expenseDao.getAccurateUserShareOfExpenses(messId, joinedDate);
+            balances.add(new MemberBalance(
+                cursor.getLong(0),
+                cursor.getString(1),
+                cursor.getInt(2),
+                cursor.getDouble(3),
+                cursor.getDouble(4)
+            ));
+        }
+        cursor.close();
+        return balances;
+    }
 
-            // Total expense = meal expense + shared expense
-            double totalExpense = mealExpense + sharedExpense;
+    /**
+     * Plan how members settle up with each other
+     * Starts from each member's due amount, credits the expenses they paid
+     * for out of pocket and debits the payments they collected, since that
+     * cash is still with them.
+     * @return Planner over the active members; re-plans as payments are recorded
+     */
+    public SettlementPlanner getSettlementPlanner(int messId, int month, int year) {
+        SettlementPlanner planner = new SettlementPlanner(getMemberBalances(messId, month, year));
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String[] args = new String[]{String.valueOf(messId)};
 
-            // For now, totalPaid is 0 (payment tracking can be added later)
-            double totalPaid = 0.0;
+        Cursor cursor = db.rawQuery("SELECT addedBy, SUM(amount) FROM " + MessKhataDatabase.TABLE_EXPENSES +
+                " WHERE messId = ? GROUP BY addedBy", args);
+        while (cursor.moveToNext()) {
+            if (planner.hasMember(cursor.getLong(0))) {
+                planner.adjustBalance(cursor.getLong(0), -SettlementPlanner.toMinor(cursor.getDouble(1)));
+            }
+        }
+        cursor.close();
 
-            MemberBalance balance = new MemberBalance(
-                userId,
-                fullName,
-                totalMeals,
-                totalExpense,
-                totalPaid
-            );
-            balances.add(balance);
+        cursor = db.rawQuery("SELECT addedBy, SUM(amount) FROM " + MessKhataDatabase.TABLE_PAYMENTS +
+                " WHERE messId = ? GROUP BY addedBy", args);
+        while (cursor.moveToNext()) {
+            if (planner.hasMember(cursor.getLong(0))) {
+                planner.adjustBalance(cursor.getLong(0), SettlementPlanner.toMinor(cursor.getDouble(1)));
+            }
         }
         cursor.close();
-        return balances;
+        return planner;
     }
 
     /**
@@ -86,6 +129,13 @@ public class ReportDao {
      * @return Total amount across all categories
      */
     public double getTotalExpenses(int messId, int month, int year) {
+        return reportCache.get("totalExpenses", messId, year * 100 + month,
+                () -> loadTotalExpenses(messId, month, year),
+                MessKhataDatabase.TABLE_EXPENSES, MessKhataDatabase.TABLE_MEALS,
+                MessKhataDatabase.TABLE_MEAL_RATES);
+    }
+
+    private double loadTotalExpenses(int messId, int month, int year) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
 
         // Calculate start and end timestamps for the month
@@ -114,9 +164,10 @@ public class ReportDao {
         cursor.close();
         
         // Get total meal expenses from Meals table
-        String mealQuery = "SELECT SUM((breakfast + lunch + dinner) * mealRate) as total FROM " +
-                MessKhataDatabase.TABLE_MEALS +
-                " WHERE messId = ? AND mealDate >= ? AND mealDate < ?";
+        String mealQuery = "SELECT SUM((m.breakfast + m.lunch + m.dinner) * " +
+                SchemaSql.effectiveRateSql("m") + ") as total FROM " +
+                MessKhataDatabase.TABLE_MEALS + " m" +
+                " WHERE m.messId = ? AND m.mealDate >= ? AND m.mealDate < ?";
         
         cursor = db.rawQuery(mealQuery, new String[]{
             String.valueOf(messId),
@@ -138,7 +189,7 @@ public class ReportDao {
      * @return Total grocery amount
      */
     public double getGroceryTotal(int messId, int month, int year) {
-        return expenseDao.getTotalExpenseByCategory(messId, "grocery", month, year);
+        return expenseDao.getCategoryTotals(messId, month, year)[ExpenseCategory.GROCERY.getCode()];
     }
 
     /**
@@ -150,35 +201,16 @@ public class ReportDao {
     }
 
     /**
-     * Get the fixed meal rate for a specific month
-     * Uses the fixed rate from Mess settings (not calculated)
-     * @return Fixed meal rate per meal
+     * Get the actual meal rate for a specific month
+     * Grocery spend over meals eaten plus the cooking charge; stored when
+     * the month closes, worked out so far for an open month.
+     * @return Actual meal rate per meal
      */
     public double calculateMealRate(int messId, int month, int year) {
-        // Return the fixed meal rate from Mess settings
-        return getEstimatedMealRate(messId);
-    }
-
-    /**
-     * Get estimated meal rate (grocery budget + cooking charge)
-     * Used before month-end calculation
-     * @return Estimated meal rate
-     */
-    private double getEstimatedMealRate(int messId) {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-
-        String query = "SELECT groceryBudgetPerMeal, cookingChargePerMeal FROM " +
-                MessKhataDatabase.TABLE_MESS + " WHERE messId = ?";
-        Cursor cursor = db.rawQuery(query, new String[]{String.valueOf(messId)});
-
-        double rate = 50.0; // Default
-        if (cursor.moveToFirst()) {
-            double groceryBudget = cursor.getDouble(0);
-            double cookingCharge = cursor.getDouble(1);
-            rate = groceryBudget + cookingCharge;
-        }
-        cursor.close();
-        return rate;
+        return reportCache.get("actualMealRate", messId, year * 100 + month,
+                () -> monthCloseDao.getActualMealRate(messId, month, year),
+                MessKhataDatabase.TABLE_EXPENSES, MessKhataDatabase.TABLE_MEALS,
+                MessKhataDatabase.TABLE_MEAL_RATES, MessKhataDatabase.TABLE_MESS);
     }
 
     /**
@@ -202,17 +234,17 @@ public class ReportDao {
 
     /**
      * Calculate shared expenses per member
-     * (utilities + cleaning + gas + rent + miscellaneous) / numberOfMembers
+     * (every category except grocery) / numberOfMembers
      * @return Per-member share of fixed expenses
      */
     private double getSharedExpensesPerMember(int messId, int month, int year) {
-        double utilities = expenseDao.getTotalExpenseByCategory(messId, "utilities", month, year);
-        double cleaning = expenseDao.getTotalExpenseByCategory(messId, "cleaning", month, year);
-        double gas = expenseDao.getTotalExpenseByCategory(messId, "gas", month, year);
-        double rent = expenseDao.getTotalExpenseByCategory(messId, "rent", month, year);
-        double misc = expenseDao.getTotalExpenseByCategory(messId, "miscellaneous", month, year);
-
-        double totalShared = utilities + cleaning + gas + rent + misc;
+        double[] totals = expenseDao.getCategoryTotals(messId, month, year);
+        double totalShared = 0;
+        for (ExpenseCategory category : ExpenseCategory.values()) {
+            if (category != ExpenseCategory.GROCERY) {
+                totalShared += totals[category.getCode()];
+            }
+        }
         int memberCount = getActiveMemberCount(messId);
 
         if (memberCount == 0) return 0;
@@ -275,25 +307,90 @@ public class ReportDao {
 
     /**
      * Get expense breakdown by category for a month
-     * @return Array of [grocery, utilities, cleaning, gas, rent, miscellaneous]
+     * @return Totals indexed by ExpenseCategory code
      */
     public double[] getExpenseBreakdown(int messId, int month, int year) {
-        double[] breakdown = new double[6];
-        breakdown[0] = expenseDao.getTotalExpenseByCategory(messId, "grocery", month, year);
-        breakdown[1] = expenseDao.getTotalExpenseByCategory(messId, "utilities", month, year);
-        breakdown[2] = expenseDao.getTotalExpenseByCategory(messId, "cleaning", month, year);
-        breakdown[3] = expenseDao.getTotalExpenseByCategory(messId, "gas", month, year);
-        breakdown[4] = expenseDao.getTotalExpenseByCategory(messId, "rent", month, year);
-        breakdown[5] = expenseDao.getTotalExpenseByCategory(messId, "miscellaneous", month, year);
-        return breakdown;
+        return expenseDao.getCategoryTotals(messId, month, year);
     }
     
     /**
      * Get total expenses for a specific category
-     * @param category Category name (matches exactly as stored)
+     * @param category Category name; legacy names match their canonical category
      * @return Total amount for the category
      */
     public double getExpenseByCategory(int messId, String category, int month, int year) {
-        return expenseDao.getTotalExpenseByCategory(messId, category, month, year);
+        return expenseDao.getCategoryTotals(messId, month, year)[ExpenseCategory.fromName(category).getCode()];
+    }
+
+    /**
+     * Get category spend and meals per member for consecutive months ending
+     * with the given one, using one grouped scan of Expenses and one of Meals
+     * @param monthCount Number of months, e.g. 6 or 12
+     * @return Dense month x category and month x member matrices
+     */
+    public TrendReport getTrendReport(int messId, int endMonth, int endYear, int monthCount) {
+        // Spans several months, so it is stamped with the mess-wide versions
+        return reportCache.get("trend:" + (endYear * 100 + endMonth) + ":" + monthCount,
+                messId, DataVersions.ALL_MONTHS,
+                () -> loadTrendReport(messId, endMonth, endYear, monthCount),
+                MessKhataDatabase.TABLE_EXPENSES, MessKhataDatabase.TABLE_MEALS,
+                MessKhataDatabase.TABLE_USERS);
+    }
+
+    private TrendReport loadTrendReport(int messId, int endMonth, int endYear, int monthCount) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        int[] monthKeys = TrendReport.monthRange(endYear, endMonth, monthCount);
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(monthKeys[0] / 100, monthKeys[0] % 100 - 1, 1, 0, 0, 0);
+        long startDate = calendar.getTimeInMillis() / 1000;
+        calendar.set(endYear, endMonth - 1, 1, 0, 0, 0);
+        calendar.add(Calendar.MONTH, 1);
+        long endDate = calendar.getTimeInMillis() / 1000;
+        String[] args = new String[]{String.valueOf(messId), String.valueOf(startDate), String.valueOf(endDate)};
+
+        // Current members, plus former members who ate in the range
+        List<Integer> ids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT userId, fullName FROM " + MessKhataDatabase.TABLE_USERS +
+                " WHERE messId = ? OR userId IN (SELECT userId FROM " + MessKhataDatabase.TABLE_MEALS +
+                " WHERE messId = ? AND mealDate >= ? AND mealDate < ?) ORDER BY fullName",
+                new String[]{args[0], args[0], args[1], args[2]});
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getInt(0));
+            names.add(cursor.getString(1));
+        }
+        cursor.close();
+        int[] memberIds = new int[ids.size()];
+        for (int i = 0; i < memberIds.length; i++) {
+            memberIds[i] = ids.get(i);
+        }
+        TrendReport report = new TrendReport(messId, monthKeys, memberIds, names.toArray(new String[0]));
+
+        cursor = db.rawQuery("SELECT " + SchemaSql.monthKeySql("expenseDate") + " AS monthKey, " +
+                "categoryCode, SUM(amount) FROM " + MessKhataDatabase.TABLE_EXPENSES +
+                " WHERE messId = ? AND expenseDate >= ? AND expenseDate < ? " +
+                "GROUP BY monthKey, categoryCode", args);
+        while (cursor.moveToNext()) {
+            int monthIndex = report.indexOfMonth(cursor.getInt(0));
+            if (monthIndex != -1) {
+                report.addSpend(monthIndex, ExpenseCategory.fromCode(cursor.getInt(1)), cursor.getDouble(2));
+            }
+        }
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT " + SchemaSql.monthKeySql("mealDate") + " AS monthKey, " +
+                "userId, SUM(breakfast + lunch + dinner) FROM " + MessKhataDatabase.TABLE_MEALS +
+                " WHERE messId = ? AND mealDate >= ? AND mealDate < ? " +
+                "GROUP BY monthKey, userId", args);
+        while (cursor.moveToNext()) {
+            int monthIndex = report.indexOfMonth(cursor.getInt(0));
+            int memberIndex = report.indexOfMember(cursor.getInt(1));
+            if (monthIndex != -1 && memberIndex != -1) {
+                report.addMeals(monthIndex, memberIndex, cursor.getInt(2));
+            }
+        }
+        cursor.close();
+        return report;
     }
 }
@@ -5,6 +5,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import com.messkhata.data.cache.DataVersions;
 import com.messkhata.data.database.MessKhataDatabase;
 import com.messkhata.data.model.User;
 
@@ -18,9 +19,13 @@ import java.util.List;
 public class UserDao {
 
     private MessKhataDatabase dbHelper;
+    private IdMappingDao idMappingDao;
+    private DataVersions versions;
 
     public UserDao(Context context) {
         this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.idMappingDao = new IdMappingDao(context);
+        this.versions = DataVersions.getInstance();
     }
 
     /**
@@ -145,6 +150,10 @@ public class UserDao {
                 values,
                 "userId = ?",
                 new String[] { String.valueOf(userId) });
+        if (rows > 0) {
+            // Names and membership show up in every month's report
+            versions.bumpTable(MessKhataDatabase.TABLE_USERS);
+        }
         return rows > 0;
     }
 
@@ -161,6 +170,10 @@ public class UserDao {
                 values,
                 "userId = ?",
                 new String[] { String.valueOf(userId) });
+        if (rows > 0) {
+            // Names and membership show up in every month's report
+            versions.bumpTable(MessKhataDatabase.TABLE_USERS);
+        }
         return rows > 0;
     }
 
@@ -285,6 +298,10 @@ public class UserDao {
                 values,
                 "userId = ?",
                 new String[] { String.valueOf(userId) });
+        if (rows > 0) {
+            // Names and membership show up in every month's report
+            versions.bumpTable(MessKhataDatabase.TABLE_USERS);
+        }
         return rows > 0;
     }
 
@@ -410,14 +427,41 @@ public class UserDao {
      */
     public boolean addOrUpdateUser(long userId, String fullName, String email,
             String phoneNumber, int messId, String role, long joinedDate) {
+        return upsertUser(-1, fullName, email, phoneNumber, messId, role, joinedDate) != -1;
+    }
+
+    /**
+     * Add or update a user downloaded from Firebase
+     * The row is found through the ID mapping when one exists; otherwise it
+     * falls back to matching on email and records the mapping.
+     *
+     * @return true if successful
+     */
+    public boolean addOrUpdateUser(String firebaseId, String fullName, String email,
+            String phoneNumber, int messId, String role, long joinedDate) {
+        long mappedId = idMappingDao.getLocalId(IdMappingDao.ENTITY_USER, firebaseId);
+
+        long localId = upsertUser(mappedId, fullName, email, phoneNumber, messId, role, joinedDate);
+        if (localId == -1) {
+            return false;
+        }
+        if (localId != mappedId && firebaseId != null) {
+            idMappingDao.saveMapping(IdMappingDao.ENTITY_USER, localId, firebaseId);
+        }
+        return true;
+    }
+
+    /**
+     * Update the given row (if it still exists) or the user with the same
+     * email, inserting a new row if neither is found
+     *
+     * @return local userId, or -1 on failure
+     */
+    private long upsertUser(long knownId, String fullName, String email,
+            String phoneNumber, int messId, String role, long joinedDate) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
 
         try {
-            // Check if user already exists by email (email is unique)
-            String checkQuery = "SELECT userId FROM " + MessKhataDatabase.TABLE_USERS +
-                    " WHERE email = ?";
-            Cursor cursor = db.rawQuery(checkQuery, new String[] { email });
-
             ContentValues values = new ContentValues();
             values.put("fullName", fullName);
             values.put("phoneNumber", phoneNumber);
@@ -425,26 +469,42 @@ public class UserDao {
             values.put("role", role);
             values.put("isActive", 1);
 
-            boolean success;
+            if (knownId != -1) {
+                int rows = db.update(MessKhataDatabase.TABLE_USERS, values,
+                        "userId = ? AND email = ?", new String[] { String.valueOf(knownId), email });
+                if (rows > 0) {
+                    versions.bumpTable(MessKhataDatabase.TABLE_USERS);
+                    return knownId;
+                }
+            }
+
+            // Check if user already exists by email (email is unique)
+            String checkQuery = "SELECT userId FROM " + MessKhataDatabase.TABLE_USERS +
+                    " WHERE email = ?";
+            Cursor cursor = db.rawQuery(checkQuery, new String[] { email });
+
+            long localId;
             if (cursor.moveToFirst()) {
                 // Update existing user
-                int existingId = cursor.getInt(0);
+                long existingId = cursor.getLong(0);
                 int rows = db.update(MessKhataDatabase.TABLE_USERS, values,
                         "userId = ?", new String[] { String.valueOf(existingId) });
-                success = rows > 0;
+                localId = rows > 0 ? existingId : -1;
             } else {
                 // Insert new user (from remote)
                 values.put("email", email);
                 values.put("joinedDate", joinedDate);
                 values.put("password", ""); // Remote users don't have password locally
-                long result = db.insert(MessKhataDatabase.TABLE_USERS, null, values);
-                success = result != -1;
+                localId = db.insert(MessKhataDatabase.TABLE_USERS, null, values);
             }
             cursor.close();
-            return success;
+            if (localId != -1) {
+                versions.bumpTable(MessKhataDatabase.TABLE_USERS);
+            }
+            return localId;
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
+            return -1;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package com.messkhata.data.database;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, bidirectional LRU cache of local ID <-> Firebase document ID
+ * mappings. Fronts the IdMappings table so hot lookups (every sync upload)
+ * never touch SQLite. Each mapping is one LRU entry, reachable from either
+ * side, so both directions are evicted together and a lookup from either
+ * side keeps it. Both directions are kept consistent on update.
+ */
+public class IdMappingCache {
+
+    private static class Mapping {
+        final long localId;
+        final String firebaseId;
+        final String remoteKey;
+
+        Mapping(long localId, String firebaseId, String remoteKey) {
+            this.localId = localId;
+            this.firebaseId = firebaseId;
+            this.remoteKey = remoteKey;
+        }
+    }
+
+    // Keyed by local key, in access order
+    private final Map<String, Mapping> mappings;
+    // Remote key -> local key of the same mapping
+    private final Map<String, String> remoteIndex = new HashMap<>();
+
+    public IdMappingCache(final int maxEntries) {
+        this.mappings = new LinkedHashMap<String, Mapping>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Mapping> eldest) {
+                if (size() > maxEntries) {
+                    remoteIndex.remove(eldest.getValue().remoteKey);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get cached Firebase ID, or null if not cached
+     */
+    public synchronized String getRemote(String entityType, long localId) {
+        Mapping mapping = mappings.get(localKey(entityType, localId));
+        return mapping != null ? mapping.firebaseId : null;
+    }
+
+    /**
+     * Get cached local ID, or null if not cached
+     */
+    public synchronized Long getLocal(String entityType, String firebaseId) {
+        String localKey = remoteIndex.get(remoteKey(entityType, firebaseId));
+        Mapping mapping = localKey != null ? mappings.get(localKey) : null;
+        return mapping != null ? mapping.localId : null;
+    }
+
+    /**
+     * Cache a mapping, dropping any stale entry for either side
+     */
+    public synchronized void put(String entityType, long localId, String firebaseId) {
+        String localKey = localKey(entityType, localId);
+        String remoteKey = remoteKey(entityType, firebaseId);
+        removeMapping(localKey);
+        String oldLocalKey = remoteIndex.get(remoteKey);
+        if (oldLocalKey != null) {
+            removeMapping(oldLocalKey);
+        }
+
+        mappings.put(localKey, new Mapping(localId, firebaseId, remoteKey));
+        remoteIndex.put(remoteKey, localKey);
+    }
+
+    /**
+     * Drop the mapping for a local ID
+     */
+    public synchronized void remove(String entityType, long localId) {
+        removeMapping(localKey(entityType, localId));
+    }
+
+    public synchronized void clear() {
+        mappings.clear();
+        remoteIndex.clear();
+    }
+
+    private void removeMapping(String localKey) {
+        Mapping mapping = mappings.remove(localKey);
+        if (mapping != null) {
+            remoteIndex.remove(mapping.remoteKey);
+        }
+    }
+
+    private static String localKey(String entityType, long localId) {
+        return entityType + ':' + localId;
+    }
+
+    private static String remoteKey(String entityType, String firebaseId) {
+        return entityType + '/' + firebaseId;
+    }
+}
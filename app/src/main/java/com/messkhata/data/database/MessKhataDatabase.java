@@ -4,6 +4,13 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.cache.ReportCache;
+import com.messkhata.data.model.ExpenseCategory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -11,7 +18,7 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
 
     // Database Info
     private static final String DATABASE_NAME = "MessManager.db";
-    private static final int DATABASE_VERSION = 5;  // Updated for memberCountAtTime field in Expenses
+    private static final int DATABASE_VERSION = 25;  // Expenses (messId, categoryCode, expenseDate) index
 
     // Table Names
     public static final String TABLE_USERS = "Users";
@@ -19,9 +26,25 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
     public static final String TABLE_EXPENSES = "Expenses";
     public static final String TABLE_MEALS = "Meals";
     public static final String TABLE_MEAL_PREFERENCES = "MealPreferences";
+    public static final String TABLE_CURRENT_MEAL_PREFERENCES = "CurrentMealPreferences";
+    public static final String TABLE_MEAL_SCHEDULES = "MealSchedules";
+    public static final String TABLE_MEAL_SCHEDULE_OVERRIDES = "MealScheduleOverrides";
+    public static final String TABLE_DAILY_HEADCOUNTS = "DailyHeadcounts";
     public static final String TABLE_MONTHLY_STATS = "MessMonthlyStats";
     public static final String TABLE_MONTHLY_BILLS = "MonthlyBills";
     public static final String TABLE_PAYMENTS = "Payments";
+    public static final String TABLE_MEMBER_LEDGER = "MemberLedger";
+    public static final String TABLE_MEAL_COUNTERS = "MealCounters";
+    public static final String TABLE_ID_MAPPINGS = "IdMappings";
+    public static final String TABLE_MEAL_RATES = "MealRates";
+    public static final String TABLE_BALANCE_CHECKPOINTS = "BalanceCheckpoints";
+    public static final String TABLE_IMPORT_JOBS = "ImportJobs";
+    public static final String TABLE_EXPENSE_SEARCH = "ExpenseSearch";
+    public static final String TABLE_RECURRING_EXPENSE_RULES = "RecurringExpenseRules";
+
+    // How far RealtimeSyncManager has pulled each mess; only valid for the
+    // rows in these tables, so it is cleared whenever they are wiped
+    public static final String PREFS_SYNC_WATERMARKS = "realtime_sync_prefs";
 
     // Singleton instance
     private static MessKhataDatabase instance;
@@ -31,9 +54,16 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
     public static final ExecutorService databaseWriteExecutor =
             Executors.newFixedThreadPool(NUMBER_OF_THREADS);
 
+    // In-memory front for the IdMappings table
+    private static final int ID_MAPPING_CACHE_SIZE = 1024;
+    private final IdMappingCache idMappingCache = new IdMappingCache(ID_MAPPING_CACHE_SIZE);
+
+    private final Context context;
+
     // Private constructor
     private MessKhataDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.context = context;
     }
 
     // Get singleton instance
@@ -50,20 +80,84 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
         db.execSQL(CREATE_MESS_TABLE);
         db.execSQL(CREATE_USERS_TABLE);
         db.execSQL(CREATE_EXPENSES_TABLE);
+        db.execSQL(CREATE_EXPENSES_MONTH_INDEX);
+        db.execSQL(CREATE_EXPENSES_CATEGORY_INDEX);
         db.execSQL(CREATE_MEALS_TABLE);
+        db.execSQL(CREATE_MEALS_MONTH_INDEX);
+        db.execSQL(CREATE_DAILY_HEADCOUNTS_TABLE);
+        db.execSQL(CREATE_HEADCOUNT_INSERT_TRIGGER);
+        db.execSQL(CREATE_HEADCOUNT_UPDATE_TRIGGER);
+        db.execSQL(CREATE_HEADCOUNT_DELETE_TRIGGER);
         db.execSQL(CREATE_MEAL_PREFERENCES_TABLE);
+        db.execSQL(CREATE_MEAL_PREFERENCES_INDEX);
+        db.execSQL(CREATE_CURRENT_MEAL_PREFERENCES_TABLE);
+        db.execSQL(CREATE_CURRENT_MEAL_PREFERENCES_MESS_INDEX);
+        db.execSQL(CREATE_MEAL_SCHEDULES_TABLE);
+        db.execSQL(CREATE_MEAL_SCHEDULE_OVERRIDES_TABLE);
+        db.execSQL(CREATE_MEAL_SCHEDULE_OVERRIDES_INDEX);
         db.execSQL(CREATE_MONTHLY_STATS_TABLE);
+        db.execSQL(CREATE_EXPENSE_STATS_INSERT_TRIGGER);
+        db.execSQL(CREATE_EXPENSE_STATS_UPDATE_TRIGGER);
+        db.execSQL(CREATE_EXPENSE_STATS_DELETE_TRIGGER);
+        db.execSQL(CREATE_MEAL_STATS_INSERT_TRIGGER);
+        db.execSQL(CREATE_MEAL_STATS_UPDATE_TRIGGER);
+        db.execSQL(CREATE_MEAL_STATS_DELETE_TRIGGER);
         db.execSQL(CREATE_MONTHLY_BILLS_TABLE);
+        db.execSQL(CREATE_BILL_STATUS_TRIGGER);
         db.execSQL(CREATE_PAYMENTS_TABLE);
+        db.execSQL(CREATE_PAYMENTS_DATE_INDEX);
+        db.execSQL(CREATE_MEMBER_LEDGER_TABLE);
+        db.execSQL(CREATE_MEAL_LEDGER_INSERT_TRIGGER);
+        db.execSQL(CREATE_MEAL_LEDGER_UPDATE_TRIGGER);
+        db.execSQL(CREATE_MEAL_LEDGER_DELETE_TRIGGER);
+        db.execSQL(CREATE_EXPENSE_LEDGER_INSERT_TRIGGER);
+        db.execSQL(CREATE_EXPENSE_LEDGER_UPDATE_TRIGGER);
+        db.execSQL(CREATE_EXPENSE_LEDGER_DELETE_TRIGGER);
+        db.execSQL(CREATE_PAYMENT_LEDGER_INSERT_TRIGGER);
+        db.execSQL(CREATE_PAYMENT_LEDGER_UPDATE_TRIGGER);
+        db.execSQL(CREATE_PAYMENT_LEDGER_DELETE_TRIGGER);
+        db.execSQL(CREATE_USER_LEDGER_INSERT_TRIGGER);
+        db.execSQL(CREATE_USER_LEDGER_UPDATE_TRIGGER);
+        db.execSQL(CREATE_MEAL_COUNTERS_TABLE);
+        db.execSQL(CREATE_ID_MAPPINGS_TABLE);
+        db.execSQL(CREATE_ID_MAPPINGS_FIREBASE_INDEX);
+        db.execSQL(CREATE_MEAL_RATES_TABLE);
+        db.execSQL(CREATE_BALANCE_CHECKPOINTS_TABLE);
+        db.execSQL(CREATE_IMPORT_JOBS_TABLE);
+        db.execSQL(CREATE_EXPENSES_ADDED_BY_INDEX);
+        db.execSQL(CREATE_EXPENSE_SEARCH_TABLE);
+        for (String trigger : EXPENSE_SEARCH_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(CREATE_RECURRING_EXPENSE_RULES_TABLE);
+        db.execSQL(CREATE_EXPENSES_RECURRENCE_INDEX);
+        for (String trigger : CHECKPOINT_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        for (String trigger : MONTH_CLOSE_TRIGGERS) {
+            db.execSQL(trigger);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         // Drop older tables if existed
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECURRING_EXPENSE_RULES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EXPENSE_SEARCH);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMPORT_JOBS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BALANCE_CHECKPOINTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEAL_RATES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ID_MAPPINGS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEAL_COUNTERS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEMBER_LEDGER);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_PAYMENTS);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_MONTHLY_BILLS);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_MONTHLY_STATS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEAL_SCHEDULE_OVERRIDES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEAL_SCHEDULES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_CURRENT_MEAL_PREFERENCES);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEAL_PREFERENCES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DAILY_HEADCOUNTS);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_MEALS);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_EXPENSES);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS);
@@ -71,19 +165,56 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
 
         // Create new tables
         onCreate(db);
+        clearSyncWatermarks();
+    }
+
+    /**
+     * Forget how far each mess was pulled, so the next sync pulls everything
+     * into the emptied tables instead of skipping documents it saw before
+     */
+    private void clearSyncWatermarks() {
+        context.getSharedPreferences(PREFS_SYNC_WATERMARKS, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    /**
+     * Get the shared cache for local <-> Firebase ID mappings
+     */
+    public IdMappingCache getIdMappingCache() {
+        return idMappingCache;
     }
 
     // Clear all tables (for logout)
     public void clearAllTables() {
         SQLiteDatabase db = this.getWritableDatabase();
+        db.execSQL("DELETE FROM " + TABLE_RECURRING_EXPENSE_RULES);
+        db.execSQL("DELETE FROM " + TABLE_IMPORT_JOBS);
+        db.execSQL("DELETE FROM " + TABLE_BALANCE_CHECKPOINTS);
+        db.execSQL("DELETE FROM " + TABLE_MEAL_RATES);
+        db.execSQL("DELETE FROM " + TABLE_MEAL_COUNTERS);
+        db.execSQL("DELETE FROM " + TABLE_ID_MAPPINGS);
+        idMappingCache.clear();
+        db.execSQL("DELETE FROM " + TABLE_MEMBER_LEDGER);
         db.execSQL("DELETE FROM " + TABLE_PAYMENTS);
         db.execSQL("DELETE FROM " + TABLE_MONTHLY_BILLS);
         db.execSQL("DELETE FROM " + TABLE_MONTHLY_STATS);
+        db.execSQL("DELETE FROM " + TABLE_MEAL_SCHEDULE_OVERRIDES);
+        db.execSQL("DELETE FROM " + TABLE_MEAL_SCHEDULES);
+        db.execSQL("DELETE FROM " + TABLE_CURRENT_MEAL_PREFERENCES);
         db.execSQL("DELETE FROM " + TABLE_MEAL_PREFERENCES);
         db.execSQL("DELETE FROM " + TABLE_MEALS);
-        db.execSQL("DELETE FROM " + TABLE_EXPENSES);
+        db.execSQL("DELETE FROM " + TABLE_DAILY_HEADCOUNTS);
+        db.execSQL("DELETE FROM " + TABLE_EXPENSES);  // empties ExpenseSearch through its triggers
         db.execSQL("DELETE FROM " + TABLE_USERS);
         db.execSQL("DELETE FROM " + TABLE_MESS);
+        clearSyncWatermarks();
+
+        // Nothing cached before the wipe is valid any more
+        DataVersions versions = DataVersions.getInstance();
+        for (String table : new String[]{TABLE_MESS, TABLE_USERS, TABLE_EXPENSES, TABLE_MEALS,
+                TABLE_MEAL_RATES, TABLE_PAYMENTS, TABLE_MONTHLY_STATS, TABLE_MEMBER_LEDGER}) {
+            versions.bumpTable(table);
+        }
+        ReportCache.getInstance().clear();
     }
 
     // SQL for creating Mess table
@@ -117,16 +248,34 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
                     "messId INTEGER NOT NULL, " +
                     "addedBy INTEGER NOT NULL, " +
                     "category TEXT NOT NULL, " +
+                    "categoryCode INTEGER NOT NULL DEFAULT " + ExpenseCategory.OTHER.getCode() + ", " +
                     "amount REAL NOT NULL, " +
                     "title TEXT NOT NULL, " +
                     "description TEXT, " +
                     "expenseDate INTEGER NOT NULL, " +
                     "memberCountAtTime INTEGER NOT NULL DEFAULT 1, " +
+                    "recurringRuleId INTEGER, " +  // set on expenses added by a recurring rule
+                    "recurrenceDate INTEGER, " +   // the rule's occurrence, seconds
                     "createdAt INTEGER DEFAULT (strftime('%s', 'now')), " +
                     "updatedAt INTEGER DEFAULT (strftime('%s', 'now')), " +
                     "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE, " +
                     "FOREIGN KEY (addedBy) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE)";
 
+    // Month range scans grouped by category
+    private static final String CREATE_EXPENSES_MONTH_INDEX =
+            "CREATE INDEX idx_expenses_mess_date ON " + TABLE_EXPENSES +
+                    " (messId, expenseDate, categoryCode)";
+
+    // Expense search filtered by category, newest first
+    private static final String CREATE_EXPENSES_CATEGORY_INDEX =
+            "CREATE INDEX idx_expenses_mess_category ON " + TABLE_EXPENSES +
+                    " (messId, categoryCode, expenseDate)";
+
+    // Expense search filtered by who added them, newest first
+    private static final String CREATE_EXPENSES_ADDED_BY_INDEX =
+            "CREATE INDEX idx_expenses_mess_added ON " + TABLE_EXPENSES +
+                    " (messId, addedBy, expenseDate)";
+
     // SQL for creating Meals table
     private static final String CREATE_MEALS_TABLE =
             "CREATE TABLE " + TABLE_MEALS + " (" +
@@ -144,28 +293,155 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
                     "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE, " +
                     "UNIQUE(userId, mealDate))";
 
+    // Mess-wide month range scans
+    private static final String CREATE_MEALS_MONTH_INDEX =
+            "CREATE INDEX idx_meals_mess_date ON " + TABLE_MEALS + " (messId, mealDate)";
+
+    // SQL for creating DailyHeadcounts table
+    // Mess-wide meal totals per day, kept in step with Meals by the triggers
+    // below; members is the number of Meals rows behind the totals
+    private static final String CREATE_DAILY_HEADCOUNTS_TABLE =
+            "CREATE TABLE " + TABLE_DAILY_HEADCOUNTS + " (" +
+                    "messId INTEGER NOT NULL, " +
+                    "mealDate INTEGER NOT NULL, " +
+                    "breakfast INTEGER NOT NULL DEFAULT 0, " +
+                    "lunch INTEGER NOT NULL DEFAULT 0, " +
+                    "dinner INTEGER NOT NULL DEFAULT 0, " +
+                    "members INTEGER NOT NULL DEFAULT 0, " +
+                    "PRIMARY KEY (messId, mealDate))";
+
+    private static final String HEADCOUNT_ADD_NEW =
+            "INSERT OR IGNORE INTO " + TABLE_DAILY_HEADCOUNTS + " (messId, mealDate) " +
+                    "VALUES (NEW.messId, NEW.mealDate); " +
+            "UPDATE " + TABLE_DAILY_HEADCOUNTS + " SET " +
+                    "breakfast = breakfast + NEW.breakfast, lunch = lunch + NEW.lunch, " +
+                    "dinner = dinner + NEW.dinner, members = members + 1 " +
+                    "WHERE messId = NEW.messId AND mealDate = NEW.mealDate; ";
+
+    private static final String HEADCOUNT_REMOVE_OLD =
+            "UPDATE " + TABLE_DAILY_HEADCOUNTS + " SET " +
+                    "breakfast = breakfast - OLD.breakfast, lunch = lunch - OLD.lunch, " +
+                    "dinner = dinner - OLD.dinner, members = members - 1 " +
+                    "WHERE messId = OLD.messId AND mealDate = OLD.mealDate; " +
+            "DELETE FROM " + TABLE_DAILY_HEADCOUNTS + " " +
+                    "WHERE messId = OLD.messId AND mealDate = OLD.mealDate AND members <= 0; ";
+
+    private static final String CREATE_HEADCOUNT_INSERT_TRIGGER =
+            "CREATE TRIGGER trg_meals_headcount_insert AFTER INSERT ON " + TABLE_MEALS +
+                    " BEGIN " + HEADCOUNT_ADD_NEW + "END";
+
+    private static final String CREATE_HEADCOUNT_UPDATE_TRIGGER =
+            "CREATE TRIGGER trg_meals_headcount_update " +
+                    "AFTER UPDATE OF messId, mealDate, breakfast, lunch, dinner ON " + TABLE_MEALS +
+                    " BEGIN " + HEADCOUNT_REMOVE_OLD + HEADCOUNT_ADD_NEW + "END";
+
+    private static final String CREATE_HEADCOUNT_DELETE_TRIGGER =
+            "CREATE TRIGGER trg_meals_headcount_delete AFTER DELETE ON " + TABLE_MEALS +
+                    " BEGIN " + HEADCOUNT_REMOVE_OLD + "END";
+
     // SQL for creating MonthlyStats table
+    // Per-month summary of Expenses and Meals, kept in step by the triggers
+    // below and checked by ConsistencyCheckWorker; expenseCount and mealCount are
+    // the number of rows behind the totals
     private static final String CREATE_MONTHLY_STATS_TABLE =
             "CREATE TABLE " + TABLE_MONTHLY_STATS + " (" +
-                    "statsId INTEGER PRIMARY KEY AUTOINCREMENT, " +
                     "messId INTEGER NOT NULL, " +
-                    "month INTEGER NOT NULL, " +
                     "year INTEGER NOT NULL, " +
-                    "totalGrocery REAL DEFAULT 0.00, " +
-                    "totalUtilities REAL DEFAULT 0.00, " +
-                    "totalCleaning REAL DEFAULT 0.00, " +
-                    "totalGas REAL DEFAULT 0.00, " +
-                    "totalRent REAL DEFAULT 0.00, " +
-                    "totalMiscellaneous REAL DEFAULT 0.00, " +
-                    "totalMealsConsumed INTEGER DEFAULT 0, " +
-                    "totalMealExpenses REAL DEFAULT 0.00, " +
-                    "numberOfMembers INTEGER NOT NULL, " +
-                    "createdAt INTEGER DEFAULT (strftime('%s','now')), " +
+                    "month INTEGER NOT NULL, " +
+                    "totalGrocery REAL NOT NULL DEFAULT 0, " +
+                    "totalUtilities REAL NOT NULL DEFAULT 0, " +
+                    "totalGas REAL NOT NULL DEFAULT 0, " +
+                    "totalRent REAL NOT NULL DEFAULT 0, " +
+                    "totalMaintenance REAL NOT NULL DEFAULT 0, " +
+                    "totalOther REAL NOT NULL DEFAULT 0, " +
+                    "expenseCount INTEGER NOT NULL DEFAULT 0, " +
+                    "totalMealsConsumed INTEGER NOT NULL DEFAULT 0, " +
+                    "totalMealExpenses REAL NOT NULL DEFAULT 0, " +
+                    "mealCount INTEGER NOT NULL DEFAULT 0, " +
                     "updatedAt INTEGER DEFAULT (strftime('%s','now')), " +
-                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE, " +
-                    "UNIQUE(messId, month, year)" +
+                    "PRIMARY KEY (messId, year, month), " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE" +
                     ");";
 
+    private static String statsKey(String row, String dateColumn) {
+        String monthKey = SchemaSql.monthKeySql(row + "." + dateColumn);
+        return "messId = " + row + ".messId AND year = " + monthKey + " / 100 " +
+                "AND month = " + monthKey + " % 100";
+    }
+
+    private static String statsEnsureRow(String row, String dateColumn) {
+        String monthKey = SchemaSql.monthKeySql(row + "." + dateColumn);
+        return "INSERT OR IGNORE INTO " + TABLE_MONTHLY_STATS + " (messId, year, month) " +
+                "VALUES (" + row + ".messId, " + monthKey + " / 100, " + monthKey + " % 100); ";
+    }
+
+    private static String statsDeleteEmpty(String row, String dateColumn) {
+        return "DELETE FROM " + TABLE_MONTHLY_STATS + " WHERE " + statsKey(row, dateColumn) +
+                " AND expenseCount <= 0 AND mealCount <= 0; ";
+    }
+
+    // sign is "+" to add the NEW row, "-" to take away the OLD one
+    private static String expenseStatsDelta(String row, String sign) {
+        StringBuilder sql = new StringBuilder("UPDATE " + TABLE_MONTHLY_STATS + " SET ");
+        for (ExpenseCategory category : ExpenseCategory.values()) {
+            String column = SchemaSql.CATEGORY_COLUMNS[category.getCode()];
+            sql.append(column).append(" = ").append(column).append(" ").append(sign)
+                    .append(" (").append(SchemaSql.categoryAmountSql(category, row)).append("), ");
+        }
+        return sql.append("expenseCount = expenseCount ").append(sign).append(" 1, ")
+                .append("updatedAt = strftime('%s','now') ")
+                .append("WHERE ").append(statsKey(row, "expenseDate")).append("; ").toString();
+    }
+
+    private static String mealStatsDelta(String row, String sign) {
+        String meals = "(" + row + ".breakfast + " + row + ".lunch + " + row + ".dinner)";
+        return "UPDATE " + TABLE_MONTHLY_STATS + " SET " +
+                "totalMealsConsumed = totalMealsConsumed " + sign + " " + meals + ", " +
+                "totalMealExpenses = totalMealExpenses " + sign + " " + meals + " * " +
+                SchemaSql.effectiveRateSql(row) + ", " +
+                "mealCount = mealCount " + sign + " 1, " +
+                "updatedAt = strftime('%s','now') " +
+                "WHERE " + statsKey(row, "mealDate") + "; ";
+    }
+
+    private static final String EXPENSE_STATS_ADD_NEW =
+            statsEnsureRow("NEW", "expenseDate") + expenseStatsDelta("NEW", "+");
+
+    private static final String EXPENSE_STATS_REMOVE_OLD =
+            expenseStatsDelta("OLD", "-") + statsDeleteEmpty("OLD", "expenseDate");
+
+    private static final String MEAL_STATS_ADD_NEW =
+            statsEnsureRow("NEW", "mealDate") + mealStatsDelta("NEW", "+");
+
+    private static final String MEAL_STATS_REMOVE_OLD =
+            mealStatsDelta("OLD", "-") + statsDeleteEmpty("OLD", "mealDate");
+
+    private static final String CREATE_EXPENSE_STATS_INSERT_TRIGGER =
+            "CREATE TRIGGER trg_expenses_stats_insert AFTER INSERT ON " + TABLE_EXPENSES +
+                    " BEGIN " + EXPENSE_STATS_ADD_NEW + "END";
+
+    private static final String CREATE_EXPENSE_STATS_UPDATE_TRIGGER =
+            "CREATE TRIGGER trg_expenses_stats_update " +
+                    "AFTER UPDATE OF messId, categoryCode, amount, expenseDate ON " + TABLE_EXPENSES +
+                    " BEGIN " + EXPENSE_STATS_REMOVE_OLD + EXPENSE_STATS_ADD_NEW + "END";
+
+    private static final String CREATE_EXPENSE_STATS_DELETE_TRIGGER =
+            "CREATE TRIGGER trg_expenses_stats_delete AFTER DELETE ON " + TABLE_EXPENSES +
+                    " BEGIN " + EXPENSE_STATS_REMOVE_OLD + "END";
+
+    private static final String CREATE_MEAL_STATS_INSERT_TRIGGER =
+            "CREATE TRIGGER trg_meals_stats_insert AFTER INSERT ON " + TABLE_MEALS +
+                    " BEGIN " + MEAL_STATS_ADD_NEW + "END";
+
+    private static final String CREATE_MEAL_STATS_UPDATE_TRIGGER =
+            "CREATE TRIGGER trg_meals_stats_update " +
+                    "AFTER UPDATE OF messId, mealDate, breakfast, lunch, dinner, mealRate ON " + TABLE_MEALS +
+                    " BEGIN " + MEAL_STATS_REMOVE_OLD + MEAL_STATS_ADD_NEW + "END";
+
+    private static final String CREATE_MEAL_STATS_DELETE_TRIGGER =
+            "CREATE TRIGGER trg_meals_stats_delete AFTER DELETE ON " + TABLE_MEALS +
+                    " BEGIN " + MEAL_STATS_REMOVE_OLD + "END";
+
 
     // SQL for creating MonthlyBills table
     private static final String CREATE_MONTHLY_BILLS_TABLE =
@@ -178,6 +454,9 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
                     "totalMealExpense REAL DEFAULT 0.00, " +
                     "totalOtherExpenses REAL DEFAULT 0.00, " +
                     "totalPaid REAL DEFAULT 0.00, " +
+                    "actualMealRate REAL, " +          // set when the month is closed
+                    "adjustedMealExpense REAL, " +     // meals * actualMealRate
+                    "closedAt INTEGER, " +
                     "status TEXT DEFAULT 'pending', " +
                     "createdAt INTEGER DEFAULT (strftime('%s', 'now')), " +
                     "updatedAt INTEGER DEFAULT (strftime('%s', 'now')), " +
@@ -186,6 +465,17 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
                     "UNIQUE(userId, messId, month, year)" +
                     ");";
 
+    // Bill status follows its totals; only status is written, so this
+    // does not fire itself again
+    private static final String CREATE_BILL_STATUS_TRIGGER =
+            "CREATE TRIGGER trg_monthly_bills_status " +
+                    "AFTER UPDATE OF totalMealExpense, totalOtherExpenses, totalPaid ON " + TABLE_MONTHLY_BILLS +
+                    " BEGIN UPDATE " + TABLE_MONTHLY_BILLS + " SET status = CASE " +
+                    "WHEN NEW.totalPaid >= NEW.totalMealExpense + NEW.totalOtherExpenses THEN 'paid' " +
+                    "WHEN NEW.totalPaid > 0 THEN 'partial' ELSE 'pending' END, " +
+                    "updatedAt = strftime('%s','now') " +
+                    "WHERE billId = NEW.billId; END";
+
     // SQL for creating Payments table
     private static final String CREATE_PAYMENTS_TABLE =
             "CREATE TABLE " + TABLE_PAYMENTS + " (" +
@@ -204,6 +494,170 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
                     "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE, " +
                     "FOREIGN KEY (addedBy) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE)";
 
+    // Mess-wide payments in date order, e.g. for the ledger export
+    private static final String CREATE_PAYMENTS_DATE_INDEX =
+            "CREATE INDEX idx_payments_mess_date ON " + TABLE_PAYMENTS + " (messId, paidDate)";
+
+    // SQL for creating MemberLedger table
+    // Running charges and payments of each member, kept in step with Meals,
+    // Expenses, Payments and Users by the triggers below (together with the
+    // member's MonthlyBills row) and checked by LedgerDao.reconcile()
+    private static final String CREATE_MEMBER_LEDGER_TABLE =
+            "CREATE TABLE " + TABLE_MEMBER_LEDGER + " (" +
+                    "userId INTEGER NOT NULL, " +
+                    "messId INTEGER NOT NULL, " +
+                    "mealCount INTEGER NOT NULL DEFAULT 0, " +
+                    "mealCharges REAL NOT NULL DEFAULT 0, " +
+                    "sharedCharges REAL NOT NULL DEFAULT 0, " +
+                    "totalPaid REAL NOT NULL DEFAULT 0, " +
+                    "updatedAt INTEGER DEFAULT (strftime('%s','now')), " +
+                    "PRIMARY KEY (userId, messId), " +
+                    "FOREIGN KEY (userId) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
+
+    private static String ledgerEnsureRow(String row) {
+        return "INSERT OR IGNORE INTO " + TABLE_MEMBER_LEDGER + " (userId, messId) " +
+                "VALUES (" + row + ".userId, " + row + ".messId); ";
+    }
+
+    private static String billKey(String dateExpression) {
+        String monthKey = SchemaSql.monthKeySql(dateExpression);
+        return monthKey + " % 100, " + monthKey + " / 100";
+    }
+
+    private static String billMatches(String dateExpression) {
+        String monthKey = SchemaSql.monthKeySql(dateExpression);
+        return "month = " + monthKey + " % 100 AND year = " + monthKey + " / 100";
+    }
+
+    // sign is "+" to add the NEW row, "-" to take away the OLD one
+    private static String mealLedgerDelta(String row, String sign) {
+        String meals = "(" + row + ".breakfast + " + row + ".lunch + " + row + ".dinner)";
+        String charge = meals + " * " + SchemaSql.effectiveRateSql(row);
+        return "UPDATE " + TABLE_MEMBER_LEDGER + " SET " +
+                "mealCount = mealCount " + sign + " " + meals + ", " +
+                "mealCharges = mealCharges " + sign + " " + charge + ", " +
+                "updatedAt = strftime('%s','now') " +
+                "WHERE userId = " + row + ".userId AND messId = " + row + ".messId; " +
+                "UPDATE " + TABLE_MONTHLY_BILLS + " SET " +
+                "totalMealExpense = totalMealExpense " + sign + " " + charge + " " +
+                "WHERE userId = " + row + ".userId AND messId = " + row + ".messId AND " +
+                billMatches(row + ".mealDate") + "; ";
+    }
+
+    private static final String MEAL_LEDGER_ADD_NEW =
+            ledgerEnsureRow("NEW") +
+            "INSERT OR IGNORE INTO " + TABLE_MONTHLY_BILLS + " (userId, messId, month, year) " +
+                    "VALUES (NEW.userId, NEW.messId, " + billKey("NEW.mealDate") + "); " +
+            mealLedgerDelta("NEW", "+");
+
+    private static final String MEAL_LEDGER_REMOVE_OLD = mealLedgerDelta("OLD", "-");
+
+    private static String expenseLedgerDelta(String row, String sign) {
+        String share = SchemaSql.expenseShareSql(row);
+        String members = "userId IN (" + SchemaSql.sharingMembersSql(row) + ")";
+        return "UPDATE " + TABLE_MEMBER_LEDGER + " SET " +
+                "sharedCharges = sharedCharges " + sign + " " + share + ", " +
+                "updatedAt = strftime('%s','now') " +
+                "WHERE messId = " + row + ".messId AND " + members + "; " +
+                "UPDATE " + TABLE_MONTHLY_BILLS + " SET " +
+                "totalOtherExpenses = totalOtherExpenses " + sign + " " + share + " " +
+                "WHERE messId = " + row + ".messId AND " + billMatches(row + ".expenseDate") +
+                " AND " + members + "; ";
+    }
+
+    private static final String EXPENSE_LEDGER_ADD_NEW =
+            "INSERT OR IGNORE INTO " + TABLE_MEMBER_LEDGER + " (userId, messId) " +
+                    "SELECT userId, NEW.messId FROM (" + SchemaSql.sharingMembersSql("NEW") + "); " +
+            "INSERT OR IGNORE INTO " + TABLE_MONTHLY_BILLS + " (userId, messId, month, year) " +
+                    "SELECT userId, NEW.messId, " + billKey("NEW.expenseDate") +
+                    " FROM (" + SchemaSql.sharingMembersSql("NEW") + "); " +
+            expenseLedgerDelta("NEW", "+");
+
+    private static final String EXPENSE_LEDGER_REMOVE_OLD = expenseLedgerDelta("OLD", "-");
+
+    private static String paymentLedgerDelta(String row, String sign) {
+        return "UPDATE " + TABLE_MEMBER_LEDGER + " SET " +
+                "totalPaid = totalPaid " + sign + " " + row + ".amount, " +
+                "updatedAt = strftime('%s','now') " +
+                "WHERE userId = " + row + ".userId AND messId = " + row + ".messId; " +
+                "UPDATE " + TABLE_MONTHLY_BILLS + " SET " +
+                "totalPaid = totalPaid " + sign + " " + row + ".amount " +
+                "WHERE billId = " + row + ".billId; ";
+    }
+
+    private static final String PAYMENT_LEDGER_ADD_NEW = ledgerEnsureRow("NEW") + paymentLedgerDelta("NEW", "+");
+
+    private static final String PAYMENT_LEDGER_REMOVE_OLD = paymentLedgerDelta("OLD", "-");
+
+    // A member joining (or a changed join date) changes which expenses they
+    // share, so their shared charges are recomputed from Expenses
+    private static final String USER_LEDGER_RECOMPUTE =
+            ledgerEnsureRow("NEW") +
+            "UPDATE " + TABLE_MEMBER_LEDGER + " SET " +
+                    "sharedCharges = (SELECT COALESCE(SUM(" + SchemaSql.expenseShareSql("e") + "), 0) FROM " +
+                    TABLE_EXPENSES + " e WHERE e.messId = NEW.messId AND e.expenseDate > NEW.joinedDate), " +
+                    "updatedAt = strftime('%s','now') " +
+                    "WHERE userId = NEW.userId AND messId = NEW.messId; " +
+            "INSERT OR IGNORE INTO " + TABLE_MONTHLY_BILLS + " (userId, messId, month, year) " +
+                    "SELECT DISTINCT NEW.userId, NEW.messId, " + billKey("e.expenseDate") + " FROM " +
+                    TABLE_EXPENSES + " e WHERE e.messId = NEW.messId AND e.expenseDate > NEW.joinedDate; " +
+            "UPDATE " + TABLE_MONTHLY_BILLS + " SET " +
+                    "totalOtherExpenses = (SELECT COALESCE(SUM(" + SchemaSql.expenseShareSql("e") + "), 0) FROM " +
+                    TABLE_EXPENSES + " e WHERE e.messId = NEW.messId AND e.expenseDate > NEW.joinedDate " +
+                    "AND " + SchemaSql.monthKeySql("e.expenseDate") + " = " +
+                    TABLE_MONTHLY_BILLS + ".year * 100 + " + TABLE_MONTHLY_BILLS + ".month) " +
+                    "WHERE userId = NEW.userId AND messId = NEW.messId; ";
+
+    private static final String CREATE_MEAL_LEDGER_INSERT_TRIGGER =
+            "CREATE TRIGGER trg_meals_ledger_insert AFTER INSERT ON " + TABLE_MEALS +
+                    " BEGIN " + MEAL_LEDGER_ADD_NEW + "END";
+
+    private static final String CREATE_MEAL_LEDGER_UPDATE_TRIGGER =
+            "CREATE TRIGGER trg_meals_ledger_update " +
+                    "AFTER UPDATE OF userId, messId, mealDate, breakfast, lunch, dinner, mealRate ON " + TABLE_MEALS +
+                    " BEGIN " + MEAL_LEDGER_REMOVE_OLD + MEAL_LEDGER_ADD_NEW + "END";
+
+    private static final String CREATE_MEAL_LEDGER_DELETE_TRIGGER =
+            "CREATE TRIGGER trg_meals_ledger_delete AFTER DELETE ON " + TABLE_MEALS +
+                    " BEGIN " + MEAL_LEDGER_REMOVE_OLD + "END";
+
+    private static final String CREATE_EXPENSE_LEDGER_INSERT_TRIGGER =
+            "CREATE TRIGGER trg_expenses_ledger_insert AFTER INSERT ON " + TABLE_EXPENSES +
+                    " BEGIN " + EXPENSE_LEDGER_ADD_NEW + "END";
+
+    private static final String CREATE_EXPENSE_LEDGER_UPDATE_TRIGGER =
+            "CREATE TRIGGER trg_expenses_ledger_update " +
+                    "AFTER UPDATE OF messId, amount, expenseDate, memberCountAtTime ON " + TABLE_EXPENSES +
+                    " BEGIN " + EXPENSE_LEDGER_REMOVE_OLD + EXPENSE_LEDGER_ADD_NEW + "END";
+
+    private static final String CREATE_EXPENSE_LEDGER_DELETE_TRIGGER =
+            "CREATE TRIGGER trg_expenses_ledger_delete AFTER DELETE ON " + TABLE_EXPENSES +
+                    " BEGIN " + EXPENSE_LEDGER_REMOVE_OLD + "END";
+
+    private static final String CREATE_PAYMENT_LEDGER_INSERT_TRIGGER =
+            "CREATE TRIGGER trg_payments_ledger_insert AFTER INSERT ON " + TABLE_PAYMENTS +
+                    " BEGIN " + PAYMENT_LEDGER_ADD_NEW + "END";
+
+    private static final String CREATE_PAYMENT_LEDGER_UPDATE_TRIGGER =
+            "CREATE TRIGGER trg_payments_ledger_update " +
+                    "AFTER UPDATE OF billId, userId, messId, amount ON " + TABLE_PAYMENTS +
+                    " BEGIN " + PAYMENT_LEDGER_REMOVE_OLD + PAYMENT_LEDGER_ADD_NEW + "END";
+
+    private static final String CREATE_PAYMENT_LEDGER_DELETE_TRIGGER =
+            "CREATE TRIGGER trg_payments_ledger_delete AFTER DELETE ON " + TABLE_PAYMENTS +
+                    " BEGIN " + PAYMENT_LEDGER_REMOVE_OLD + "END";
+
+    // Members who left have messId -1; their old ledger rows are kept as they were
+    private static final String CREATE_USER_LEDGER_INSERT_TRIGGER =
+            "CREATE TRIGGER trg_users_ledger_insert AFTER INSERT ON " + TABLE_USERS +
+                    " WHEN NEW.messId > 0 BEGIN " + USER_LEDGER_RECOMPUTE + "END";
+
+    private static final String CREATE_USER_LEDGER_UPDATE_TRIGGER =
+            "CREATE TRIGGER trg_users_ledger_update AFTER UPDATE OF messId, joinedDate ON " + TABLE_USERS +
+                    " WHEN NEW.messId > 0 AND (OLD.messId IS NOT NEW.messId " +
+                    "OR OLD.joinedDate IS NOT NEW.joinedDate) BEGIN " + USER_LEDGER_RECOMPUTE + "END";
+
     // SQL for creating MealPreferences table
     private static final String CREATE_MEAL_PREFERENCES_TABLE =
             "CREATE TABLE " + TABLE_MEAL_PREFERENCES + " (" +
@@ -217,4 +671,290 @@ public class MessKhataDatabase extends SQLiteOpenHelper {
                     "createdAt INTEGER DEFAULT (strftime('%s', 'now')), " +
                     "FOREIGN KEY (userId) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE, " +
                     "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
-}
\ No newline at end of file
+
+    // Preference history, pruned on save
+    private static final String CREATE_MEAL_PREFERENCES_INDEX =
+            "CREATE INDEX idx_meal_preferences_effective ON " + TABLE_MEAL_PREFERENCES +
+                    " (userId, messId, effectiveFrom)";
+
+    // SQL for creating CurrentMealPreferences table
+    // Latest preference per member, updated in the same transaction as the
+    // history append; prev* hold the preference in effect before effectiveFrom
+    // (NULL if there was none). Only that one level is kept here; earlier ones
+    // are read from the MealPreferences log.
+    private static final String CREATE_CURRENT_MEAL_PREFERENCES_TABLE =
+            "CREATE TABLE " + TABLE_CURRENT_MEAL_PREFERENCES + " (" +
+                    "userId INTEGER NOT NULL, " +
+                    "messId INTEGER NOT NULL, " +
+                    "breakfast INTEGER NOT NULL DEFAULT 1, " +
+                    "lunch INTEGER NOT NULL DEFAULT 1, " +
+                    "dinner INTEGER NOT NULL DEFAULT 1, " +
+                    "effectiveFrom INTEGER NOT NULL, " +
+                    "prevBreakfast INTEGER, " +
+                    "prevLunch INTEGER, " +
+                    "prevDinner INTEGER, " +
+                    "updatedAt INTEGER DEFAULT (strftime('%s', 'now')), " +
+                    "PRIMARY KEY (userId, messId), " +
+                    "FOREIGN KEY (userId) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
+
+    private static final String CREATE_CURRENT_MEAL_PREFERENCES_MESS_INDEX =
+            "CREATE INDEX idx_current_meal_preferences_mess ON " + TABLE_CURRENT_MEAL_PREFERENCES +
+                    " (messId)";
+
+    // SQL for creating MealSchedules table
+    // A member's meals for one weekday (1 = Sunday ... 7 = Saturday, as Calendar)
+    private static final String CREATE_MEAL_SCHEDULES_TABLE =
+            "CREATE TABLE " + TABLE_MEAL_SCHEDULES + " (" +
+                    "userId INTEGER NOT NULL, " +
+                    "messId INTEGER NOT NULL, " +
+                    "weekday INTEGER NOT NULL CHECK (weekday BETWEEN 1 AND 7), " +
+                    "breakfast INTEGER NOT NULL DEFAULT 0, " +
+                    "lunch INTEGER NOT NULL DEFAULT 0, " +
+                    "dinner INTEGER NOT NULL DEFAULT 0, " +
+                    "updatedAt INTEGER DEFAULT (strftime('%s', 'now')), " +
+                    "PRIMARY KEY (userId, messId, weekday), " +
+                    "FOREIGN KEY (userId) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
+
+    // SQL for creating MealScheduleOverrides table
+    // Meals for a date range (startDate..endDate inclusive, local midnights),
+    // e.g. 0/0/0 while away; newer overrides win
+    private static final String CREATE_MEAL_SCHEDULE_OVERRIDES_TABLE =
+            "CREATE TABLE " + TABLE_MEAL_SCHEDULE_OVERRIDES + " (" +
+                    "overrideId INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "userId INTEGER NOT NULL, " +
+                    "messId INTEGER NOT NULL, " +
+                    "startDate INTEGER NOT NULL, " +
+                    "endDate INTEGER NOT NULL, " +
+                    "breakfast INTEGER NOT NULL DEFAULT 0, " +
+                    "lunch INTEGER NOT NULL DEFAULT 0, " +
+                    "dinner INTEGER NOT NULL DEFAULT 0, " +
+                    "createdAt INTEGER DEFAULT (strftime('%s', 'now')), " +
+                    "FOREIGN KEY (userId) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
+
+    private static final String CREATE_MEAL_SCHEDULE_OVERRIDES_INDEX =
+            "CREATE INDEX idx_meal_schedule_overrides_mess ON " + TABLE_MEAL_SCHEDULE_OVERRIDES +
+                    " (messId, endDate)";
+
+    // SQL for creating MealCounters table
+    // One row per (member, day, slot, device) holding that device's increment
+    // and decrement totals; Meals.breakfast/lunch/dinner are materialised from it
+    private static final String CREATE_MEAL_COUNTERS_TABLE =
+            "CREATE TABLE " + TABLE_MEAL_COUNTERS + " (" +
+                    "userId INTEGER NOT NULL, " +
+                    "mealDate INTEGER NOT NULL, " +
+                    "slot TEXT NOT NULL, " +
+                    "replicaId TEXT NOT NULL, " +
+                    "increments INTEGER NOT NULL DEFAULT 0, " +
+                    "decrements INTEGER NOT NULL DEFAULT 0, " +
+                    "PRIMARY KEY (userId, mealDate, slot, replicaId), " +
+                    "FOREIGN KEY (userId) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE)";
+
+    // SQL for creating IdMappings table
+    // Local row ID <-> Firebase document ID per entity type (mess, user, meal, expense)
+    // version is the lastModified of the newest remote copy applied to the row
+    private static final String CREATE_ID_MAPPINGS_TABLE =
+            "CREATE TABLE " + TABLE_ID_MAPPINGS + " (" +
+                    "entityType TEXT NOT NULL, " +
+                    "localId INTEGER NOT NULL, " +
+                    "firebaseId TEXT NOT NULL, " +
+                    "invitationCode TEXT, " +
+                    "version INTEGER DEFAULT 0, " +
+                    "updatedAt INTEGER DEFAULT (strftime('%s', 'now')), " +
+                    "PRIMARY KEY (entityType, localId))";
+
+    private static final String CREATE_ID_MAPPINGS_FIREBASE_INDEX =
+            "CREATE UNIQUE INDEX idx_id_mappings_firebase ON " + TABLE_ID_MAPPINGS +
+                    " (entityType, firebaseId)";
+
+    // SQL for creating MealRates table
+    // One row per rate change; a meal is costed at the latest row with
+    // effectiveFrom <= mealDate (both in seconds, local midnight)
+    private static final String CREATE_MEAL_RATES_TABLE =
+            "CREATE TABLE " + TABLE_MEAL_RATES + " (" +
+                    "messId INTEGER NOT NULL, " +
+                    "effectiveFrom INTEGER NOT NULL, " +
+                    "grocery REAL NOT NULL DEFAULT 0, " +
+                    "cooking REAL NOT NULL DEFAULT 0, " +
+                    "updatedAt INTEGER DEFAULT (strftime('%s', 'now')), " +
+                    "PRIMARY KEY (messId, effectiveFrom), " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
+
+    // SQL for creating BalanceCheckpoints table
+    // Each member's MemberLedger totals as of the end of a closed month
+    // (monthKey = year * 100 + month), written by BalanceCheckpointDao.
+    // The triggers below delete a member's checkpoints from the month of any
+    // write that changes their balance, so a stored checkpoint is never stale.
+    private static final String CREATE_BALANCE_CHECKPOINTS_TABLE =
+            "CREATE TABLE " + TABLE_BALANCE_CHECKPOINTS + " (" +
+                    "messId INTEGER NOT NULL, " +
+                    "monthKey INTEGER NOT NULL, " +
+                    "userId INTEGER NOT NULL, " +
+                    "mealCount INTEGER NOT NULL DEFAULT 0, " +
+                    "mealCharges REAL NOT NULL DEFAULT 0, " +
+                    "sharedCharges REAL NOT NULL DEFAULT 0, " +
+                    "totalPaid REAL NOT NULL DEFAULT 0, " +
+                    "createdAt INTEGER DEFAULT (strftime('%s','now')), " +
+                    "PRIMARY KEY (messId, monthKey, userId), " +
+                    "FOREIGN KEY (userId) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
+
+    // perMember is false for writes shared by the whole mess (expenses, rates)
+    private static String dropCheckpointsFrom(String row, String dateColumn, boolean perMember) {
+        return "DELETE FROM " + TABLE_BALANCE_CHECKPOINTS + " WHERE messId = " + row + ".messId" +
+                (perMember ? " AND userId = " + row + ".userId" : "") +
+                " AND monthKey >= " + SchemaSql.monthKeySql(row + "." + dateColumn) + "; ";
+    }
+
+    private static String[] checkpointTriggers(String table, String name, String updateColumns,
+            String dateColumn, boolean perMember) {
+        String removeOld = dropCheckpointsFrom("OLD", dateColumn, perMember);
+        String removeNew = dropCheckpointsFrom("NEW", dateColumn, perMember);
+        return new String[]{
+                "CREATE TRIGGER trg_" + name + "_checkpoint_insert AFTER INSERT ON " + table +
+                        " BEGIN " + removeNew + "END",
+                "CREATE TRIGGER trg_" + name + "_checkpoint_update AFTER UPDATE OF " + updateColumns +
+                        " ON " + table + " BEGIN " + removeOld + removeNew + "END",
+                "CREATE TRIGGER trg_" + name + "_checkpoint_delete AFTER DELETE ON " + table +
+                        " BEGIN " + removeOld + "END"
+        };
+    }
+
+    private static final String[] CHECKPOINT_TRIGGERS = concat(
+            checkpointTriggers(TABLE_MEALS, "meals",
+                    "userId, messId, mealDate, breakfast, lunch, dinner, mealRate", "mealDate", true),
+            checkpointTriggers(TABLE_EXPENSES, "expenses",
+                    "messId, amount, expenseDate, memberCountAtTime", "expenseDate", false),
+            checkpointTriggers(TABLE_PAYMENTS, "payments",
+                    "userId, messId, amount, paidDate", "paidDate", true),
+            checkpointTriggers(TABLE_MEAL_RATES, "meal_rates",
+                    "messId, effectiveFrom, grocery, cooking", "effectiveFrom", false),
+            // A new join date changes which expenses the member shares
+            new String[]{"CREATE TRIGGER trg_users_checkpoint_update AFTER UPDATE OF messId, joinedDate ON " +
+                    TABLE_USERS + " WHEN OLD.messId IS NOT NEW.messId OR OLD.joinedDate IS NOT NEW.joinedDate " +
+                    "BEGIN DELETE FROM " + TABLE_BALANCE_CHECKPOINTS + " WHERE userId = NEW.userId; END"});
+
+    private static String[] concat(String[]... groups) {
+        List<String> all = new ArrayList<>();
+        for (String[] group : groups) {
+            all.addAll(Arrays.asList(group));
+        }
+        return all.toArray(new String[0]);
+    }
+
+    // A closed month's actual rate depends on its grocery spend and meal
+    // count, so back-dated writes to either recompute that month's bills.
+    // A meal may be the member's first in the month, so its bill row is made
+    // here too rather than relying on the ledger trigger having run first.
+    private static String recomputeClosedMonth(String row, String dateColumn) {
+        String ensureBill = row.equals("NEW") && dateColumn.equals("mealDate")
+                ? "INSERT OR IGNORE INTO " + TABLE_MONTHLY_BILLS + " (userId, messId, month, year) " +
+                        "VALUES (NEW.userId, NEW.messId, " + billKey("NEW.mealDate") + "); "
+                : "";
+        return ensureBill + SchemaSql.recomputeBillsSql(row + ".messId",
+                SchemaSql.monthKeySql(row + "." + dateColumn), true) + "; ";
+    }
+
+    private static final String GROCERY = String.valueOf(ExpenseCategory.GROCERY.getCode());
+
+    private static final String[] MONTH_CLOSE_TRIGGERS = {
+            "CREATE TRIGGER trg_expenses_close_insert AFTER INSERT ON " + TABLE_EXPENSES +
+                    " WHEN NEW.categoryCode = " + GROCERY +
+                    " BEGIN " + recomputeClosedMonth("NEW", "expenseDate") + "END",
+            "CREATE TRIGGER trg_expenses_close_update " +
+                    "AFTER UPDATE OF messId, amount, expenseDate, categoryCode ON " + TABLE_EXPENSES +
+                    " WHEN OLD.categoryCode = " + GROCERY + " OR NEW.categoryCode = " + GROCERY +
+                    " BEGIN " + recomputeClosedMonth("OLD", "expenseDate") +
+                    recomputeClosedMonth("NEW", "expenseDate") + "END",
+            "CREATE TRIGGER trg_expenses_close_delete AFTER DELETE ON " + TABLE_EXPENSES +
+                    " WHEN OLD.categoryCode = " + GROCERY +
+                    " BEGIN " + recomputeClosedMonth("OLD", "expenseDate") + "END",
+            "CREATE TRIGGER trg_meals_close_insert AFTER INSERT ON " + TABLE_MEALS +
+                    " BEGIN " + recomputeClosedMonth("NEW", "mealDate") + "END",
+            "CREATE TRIGGER trg_meals_close_update " +
+                    "AFTER UPDATE OF userId, messId, mealDate, breakfast, lunch, dinner ON " + TABLE_MEALS +
+                    " BEGIN " + recomputeClosedMonth("OLD", "mealDate") +
+                    recomputeClosedMonth("NEW", "mealDate") + "END",
+            "CREATE TRIGGER trg_meals_close_delete AFTER DELETE ON " + TABLE_MEALS +
+                    " BEGIN " + recomputeClosedMonth("OLD", "mealDate") + "END"
+    };
+
+    // SQL for creating ImportJobs table
+    // Progress of each CSV import, written in the same transaction as each
+    // chunk of rows so an interrupted import resumes after the last chunk.
+    // pendingFirstId..pendingLastId are the local IDs of a chunk committed
+    // but not yet handed to SyncManager, so a crash in between is uploaded later.
+    private static final String CREATE_IMPORT_JOBS_TABLE =
+            "CREATE TABLE " + TABLE_IMPORT_JOBS + " (" +
+                    "importKey TEXT PRIMARY KEY, " +
+                    "messId INTEGER NOT NULL, " +
+                    "kind TEXT NOT NULL, " +
+                    "recordsDone INTEGER NOT NULL DEFAULT 0, " +  // CSV records read, header included
+                    "imported INTEGER NOT NULL DEFAULT 0, " +
+                    "skipped INTEGER NOT NULL DEFAULT 0, " +
+                    "rejected INTEGER NOT NULL DEFAULT 0, " +
+                    "completedAt INTEGER, " +
+                    "pendingFirstId INTEGER, " +
+                    "pendingLastId INTEGER, " +
+                    "updatedAt INTEGER DEFAULT (strftime('%s','now')), " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE)";
+
+    // SQL for creating RecurringExpenseRules table
+    // Expenses that repeat; RecurringExpenseDao adds each occurrence as it
+    // falls due. nextOccurrence is the first one not yet added.
+    private static final String CREATE_RECURRING_EXPENSE_RULES_TABLE =
+            "CREATE TABLE " + TABLE_RECURRING_EXPENSE_RULES + " (" +
+                    "ruleId INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "messId INTEGER NOT NULL, " +
+                    "addedBy INTEGER NOT NULL, " +
+                    "category TEXT NOT NULL, " +
+                    "amount REAL NOT NULL, " +
+                    "title TEXT NOT NULL, " +
+                    "description TEXT, " +
+                    "frequency TEXT NOT NULL, " +             // monthly, weekly or custom
+                    "repeatInterval INTEGER NOT NULL DEFAULT 1, " +  // months, weeks or days
+                    "startDate INTEGER NOT NULL, " +
+                    "endDate INTEGER, " +                     // exclusive; NULL = no end
+                    "nextOccurrence INTEGER NOT NULL DEFAULT 0, " +
+                    "isActive INTEGER NOT NULL DEFAULT 1, " +
+                    "createdAt INTEGER DEFAULT (strftime('%s','now')), " +
+                    "FOREIGN KEY (messId) REFERENCES " + TABLE_MESS + "(messId) ON DELETE CASCADE, " +
+                    "FOREIGN KEY (addedBy) REFERENCES " + TABLE_USERS + "(userId) ON DELETE CASCADE)";
+
+    // Each occurrence of a rule becomes at most one expense, however often
+    // it is materialised. Other expenses have NULLs, which never collide.
+    private static final String CREATE_EXPENSES_RECURRENCE_INDEX =
+            "CREATE UNIQUE INDEX idx_expenses_recurrence ON " + TABLE_EXPENSES +
+                    " (recurringRuleId, recurrenceDate)";
+
+    // SQL for creating ExpenseSearch table
+    // Full-text index of expense titles and descriptions. It stores no text
+    // of its own (content=Expenses) and its docid is the expenseId. FTS4,
+    // since the platform SQLite is not built with FTS5; prefix indexes make
+    // search-as-you-type queries such as "ric*" index lookups too.
+    private static final String CREATE_EXPENSE_SEARCH_TABLE =
+            "CREATE VIRTUAL TABLE " + TABLE_EXPENSE_SEARCH + " USING fts4(" +
+                    "content=\"" + TABLE_EXPENSES + "\", title, description, " +
+                    "tokenize=unicode61, prefix=\"2,3\")";
+
+    // Keep ExpenseSearch in step with Expenses. Old text must be removed
+    // while the row still holds it, hence the BEFORE triggers.
+    private static final String REMOVE_SEARCH_TEXT =
+            "DELETE FROM " + TABLE_EXPENSE_SEARCH + " WHERE docid = OLD.expenseId; ";
+    private static final String ADD_SEARCH_TEXT =
+            "INSERT INTO " + TABLE_EXPENSE_SEARCH + " (docid, title, description) " +
+                    "VALUES (NEW.expenseId, NEW.title, NEW.description); ";
+
+    private static final String[] EXPENSE_SEARCH_TRIGGERS = {
+            "CREATE TRIGGER trg_expenses_search_insert AFTER INSERT ON " + TABLE_EXPENSES +
+                    " BEGIN " + ADD_SEARCH_TEXT + "END",
+            "CREATE TRIGGER trg_expenses_search_before_update BEFORE UPDATE OF title, description ON " +
+                    TABLE_EXPENSES + " BEGIN " + REMOVE_SEARCH_TEXT + "END",
+            "CREATE TRIGGER trg_expenses_search_update AFTER UPDATE OF title, description ON " +
+                    TABLE_EXPENSES + " BEGIN " + ADD_SEARCH_TEXT + "END",
+            "CREATE TRIGGER trg_expenses_search_delete BEFORE DELETE ON " + TABLE_EXPENSES +
+                    " BEGIN " + REMOVE_SEARCH_TEXT + "END"
+    };
+}
@@ -0,0 +1,132 @@
+package com.messkhata.data.database;
+
+import com.messkhata.data.model.ExpenseCategory;
+
+/**
+ * SQL fragments shared by the triggers in MessKhataDatabase and the DAOs
+ *
+ * The maintained tables (MessMonthlyStats, MemberLedger, MonthlyBills) are
+ * kept by triggers and rebuilt by the DAOs' reconcile() queries; building
+ * both from these expressions keeps them computing the same thing.
+ */
+public class SchemaSql {
+
+    /**
+     * MessMonthlyStats column of each category bucket, indexed by category code
+     */
+    public static final String[] CATEGORY_COLUMNS = {
+            "totalGrocery", "totalUtilities", "totalGas", "totalRent", "totalMaintenance", "totalOther"
+    };
+
+    /**
+     * SQL expression for the local year * 100 + month of a date in seconds
+     */
+    public static String monthKeySql(String dateExpression) {
+        return "CAST(strftime('%Y%m', " + dateExpression + ", 'unixepoch', 'localtime') AS INTEGER)";
+    }
+
+    /**
+     * SQL expression for the amount an Expenses row adds to a category bucket
+     * @param expenseAlias Alias of the Expenses row (e.g. "e", "NEW", "OLD")
+     */
+    public static String categoryAmountSql(ExpenseCategory category, String expenseAlias) {
+        return "CASE WHEN " + expenseAlias + ".categoryCode = " + category.getCode() +
+                " THEN " + expenseAlias + ".amount ELSE 0 END";
+    }
+
+    /**
+     * SQL expression for the per-meal rate of a Meals row: the latest MealRates
+     * entry in effect on its mealDate, or the rate stored on the row for days
+     * before the mess has any rate history.
+     *
+     * @param mealAlias Alias of the Meals table in the enclosing query
+     */
+    public static String effectiveRateSql(String mealAlias) {
+        return "COALESCE((SELECT r.grocery + r.cooking FROM " + MessKhataDatabase.TABLE_MEAL_RATES + " r" +
+                " WHERE r.messId = " + mealAlias + ".messId AND r.effectiveFrom <= " + mealAlias + ".mealDate" +
+                " ORDER BY r.effectiveFrom DESC LIMIT 1), " + mealAlias + ".mealRate)";
+    }
+
+    /**
+     * SQL expression for one member's share of an Expenses row
+     * The amount is split by the member count stored when it was added.
+     * @param expenseAlias Alias of the Expenses row (e.g. "e", "NEW", "OLD")
+     */
+    public static String expenseShareSql(String expenseAlias) {
+        return "(CASE WHEN " + expenseAlias + ".memberCountAtTime > 0 THEN " +
+                expenseAlias + ".amount * 1.0 / " + expenseAlias + ".memberCountAtTime ELSE 0 END)";
+    }
+
+    /**
+     * SQL query for the userIds sharing an Expenses row: members of its mess
+     * who joined before it was spent
+     */
+    public static String sharingMembersSql(String expenseAlias) {
+        return "SELECT userId FROM " + MessKhataDatabase.TABLE_USERS +
+                " WHERE messId = " + expenseAlias + ".messId AND joinedDate < " + expenseAlias + ".expenseDate";
+    }
+
+    /**
+     * SQL expression for the actual meal rate of a month: grocery spend over
+     * meals eaten, plus the cooking charge in effect at the end of the month
+     * @return Rate per meal; just the cooking charge if nothing was eaten
+     */
+    public static String actualMealRateSql(String messIdExpression, String monthKeyExpression) {
+        String start = monthBoundSql(monthKeyExpression, "");
+        String end = monthBoundSql(monthKeyExpression, ", '+1 month'");
+        return "(COALESCE((SELECT SUM(g.amount) FROM " + MessKhataDatabase.TABLE_EXPENSES + " g" +
+                " WHERE g.messId = " + messIdExpression +
+                " AND g.expenseDate >= " + start + " AND g.expenseDate < " + end +
+                " AND g.categoryCode = " + ExpenseCategory.GROCERY.getCode() + ") * 1.0 / " +
+                "(SELECT SUM(m.breakfast + m.lunch + m.dinner) FROM " + MessKhataDatabase.TABLE_MEALS + " m" +
+                " WHERE m.messId = " + messIdExpression +
+                " AND m.mealDate >= " + start + " AND m.mealDate < " + end + "), 0) + " +
+                "COALESCE((SELECT r.cooking FROM " + MessKhataDatabase.TABLE_MEAL_RATES + " r" +
+                " WHERE r.messId = " + messIdExpression + " AND r.effectiveFrom < " + end +
+                " ORDER BY r.effectiveFrom DESC LIMIT 1), " +
+                "(SELECT cookingChargePerMeal FROM " + MessKhataDatabase.TABLE_MESS +
+                " WHERE messId = " + messIdExpression + "), 0))";
+    }
+
+    /**
+     * The UPDATE that writes a month's actual rate and every member's
+     * adjusted meal charge to their MonthlyBills rows
+     * @param onlyIfClosed Leave the month alone unless it was already closed;
+     *                     bills added to a closed month since are closed too
+     */
+    public static String recomputeBillsSql(String messIdExpression, String monthKeyExpression,
+            boolean onlyIfClosed) {
+        String rate = actualMealRateSql(messIdExpression, monthKeyExpression);
+        String bills = MessKhataDatabase.TABLE_MONTHLY_BILLS;
+        return "UPDATE " + bills + " SET " +
+                "actualMealRate = " + rate + ", " +
+                "adjustedMealExpense = " + rate + " * (SELECT COALESCE(SUM(m.breakfast + m.lunch + m.dinner), 0) FROM " +
+                MessKhataDatabase.TABLE_MEALS + " m WHERE m.userId = " + bills + ".userId AND m.messId = " +
+                bills + ".messId AND m.mealDate >= " + monthBoundSql(monthKeyExpression, "") +
+                " AND m.mealDate < " + monthBoundSql(monthKeyExpression, ", '+1 month'") + "), " +
+                "closedAt = COALESCE(closedAt, strftime('%s','now')) " +
+                "WHERE " + inMonthSql(bills, messIdExpression, monthKeyExpression) +
+                (onlyIfClosed ? " AND EXISTS (SELECT 1 FROM " + bills + " c WHERE " +
+                        inMonthSql("c", messIdExpression, monthKeyExpression) + " AND c.closedAt IS NOT NULL)" : "");
+    }
+
+    /**
+     * SQL expression for local midnight (seconds) starting a month
+     * @param monthKeyExpression year * 100 + month
+     * @param offset "+1 month" for the end of the month, "" for its start
+     */
+    private static String monthBoundSql(String monthKeyExpression, String offset) {
+        return "CAST(strftime('%s', printf('%04d-%02d-01', (" + monthKeyExpression + ") / 100, (" +
+                monthKeyExpression + ") % 100)" + offset + ", 'utc') AS INTEGER)";
+    }
+
+    /**
+     * SQL condition for the MonthlyBills rows of a month, qualified by a
+     * table name or alias
+     */
+    private static String inMonthSql(String bills, String messIdExpression, String monthKeyExpression) {
+        return bills + ".messId = " + messIdExpression +
+                " AND " + bills + ".year = (" + monthKeyExpression + ") / 100" +
+                " AND " + bills + ".month = (" + monthKeyExpression + ") % 100";
+    }
+}
@@ -0,0 +1,86 @@
+package com.messkhata.data.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes tables as CSV (RFC 4180) through a buffered writer
+ *
+ * Tables follow each other in one file, separated by a blank line and
+ * headed by their title. The file starts with a UTF-8 byte order mark so
+ * that spreadsheet apps read member names in Bangla correctly.
+ */
+public class CsvTableWriter implements TableWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+    private boolean firstTable = true;
+
+    public CsvTableWriter(OutputStream out) throws IOException {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write('\uFEFF');
+    }
+
+    CsvTableWriter(Writer writer) {
+        this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+    }
+
+    @Override
+    public void startTable(String title, String[] columns) throws IOException {
+        if (!firstTable) {
+            writer.write("\r\n");
+        }
+        firstTable = false;
+        writeCell(title);
+        writer.write("\r\n");
+        writeRow(columns);
+    }
+
+    @Override
+    public void writeRow(String[] cells) throws IOException {
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeCell(cells[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Quote a cell only if it holds a comma, quote or line break
+     */
+    private void writeCell(String cell) throws IOException {
+        if (cell == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < cell.length() && !quote; i++) {
+            char c = cell.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(cell);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < cell.length(); i++) {
+            char c = cell.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,129 @@
+package com.messkhata.data.export;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import androidx.core.content.FileProvider;
+
+import com.messkhata.data.dao.ExportDao;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Exports the mess ledger and member statements to files that can be shared
+ *
+ * Files are written to cache/exports (see res/xml/file_paths.xml) under a
+ * temporary name and renamed once complete, so a share never picks up a
+ * half-written file. Exports read the database, so run them off the main
+ * thread.
+ */
+public class LedgerExporter {
+
+    public enum Format {
+        CSV("csv", "text/csv"),
+        PDF("pdf", "application/pdf");
+
+        private final String extension;
+        private final String mimeType;
+
+        Format(String extension, String mimeType) {
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+    }
+
+    private static final String EXPORT_DIR = "exports";
+    private static final String AUTHORITY_SUFFIX = ".fileprovider";
+
+    private final Context context;
+    private final ExportDao exportDao;
+
+    public LedgerExporter(Context context) {
+        this.context = context.getApplicationContext();
+        this.exportDao = new ExportDao(context);
+    }
+
+    /**
+     * Create a table writer for the format on a stream, e.g. one opened
+     * from a document the user picked
+     */
+    public static TableWriter newWriter(Format format, OutputStream out) throws IOException {
+        return format == Format.PDF ? new PdfTableWriter(out) : new CsvTableWriter(out);
+    }
+
+    /**
+     * Export every meal, expense and payment of the mess
+     * @return The exported file, null if failed
+     */
+    public File exportMessLedger(int messId, Format format) {
+        File file = exportFile("mess-ledger-" + messId, format);
+        return export(file, format, writer -> exportDao.exportMessLedger(messId, writer));
+    }
+
+    /**
+     * Export the monthly statement of one member, or of every member
+     * @param userId Member to export, or 0 for every member
+     * @param month 1-12
+     * @return The exported file, null if failed
+     */
+    public File exportStatements(int messId, int userId, int month, int year, Format format) {
+        String name = String.format(Locale.US, "statement-%d-%04d-%02d", messId, year, month) +
+                (userId > 0 ? "-" + userId : "");
+        File file = exportFile(name, format);
+        return export(file, format, writer -> exportDao.exportMemberStatements(messId, userId, month, year, writer));
+    }
+
+    /**
+     * Intent for sharing an exported file with other apps
+     */
+    public Intent shareIntent(File file, Format format) {
+        Uri uri = FileProvider.getUriForFile(context, context.getPackageName() + AUTHORITY_SUFFIX, file);
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(format.getMimeType());
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.putExtra(Intent.EXTRA_SUBJECT, file.getName());
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        return Intent.createChooser(intent, null);
+    }
+
+    private interface Export {
+        int writeTo(TableWriter writer);
+    }
+
+    private File exportFile(String name, Format format) {
+        File dir = new File(context.getCacheDir(), EXPORT_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        return new File(dir, name + "." + format.extension);
+    }
+
+    private File export(File file, Format format, Export export) {
+        if (file == null) {
+            return null;
+        }
+        File partial = new File(file.getPath() + ".part");
+        int rows;
+        try (TableWriter writer = newWriter(format, new FileOutputStream(partial))) {
+            rows = export.writeTo(writer);
+        } catch (IOException e) {
+            e.printStackTrace();
+            rows = -1;
+        }
+
+        if (rows < 0 || !partial.renameTo(file)) {
+            partial.delete();
+            return null;
+        }
+        return file;
+    }
+}
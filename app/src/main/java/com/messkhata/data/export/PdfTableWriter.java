@@ -0,0 +1,114 @@
+package com.messkhata.data.export;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.graphics.pdf.PdfDocument;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes tables as A4 PDF pages
+ *
+ * Rows are drawn as they arrive and each page is finished as soon as it is
+ * full, so only the page being drawn is held on the Java heap. Columns share
+ * the page width equally and cells too long for their column are cut short.
+ * The header row is repeated at the top of every page of a table.
+ */
+public class PdfTableWriter implements TableWriter {
+
+    // A4 in points
+    private static final int PAGE_WIDTH = 595;
+    private static final int PAGE_HEIGHT = 842;
+    private static final int MARGIN = 36;
+    private static final float TEXT_SIZE = 8f;
+    private static final float TITLE_SIZE = 12f;
+    private static final float ROW_HEIGHT = 12f;
+    private static final float CELL_PADDING = 4f;
+
+    private final OutputStream out;
+    private final PdfDocument document = new PdfDocument();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint headerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint titlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private PdfDocument.Page page;
+    private int pageNumber;
+    private float y;
+    private String[] columns;
+    private float columnWidth;
+
+    public PdfTableWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out);
+        textPaint.setTextSize(TEXT_SIZE);
+        headerPaint.setTextSize(TEXT_SIZE);
+        headerPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        titlePaint.setTextSize(TITLE_SIZE);
+        titlePaint.setTypeface(Typeface.DEFAULT_BOLD);
+    }
+
+    @Override
+    public void startTable(String title, String[] columns) {
+        this.columns = columns;
+        this.columnWidth = (PAGE_WIDTH - 2f * MARGIN) / columns.length;
+
+        // A title at the foot of a page would be cut off from its rows
+        if (page == null || y + ROW_HEIGHT * 4 > PAGE_HEIGHT - MARGIN) {
+            newPage();
+        } else {
+            y += ROW_HEIGHT;
+        }
+        y += TITLE_SIZE;
+        page.getCanvas().drawText(title, MARGIN, y, titlePaint);
+        y += ROW_HEIGHT / 2;
+        drawRow(columns, headerPaint);
+    }
+
+    @Override
+    public void writeRow(String[] cells) {
+        if (y + ROW_HEIGHT > PAGE_HEIGHT - MARGIN) {
+            newPage();
+            drawRow(columns, headerPaint);
+        }
+        drawRow(cells, textPaint);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (page != null) {
+                document.finishPage(page);
+                page = null;
+            }
+            document.writeTo(out);
+        } finally {
+            document.close();
+            out.close();
+        }
+    }
+
+    private void newPage() {
+        if (page != null) {
+            document.finishPage(page);
+        }
+        pageNumber++;
+        page = document.startPage(new PdfDocument.PageInfo.Builder(PAGE_WIDTH, PAGE_HEIGHT, pageNumber).create());
+        y = MARGIN;
+    }
+
+    private void drawRow(String[] cells, Paint paint) {
+        y += ROW_HEIGHT;
+        Canvas canvas = page.getCanvas();
+        float maxWidth = columnWidth - CELL_PADDING;
+        for (int i = 0; i < cells.length && i < columns.length; i++) {
+            String cell = cells[i];
+            if (cell == null || cell.isEmpty()) {
+                continue;
+            }
+            int fits = paint.breakText(cell, true, maxWidth, null);
+            canvas.drawText(cell, 0, fits, MARGIN + i * columnWidth, y, paint);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.messkhata.data.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for exported tables, written one row at a time
+ *
+ * Rows are passed on as they are read from a cursor, so a writer must not
+ * hold on to them; cells arrays may be reused by the caller.
+ */
+public interface TableWriter extends Closeable {
+
+    /**
+     * Start a new table; rows written after this belong to it
+     * @param title Heading above the table
+     * @param columns Column headings
+     */
+    void startTable(String title, String[] columns) throws IOException;
+
+    /**
+     * Write one row of the current table
+     * @param cells One value per column; null for an empty cell
+     */
+    void writeRow(String[] cells) throws IOException;
+}
@@ -0,0 +1,634 @@
+package com.messkhata.data.importer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.messkhata.data.cache.DataVersions;
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.Expense;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.Meal;
+import com.messkhata.data.model.MealCounters;
+import com.messkhata.data.sync.SyncManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports historical expenses or meals from a CSV file
+ *
+ * The file is read one record at a time. Valid rows are written in chunks
+ * of CHUNK_SIZE, each in one transaction that also records how far the
+ * import got in ImportJobs, so an interrupted import resumes after its last
+ * chunk instead of starting over or importing rows twice. Each chunk is
+ * uploaded as one batch rather than one sync per row; the transaction also
+ * marks it pending upload until it is handed to SyncManager, so a chunk
+ * committed just before the app was killed is still uploaded later.
+ *
+ * Expense columns: date, amount, and optionally category, title,
+ * description and paid by (member name or email; the importer if blank).
+ * Meal columns: date, member, and any of breakfast, lunch and dinner.
+ * Runs on the calling thread, so call it off the main thread.
+ */
+public class CsvImporter {
+
+    public enum Kind {
+        EXPENSES,
+        MEALS
+    }
+
+    /**
+     * Progress of an import; final once isComplete()
+     */
+    public static class ImportResult {
+        private int recordsDone;
+        private int imported;
+        private int skipped;
+        private int rejected;
+        private boolean complete;
+        private final List<String> errors = new ArrayList<>();
+
+        /**
+         * CSV records read so far, header included
+         */
+        public int getRecordsDone() {
+            return recordsDone;
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        /**
+         * Rows already present (meals for a day that has an entry) or empty
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Why rows were rejected, for the first MAX_ERRORS of them
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        private void addError(String error) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+    }
+
+    public interface ProgressListener {
+        void onChunkImported(ImportResult progress);
+    }
+
+    // Rows per transaction, and Firestore's limit on writes per batch
+    static final int CHUNK_SIZE = 500;
+    private static final int MAX_ERRORS = 50;
+
+    private final MessKhataDatabase dbHelper;
+    private final SyncManager syncManager;
+    private final DataVersions versions;
+
+    public CsvImporter(Context context) {
+        this.dbHelper = MessKhataDatabase.getInstance(context);
+        this.syncManager = SyncManager.getInstance(context);
+        this.versions = DataVersions.getInstance();
+    }
+
+    /**
+     * Import a CSV file, or resume an import that was interrupted
+     * @param importKey Identifies the file, e.g. its Uri; an import with a
+     *                  key that already completed is not repeated
+     * @param importedBy userId recorded as adding rows with no payer
+     * @return The outcome; not complete if the import failed part way
+     */
+    public ImportResult importCsv(String importKey, InputStream in, Kind kind, int messId,
+            int importedBy, ProgressListener listener) {
+        ImportResult result = new ImportResult();
+        uploadPendingChunks(messId);
+        if (loadProgress(importKey, result)) {
+            return result;
+        }
+
+        try (CsvReader reader = new CsvReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            List<String> fields = new ArrayList<>();
+            if (!reader.readRecord(fields)) {
+                result.addError("The file is empty");
+                return result;
+            }
+            Columns columns = new Columns(fields);
+            String missing = columns.missing(kind);
+            if (missing != null) {
+                result.addError("Missing column: " + missing);
+                return result;
+            }
+
+            // Skip what earlier runs imported
+            while (reader.getRecordNumber() < result.recordsDone && reader.readRecord(fields)) {
+                // already imported
+            }
+
+            ImportContext context = new ImportContext(messId, importedBy);
+            List<Expense> expenses = new ArrayList<>();
+            List<Meal> meals = new ArrayList<>();
+            while (reader.readRecord(fields)) {
+                int row = reader.getRecordNumber();
+                if (isBlank(fields)) {
+                    result.skipped++;
+                } else if (kind == Kind.EXPENSES) {
+                    Expense expense = parseExpense(fields, columns, context, row, result);
+                    if (expense != null) {
+                        expenses.add(expense);
+                    }
+                } else {
+                    Meal meal = parseMeal(fields, columns, context, row, result);
+                    if (meal != null) {
+                        meals.add(meal);
+                    }
+                }
+
+                if (expenses.size() + meals.size() >= CHUNK_SIZE) {
+                    writeChunk(importKey, messId, kind, expenses, meals, row, false, result);
+                    if (listener != null) {
+                        listener.onChunkImported(result);
+                    }
+                }
+            }
+            writeChunk(importKey, messId, kind, expenses, meals, reader.getRecordNumber(), true, result);
+            if (listener != null) {
+                listener.onChunkImported(result);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            result.complete = false;
+        }
+        return result;
+    }
+
+    /**
+     * Check if an import with this key already completed, so importing the
+     * file again would add its rows twice unless its progress is cleared
+     */
+    public boolean isImported(String importKey) {
+        return loadProgress(importKey, new ImportResult());
+    }
+
+    /**
+     * Forget an import's progress, e.g. to import a corrected file again
+     */
+    public void clearProgress(String importKey) {
+        dbHelper.getWritableDatabase().delete(MessKhataDatabase.TABLE_IMPORT_JOBS,
+                "importKey = ?", new String[]{importKey});
+    }
+
+    /**
+     * Upload the chunks of a mess's imports that were committed but never
+     * handed to SyncManager, e.g. because the app was killed in between
+     */
+    public void uploadPendingChunks(int messId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String mess = String.valueOf(messId);
+        List<PendingChunk> chunks = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT importKey, kind, pendingFirstId, pendingLastId FROM " +
+                        MessKhataDatabase.TABLE_IMPORT_JOBS + " WHERE messId = ? AND pendingFirstId IS NOT NULL",
+                new String[]{mess});
+        while (cursor.moveToNext()) {
+            chunks.add(new PendingChunk(cursor.getString(0), cursor.getString(1),
+                    cursor.getInt(2), cursor.getInt(3)));
+        }
+        cursor.close();
+
+        for (PendingChunk chunk : chunks) {
+            if (!claimPendingUpload(chunk.importKey, chunk.firstId)) {
+                continue;
+            }
+            String[] args = new String[]{mess, String.valueOf(chunk.firstId), String.valueOf(chunk.lastId)};
+            if (Kind.EXPENSES.name().equals(chunk.kind)) {
+                List<Expense> expenses = new ArrayList<>();
+                cursor = db.rawQuery("SELECT expenseId, messId, addedBy, category, amount, title, description, " +
+                        "expenseDate, memberCountAtTime, createdAt FROM " + MessKhataDatabase.TABLE_EXPENSES +
+                        " WHERE messId = ? AND expenseId BETWEEN ? AND ? ORDER BY expenseId", args);
+                while (cursor.moveToNext()) {
+                    expenses.add(new Expense(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2),
+                            cursor.getString(3), cursor.getDouble(4), cursor.getString(5), cursor.getString(6),
+                            cursor.getLong(7), cursor.getInt(8), cursor.getLong(9)));
+                }
+                cursor.close();
+                syncManager.syncExpensesBatch(expenses);
+            } else {
+                List<Meal> meals = new ArrayList<>();
+                cursor = db.rawQuery("SELECT mealId, userId, messId, mealDate, breakfast, lunch, dinner, mealRate " +
+                        "FROM " + MessKhataDatabase.TABLE_MEALS +
+                        " WHERE messId = ? AND mealId BETWEEN ? AND ? ORDER BY mealId", args);
+                while (cursor.moveToNext()) {
+                    meals.add(new Meal(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2), cursor.getLong(3),
+                            cursor.getInt(4), cursor.getInt(5), cursor.getInt(6), cursor.getDouble(7)));
+                }
+                cursor.close();
+                syncManager.syncMealsBatch(meals);
+            }
+        }
+    }
+
+    /**
+     * Take the pending upload of a chunk, so an import and SyncWorker never
+     * both upload it
+     * @return true if the chunk was still pending
+     */
+    private boolean claimPendingUpload(String importKey, int firstId) {
+        ContentValues values = new ContentValues();
+        values.putNull("pendingFirstId");
+        values.putNull("pendingLastId");
+        return dbHelper.getWritableDatabase().update(MessKhataDatabase.TABLE_IMPORT_JOBS, values,
+                "importKey = ? AND pendingFirstId = ?", new String[]{importKey, String.valueOf(firstId)}) > 0;
+    }
+
+    /**
+     * Read the progress of an earlier run
+     * @return true if that run completed the import
+     */
+    private boolean loadProgress(String importKey, ImportResult result) {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT recordsDone, imported, skipped, " +
+                        "rejected, completedAt FROM " + MessKhataDatabase.TABLE_IMPORT_JOBS + " WHERE importKey = ?",
+                new String[]{importKey});
+        if (cursor.moveToFirst()) {
+            result.recordsDone = cursor.getInt(0);
+            result.imported = cursor.getInt(1);
+            result.skipped = cursor.getInt(2);
+            result.rejected = cursor.getInt(3);
+            result.complete = !cursor.isNull(4);
+        }
+        cursor.close();
+        return result.complete;
+    }
+
+    /**
+     * Write a chunk of rows, the progress up to recordsDone and the chunk's
+     * pending upload in one transaction, then upload the chunk as one batch
+     */
+    private void writeChunk(String importKey, int messId, Kind kind, List<Expense> expenses,
+            List<Meal> meals, int recordsDone, boolean complete, ImportResult result) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int imported = 0;
+        int skipped = 0;
+        List<Meal> insertedMeals = new ArrayList<>();
+        int firstId = 0;
+
+        db.beginTransaction();
+        try {
+            if (!expenses.isEmpty()) {
+                SQLiteStatement insert = db.compileStatement("INSERT INTO " + MessKhataDatabase.TABLE_EXPENSES +
+                        " (messId, addedBy, category, categoryCode, amount, title, description, expenseDate, " +
+                        "memberCountAtTime, createdAt, updatedAt) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                long now = System.currentTimeMillis() / 1000;
+                for (Expense expense : expenses) {
+                    insert.clearBindings();
+                    insert.bindLong(1, expense.getMessId());
+                    insert.bindLong(2, expense.getAddedBy());
+                    insert.bindString(3, expense.getCategory());
+                    insert.bindLong(4, ExpenseCategory.fromName(expense.getCategory()).getCode());
+                    insert.bindDouble(5, expense.getAmount());
+                    insert.bindString(6, expense.getTitle());
+                    if (expense.getDescription() != null) {
+                        insert.bindString(7, expense.getDescription());
+                    }
+                    insert.bindLong(8, expense.getExpenseDate());
+                    insert.bindLong(9, expense.getMemberCountAtTime());
+                    insert.bindLong(10, now);
+                    insert.bindLong(11, now);
+                    expense.setExpenseId((int) insert.executeInsert());
+                    expense.setCreatedAt(now);
+                    imported++;
+                }
+                insert.close();
+            }
+
+            if (!meals.isEmpty()) {
+                // A day that already has meals keeps them; its counters may
+                // hold edits the spreadsheet does not know about
+                SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " +
+                        MessKhataDatabase.TABLE_MEALS +
+                        " (userId, messId, mealDate, breakfast, lunch, dinner, mealRate) VALUES (?, ?, ?, ?, ?, ?, ?)");
+                // Imported counts are seeded like rows written before
+                // counters existed, so other devices' edits merge with them
+                SQLiteStatement seed = db.compileStatement("INSERT OR IGNORE INTO " +
+                        MessKhataDatabase.TABLE_MEAL_COUNTERS +
+                        " (userId, mealDate, slot, replicaId, increments, decrements) VALUES (?, ?, ?, ?, ?, 0)");
+                for (Meal meal : meals) {
+                    insert.bindLong(1, meal.getUserId());
+                    insert.bindLong(2, meal.getMessId());
+                    insert.bindLong(3, meal.getMealDate());
+                    insert.bindLong(4, meal.getBreakfast());
+                    insert.bindLong(5, meal.getLunch());
+                    insert.bindLong(6, meal.getDinner());
+                    insert.bindDouble(7, meal.getMealRate());
+                    long mealId = insert.executeInsert();
+                    if (mealId == -1) {
+                        skipped++;
+                    } else {
+                        meal.setMealId((int) mealId);
+                        int[] counts = {meal.getBreakfast(), meal.getLunch(), meal.getDinner()};
+                        for (int i = 0; i < MealCounters.SLOTS.length; i++) {
+                            if (counts[i] > 0) {
+                                seed.bindLong(1, meal.getUserId());
+                                seed.bindLong(2, meal.getMealDate());
+                                seed.bindString(3, MealCounters.SLOTS[i]);
+                                seed.bindString(4, MealCounters.SEED_REPLICA);
+                                seed.bindLong(5, counts[i]);
+                                seed.executeInsert();
+                            }
+                        }
+                        insertedMeals.add(meal);
+                        imported++;
+                    }
+                }
+                insert.close();
+                seed.close();
+            }
+
+            // Rows are inserted in ID order and nothing else writes during
+            // the transaction, so the chunk is the range of its first and
+            // last IDs
+            int lastId = 0;
+            if (!expenses.isEmpty()) {
+                firstId = expenses.get(0).getExpenseId();
+                lastId = expenses.get(expenses.size() - 1).getExpenseId();
+            } else if (!insertedMeals.isEmpty()) {
+                firstId = insertedMeals.get(0).getMealId();
+                lastId = insertedMeals.get(insertedMeals.size() - 1).getMealId();
+            }
+
+            ContentValues progress = new ContentValues();
+            progress.put("importKey", importKey);
+            progress.put("messId", messId);
+            progress.put("kind", kind.name());
+            progress.put("recordsDone", recordsDone);
+            progress.put("imported", result.imported + imported);
+            progress.put("skipped", result.skipped + skipped);
+            progress.put("rejected", result.rejected);
+            progress.put("updatedAt", System.currentTimeMillis() / 1000);
+            if (complete) {
+                progress.put("completedAt", System.currentTimeMillis() / 1000);
+            }
+            if (lastId > 0) {
+                progress.put("pendingFirstId", firstId);
+                progress.put("pendingLastId", lastId);
+            }
+            db.insertWithOnConflict(MessKhataDatabase.TABLE_IMPORT_JOBS, null, progress,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        result.recordsDone = recordsDone;
+        result.imported += imported;
+        result.skipped += skipped;
+        result.complete = complete;
+
+        // Rows span many months, so everything cached for the mess is stale
+        if (!expenses.isEmpty()) {
+            versions.bumpMess(MessKhataDatabase.TABLE_EXPENSES, messId);
+            if (claimPendingUpload(importKey, firstId)) {
+                syncManager.syncExpensesBatch(new ArrayList<>(expenses));
+            }
+        }
+        if (!insertedMeals.isEmpty()) {
+            versions.bumpMess(MessKhataDatabase.TABLE_MEALS, messId);
+            if (claimPendingUpload(importKey, firstId)) {
+                syncManager.syncMealsBatch(insertedMeals);
+            }
+        }
+        expenses.clear();
+        meals.clear();
+    }
+
+    private Expense parseExpense(List<String> fields, Columns columns, ImportContext context, int row,
+            ImportResult result) {
+        long date = context.parser.parseDate(columns.get(fields, Columns.DATE));
+        if (date == ImportValueParser.INVALID_DATE) {
+            return reject(result, row, "invalid or future date \"" + columns.get(fields, Columns.DATE) + "\"");
+        }
+        double amount = context.parser.parseAmount(columns.get(fields, Columns.AMOUNT));
+        if (Double.isNaN(amount)) {
+            return reject(result, row, "invalid amount \"" + columns.get(fields, Columns.AMOUNT) + "\"");
+        }
+        int addedBy = context.importedBy;
+        String payer = columns.get(fields, Columns.MEMBER);
+        if (payer != null && !payer.trim().isEmpty()) {
+            addedBy = context.members.resolve(payer);
+            if (addedBy < 0) {
+                return reject(result, row, describeMember(addedBy, payer));
+            }
+        }
+
+        ExpenseCategory category = ExpenseCategory.fromName(columns.get(fields, Columns.CATEGORY));
+        String title = columns.get(fields, Columns.TITLE);
+        if (title == null || title.trim().isEmpty()) {
+            title = category.getName();
+        }
+        String description = columns.get(fields, Columns.DESCRIPTION);
+        long dateSeconds = date / 1000;
+        return new Expense(0, context.messId, addedBy, category.getName(), amount, title.trim(),
+                description == null || description.trim().isEmpty() ? null : description.trim(),
+                dateSeconds, context.sharingMembers(dateSeconds), 0);
+    }
+
+    private Meal parseMeal(List<String> fields, Columns columns, ImportContext context, int row,
+            ImportResult result) {
+        long date = context.parser.parseDate(columns.get(fields, Columns.DATE));
+        if (date == ImportValueParser.INVALID_DATE) {
+            return reject(result, row, "invalid or future date \"" + columns.get(fields, Columns.DATE) + "\"");
+        }
+        String member = columns.get(fields, Columns.MEMBER);
+        int userId = context.members.resolve(member);
+        if (userId < 0) {
+            return reject(result, row, describeMember(userId, member));
+        }
+
+        int[] counts = new int[3];
+        int[] slots = {Columns.BREAKFAST, Columns.LUNCH, Columns.DINNER};
+        for (int i = 0; i < slots.length; i++) {
+            counts[i] = context.parser.parseMealCount(columns.get(fields, slots[i]));
+            if (counts[i] == ImportValueParser.INVALID_COUNT) {
+                return reject(result, row, "invalid meal count \"" + columns.get(fields, slots[i]) + "\"");
+            }
+        }
+        if (counts[0] + counts[1] + counts[2] == 0) {
+            result.skipped++;
+            return null;
+        }
+        return new Meal(0, userId, context.messId, date / 1000, counts[0], counts[1], counts[2],
+                context.mealRate);
+    }
+
+    private static <T> T reject(ImportResult result, int row, String reason) {
+        result.rejected++;
+        result.addError("Row " + row + ": " + reason);
+        return null;
+    }
+
+    private static String describeMember(int resolved, String member) {
+        return resolved == MemberDirectory.AMBIGUOUS
+                ? "more than one member is called \"" + member + "\", use their email"
+                : "no member \"" + (member != null ? member : "") + "\" in this mess";
+    }
+
+    private static boolean isBlank(List<String> fields) {
+        for (String field : fields) {
+            if (!field.trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class PendingChunk {
+        final String importKey;
+        final String kind;
+        final int firstId;
+        final int lastId;
+
+        PendingChunk(String importKey, String kind, int firstId, int lastId) {
+            this.importKey = importKey;
+            this.kind = kind;
+            this.firstId = firstId;
+            this.lastId = lastId;
+        }
+    }
+
+    /**
+     * What rows are checked against, loaded once per import
+     */
+    private class ImportContext {
+        final int messId;
+        final int importedBy;
+        final ImportValueParser parser = new ImportValueParser(System.currentTimeMillis());
+        final MemberDirectory members = new MemberDirectory();
+        final long[] joinDates; // seconds, ascending
+        final double mealRate;
+
+        ImportContext(int messId, int importedBy) {
+            this.messId = messId;
+            this.importedBy = importedBy;
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            String[] messArg = new String[]{String.valueOf(messId)};
+
+            Cursor cursor = db.rawQuery("SELECT userId, fullName, email, joinedDate FROM " +
+                    MessKhataDatabase.TABLE_USERS + " WHERE messId = ? ORDER BY joinedDate", messArg);
+            joinDates = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                members.addMember(cursor.getInt(0), cursor.getString(1), cursor.getString(2));
+                joinDates[i] = cursor.getLong(3);
+            }
+            cursor.close();
+
+            // Rate stored on imported meals, used for days before the mess
+            // has any rate history (see SchemaSql.effectiveRateSql)
+            cursor = db.rawQuery("SELECT groceryBudgetPerMeal + cookingChargePerMeal FROM " +
+                    MessKhataDatabase.TABLE_MESS + " WHERE messId = ?", messArg);
+            mealRate = cursor.moveToFirst() ? cursor.getDouble(0) : 50.0;
+            cursor.close();
+        }
+
+        /**
+         * Members an expense on this date is split between, as the ledger
+         * triggers split it (see SchemaSql.sharingMembersSql)
+         */
+        int sharingMembers(long dateSeconds) {
+            int index = Arrays.binarySearch(joinDates, dateSeconds);
+            int before = index >= 0 ? index : -index - 1;
+            while (index >= 0 && before > 0 && joinDates[before - 1] == dateSeconds) {
+                before--;
+            }
+            return Math.max(1, before);
+        }
+    }
+
+    /**
+     * Positions of the known columns in the header, matched loosely
+     * ("Paid By", "paid_by" and "paidby" are the same column)
+     */
+    private static class Columns {
+        static final int DATE = 0;
+        static final int AMOUNT = 1;
+        static final int CATEGORY = 2;
+        static final int TITLE = 3;
+        static final int DESCRIPTION = 4;
+        static final int MEMBER = 5;
+        static final int BREAKFAST = 6;
+        static final int LUNCH = 7;
+        static final int DINNER = 8;
+
+        private static final String[][] NAMES = {
+                {"date", "day", "expensedate", "mealdate"},
+                {"amount", "cost", "price", "total"},
+                {"category", "type"},
+                {"title", "item"},
+                {"description", "details", "note", "notes"},
+                {"member", "paidby", "addedby", "email", "membername", "name", "payer"},
+                {"breakfast"},
+                {"lunch"},
+                {"dinner", "supper"}
+        };
+
+        private final int[] index = new int[NAMES.length];
+
+        Columns(List<String> header) {
+            Arrays.fill(index, -1);
+            for (int i = 0; i < header.size(); i++) {
+                String name = header.get(i).toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "");
+                for (int column = 0; column < NAMES.length; column++) {
+                    if (index[column] == -1 && Arrays.asList(NAMES[column]).contains(name)) {
+                        index[column] = i;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return A required column the header lacks, null if none
+         */
+        String missing(Kind kind) {
+            if (index[DATE] == -1) {
+                return "date";
+            }
+            if (kind == Kind.EXPENSES) {
+                return index[AMOUNT] == -1 ? "amount" : null;
+            }
+            if (index[MEMBER] == -1) {
+                return "member";
+            }
+            return index[BREAKFAST] == -1 && index[LUNCH] == -1 && index[DINNER] == -1
+                    ? "breakfast, lunch or dinner" : null;
+        }
+
+        /**
+         * @return The row's value for a column, null if absent
+         */
+        String get(List<String> fields, int column) {
+            int i = index[column];
+            return i >= 0 && i < fields.size() ? fields.get(i) : null;
+        }
+    }
+}
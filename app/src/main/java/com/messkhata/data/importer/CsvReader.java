@@ -0,0 +1,99 @@
+package com.messkhata.data.importer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads CSV (RFC 4180) one record at a time
+ *
+ * Quoted fields may hold commas, doubled quotes and line breaks. A leading
+ * UTF-8 byte order mark, as written by spreadsheet apps, is skipped. Only
+ * the record being read is held in memory.
+ */
+public class CsvReader implements Closeable {
+
+    private final BufferedReader reader;
+    private final StringBuilder field = new StringBuilder();
+    private int recordNumber;
+    private boolean atStart = true;
+
+    public CsvReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader, 64 * 1024);
+    }
+
+    /**
+     * Read the next record
+     * @param fields Cleared and filled with the record's fields
+     * @return false at the end of the input
+     */
+    public boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        int c = reader.read();
+        if (atStart) {
+            atStart = false;
+            if (c == '\uFEFF') {
+                c = reader.read();
+            }
+        }
+        if (c == -1) {
+            return false;
+        }
+
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    break; // unterminated quote, keep what was read
+                }
+                if (c == '"') {
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n') {
+                        reader.reset();
+                    }
+                }
+                break;
+            } else {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        recordNumber++;
+        return true;
+    }
+
+    /**
+     * Number of records read so far, including the header
+     */
+    public int getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
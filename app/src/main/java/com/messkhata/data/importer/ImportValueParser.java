@@ -0,0 +1,131 @@
+package com.messkhata.data.importer;
+
+import com.messkhata.data.model.MealCounters;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Validates and normalises the values of imported spreadsheet cells
+ *
+ * Dates are read in the formats spreadsheets commonly export, day before
+ * month where it is ambiguous (31/01/2024), and normalised to local
+ * midnight like dates picked in the app. Not thread-safe.
+ */
+public class ImportValueParser {
+
+    public static final long INVALID_DATE = -1;
+    public static final int INVALID_COUNT = -1;
+
+    // Most specific first; all parsed strictly
+    private static final String[] DATE_PATTERNS = {
+            "yyyy-MM-dd", "yyyy/MM/dd", "dd/MM/yyyy", "dd-MM-yyyy", "dd.MM.yyyy",
+            "d MMM yyyy", "d MMMM yyyy", "MMM d, yyyy", "MMMM d, yyyy", "d-MMM-yy", "d-MMM-yyyy"
+    };
+
+    private final SimpleDateFormat[] dateFormats = new SimpleDateFormat[DATE_PATTERNS.length];
+    private final Calendar calendar = Calendar.getInstance();
+    private final long latestDate;
+
+    /**
+     * @param now Milliseconds; dates after this day are rejected
+     */
+    public ImportValueParser(long now) {
+        for (int i = 0; i < DATE_PATTERNS.length; i++) {
+            dateFormats[i] = new SimpleDateFormat(DATE_PATTERNS[i], Locale.US);
+            dateFormats[i].setLenient(false);
+        }
+        this.latestDate = startOfDay(now);
+    }
+
+    /**
+     * @return Local midnight of the date in milliseconds, INVALID_DATE if it
+     *         is unreadable or in the future
+     */
+    public long parseDate(String value) {
+        if (value == null) {
+            return INVALID_DATE;
+        }
+        String text = value.trim();
+        // Spreadsheets often add a time to dates
+        int space = text.indexOf(' ');
+        if (space > 0 && text.indexOf(':') > space) {
+            text = text.substring(0, space);
+        }
+
+        for (SimpleDateFormat format : dateFormats) {
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(text, position);
+            if (date != null && position.getIndex() == text.length()) {
+                calendar.setTime(date);
+                int year = calendar.get(Calendar.YEAR);
+                if (year < 2000) {
+                    continue; // two-digit year read as the first century
+                }
+                long day = startOfDay(date.getTime());
+                return day <= latestDate ? day : INVALID_DATE;
+            }
+        }
+        return INVALID_DATE;
+    }
+
+    /**
+     * Read an amount, ignoring currency marks and thousands separators
+     * such as "Tk 1,250.00" or "300 BDT"
+     * @return The amount, NaN if unreadable or not positive
+     */
+    public double parseAmount(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        String digits = value.toLowerCase(Locale.US)
+                .replace("\u09F3", "").replace("bdt", "").replace("tk", "")
+                .replace(",", "").trim();
+        try {
+            double amount = Double.parseDouble(digits);
+            return amount > 0 && !Double.isInfinite(amount) ? amount : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Read the number of meals in one slot; blank means none, and tick marks
+     * such as "x" or "yes" mean one
+     * @return The count, INVALID_COUNT if unreadable or out of range
+     */
+    public int parseMealCount(String value) {
+        String text = value == null ? "" : value.trim().toLowerCase(Locale.US);
+        switch (text) {
+            case "":
+            case "-":
+            case "n":
+            case "no":
+                return 0;
+            case "x":
+            case "y":
+            case "yes":
+            case "\u2713": // check mark
+                return 1;
+            default:
+                try {
+                    int count = Integer.parseInt(text);
+                    return count >= 0 && count <= MealCounters.MAX_PER_SLOT ? count : INVALID_COUNT;
+                } catch (NumberFormatException e) {
+                    return INVALID_COUNT;
+                }
+        }
+    }
+
+    private long startOfDay(long millis) {
+        calendar.setTimeInMillis(millis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
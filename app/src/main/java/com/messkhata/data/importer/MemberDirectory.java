@@ -0,0 +1,49 @@
+package com.messkhata.data.importer;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolves the member names or emails written in a spreadsheet to userIds
+ *
+ * Loaded once per import, so rows are matched without a query each.
+ * Matching ignores case and repeated spaces. A name shared by two members
+ * resolves to neither; such rows need the member's email instead.
+ */
+public class MemberDirectory {
+
+    public static final int UNKNOWN = -1;
+    public static final int AMBIGUOUS = -2;
+
+    private final Map<String, Integer> byKey = new HashMap<>();
+
+    public void addMember(int userId, String fullName, String email) {
+        add(normalize(fullName), userId);
+        add(normalize(email), userId);
+    }
+
+    /**
+     * @return The member's userId, UNKNOWN or AMBIGUOUS
+     */
+    public int resolve(String nameOrEmail) {
+        Integer userId = byKey.get(normalize(nameOrEmail));
+        return userId != null ? userId : UNKNOWN;
+    }
+
+    public boolean isEmpty() {
+        return byKey.isEmpty();
+    }
+
+    private void add(String key, int userId) {
+        if (key.isEmpty()) {
+            return;
+        }
+        Integer existing = byKey.get(key);
+        byKey.put(key, existing == null || existing == userId ? userId : AMBIGUOUS);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
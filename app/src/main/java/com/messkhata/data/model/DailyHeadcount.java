@@ -0,0 +1,44 @@
+package com.messkhata.data.model;
+
+/**
+ * Mess-wide meal headcount for one day
+ */
+public class DailyHeadcount {
+    private long mealDate; // Unix timestamp (seconds), local midnight
+    private int breakfast;
+    private int lunch;
+    private int dinner;
+    private boolean forecast; // true if planned, not yet charged
+
+    public DailyHeadcount(long mealDate, int breakfast, int lunch, int dinner, boolean forecast) {
+        this.mealDate = mealDate;
+        this.breakfast = breakfast;
+        this.lunch = lunch;
+        this.dinner = dinner;
+        this.forecast = forecast;
+    }
+
+    public long getMealDate() {
+        return mealDate;
+    }
+
+    public int getBreakfast() {
+        return breakfast;
+    }
+
+    public int getLunch() {
+        return lunch;
+    }
+
+    public int getDinner() {
+        return dinner;
+    }
+
+    public int getTotal() {
+        return breakfast + lunch + dinner;
+    }
+
+    public boolean isForecast() {
+        return forecast;
+    }
+}
@@ -0,0 +1,85 @@
+package com.messkhata.data.model;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Canonical expense categories
+ *
+ * Expenses rows store both the code (categoryCode, used for grouping and
+ * the MessMonthlyStats buckets) and the canonical name (category, used for
+ * sync). Codes are stored, so never reorder or reuse them.
+ */
+public enum ExpenseCategory {
+
+    GROCERY(0, "Grocery", "groceries"),
+    UTILITY(1, "Utility", "utilities"),
+    GAS(2, "Gas"),
+    RENT(3, "Rent"),
+    MAINTENANCE(4, "Maintenance", "cleaning"),
+    OTHER(5, "Other", "miscellaneous", "misc");
+
+    /**
+     * Number of categories; size of arrays indexed by code
+     */
+    public static final int COUNT = values().length;
+
+    private static final ExpenseCategory[] BY_CODE = new ExpenseCategory[COUNT];
+    private static final Map<String, ExpenseCategory> BY_NAME = new HashMap<>();
+
+    static {
+        for (ExpenseCategory category : values()) {
+            BY_CODE[category.code] = category;
+            BY_NAME.put(normalize(category.canonicalName), category);
+            for (String alias : category.aliases) {
+                BY_NAME.put(normalize(alias), category);
+            }
+        }
+    }
+
+    private final int code;
+    private final String canonicalName;
+    private final String[] aliases;
+
+    ExpenseCategory(int code, String name, String... aliases) {
+        this.code = code;
+        this.canonicalName = name;
+        this.aliases = aliases;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Canonical name, as stored in Expenses.category and synced
+     */
+    public String getName() {
+        return canonicalName;
+    }
+
+    /**
+     * Resolve a stored or synced category name, including legacy free-text
+     * names such as "utilities" or "cleaning"
+     * @return Matching category, OTHER if unknown or empty
+     */
+    public static ExpenseCategory fromName(String name) {
+        if (name == null) {
+            return OTHER;
+        }
+        ExpenseCategory category = BY_NAME.get(normalize(name));
+        return category != null ? category : OTHER;
+    }
+
+    /**
+     * @return Category with this code, OTHER if out of range
+     */
+    public static ExpenseCategory fromCode(int code) {
+        return code >= 0 && code < COUNT ? BY_CODE[code] : OTHER;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
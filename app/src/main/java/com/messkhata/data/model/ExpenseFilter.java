@@ -0,0 +1,151 @@
+package com.messkhata.data.model;
+
+import java.util.Locale;
+
+/**
+ * Criteria of an expense search
+ *
+ * Every criterion is optional and they combine with AND. Text matches
+ * whole words of the title or description by prefix, so "ric" finds
+ * "Rice, 5kg"; it is turned into an FTS query by getMatchQuery().
+ */
+public class ExpenseFilter {
+
+    public static final int ANY = -1;
+
+    // Most words of a query that are searched for
+    private static final int MAX_TERMS = 8;
+
+    private String text = "";
+    private int categoryCode = ANY;
+    private double minAmount;  // 0 = no minimum
+    private double maxAmount;  // 0 = no maximum
+    private long fromDate;     // seconds, inclusive; 0 = no start
+    private long toDate;       // seconds, exclusive; 0 = no end
+    private int addedBy = ANY;
+
+    public ExpenseFilter copy() {
+        ExpenseFilter copy = new ExpenseFilter();
+        copy.text = text;
+        copy.categoryCode = categoryCode;
+        copy.minAmount = minAmount;
+        copy.maxAmount = maxAmount;
+        copy.fromDate = fromDate;
+        copy.toDate = toDate;
+        copy.addedBy = addedBy;
+        return copy;
+    }
+
+    /**
+     * @return true if no criterion is set
+     */
+    public boolean isEmpty() {
+        return getMatchQuery() == null && categoryCode == ANY && minAmount <= 0 && maxAmount <= 0
+                && fromDate <= 0 && toDate <= 0 && addedBy == ANY;
+    }
+
+    /**
+     * The text as an FTS4 MATCH expression: each word as a prefix term, all
+     * required. Punctuation, quotes and operators typed by the user are
+     * dropped, so any input gives a valid query.
+     * @return The expression, null if the text has no words
+     */
+    public String getMatchQuery() {
+        StringBuilder query = new StringBuilder();
+        int terms = 0;
+        int i = 0;
+        while (i < text.length() && terms < MAX_TERMS) {
+            while (i < text.length() && !isWordChar(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < text.length() && isWordChar(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                // Lower case, since upper-case AND, OR and NEAR are operators
+                query.append(text.substring(start, i).toLowerCase(Locale.ROOT)).append('*');
+                terms++;
+            }
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    // Letters, digits and combining marks (Bangla vowel signs) make up words
+    private static boolean isWordChar(char c) {
+        int type = Character.getType(c);
+        return Character.isLetterOrDigit(c) || type == Character.NON_SPACING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text != null ? text : "";
+    }
+
+    public int getCategoryCode() {
+        return categoryCode;
+    }
+
+    /**
+     * @param categoryCode ExpenseCategory code, or ANY
+     */
+    public void setCategoryCode(int categoryCode) {
+        this.categoryCode = categoryCode;
+    }
+
+    public double getMinAmount() {
+        return minAmount;
+    }
+
+    public void setMinAmount(double minAmount) {
+        this.minAmount = minAmount;
+    }
+
+    public double getMaxAmount() {
+        return maxAmount;
+    }
+
+    public void setMaxAmount(double maxAmount) {
+        this.maxAmount = maxAmount;
+    }
+
+    public long getFromDate() {
+        return fromDate;
+    }
+
+    /**
+     * @param fromDate First day included, in seconds; 0 for no start
+     */
+    public void setFromDate(long fromDate) {
+        this.fromDate = fromDate;
+    }
+
+    public long getToDate() {
+        return toDate;
+    }
+
+    /**
+     * @param toDate End of the range (excluded), in seconds; 0 for no end
+     */
+    public void setToDate(long toDate) {
+        this.toDate = toDate;
+    }
+
+    public int getAddedBy() {
+        return addedBy;
+    }
+
+    /**
+     * @param addedBy userId, or ANY
+     */
+    public void setAddedBy(int addedBy) {
+        this.addedBy = addedBy;
+    }
+}
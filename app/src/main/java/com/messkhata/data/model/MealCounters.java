@@ -0,0 +1,172 @@
+package com.messkhata.data.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replicated meal counts for one member on one day.
+ * Each slot (breakfast, lunch, dinner) is a {@link PNCounter}, so edits made
+ * concurrently on different devices merge without losing either change.
+ */
+public class MealCounters {
+
+    public static final String SLOT_BREAKFAST = "breakfast";
+    public static final String SLOT_LUNCH = "lunch";
+    public static final String SLOT_DINNER = "dinner";
+    public static final String[] SLOTS = {SLOT_BREAKFAST, SLOT_LUNCH, SLOT_DINNER};
+
+    // Replica used when converting a pre-counter meal row; every device seeds
+    // the same value from the same row, so max-merge keeps it stable. If
+    // devices held diverging legacy rows for the day, the seeds differ and
+    // max-merge keeps the larger count: without the edit history of those
+    // rows there is nothing to merge them from.
+    public static final String SEED_REPLICA = "seed";
+
+    public static final int MAX_PER_SLOT = 5;
+
+    private final Map<String, PNCounter> slots = new HashMap<>();
+
+    public MealCounters() {
+        for (String slot : SLOTS) {
+            slots.put(slot, new PNCounter());
+        }
+    }
+
+    public MealCounters(MealCounters other) {
+        for (String slot : SLOTS) {
+            slots.put(slot, new PNCounter(other.getSlot(slot)));
+        }
+    }
+
+    /**
+     * Get the counter for a slot
+     */
+    public PNCounter getSlot(String slot) {
+        PNCounter counter = slots.get(slot);
+        if (counter == null) {
+            throw new IllegalArgumentException("Unknown meal slot: " + slot);
+        }
+        return counter;
+    }
+
+    /**
+     * Record a local edit made on a replica
+     */
+    public void apply(String replicaId, int breakfastDelta, int lunchDelta, int dinnerDelta) {
+        getSlot(SLOT_BREAKFAST).apply(replicaId, breakfastDelta);
+        getSlot(SLOT_LUNCH).apply(replicaId, lunchDelta);
+        getSlot(SLOT_DINNER).apply(replicaId, dinnerDelta);
+    }
+
+    /**
+     * Merge another copy into this one
+     */
+    public void merge(MealCounters other) {
+        for (String slot : SLOTS) {
+            getSlot(slot).merge(other.getSlot(slot));
+        }
+    }
+
+    public int getBreakfast() {
+        return clamp(getSlot(SLOT_BREAKFAST).value());
+    }
+
+    public int getLunch() {
+        return clamp(getSlot(SLOT_LUNCH).value());
+    }
+
+    public int getDinner() {
+        return clamp(getSlot(SLOT_DINNER).value());
+    }
+
+    public boolean isEmpty() {
+        for (String slot : SLOTS) {
+            if (!getSlot(slot).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy restricted to the given replicas (used for uploads, where a device
+     * must only write entries it owns)
+     */
+    public MealCounters retain(String... replicaIds) {
+        MealCounters copy = new MealCounters();
+        for (String slot : SLOTS) {
+            copy.slots.put(slot, getSlot(slot).retain(replicaIds));
+        }
+        return copy;
+    }
+
+    /**
+     * Clamp a raw counter value into the allowed 0..MAX_PER_SLOT range
+     */
+    public static int clamp(long value) {
+        return (int) Math.max(0, Math.min(MAX_PER_SLOT, value));
+    }
+
+    /**
+     * Counter change that moves a slot by a delta as the user sees it
+     * The shown count is the clamped raw value, so a raw value outside
+     * 0..MAX_PER_SLOT (after concurrent edits merged) is first brought back
+     * into range; otherwise a tap could change nothing visible, and a later
+     * one jump by several meals.
+     *
+     * @param raw Sum of increments minus decrements over all replicas
+     * @param shownDelta Change to the shown count; 0 leaves the slot alone
+     * @return Change to apply to the raw value
+     */
+    public static long rawDelta(long raw, int shownDelta) {
+        if (shownDelta == 0) {
+            return 0;
+        }
+        return clamp(clamp(raw) + (long) shownDelta) - raw;
+    }
+
+    /**
+     * Convert to Firestore map: {slot: {"p": {...}, "n": {...}}}
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        for (String slot : SLOTS) {
+            map.put(slot, getSlot(slot).toMap());
+        }
+        return map;
+    }
+
+    /**
+     * Create from a map produced by {@link #toMap()}
+     */
+    @SuppressWarnings("unchecked")
+    public static MealCounters fromMap(Map<String, Object> map) {
+        MealCounters counters = new MealCounters();
+        if (map == null) {
+            return counters;
+        }
+        for (String slot : SLOTS) {
+            if (map.get(slot) instanceof Map) {
+                counters.slots.put(slot, PNCounter.fromMap((Map<String, Object>) map.get(slot)));
+            }
+        }
+        return counters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MealCounters)) return false;
+        return slots.equals(((MealCounters) o).slots);
+    }
+
+    @Override
+    public int hashCode() {
+        return slots.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "MealCounters" + slots;
+    }
+}
@@ -0,0 +1,117 @@
+package com.messkhata.data.model;
+
+import java.util.Arrays;
+
+/**
+ * Planned meals of a mess for a run of days, compiled by MealPlanCompiler.
+ *
+ * Each member's day is packed into 9 bits: 3 bits each for breakfast (bits
+ * 0-2), lunch (3-5) and dinner (6-8), enough for the 0..MAX_COUNT a slot
+ * can hold. A member's plan is an int per day; a whole week fits in a long
+ * (see packWeek).
+ */
+public class MealPlan {
+
+    public static final int SLOT_BITS = 3;
+    public static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    public static final int DAY_BITS = 3 * SLOT_BITS;
+    public static final int DAY_MASK = (1 << DAY_BITS) - 1;
+    public static final int MAX_COUNT = MealCounters.MAX_PER_SLOT;
+
+    private final long[] dayStarts;
+    private final int[] userIds;
+    private final int[][] days; // [member][day]
+
+    MealPlan(long[] dayStarts, int[] userIds, int[][] days) {
+        this.dayStarts = dayStarts;
+        this.userIds = userIds;
+        this.days = days;
+    }
+
+    /**
+     * Pack one day's counts; counts are clamped to 0..MAX_COUNT
+     */
+    public static int pack(int breakfast, int lunch, int dinner) {
+        return clamp(breakfast)
+                | clamp(lunch) << SLOT_BITS
+                | clamp(dinner) << (2 * SLOT_BITS);
+    }
+
+    public static int breakfast(int day) {
+        return day & SLOT_MASK;
+    }
+
+    public static int lunch(int day) {
+        return (day >>> SLOT_BITS) & SLOT_MASK;
+    }
+
+    public static int dinner(int day) {
+        return (day >>> (2 * SLOT_BITS)) & SLOT_MASK;
+    }
+
+    public static int total(int day) {
+        return breakfast(day) + lunch(day) + dinner(day);
+    }
+
+    /**
+     * Put a packed day into a weekly template
+     * @param weekdayIndex 0 = Sunday ... 6 = Saturday
+     */
+    public static long packWeek(long week, int weekdayIndex, int day) {
+        int shift = weekdayIndex * DAY_BITS;
+        return (week & ~((long) DAY_MASK << shift)) | ((long) (day & DAY_MASK) << shift);
+    }
+
+    public static int dayOfWeek(long week, int weekdayIndex) {
+        return (int) (week >>> (weekdayIndex * DAY_BITS)) & DAY_MASK;
+    }
+
+    public int getDayCount() {
+        return dayStarts.length;
+    }
+
+    /**
+     * Local midnight (seconds) of a day in the plan
+     */
+    public long getDayStart(int dayIndex) {
+        return dayStarts[dayIndex];
+    }
+
+    public int[] getUserIds() {
+        return userIds;
+    }
+
+    /**
+     * Packed plan of one member for one day, 0 if the member is not in the plan
+     */
+    public int getDay(int userId, int dayIndex) {
+        int member = Arrays.binarySearch(userIds, userId);
+        return member >= 0 ? days[member][dayIndex] : 0;
+    }
+
+    /**
+     * Planned meals of a member for every day, in day order
+     */
+    public int[] getDays(int userId) {
+        int member = Arrays.binarySearch(userIds, userId);
+        return member >= 0 ? days[member] : new int[dayStarts.length];
+    }
+
+    /**
+     * Planned breakfast, lunch and dinner headcount of the whole mess on a day
+     */
+    public int[] getHeadcount(int dayIndex) {
+        int[] headcount = new int[3];
+        for (int[] memberDays : days) {
+            int day = memberDays[dayIndex];
+            headcount[0] += breakfast(day);
+            headcount[1] += lunch(day);
+            headcount[2] += dinner(day);
+        }
+        return headcount;
+    }
+
+    private static int clamp(int count) {
+        return Math.max(0, Math.min(MAX_COUNT, count));
+    }
+}
@@ -0,0 +1,165 @@
+package com.messkhata.data.model;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Compiles members' meal preferences, weekday schedules and date-range
+ * overrides into a MealPlan for a run of days.
+ *
+ * For each member and day the first of these that applies wins:
+ * 1. the newest override covering the day ("away 10-20 March" is an override of 0/0/0)
+ * 2. the weekday schedule, if one is set for that weekday
+ * 3. the preference in effect that day, the newest with an effectiveFrom on
+ *    or before it
+ */
+public class MealPlanCompiler {
+
+    private final long[] dayStarts;
+    private final int[] weekdayIndexes;
+    private final TreeMap<Integer, Member> members = new TreeMap<>();
+
+    private static class Member {
+        long week;          // weekday schedule, see MealPlan.packWeek
+        int weekMask;       // bit n set if weekday n has a schedule
+        final TreeMap<Long, Integer> preferences = new TreeMap<>(); // effectiveFrom -> packed day
+        final List<long[]> overrides = new ArrayList<>(); // {start, end, packed day}
+    }
+
+    /**
+     * @param firstDay Local midnight of the first day (seconds)
+     * @param dayCount Number of consecutive days to plan
+     */
+    public MealPlanCompiler(long firstDay, int dayCount) {
+        this(firstDay, dayCount, TimeZone.getDefault());
+    }
+
+    public MealPlanCompiler(long firstDay, int dayCount, TimeZone timeZone) {
+        dayStarts = new long[dayCount];
+        weekdayIndexes = new int[dayCount];
+
+        // Step by calendar day so DST changes don't skew the midnights
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(firstDay * 1000);
+        for (int i = 0; i < dayCount; i++) {
+            dayStarts[i] = calendar.getTimeInMillis() / 1000;
+            weekdayIndexes[i] = calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    /**
+     * Local midnight (seconds) of the last day planned
+     */
+    public long getLastDayStart() {
+        return dayStarts.length > 0 ? dayStarts[dayStarts.length - 1] : Long.MIN_VALUE;
+    }
+
+    /**
+     * Add a member to the plan; members without any schedule plan no meals
+     */
+    public MealPlanCompiler addMember(int userId) {
+        member(userId);
+        return this;
+    }
+
+    /**
+     * Set a member's current preference
+     * @param previous Packed preference before effectiveFrom, or 0 if none
+     */
+    public MealPlanCompiler setPreference(int userId, int breakfast, int lunch, int dinner,
+            long effectiveFrom, int previous) {
+        Member member = member(userId);
+        member.preferences.put(Long.MIN_VALUE, previous);
+        member.preferences.put(effectiveFrom, MealPlan.pack(breakfast, lunch, dinner));
+        return this;
+    }
+
+    /**
+     * Add a preference from the member's history, in effect from its
+     * effectiveFrom until the next one; of those added for the same day the
+     * last one wins
+     */
+    public MealPlanCompiler addPreference(int userId, int breakfast, int lunch, int dinner,
+            long effectiveFrom) {
+        member(userId).preferences.put(effectiveFrom, MealPlan.pack(breakfast, lunch, dinner));
+        return this;
+    }
+
+    /**
+     * Set a member's meals for one weekday
+     * @param calendarWeekday Calendar.SUNDAY ... Calendar.SATURDAY
+     */
+    public MealPlanCompiler setWeekday(int userId, int calendarWeekday,
+            int breakfast, int lunch, int dinner) {
+        Member member = member(userId);
+        int index = calendarWeekday - Calendar.SUNDAY;
+        member.week = MealPlan.packWeek(member.week, index, MealPlan.pack(breakfast, lunch, dinner));
+        member.weekMask |= 1 << index;
+        return this;
+    }
+
+    /**
+     * Override a member's meals for a date range; later overrides win
+     * @param startDate Local midnight of the first day (seconds)
+     * @param endDate Local midnight of the last day, inclusive (seconds)
+     */
+    public MealPlanCompiler addOverride(int userId, long startDate, long endDate,
+            int breakfast, int lunch, int dinner) {
+        member(userId).overrides.add(
+                new long[]{startDate, endDate, MealPlan.pack(breakfast, lunch, dinner)});
+        return this;
+    }
+
+    public MealPlan compile() {
+        int[] userIds = new int[members.size()];
+        int[][] days = new int[members.size()][];
+
+        int m = 0;
+        for (Map.Entry<Integer, Member> entry : members.entrySet()) {
+            userIds[m] = entry.getKey();
+            days[m] = compileMember(entry.getValue());
+            m++;
+        }
+        return new MealPlan(dayStarts, userIds, days);
+    }
+
+    private int[] compileMember(Member member) {
+        int[] days = new int[dayStarts.length];
+        for (int i = 0; i < dayStarts.length; i++) {
+            long day = dayStarts[i];
+            int weekday = weekdayIndexes[i];
+
+            int planned;
+            if ((member.weekMask & (1 << weekday)) != 0) {
+                planned = MealPlan.dayOfWeek(member.week, weekday);
+            } else {
+                Map.Entry<Long, Integer> preference = member.preferences.floorEntry(day);
+                planned = preference != null ? preference.getValue() : 0;
+            }
+
+            for (int o = member.overrides.size() - 1; o >= 0; o--) {
+                long[] override = member.overrides.get(o);
+                if (day >= override[0] && day <= override[1]) {
+                    planned = (int) override[2];
+                    break;
+                }
+            }
+            days[i] = planned;
+        }
+        return days;
+    }
+
+    private Member member(int userId) {
+        Member member = members.get(userId);
+        if (member == null) {
+            member = new Member();
+            members.put(userId, member);
+        }
+        return member;
+    }
+}
@@ -0,0 +1,69 @@
+package com.messkhata.data.model;
+
+/**
+ * Meal rate in effect for a mess from a given day onwards
+ */
+public class MealRate {
+    private int messId;
+    private long effectiveFrom; // Unix timestamp (seconds), local midnight
+    private double grocery;
+    private double cooking;
+
+    // Constructor
+    public MealRate() {
+    }
+
+    public MealRate(int messId, long effectiveFrom, double grocery, double cooking) {
+        this.messId = messId;
+        this.effectiveFrom = effectiveFrom;
+        this.grocery = grocery;
+        this.cooking = cooking;
+    }
+
+    // Getters and Setters
+    public int getMessId() {
+        return messId;
+    }
+
+    public void setMessId(int messId) {
+        this.messId = messId;
+    }
+
+    public long getEffectiveFrom() {
+        return effectiveFrom;
+    }
+
+    public void setEffectiveFrom(long effectiveFrom) {
+        this.effectiveFrom = effectiveFrom;
+    }
+
+    public double getGrocery() {
+        return grocery;
+    }
+
+    public void setGrocery(double grocery) {
+        this.grocery = grocery;
+    }
+
+    public double getCooking() {
+        return cooking;
+    }
+
+    public void setCooking(double cooking) {
+        this.cooking = cooking;
+    }
+
+    public double getTotalRate() {
+        return grocery + cooking;
+    }
+
+    @Override
+    public String toString() {
+        return "MealRate{" +
+                "messId=" + messId +
+                ", effectiveFrom=" + effectiveFrom +
+                ", grocery=" + grocery +
+                ", cooking=" + cooking +
+                '}';
+    }
+}
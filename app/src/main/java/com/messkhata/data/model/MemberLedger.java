@@ -0,0 +1,87 @@
+package com.messkhata.data.model;
+
+/**
+ * Running balance of one member in one mess (a MemberLedger row)
+ */
+public class MemberLedger {
+
+    // Amounts closer than this are treated as equal when checking for drift
+    private static final double AMOUNT_EPSILON = 0.005;
+
+    private int userId;
+    private int messId;
+    private int mealCount;       // breakfast + lunch + dinner, all time
+    private double mealCharges;  // meals at the rate in effect on each day
+    private double sharedCharges; // share of expenses added after joining
+    private double totalPaid;
+
+    public MemberLedger(int userId, int messId) {
+        this.userId = userId;
+        this.messId = messId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getMessId() {
+        return messId;
+    }
+
+    public int getMealCount() {
+        return mealCount;
+    }
+
+    public void setMealCount(int mealCount) {
+        this.mealCount = mealCount;
+    }
+
+    public double getMealCharges() {
+        return mealCharges;
+    }
+
+    public void setMealCharges(double mealCharges) {
+        this.mealCharges = mealCharges;
+    }
+
+    public double getSharedCharges() {
+        return sharedCharges;
+    }
+
+    public void setSharedCharges(double sharedCharges) {
+        this.sharedCharges = sharedCharges;
+    }
+
+    public double getTotalPaid() {
+        return totalPaid;
+    }
+
+    public void setTotalPaid(double totalPaid) {
+        this.totalPaid = totalPaid;
+    }
+
+    /**
+     * Everything the member has been charged
+     */
+    public double getTotalCharges() {
+        return mealCharges + sharedCharges;
+    }
+
+    /**
+     * Amount still to pay; negative if the member has paid in advance
+     */
+    public double getDue() {
+        return getTotalCharges() - totalPaid;
+    }
+
+    /**
+     * Check whether two rows hold the same totals, ignoring rounding noise
+     * left behind by incremental updates
+     */
+    public boolean matches(MemberLedger other) {
+        return other != null && mealCount == other.mealCount
+                && Math.abs(mealCharges - other.mealCharges) <= AMOUNT_EPSILON
+                && Math.abs(sharedCharges - other.sharedCharges) <= AMOUNT_EPSILON
+                && Math.abs(totalPaid - other.totalPaid) <= AMOUNT_EPSILON;
+    }
+}
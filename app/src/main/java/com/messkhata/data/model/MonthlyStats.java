@@ -0,0 +1,149 @@
+package com.messkhata.data.model;
+
+/**
+ * One month's expense and meal totals of a mess (a MessMonthlyStats row)
+ */
+public class MonthlyStats {
+
+    // Amounts closer than this are treated as equal when checking for drift
+    private static final double AMOUNT_EPSILON = 0.005;
+
+    private int messId;
+    private int year;
+    private int month; // 1-12
+    private final double[] categoryTotals = new double[ExpenseCategory.COUNT]; // by category code
+    private int expenseCount;
+    private int totalMeals;
+    private double mealExpenses;
+    private int mealCount;
+
+    public MonthlyStats(int messId, int year, int month) {
+        this.messId = messId;
+        this.year = year;
+        this.month = month;
+    }
+
+    public int getMessId() {
+        return messId;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public double getCategoryTotal(ExpenseCategory category) {
+        return categoryTotals[category.getCode()];
+    }
+
+    public void setCategoryTotal(ExpenseCategory category, double total) {
+        categoryTotals[category.getCode()] = total;
+    }
+
+    public double getGrocery() {
+        return getCategoryTotal(ExpenseCategory.GROCERY);
+    }
+
+    public double getUtilities() {
+        return getCategoryTotal(ExpenseCategory.UTILITY);
+    }
+
+    public double getGas() {
+        return getCategoryTotal(ExpenseCategory.GAS);
+    }
+
+    public double getRent() {
+        return getCategoryTotal(ExpenseCategory.RENT);
+    }
+
+    public double getMaintenance() {
+        return getCategoryTotal(ExpenseCategory.MAINTENANCE);
+    }
+
+    public double getOther() {
+        return getCategoryTotal(ExpenseCategory.OTHER);
+    }
+
+    /**
+     * Number of Expenses rows behind the category totals
+     */
+    public int getExpenseCount() {
+        return expenseCount;
+    }
+
+    public void setExpenseCount(int expenseCount) {
+        this.expenseCount = expenseCount;
+    }
+
+    /**
+     * Meals consumed by all members (breakfast + lunch + dinner)
+     */
+    public int getTotalMeals() {
+        return totalMeals;
+    }
+
+    public void setTotalMeals(int totalMeals) {
+        this.totalMeals = totalMeals;
+    }
+
+    /**
+     * Meals charged at the rate in effect on each meal's day
+     */
+    public double getMealExpenses() {
+        return mealExpenses;
+    }
+
+    public void setMealExpenses(double mealExpenses) {
+        this.mealExpenses = mealExpenses;
+    }
+
+    /**
+     * Number of Meals rows behind the meal totals
+     */
+    public int getMealCount() {
+        return mealCount;
+    }
+
+    public void setMealCount(int mealCount) {
+        this.mealCount = mealCount;
+    }
+
+    /**
+     * Sum of all expense categories, without meals
+     */
+    public double getCategoryExpenses() {
+        double total = 0;
+        for (double amount : categoryTotals) {
+            total += amount;
+        }
+        return total;
+    }
+
+    /**
+     * Everything spent in the month: expenses plus meal charges
+     */
+    public double getTotalExpenses() {
+        return getCategoryExpenses() + mealExpenses;
+    }
+
+    /**
+     * Check whether two rows hold the same totals, ignoring rounding noise
+     * left behind by incremental updates
+     */
+    public boolean matches(MonthlyStats other) {
+        if (other == null || expenseCount != other.expenseCount
+                || totalMeals != other.totalMeals || mealCount != other.mealCount
+                || Math.abs(mealExpenses - other.mealExpenses) > AMOUNT_EPSILON) {
+            return false;
+        }
+        for (int i = 0; i < ExpenseCategory.COUNT; i++) {
+            if (Math.abs(categoryTotals[i] - other.categoryTotals[i]) > AMOUNT_EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
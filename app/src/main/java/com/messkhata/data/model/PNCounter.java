@@ -0,0 +1,179 @@
+package com.messkhata.data.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Positive-negative counter CRDT.
+ * Every replica (device) only ever grows its own increment and decrement
+ * totals, so two copies merge by taking the per-replica maximum. Merge is
+ * commutative, associative and idempotent: replicas converge regardless of
+ * the order or number of times updates are exchanged.
+ */
+public class PNCounter {
+
+    private final Map<String, Long> increments;
+    private final Map<String, Long> decrements;
+
+    public PNCounter() {
+        this.increments = new HashMap<>();
+        this.decrements = new HashMap<>();
+    }
+
+    public PNCounter(PNCounter other) {
+        this.increments = new HashMap<>(other.increments);
+        this.decrements = new HashMap<>(other.decrements);
+    }
+
+    /**
+     * Record a local change made by a replica
+     * @param replicaId The replica making the change
+     * @param delta Positive to increment, negative to decrement
+     */
+    public void apply(String replicaId, long delta) {
+        if (delta > 0) {
+            increments.put(replicaId, getIncrement(replicaId) + delta);
+        } else if (delta < 0) {
+            decrements.put(replicaId, getDecrement(replicaId) - delta);
+        }
+    }
+
+    /**
+     * Merge another counter into this one (per-replica maximum)
+     */
+    public void merge(PNCounter other) {
+        mergeInto(increments, other.increments);
+        mergeInto(decrements, other.decrements);
+    }
+
+    /**
+     * Merge a single replica's totals into this counter
+     */
+    public void mergeReplica(String replicaId, long increment, long decrement) {
+        if (increment > getIncrement(replicaId)) {
+            increments.put(replicaId, increment);
+        }
+        if (decrement > getDecrement(replicaId)) {
+            decrements.put(replicaId, decrement);
+        }
+    }
+
+    /**
+     * Get the counter value (sum of increments minus sum of decrements)
+     */
+    public long value() {
+        long total = 0;
+        for (long v : increments.values()) {
+            total += v;
+        }
+        for (long v : decrements.values()) {
+            total -= v;
+        }
+        return total;
+    }
+
+    public long getIncrement(String replicaId) {
+        Long v = increments.get(replicaId);
+        return v != null ? v : 0;
+    }
+
+    public long getDecrement(String replicaId) {
+        Long v = decrements.get(replicaId);
+        return v != null ? v : 0;
+    }
+
+    public Map<String, Long> getIncrements() {
+        return Collections.unmodifiableMap(increments);
+    }
+
+    public Map<String, Long> getDecrements() {
+        return Collections.unmodifiableMap(decrements);
+    }
+
+    public boolean isEmpty() {
+        return increments.isEmpty() && decrements.isEmpty();
+    }
+
+    /**
+     * Copy of this counter restricted to the given replicas
+     */
+    public PNCounter retain(String... replicaIds) {
+        PNCounter copy = new PNCounter();
+        for (String replicaId : replicaIds) {
+            if (increments.containsKey(replicaId)) {
+                copy.increments.put(replicaId, increments.get(replicaId));
+            }
+            if (decrements.containsKey(replicaId)) {
+                copy.decrements.put(replicaId, decrements.get(replicaId));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Convert to a Firestore friendly map: {"p": {replica: n}, "n": {replica: n}}
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("p", new HashMap<>(increments));
+        map.put("n", new HashMap<>(decrements));
+        return map;
+    }
+
+    /**
+     * Create counter from a map produced by {@link #toMap()}
+     */
+    @SuppressWarnings("unchecked")
+    public static PNCounter fromMap(Map<String, Object> map) {
+        PNCounter counter = new PNCounter();
+        if (map == null) {
+            return counter;
+        }
+        if (map.get("p") instanceof Map) {
+            readInto(counter.increments, (Map<String, Object>) map.get("p"));
+        }
+        if (map.get("n") instanceof Map) {
+            readInto(counter.decrements, (Map<String, Object>) map.get("n"));
+        }
+        return counter;
+    }
+
+    private static void mergeInto(Map<String, Long> target, Map<String, Long> source) {
+        for (Map.Entry<String, Long> entry : source.entrySet()) {
+            Long current = target.get(entry.getKey());
+            if (current == null || entry.getValue() > current) {
+                target.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static void readInto(Map<String, Long> target, Map<String, Object> source) {
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            if (entry.getValue() instanceof Number) {
+                target.put(entry.getKey(), ((Number) entry.getValue()).longValue());
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PNCounter)) return false;
+        PNCounter other = (PNCounter) o;
+        return increments.equals(other.increments) && decrements.equals(other.decrements);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * increments.hashCode() + decrements.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "PNCounter{" +
+                "p=" + increments +
+                ", n=" + decrements +
+                '}';
+    }
+}
@@ -0,0 +1,197 @@
+package com.messkhata.data.model;
+
+import java.util.Calendar;
+
+/**
+ * A rule that repeats an expense, such as the rent or the gas bill
+ *
+ * Occurrences are numbered from 0, the start date. Each date is worked out
+ * from the start rather than from the previous occurrence, so a monthly
+ * rule starting on the 31st falls on the last day of shorter months and
+ * returns to the 31st after them. nextOccurrence is the first occurrence
+ * not yet added as an expense.
+ */
+public class RecurringExpenseRule {
+
+    public static final String MONTHLY = "monthly";
+    public static final String WEEKLY = "weekly";
+    public static final String CUSTOM = "custom";  // every interval days
+
+    private int ruleId;
+    private int messId;
+    private int addedBy;
+    private String category;
+    private double amount;
+    private String title;
+    private String description;
+    private String frequency = MONTHLY;
+    private int interval = 1;
+    private long startDate;  // seconds, local midnight
+    private long endDate;    // seconds, exclusive; 0 = no end
+    private int nextOccurrence;
+    private boolean active = true;
+
+    public RecurringExpenseRule() {
+    }
+
+    public RecurringExpenseRule(int messId, int addedBy, String category, double amount, String title,
+            String description, String frequency, int interval, long startDate) {
+        this.messId = messId;
+        this.addedBy = addedBy;
+        this.category = category;
+        this.amount = amount;
+        this.title = title;
+        this.description = description;
+        this.frequency = frequency;
+        this.interval = Math.max(1, interval);
+        this.startDate = startDate;
+    }
+
+    /**
+     * Date of an occurrence, local midnight like dates picked in the app
+     * @return Seconds
+     */
+    public long getOccurrenceDate(int occurrence) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(startDate * 1000);
+        int steps = occurrence * interval;
+        switch (frequency) {
+            case MONTHLY:
+                calendar.add(Calendar.MONTH, steps);
+                break;
+            case WEEKLY:
+                calendar.add(Calendar.DAY_OF_MONTH, 7 * steps);
+                break;
+            default:
+                calendar.add(Calendar.DAY_OF_MONTH, steps);
+                break;
+        }
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    /**
+     * @return true if the occurrence is on or before the day and the rule
+     *         has not ended by then
+     */
+    public boolean isDue(int occurrence, long dayStart) {
+        long date = getOccurrenceDate(occurrence);
+        return date <= dayStart && (endDate <= 0 || date < endDate);
+    }
+
+    /**
+     * @return true if no occurrence from this one on can fall due
+     */
+    public boolean isFinished(int occurrence) {
+        return endDate > 0 && getOccurrenceDate(occurrence) >= endDate;
+    }
+
+    public int getRuleId() {
+        return ruleId;
+    }
+
+    public void setRuleId(int ruleId) {
+        this.ruleId = ruleId;
+    }
+
+    public int getMessId() {
+        return messId;
+    }
+
+    public void setMessId(int messId) {
+        this.messId = messId;
+    }
+
+    public int getAddedBy() {
+        return addedBy;
+    }
+
+    public void setAddedBy(int addedBy) {
+        this.addedBy = addedBy;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return MONTHLY, WEEKLY or CUSTOM
+     */
+    public String getFrequency() {
+        return frequency;
+    }
+
+    public void setFrequency(String frequency) {
+        this.frequency = frequency;
+    }
+
+    /**
+     * Months, weeks or days between occurrences, by frequency
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setInterval(int interval) {
+        this.interval = Math.max(1, interval);
+    }
+
+    public long getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(long startDate) {
+        this.startDate = startDate;
+    }
+
+    public long getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(long endDate) {
+        this.endDate = endDate;
+    }
+
+    public int getNextOccurrence() {
+        return nextOccurrence;
+    }
+
+    public void setNextOccurrence(int nextOccurrence) {
+        this.nextOccurrence = nextOccurrence;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+}
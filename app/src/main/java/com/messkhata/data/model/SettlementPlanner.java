@@ -0,0 +1,200 @@
+package com.messkhata.data.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Plans the "A pays B X" transfers that settle members with each other
+ *
+ * Balances are kept in minor units (paisa) so that a plan adds up exactly.
+ * A positive balance is owed by the member, a negative one is owed to them,
+ * as with MemberBalance.getDueAmount().
+ *
+ * The plan is greedy over two max-heaps: the largest debtor pays the
+ * largest creditor as much as they can, and whichever of them still has a
+ * balance goes back on its heap. Every transfer settles at least one member,
+ * so n members need at most n - 1 transfers. If the balances do not net to
+ * zero (e.g. cash still held by the mess), the difference is left over; see
+ * getUnsettled().
+ */
+public class SettlementPlanner {
+
+    /**
+     * One planned transfer between two members
+     */
+    public static class Transfer {
+        private final long fromUserId;
+        private final long toUserId;
+        private long amount; // minor units
+
+        Transfer(long fromUserId, long toUserId, long amount) {
+            this.fromUserId = fromUserId;
+            this.toUserId = toUserId;
+            this.amount = amount;
+        }
+
+        public long getFromUserId() {
+            return fromUserId;
+        }
+
+        public long getToUserId() {
+            return toUserId;
+        }
+
+        /**
+         * @return Amount in minor units
+         */
+        public long getAmountMinor() {
+            return amount;
+        }
+
+        public double getAmount() {
+            return fromMinor(amount);
+        }
+
+        @Override
+        public String toString() {
+            return fromUserId + " pays " + toUserId + " " + amount;
+        }
+    }
+
+    // userId -> balance in minor units, in insertion order for stable plans
+    private final Map<Long, Long> balances = new LinkedHashMap<>();
+    private List<Transfer> plan;
+
+    public SettlementPlanner() {
+    }
+
+    /**
+     * Start from the members' outstanding dues
+     */
+    public SettlementPlanner(List<MemberBalance> members) {
+        for (MemberBalance member : members) {
+            setBalance(member.getUserId(), toMinor(member.getDueAmount()));
+        }
+    }
+
+    public static long toMinor(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public static double fromMinor(long amount) {
+        return amount / 100.0;
+    }
+
+    /**
+     * @param balance Minor units; positive if the member owes money
+     */
+    public void setBalance(long userId, long balance) {
+        balances.put(userId, balance);
+        plan = null;
+    }
+
+    /**
+     * Add to a member's balance, e.g. credit an expense they paid for
+     * @param amount Minor units; negative to credit the member
+     */
+    public void adjustBalance(long userId, long amount) {
+        setBalance(userId, getBalance(userId) + amount);
+    }
+
+    public boolean hasMember(long userId) {
+        return balances.containsKey(userId);
+    }
+
+    public long getBalance(long userId) {
+        Long balance = balances.get(userId);
+        return balance != null ? balance : 0;
+    }
+
+    /**
+     * Sum of all balances; what the plan cannot settle between members
+     */
+    public long getUnsettled() {
+        long total = 0;
+        for (long balance : balances.values()) {
+            total += balance;
+        }
+        return total;
+    }
+
+    /**
+     * Transfers that settle the current balances
+     */
+    public List<Transfer> getPlan() {
+        if (plan == null) {
+            plan = buildPlan();
+        }
+        return Collections.unmodifiableList(plan);
+    }
+
+    /**
+     * Apply a payment made between two members
+     * A payment covering (part of) a planned transfer only shrinks that
+     * transfer; any other payment re-plans on the next getPlan().
+     * @param amount Minor units
+     */
+    public void recordPayment(long fromUserId, long toUserId, long amount) {
+        balances.put(fromUserId, getBalance(fromUserId) - amount);
+        balances.put(toUserId, getBalance(toUserId) + amount);
+        if (plan == null) {
+            return;
+        }
+
+        Iterator<Transfer> iterator = plan.iterator();
+        while (iterator.hasNext()) {
+            Transfer transfer = iterator.next();
+            if (transfer.fromUserId == fromUserId && transfer.toUserId == toUserId
+                    && transfer.amount >= amount) {
+                transfer.amount -= amount;
+                if (transfer.amount == 0) {
+                    iterator.remove();
+                }
+                return;
+            }
+        }
+        plan = null;
+    }
+
+    private List<Transfer> buildPlan() {
+        // {userId, amount}, largest amount first, then lowest userId
+        PriorityQueue<long[]> debtors = new PriorityQueue<>(SettlementPlanner::compareLargestFirst);
+        PriorityQueue<long[]> creditors = new PriorityQueue<>(SettlementPlanner::compareLargestFirst);
+        for (Map.Entry<Long, Long> entry : balances.entrySet()) {
+            long balance = entry.getValue();
+            if (balance > 0) {
+                debtors.add(new long[]{entry.getKey(), balance});
+            } else if (balance < 0) {
+                creditors.add(new long[]{entry.getKey(), -balance});
+            }
+        }
+
+        List<Transfer> transfers = new ArrayList<>();
+        while (!debtors.isEmpty() && !creditors.isEmpty()) {
+            long[] debtor = debtors.poll();
+            long[] creditor = creditors.poll();
+            long amount = Math.min(debtor[1], creditor[1]);
+            transfers.add(new Transfer(debtor[0], creditor[0], amount));
+
+            debtor[1] -= amount;
+            creditor[1] -= amount;
+            if (debtor[1] > 0) {
+                debtors.add(debtor);
+            }
+            if (creditor[1] > 0) {
+                creditors.add(creditor);
+            }
+        }
+        return transfers;
+    }
+
+    private static int compareLargestFirst(long[] a, long[] b) {
+        int byAmount = Long.compare(b[1], a[1]);
+        return byAmount != 0 ? byAmount : Long.compare(a[0], b[0]);
+    }
+}
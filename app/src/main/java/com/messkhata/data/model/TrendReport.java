@@ -0,0 +1,163 @@
+package com.messkhata.data.model;
+
+/**
+ * Month-by-month totals of a mess over a range of consecutive months
+ *
+ * Both matrices are dense: every month in the range has a row, even if
+ * nothing was recorded, and every member has a column in every month.
+ */
+public class TrendReport {
+
+    private final int messId;
+    private final int[] monthKeys;          // year * 100 + month, oldest first
+    private final double[][] categorySpend; // [month][ExpenseCategory code]
+    private final int[] memberIds;
+    private final String[] memberNames;
+    private final int[][] memberMeals;      // [month][member]
+
+    public TrendReport(int messId, int[] monthKeys, int[] memberIds, String[] memberNames) {
+        this.messId = messId;
+        this.monthKeys = monthKeys;
+        this.memberIds = memberIds;
+        this.memberNames = memberNames;
+        this.categorySpend = new double[monthKeys.length][ExpenseCategory.COUNT];
+        this.memberMeals = new int[monthKeys.length][memberIds.length];
+    }
+
+    /**
+     * Keys of the consecutive months ending with the given one
+     * @param month 1-12
+     */
+    public static int[] monthRange(int endYear, int endMonth, int count) {
+        int[] keys = new int[count];
+        int year = endYear;
+        int month = endMonth;
+        for (int i = count - 1; i >= 0; i--) {
+            keys[i] = year * 100 + month;
+            if (--month == 0) {
+                month = 12;
+                year--;
+            }
+        }
+        return keys;
+    }
+
+    public int getMessId() {
+        return messId;
+    }
+
+    public int getMonthCount() {
+        return monthKeys.length;
+    }
+
+    public int getMemberCount() {
+        return memberIds.length;
+    }
+
+    public int getMonthKey(int monthIndex) {
+        return monthKeys[monthIndex];
+    }
+
+    public int getMemberId(int memberIndex) {
+        return memberIds[memberIndex];
+    }
+
+    public String getMemberName(int memberIndex) {
+        return memberNames[memberIndex];
+    }
+
+    /**
+     * @return Row of the month, -1 if it is outside the range
+     */
+    public int indexOfMonth(int monthKey) {
+        for (int i = 0; i < monthKeys.length; i++) {
+            if (monthKeys[i] == monthKey) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Column of the member, -1 if unknown
+     */
+    public int indexOfMember(int userId) {
+        for (int i = 0; i < memberIds.length; i++) {
+            if (memberIds[i] == userId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public double getSpend(int monthIndex, ExpenseCategory category) {
+        return categorySpend[monthIndex][category.getCode()];
+    }
+
+    public void addSpend(int monthIndex, ExpenseCategory category, double amount) {
+        categorySpend[monthIndex][category.getCode()] += amount;
+    }
+
+    public int getMeals(int monthIndex, int memberIndex) {
+        return memberMeals[monthIndex][memberIndex];
+    }
+
+    public void addMeals(int monthIndex, int memberIndex, int meals) {
+        memberMeals[monthIndex][memberIndex] += meals;
+    }
+
+    /**
+     * Expenses of every category in a month
+     */
+    public double getTotalSpend(int monthIndex) {
+        double total = 0;
+        for (double amount : categorySpend[monthIndex]) {
+            total += amount;
+        }
+        return total;
+    }
+
+    /**
+     * Meals of every member in a month
+     */
+    public int getTotalMeals(int monthIndex) {
+        int total = 0;
+        for (int meals : memberMeals[monthIndex]) {
+            total += meals;
+        }
+        return total;
+    }
+
+    /**
+     * What a meal actually cost in a month: grocery spend over meals eaten
+     * @return Cost per meal, 0 if no meals were eaten
+     */
+    public double getActualMealCost(int monthIndex) {
+        int meals = getTotalMeals(monthIndex);
+        return meals > 0 ? getSpend(monthIndex, ExpenseCategory.GROCERY) / meals : 0;
+    }
+
+    /**
+     * Reduce a series to at most maxPoints by averaging equal runs of
+     * neighbouring values; short series are returned unchanged
+     *
+     * @return {x, y} where x is the (fractional) index each point stands for
+     */
+    public static double[][] downsample(double[] values, int maxPoints) {
+        int size = values.length;
+        int points = Math.min(size, Math.max(1, maxPoints));
+        double[] x = new double[points];
+        double[] y = new double[points];
+        for (int p = 0; p < points; p++) {
+            int from = (int) ((long) p * size / points);
+            int to = (int) ((long) (p + 1) * size / points);
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += values[i];
+            }
+            x[p] = (from + to - 1) / 2.0;
+            y[p] = sum / (to - from);
+        }
+        return new double[][]{x, y};
+    }
+}
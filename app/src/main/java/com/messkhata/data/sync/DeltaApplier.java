@@ -0,0 +1,221 @@
+package com.messkhata.data.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Tasks;
+import com.messkhata.data.dao.ExpenseDao;
+import com.messkhata.data.dao.IdMappingDao;
+import com.messkhata.data.dao.MessDao;
+import com.messkhata.data.dao.UserDao;
+import com.messkhata.data.sync.model.EntityDelta;
+import com.messkhata.data.sync.model.SyncableExpense;
+import com.messkhata.data.sync.model.SyncableMeal;
+import com.messkhata.data.sync.model.SyncableMess;
+import com.messkhata.data.sync.model.SyncableUser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies entity deltas from FCM data messages to the local database.
+ * A delta is applied only when its version is newer than the last one applied
+ * for that document, so redelivered or out-of-order pushes are no-ops. The
+ * document is fetched from Firestore only when the payload is incomplete.
+ */
+public class DeltaApplier {
+
+    private static final String TAG = "DeltaApplier";
+
+    // FCM gives onMessageReceived about 10 seconds
+    private static final long FETCH_TIMEOUT_SECONDS = 8;
+
+    private static DeltaApplier instance;
+
+    private final Context context;
+    private final FirebaseRepository firebaseRepo;
+    private final UserDao userDao;
+    private final MessDao messDao;
+    private final ExpenseDao expenseDao;
+    private final IdMappingDao idMappingDao;
+
+    private DeltaApplier(Context context) {
+        this.context = context.getApplicationContext();
+        this.firebaseRepo = FirebaseRepository.getInstance();
+        this.userDao = new UserDao(context);
+        this.messDao = new MessDao(context);
+        this.expenseDao = new ExpenseDao(context);
+        this.idMappingDao = new IdMappingDao(context);
+    }
+
+    public static synchronized DeltaApplier getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeltaApplier(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Apply a delta on the calling (background) thread
+     * @return broadcast action for the changed data, or null if nothing changed
+     */
+    public synchronized String apply(EntityDelta delta) {
+        int localMessId = messDao.getMessIdByFirebaseId(delta.getFirebaseMessId());
+        if (localMessId == -1) {
+            Log.d(TAG, "No local mess for delta: " + delta.getFirebaseMessId());
+            return null;
+        }
+
+        try {
+            switch (delta.getType()) {
+                case EntityDelta.TYPE_EXPENSE_ADDED:
+                    return applyExpense(delta, localMessId);
+                case EntityDelta.TYPE_MEAL_UPDATED:
+                    return applyMeal(delta, localMessId);
+                case EntityDelta.TYPE_MEMBER_JOINED:
+                    return applyUser(delta, localMessId);
+                case EntityDelta.TYPE_MESS_UPDATED:
+                    return applyMess(delta, localMessId);
+                default:
+                    return null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error applying " + delta.getType() + " delta", e);
+            return null;
+        }
+    }
+
+    private String applyExpense(EntityDelta delta, int localMessId) throws Exception {
+        if (isStale(IdMappingDao.ENTITY_EXPENSE, delta)) {
+            return null;
+        }
+
+        SyncableExpense expense = delta.isComplete()
+                ? SyncableExpense.fromFirebaseMap(delta.getEntityId(), delta.getFields())
+                : Tasks.await(firebaseRepo.getExpenseByFirebaseId(delta.getEntityId()),
+                        FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (expense == null) {
+            return null;
+        }
+
+        boolean saved = expenseDao.addOrUpdateExpense(
+                expense.getFirebaseId(),
+                localMessId,
+                expense.getAddedBy(),
+                expense.getCategory(),
+                expense.getAmount(),
+                expense.getTitle(),
+                expense.getDescription(),
+                expense.getExpenseDate(),
+                expense.getMemberCountAtTime(),
+                expense.getCreatedAt());
+        if (!saved) {
+            return null;
+        }
+        idMappingDao.updateVersion(IdMappingDao.ENTITY_EXPENSE, expense.getFirebaseId(),
+                versionOf(delta, expense.getLastModified()));
+        return RealtimeSyncManager.ACTION_EXPENSES_UPDATED;
+    }
+
+    private String applyMeal(EntityDelta delta, int localMessId) throws Exception {
+        // Meal counters merge idempotently and in any order, so no version check
+        SyncableMeal meal = delta.isComplete()
+                ? SyncableMeal.fromFirebaseMap(delta.getEntityId(), delta.getFields())
+                : Tasks.await(firebaseRepo.getMealByFirebaseId(delta.getEntityId()),
+                        FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (meal == null) {
+            return null;
+        }
+
+        int localUserId = meal.getUserId();
+        String userEmail = meal.getUserEmail();
+        if (userEmail != null && !userEmail.isEmpty()) {
+            Cursor userCursor = userDao.getUserByEmail(userEmail);
+            if (userCursor != null) {
+                if (userCursor.moveToFirst()) {
+                    localUserId = userCursor.getInt(userCursor.getColumnIndexOrThrow("userId"));
+                }
+                userCursor.close();
+            }
+        }
+
+        SyncManager.getInstance(context).applyRemoteMeal(localUserId, localMessId, meal);
+        return RealtimeSyncManager.ACTION_MEALS_UPDATED;
+    }
+
+    private String applyUser(EntityDelta delta, int localMessId) throws Exception {
+        if (isStale(IdMappingDao.ENTITY_USER, delta)) {
+            return null;
+        }
+
+        SyncableUser user = delta.isComplete()
+                ? SyncableUser.fromFirebaseMap(delta.getEntityId(), delta.getFields())
+                : Tasks.await(firebaseRepo.getUserByFirebaseId(delta.getEntityId()),
+                        FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (user == null) {
+            return null;
+        }
+
+        boolean saved = userDao.addOrUpdateUser(
+                user.getFirebaseId(),
+                user.getFullName(),
+                user.getEmail(),
+                user.getPhoneNumber(),
+                localMessId,
+                user.getRole(),
+                user.getJoinedDate());
+        if (!saved) {
+            return null;
+        }
+        idMappingDao.updateVersion(IdMappingDao.ENTITY_USER, user.getFirebaseId(),
+                versionOf(delta, user.getLastModified()));
+        return RealtimeSyncManager.ACTION_USERS_UPDATED;
+    }
+
+    private String applyMess(EntityDelta delta, int localMessId) throws Exception {
+        if (!delta.getEntityId().equals(delta.getFirebaseMessId())
+                || isStale(IdMappingDao.ENTITY_MESS, delta)) {
+            return null;
+        }
+
+        SyncableMess mess = delta.isComplete()
+                ? SyncableMess.fromFirebaseMap(delta.getEntityId(), delta.getFields())
+                : Tasks.await(firebaseRepo.getMessByFirebaseId(delta.getEntityId()),
+                        FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (mess == null) {
+            return null;
+        }
+
+        if (!messDao.updateMessRates(localMessId,
+                mess.getGroceryBudgetPerMeal(), mess.getCookingChargePerMeal())) {
+            return null;
+        }
+        messDao.saveMealRates(localMessId, mess.getRateHistory());
+        if (mess.getMessName() != null) {
+            messDao.updateMessName(localMessId, mess.getMessName());
+        }
+        idMappingDao.updateVersion(IdMappingDao.ENTITY_MESS, delta.getEntityId(),
+                versionOf(delta, mess.getLastModified()));
+        return RealtimeSyncManager.ACTION_MESS_UPDATED;
+    }
+
+    /**
+     * Check if a newer (or the same) version was already applied locally
+     */
+    private boolean isStale(String entityType, EntityDelta delta) {
+        if (delta.getVersion() <= 0) {
+            return false;
+        }
+        long applied = idMappingDao.getVersion(entityType, delta.getEntityId());
+        if (!delta.isNewerThan(applied)) {
+            Log.d(TAG, "Skipping " + delta.getType() + " delta v" + delta.getVersion()
+                    + ", local v" + applied);
+            return true;
+        }
+        return false;
+    }
+
+    private static long versionOf(EntityDelta delta, long documentVersion) {
+        return Math.max(delta.getVersion(), documentVersion);
+    }
+}
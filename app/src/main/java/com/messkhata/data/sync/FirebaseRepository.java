@@ -222,6 +222,22 @@ public class FirebaseRepository {
                 });
     }
 
+    /**
+     * Get user by Firebase ID
+     */
+    public Task<SyncableUser> getUserByFirebaseId(String firebaseId) {
+        return firestore.collection(SyncableUser.COLLECTION_NAME)
+                .document(firebaseId)
+                .get()
+                .continueWith(task -> {
+                    DocumentSnapshot doc = task.getResult();
+                    if (doc != null && doc.exists()) {
+                        return SyncableUser.fromFirebaseMap(doc.getId(), doc.getData());
+                    }
+                    return null;
+                });
+    }
+
     /**
      * Delete user from Firestore
      */
@@ -238,13 +254,15 @@ public class FirebaseRepository {
      */
     public Task<DocumentReference> saveMeal(SyncableMeal meal) {
         Map<String, Object> data = meal.toFirebaseMap();
+        String documentId = meal.getDocumentId();
 
-        if (meal.getFirebaseId() != null && !meal.getFirebaseId().isEmpty()) {
+        if (documentId != null) {
+            // Merge keeps other devices' counter entries intact
             return firestore.collection(SyncableMeal.COLLECTION_NAME)
-                    .document(meal.getFirebaseId())
+                    .document(documentId)
                     .set(data, SetOptions.merge())
                     .continueWith(task -> firestore.collection(SyncableMeal.COLLECTION_NAME)
-                            .document(meal.getFirebaseId()));
+                            .document(documentId));
         } else {
             return firestore.collection(SyncableMeal.COLLECTION_NAME).add(data);
         }
@@ -335,6 +353,29 @@ public class FirebaseRepository {
                 });
     }
 
+    /**
+     * Get meals whose mealDate falls in [startDate, endDate) (seconds)
+     * Used to fetch history older than the realtime listener window.
+     * Needs a composite index on (firebaseMessId, mealDate).
+     */
+    public Task<List<SyncableMeal>> getMealsInRange(String firebaseMessId, long startDate, long endDate) {
+        return firestore.collection(SyncableMeal.COLLECTION_NAME)
+                .whereEqualTo("firebaseMessId", firebaseMessId)
+                .whereGreaterThanOrEqualTo("mealDate", startDate)
+                .whereLessThan("mealDate", endDate)
+                .get()
+                .continueWith(task -> {
+                    List<SyncableMeal> meals = new ArrayList<>();
+                    QuerySnapshot snapshot = task.getResult();
+                    if (snapshot != null) {
+                        for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                            meals.add(SyncableMeal.fromFirebaseMap(doc.getId(), doc.getData()));
+                        }
+                    }
+                    return meals;
+                });
+    }
+
     /**
      * Get meals modified after a certain timestamp (deprecated - uses local messId)
      */
@@ -356,6 +397,22 @@ public class FirebaseRepository {
                 });
     }
 
+    /**
+     * Get meal by Firebase ID
+     */
+    public Task<SyncableMeal> getMealByFirebaseId(String firebaseId) {
+        return firestore.collection(SyncableMeal.COLLECTION_NAME)
+                .document(firebaseId)
+                .get()
+                .continueWith(task -> {
+                    DocumentSnapshot doc = task.getResult();
+                    if (doc != null && doc.exists()) {
+                        return SyncableMeal.fromFirebaseMap(doc.getId(), doc.getData());
+                    }
+                    return null;
+                });
+    }
+
     /**
      * Delete meal from Firestore
      */
@@ -450,6 +507,30 @@ public class FirebaseRepository {
                 });
     }
 
+    /**
+     * Get expenses whose expenseDate falls in [startDate, endDate) (seconds)
+     * Used to fetch history older than the realtime listener window.
+     * Needs a composite index on (firebaseMessId, expenseDate).
+     */
+    public Task<List<SyncableExpense>> getExpensesInRange(String firebaseMessId, long startDate,
+            long endDate) {
+        return firestore.collection(SyncableExpense.COLLECTION_NAME)
+                .whereEqualTo("firebaseMessId", firebaseMessId)
+                .whereGreaterThanOrEqualTo("expenseDate", startDate)
+                .whereLessThan("expenseDate", endDate)
+                .get()
+                .continueWith(task -> {
+                    List<SyncableExpense> expenses = new ArrayList<>();
+                    QuerySnapshot snapshot = task.getResult();
+                    if (snapshot != null) {
+                        for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                            expenses.add(SyncableExpense.fromFirebaseMap(doc.getId(), doc.getData()));
+                        }
+                    }
+                    return expenses;
+                });
+    }
+
     /**
      * Get expenses modified after a certain timestamp (deprecated - uses local
      * messId)
@@ -472,6 +553,22 @@ public class FirebaseRepository {
                 });
     }
 
+    /**
+     * Get expense by Firebase ID
+     */
+    public Task<SyncableExpense> getExpenseByFirebaseId(String firebaseId) {
+        return firestore.collection(SyncableExpense.COLLECTION_NAME)
+                .document(firebaseId)
+                .get()
+                .continueWith(task -> {
+                    DocumentSnapshot doc = task.getResult();
+                    if (doc != null && doc.exists()) {
+                        return SyncableExpense.fromFirebaseMap(doc.getId(), doc.getData());
+                    }
+                    return null;
+                });
+    }
+
     /**
      * Delete expense from Firestore
      */
@@ -491,9 +588,10 @@ public class FirebaseRepository {
 
         for (SyncableMeal meal : meals) {
             DocumentReference ref;
-            if (meal.getFirebaseId() != null && !meal.getFirebaseId().isEmpty()) {
+            String documentId = meal.getDocumentId();
+            if (documentId != null) {
                 ref = firestore.collection(SyncableMeal.COLLECTION_NAME)
-                        .document(meal.getFirebaseId());
+                        .document(documentId);
             } else {
                 ref = firestore.collection(SyncableMeal.COLLECTION_NAME).document();
             }
@@ -516,6 +614,8 @@ public class FirebaseRepository {
                         .document(expense.getFirebaseId());
             } else {
                 ref = firestore.collection(SyncableExpense.COLLECTION_NAME).document();
+                // Keep the generated ID so the caller can record the mapping
+                expense.setFirebaseId(ref.getId());
             }
             batch.set(ref, expense.toFirebaseMap(), SetOptions.merge());
         }
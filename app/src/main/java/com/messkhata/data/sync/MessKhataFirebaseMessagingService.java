@@ -21,6 +21,7 @@ import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 import com.messkhata.MainActivity;
 import com.messkhata.R;
+import com.messkhata.data.sync.model.EntityDelta;
 import com.messkhata.utils.PreferenceManager;
 
 import java.util.HashMap;
@@ -124,9 +125,19 @@ public class MessKhataFirebaseMessagingService extends FirebaseMessagingService
         broadcastIntent.putExtra("type", type);
         LocalBroadcastManager.getInstance(this).sendBroadcast(broadcastIntent);
 
-        // Also trigger data refresh broadcast
-        Intent refreshIntent = new Intent(RealtimeSyncManager.ACTION_DATA_UPDATED);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(refreshIntent);
+        // Apply the carried change directly; only screens showing that data reload.
+        // onMessageReceived runs on a background thread, so DB work is fine here.
+        EntityDelta delta = EntityDelta.fromData(data);
+        if (delta != null) {
+            String updatedAction = DeltaApplier.getInstance(this).apply(delta);
+            if (updatedAction != null) {
+                LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(updatedAction));
+            }
+        } else {
+            // Older payload without entity data; let every screen refresh
+            Intent refreshIntent = new Intent(RealtimeSyncManager.ACTION_DATA_UPDATED);
+            LocalBroadcastManager.getInstance(this).sendBroadcast(refreshIntent);
+        }
 
         // Show notification based on type
         if (type != null) {
@@ -11,6 +11,7 @@ import android.net.NetworkCapabilities;
 import android.util.Log;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 import com.messkhata.data.sync.model.SyncableExpense;
 import com.messkhata.data.sync.model.SyncableMeal;
 import com.messkhata.data.sync.model.SyncableMess;
@@ -57,6 +58,9 @@ public class OfflineQueueManager extends SQLiteOpenHelper {
     public static final String ENTITY_EXPENSE = "EXPENSE";
     public static final String ENTITY_MEAL = "MEAL";
     public static final String ENTITY_MESS = "MESS";
+    // A list of new rows uploaded in one write batch, e.g. an imported chunk
+    public static final String ENTITY_EXPENSE_BATCH = "EXPENSE_BATCH";
+    public static final String ENTITY_MEAL_BATCH = "MEAL_BATCH";
 
     // Status values
     public static final String STATUS_PENDING = "PENDING";
@@ -393,6 +397,18 @@ public class OfflineQueueManager extends SQLiteOpenHelper {
                 case ENTITY_MESS:
                     return processMessOperation(item, firebaseRepo);
 
+                case ENTITY_EXPENSE_BATCH:
+                    List<SyncableExpense> expenses = gson.fromJson(item.dataJson,
+                            new TypeToken<List<SyncableExpense>>() {}.getType());
+                    syncManager.uploadExpensesBatch(expenses);
+                    return true;
+
+                case ENTITY_MEAL_BATCH:
+                    List<SyncableMeal> meals = gson.fromJson(item.dataJson,
+                            new TypeToken<List<SyncableMeal>>() {}.getType());
+                    syncManager.uploadMealsBatch(meals);
+                    return true;
+
                 default:
                     Log.w(TAG, "Unknown entity type: " + item.entityType);
                     return false;
@@ -2,11 +2,14 @@ package com.messkhata.data.sync;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.util.Log;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
@@ -15,17 +18,30 @@ import com.messkhata.data.dao.ExpenseDao;
 import com.messkhata.data.dao.MealDao;
 import com.messkhata.data.dao.MessDao;
 import com.messkhata.data.dao.UserDao;
+import com.messkhata.data.database.MessKhataDatabase;
 import com.messkhata.data.model.Mess;
 import com.messkhata.data.sync.model.SyncableExpense;
 import com.messkhata.data.sync.model.SyncableMeal;
 import com.messkhata.data.sync.model.SyncableMess;
 import com.messkhata.data.sync.model.SyncableUser;
-
+import com.messkhata.utils.DateUtils;
+import com.messkhata.utils.PreferenceManager;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * Manages real-time Firestore listeners for automatic data sync
+ * Listeners are attached only while the app is in the foreground. Meals and
+ * expenses are limited to a window (current and previous month); older months
+ * are fetched on demand. On each start, changes made while the listeners were
+ * detached are pulled once by lastModified.
  */
 public class RealtimeSyncManager {
 
@@ -38,6 +54,15 @@ public class RealtimeSyncManager {
     public static final String ACTION_MESS_UPDATED = "com.messkhata.MESS_UPDATED";
     public static final String ACTION_DATA_UPDATED = "com.messkhata.DATA_UPDATED";
 
+    // Months covered by the meals/expenses listeners, including the current one
+    private static final int LISTEN_WINDOW_MONTHS = 2;
+
+    // Slack for writer clock skew when comparing lastModified values
+    private static final long CATCH_UP_MARGIN_MS = 5 * 60 * 1000;
+
+    private static final String PREFS_NAME = MessKhataDatabase.PREFS_SYNC_WATERMARKS;
+    private static final String KEY_WATERMARK = "watermark_";
+
     private static RealtimeSyncManager instance;
 
     private final Context context;
@@ -47,6 +72,7 @@ public class RealtimeSyncManager {
     private final MealDao mealDao;
     private final MessDao messDao;
     private final ExecutorService executor;
+    private final SharedPreferences prefs;
 
     // Listener registrations (to properly unsubscribe)
     private ListenerRegistration usersListener;
@@ -58,6 +84,20 @@ public class RealtimeSyncManager {
     private int currentLocalMessId;
     private boolean isListening = false;
 
+    // Start of the listener window (seconds, like mealDate/expenseDate)
+    private long windowStart;
+
+    // Newest lastModified applied from meals/expenses; written on the executor
+    private volatile long watermark;
+
+    // Read counters, logged when listeners stop
+    private ListenerStats usersStats;
+    private ListenerStats expensesStats;
+    private ListenerStats mealsStats;
+
+    // History months already downloaded in this process ("firebaseMessId:year-month")
+    private final Set<String> fetchedHistoryMonths = ConcurrentHashMap.newKeySet();
+
     private RealtimeSyncManager(Context context) {
         this.context = context.getApplicationContext();
         this.firestore = FirebaseFirestore.getInstance();
@@ -66,6 +106,7 @@ public class RealtimeSyncManager {
         this.mealDao = new MealDao(context);
         this.messDao = new MessDao(context);
         this.executor = Executors.newSingleThreadExecutor();
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
     }
 
     public static synchronized RealtimeSyncManager getInstance(Context context) {
@@ -98,8 +139,17 @@ public class RealtimeSyncManager {
         this.currentFirebaseMessId = firebaseMessId;
         this.currentLocalMessId = localMessId;
         this.isListening = true;
+        this.windowStart = getWindowStart();
+        this.watermark = prefs.getLong(KEY_WATERMARK + firebaseMessId, 0);
+        this.usersStats = new ListenerStats("users");
+        this.expensesStats = new ListenerStats("expenses");
+        this.mealsStats = new ListenerStats("meals");
 
-        Log.d(TAG, "Starting real-time listeners for firebaseMessId: " + firebaseMessId);
+        Log.d(TAG, "Starting real-time listeners for firebaseMessId: " + firebaseMessId
+                + ", window from " + windowStart);
+
+        // Pull what changed while detached (queued before any listener callback)
+        catchUp(firebaseMessId, localMessId, watermark);
 
         // Start listening for mess (meal rate changes)
         startMessListener(firebaseMessId);
@@ -114,11 +164,39 @@ public class RealtimeSyncManager {
         startMealsListener(firebaseMessId);
     }
 
+    /**
+     * Called when the first activity of the app becomes visible
+     */
+    public void onAppForeground() {
+        String messIdStr = PreferenceManager.getInstance(context).getMessId();
+        if (messIdStr == null || messIdStr.isEmpty()) {
+            return;
+        }
+        try {
+            int messId = Integer.parseInt(messIdStr);
+            if (messId > 0) {
+                startListening(messId);
+            }
+        } catch (NumberFormatException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Called when the last activity of the app is no longer visible
+     */
+    public void onAppBackground() {
+        stopListening();
+    }
+
     /**
      * Stop all listeners
      */
     public void stopListening() {
         Log.d(TAG, "Stopping all real-time listeners");
+        if (isListening) {
+            Log.i(TAG, "Listener reads: " + usersStats + ", " + expensesStats + ", " + mealsStats);
+        }
 
         if (usersListener != null) {
             usersListener.remove();
@@ -175,9 +253,12 @@ public class RealtimeSyncManager {
                         return;
                     }
 
-                    if (snapshots != null && !snapshots.isEmpty()) {
-                        Log.d(TAG, "Users changed: " + snapshots.size() + " documents");
-                        processUsersSnapshot(snapshots);
+                    if (snapshots != null) {
+                        usersStats.record(snapshots);
+                        if (!snapshots.getDocumentChanges().isEmpty()) {
+                            Log.d(TAG, "Users changed: " + snapshots.getDocumentChanges().size() + " documents");
+                            processUsersSnapshot(snapshots);
+                        }
                     }
                 });
     }
@@ -186,17 +267,22 @@ public class RealtimeSyncManager {
      * Start listening for expense changes
      */
     private void startExpensesListener(String firebaseMessId) {
+        // Needs a composite index on (firebaseMessId, expenseDate)
         expensesListener = firestore.collection(SyncableExpense.COLLECTION_NAME)
                 .whereEqualTo("firebaseMessId", firebaseMessId)
+                .whereGreaterThanOrEqualTo("expenseDate", windowStart)
                 .addSnapshotListener((snapshots, error) -> {
                     if (error != null) {
                         Log.e(TAG, "Expenses listener error", error);
                         return;
                     }
 
-                    if (snapshots != null && !snapshots.isEmpty()) {
-                        Log.d(TAG, "Expenses changed: " + snapshots.size() + " documents");
-                        processExpensesSnapshot(snapshots);
+                    if (snapshots != null) {
+                        boolean initial = expensesStats.record(snapshots);
+                        if (!snapshots.getDocumentChanges().isEmpty()) {
+                            Log.d(TAG, "Expenses changed: " + snapshots.getDocumentChanges().size() + " documents");
+                            processExpensesSnapshot(snapshots, initial);
+                        }
                     }
                 });
     }
@@ -205,17 +291,22 @@ public class RealtimeSyncManager {
      * Start listening for meal changes
      */
     private void startMealsListener(String firebaseMessId) {
+        // Needs a composite index on (firebaseMessId, mealDate)
         mealsListener = firestore.collection(SyncableMeal.COLLECTION_NAME)
                 .whereEqualTo("firebaseMessId", firebaseMessId)
+                .whereGreaterThanOrEqualTo("mealDate", windowStart)
                 .addSnapshotListener((snapshots, error) -> {
                     if (error != null) {
                         Log.e(TAG, "Meals listener error", error);
                         return;
                     }
 
-                    if (snapshots != null && !snapshots.isEmpty()) {
-                        Log.d(TAG, "Meals changed: " + snapshots.size() + " documents");
-                        processMealsSnapshot(snapshots);
+                    if (snapshots != null) {
+                        boolean initial = mealsStats.record(snapshots);
+                        if (!snapshots.getDocumentChanges().isEmpty()) {
+                            Log.d(TAG, "Meals changed: " + snapshots.getDocumentChanges().size() + " documents");
+                            processMealsSnapshot(snapshots, initial);
+                        }
                     }
                 });
     }
@@ -247,6 +338,7 @@ public class RealtimeSyncManager {
                         currentLocalMessId,
                         mess.getGroceryBudgetPerMeal(),
                         mess.getCookingChargePerMeal());
+                messDao.saveMealRates(currentLocalMessId, mess.getRateHistory());
 
                 Log.d(TAG, "Updated mess rates from Firebase: grocery=" + mess.getGroceryBudgetPerMeal()
                         + ", cooking=" + mess.getCookingChargePerMeal());
@@ -266,12 +358,17 @@ public class RealtimeSyncManager {
     private void processUsersSnapshot(QuerySnapshot snapshots) {
         executor.execute(() -> {
             try {
-                for (DocumentSnapshot doc : snapshots.getDocuments()) {
+                for (DocumentChange change : snapshots.getDocumentChanges()) {
+                    DocumentSnapshot doc = change.getDocument();
+                    if (change.getType() == DocumentChange.Type.REMOVED
+                            || doc.getMetadata().hasPendingWrites()) {
+                        continue;
+                    }
                     SyncableUser user = SyncableUser.fromFirebaseMap(doc.getId(), doc.getData());
 
                     // Save to local database with local messId
                     userDao.addOrUpdateUser(
-                            user.getUserId(),
+                            user.getFirebaseId(),
                             user.getFullName(),
                             user.getEmail(),
                             user.getPhoneNumber(),
@@ -284,7 +381,7 @@ public class RealtimeSyncManager {
                 broadcastUpdate(ACTION_USERS_UPDATED);
                 broadcastUpdate(ACTION_DATA_UPDATED);
 
-                Log.d(TAG, "Processed " + snapshots.size() + " users");
+                Log.d(TAG, "Processed " + snapshots.getDocumentChanges().size() + " user changes");
             } catch (Exception e) {
                 Log.e(TAG, "Error processing users snapshot", e);
             }
@@ -292,33 +389,37 @@ public class RealtimeSyncManager {
     }
 
     /**
-     * Process expenses snapshot and update local database
+     * Process expense changes and update local database
+     * @param initial true for the first snapshot after attaching, whose
+     *                documents up to the watermark were already applied
      */
-    private void processExpensesSnapshot(QuerySnapshot snapshots) {
+    private void processExpensesSnapshot(QuerySnapshot snapshots, boolean initial) {
+        int localMessId = currentLocalMessId;
         executor.execute(() -> {
             try {
-                for (DocumentSnapshot doc : snapshots.getDocuments()) {
+                long skipUpTo = initial ? watermark - CATCH_UP_MARGIN_MS : Long.MIN_VALUE;
+                int applied = 0;
+                for (DocumentChange change : snapshots.getDocumentChanges()) {
+                    DocumentSnapshot doc = change.getDocument();
+                    if (change.getType() == DocumentChange.Type.REMOVED
+                            || doc.getMetadata().hasPendingWrites()) {
+                        continue;
+                    }
                     SyncableExpense expense = SyncableExpense.fromFirebaseMap(doc.getId(), doc.getData());
-
-                    // Save to local database with local messId
-                    expenseDao.addOrUpdateExpense(
-                            expense.getExpenseId(),
-                            currentLocalMessId,
-                            expense.getAddedBy(),
-                            expense.getCategory(),
-                            expense.getAmount(),
-                            expense.getTitle(),
-                            expense.getDescription(),
-                            expense.getExpenseDate(),
-                            expense.getMemberCountAtTime(),
-                            expense.getCreatedAt());
+                    if (expense.getLastModified() <= skipUpTo) {
+                        continue;
+                    }
+                    applyExpense(expense, localMessId);
+                    applied++;
                 }
 
-                // Broadcast update
-                broadcastUpdate(ACTION_EXPENSES_UPDATED);
-                broadcastUpdate(ACTION_DATA_UPDATED);
+                if (applied > 0) {
+                    // Broadcast update
+                    broadcastUpdate(ACTION_EXPENSES_UPDATED);
+                    broadcastUpdate(ACTION_DATA_UPDATED);
+                }
 
-                Log.d(TAG, "Processed " + snapshots.size() + " expenses");
+                Log.d(TAG, "Processed " + applied + " expense changes");
             } catch (Exception e) {
                 Log.e(TAG, "Error processing expenses snapshot", e);
             }
@@ -326,68 +427,193 @@ public class RealtimeSyncManager {
     }
 
     /**
-     * Process meals snapshot and update local database
+     * Process meal changes and update local database
+     * @param initial true for the first snapshot after attaching, whose
+     *                documents up to the watermark were already applied
      */
-    private void processMealsSnapshot(QuerySnapshot snapshots) {
+    private void processMealsSnapshot(QuerySnapshot snapshots, boolean initial) {
+        int localMessId = currentLocalMessId;
         executor.execute(() -> {
             try {
-                for (DocumentSnapshot doc : snapshots.getDocuments()) {
+                long skipUpTo = initial ? watermark - CATCH_UP_MARGIN_MS : Long.MIN_VALUE;
+                Map<String, Integer> userIdsByEmail = new HashMap<>();
+                int applied = 0;
+                for (DocumentChange change : snapshots.getDocumentChanges()) {
+                    DocumentSnapshot doc = change.getDocument();
+                    if (change.getType() == DocumentChange.Type.REMOVED) {
+                        continue;
+                    }
                     SyncableMeal meal = SyncableMeal.fromFirebaseMap(doc.getId(), doc.getData());
-
-                    // Skip very recent updates to prevent overwriting local changes being synced
-                    if (meal.getLastModified() > 0) {
-                        long timeSinceLastUpdate = System.currentTimeMillis() - meal.getLastModified();
-                        if (timeSinceLastUpdate < 3000) { // 3 seconds
-                            Log.d(TAG, "Skipping meal update - data is from recent local change (age: " + timeSinceLastUpdate + "ms)");
-                            continue;
-                        }
+                    if (meal.getLastModified() <= skipUpTo) {
+                        continue;
                     }
+                    // Counter merge is idempotent, so echoes of our own writes are harmless
+                    applyMeal(meal, localMessId, userIdsByEmail);
+                    applied++;
+                }
 
-                    // Resolve userEmail to local userId
-                    int localUserId = meal.getUserId();
-                    String userEmail = meal.getUserEmail();
-                    if (userEmail != null && !userEmail.isEmpty()) {
-                        Cursor userCursor = userDao.getUserByEmail(userEmail);
-                        if (userCursor != null && userCursor.moveToFirst()) {
-                            localUserId = userCursor.getInt(userCursor.getColumnIndexOrThrow("userId"));
-                            userCursor.close();
-                        }
-                    }
+                if (applied > 0) {
+                    // Broadcast update
+                    broadcastUpdate(ACTION_MEALS_UPDATED);
+                    broadcastUpdate(ACTION_DATA_UPDATED);
+                }
 
-                    // Check if we have a local version that was updated very recently
-                    com.messkhata.data.model.Meal localMeal = mealDao.getMealByDate(localUserId, meal.getMealDate());
-                    if (localMeal != null) {
-                        // Skip if local meal exists and Firebase data is not significantly different
-                        // This prevents race conditions during sync
-                        long currentTime = System.currentTimeMillis();
-                        if (meal.getLastModified() > 0 && currentTime - meal.getLastModified() < 5000) {
-                            Log.d(TAG, "Skipping meal update for userId=" + localUserId + " - potential race condition");
-                            continue;
-                        }
-                    }
+                Log.d(TAG, "Processed " + applied + " meal changes");
+            } catch (Exception e) {
+                Log.e(TAG, "Error processing meals snapshot", e);
+            }
+        });
+    }
 
-                    // Save to local database with resolved userId and local messId
-                    mealDao.addOrUpdateMeal(
-                            localUserId,
-                            currentLocalMessId,
-                            meal.getMealDate(),
-                            meal.getBreakfast(),
-                            meal.getLunch(),
-                            meal.getDinner(),
-                            meal.getMealRate());
+    /**
+     * Pull meals and expenses modified since the watermark, including ones
+     * outside the listener window. Skipped on the first run, where the full
+     * sync downloads everything.
+     */
+    private void catchUp(String firebaseMessId, int localMessId, long since) {
+        if (since <= 0) {
+            return;
+        }
+        FirebaseRepository firebaseRepo = FirebaseRepository.getInstance();
+        executor.execute(() -> {
+            try {
+                long from = since - CATCH_UP_MARGIN_MS;
+                List<SyncableMeal> meals = Tasks.await(
+                        firebaseRepo.getMealsModifiedAfter(firebaseMessId, from));
+                List<SyncableExpense> expenses = Tasks.await(
+                        firebaseRepo.getExpensesModifiedAfter(firebaseMessId, from));
+
+                Map<String, Integer> userIdsByEmail = new HashMap<>();
+                for (SyncableMeal meal : meals) {
+                    applyMeal(meal, localMessId, userIdsByEmail);
+                }
+                for (SyncableExpense expense : expenses) {
+                    applyExpense(expense, localMessId);
                 }
 
-                // Broadcast update
-                broadcastUpdate(ACTION_MEALS_UPDATED);
-                broadcastUpdate(ACTION_DATA_UPDATED);
+                Log.i(TAG, "Catch-up pulled " + meals.size() + " meals, "
+                        + expenses.size() + " expenses");
+                if (!meals.isEmpty() || !expenses.isEmpty()) {
+                    broadcastUpdate(ACTION_DATA_UPDATED);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error pulling changes on resume", e);
+            }
+        });
+    }
 
-                Log.d(TAG, "Processed " + snapshots.size() + " meals");
+    /**
+     * Download one month outside the listener window (history view)
+     * Runs on the listener executor; broadcasts ACTION_DATA_UPDATED when done.
+     */
+    public void fetchHistoryMonth(int localMessId, int year, int month) {
+        String firebaseMessId = messDao.getFirebaseMessId(localMessId);
+        if (firebaseMessId == null || firebaseMessId.isEmpty()) {
+            return;
+        }
+        long start = DateUtils.getStartOfMonth(year, month) / 1000;
+        if (isListening && start >= windowStart) {
+            // Already covered by the listeners
+            return;
+        }
+        String monthKey = firebaseMessId + ":" + year + "-" + month;
+        if (!fetchedHistoryMonths.add(monthKey)) {
+            return;
+        }
+        long end = (DateUtils.getEndOfMonth(year, month) + 1) / 1000;
+
+        FirebaseRepository firebaseRepo = FirebaseRepository.getInstance();
+        executor.execute(() -> {
+            try {
+                List<SyncableMeal> meals = Tasks.await(
+                        firebaseRepo.getMealsInRange(firebaseMessId, start, end));
+                List<SyncableExpense> expenses = Tasks.await(
+                        firebaseRepo.getExpensesInRange(firebaseMessId, start, end));
+
+                Map<String, Integer> userIdsByEmail = new HashMap<>();
+                for (SyncableMeal meal : meals) {
+                    applyMeal(meal, localMessId, userIdsByEmail);
+                }
+                for (SyncableExpense expense : expenses) {
+                    applyExpense(expense, localMessId);
+                }
+
+                Log.d(TAG, "Fetched history " + year + "-" + month + ": " + meals.size()
+                        + " meals, " + expenses.size() + " expenses");
+                broadcastUpdate(ACTION_DATA_UPDATED);
             } catch (Exception e) {
-                Log.e(TAG, "Error processing meals snapshot", e);
+                fetchedHistoryMonths.remove(monthKey);
+                Log.e(TAG, "Error fetching history month", e);
             }
         });
     }
 
+    /**
+     * Save one expense and advance the watermark (executor thread only)
+     */
+    private void applyExpense(SyncableExpense expense, int localMessId) {
+        // Save to local database with local messId
+        expenseDao.addOrUpdateExpense(
+                expense.getFirebaseId(),
+                localMessId,
+                expense.getAddedBy(),
+                expense.getCategory(),
+                expense.getAmount(),
+                expense.getTitle(),
+                expense.getDescription(),
+                expense.getExpenseDate(),
+                expense.getMemberCountAtTime(),
+                expense.getCreatedAt());
+        advanceWatermark(expense.getFirebaseMessId(), expense.getLastModified());
+    }
+
+    /**
+     * Merge one meal and advance the watermark (executor thread only)
+     */
+    private void applyMeal(SyncableMeal meal, int localMessId, Map<String, Integer> userIdsByEmail) {
+        // Resolve userEmail to local userId
+        int localUserId = meal.getUserId();
+        String userEmail = meal.getUserEmail();
+        if (userEmail != null && !userEmail.isEmpty()) {
+            Integer cachedUserId = userIdsByEmail.get(userEmail);
+            if (cachedUserId == null) {
+                Cursor userCursor = userDao.getUserByEmail(userEmail);
+                if (userCursor != null) {
+                    if (userCursor.moveToFirst()) {
+                        cachedUserId = userCursor.getInt(userCursor.getColumnIndexOrThrow("userId"));
+                        userIdsByEmail.put(userEmail, cachedUserId);
+                    }
+                    userCursor.close();
+                }
+            }
+            if (cachedUserId != null) {
+                localUserId = cachedUserId;
+            }
+        }
+
+        SyncManager.getInstance(context).applyRemoteMeal(localUserId, localMessId, meal);
+        advanceWatermark(meal.getFirebaseMessId(), meal.getLastModified());
+    }
+
+    private void advanceWatermark(String firebaseMessId, long lastModified) {
+        if (firebaseMessId == null || lastModified <= watermark
+                || lastModified > System.currentTimeMillis() + CATCH_UP_MARGIN_MS) {
+            return;
+        }
+        watermark = lastModified;
+        prefs.edit().putLong(KEY_WATERMARK + firebaseMessId, lastModified).apply();
+    }
+
+    /**
+     * Start of the previous month, in seconds
+     */
+    private static long getWindowStart() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.MONTH, -(LISTEN_WINDOW_MONTHS - 1));
+        return DateUtils.getStartOfMonth(calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1) / 1000;
+    }
+
     /**
      * Send local broadcast to notify UI components
      */
@@ -402,4 +628,41 @@ public class RealtimeSyncManager {
     public boolean isListening() {
         return isListening;
     }
+
+    /**
+     * Counts documents delivered by one listener, to compare the windowed
+     * queries against the old whole-collection ones
+     */
+    private static class ListenerStats {
+        private final String name;
+        private int initialDocs = -1;
+        private long serverReads;
+        private int snapshots;
+
+        ListenerStats(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return true if this is the listener's first snapshot
+         */
+        boolean record(QuerySnapshot snapshot) {
+            boolean initial = snapshots == 0;
+            snapshots++;
+            if (initial) {
+                initialDocs = snapshot.size();
+            }
+            if (!snapshot.getMetadata().isFromCache()) {
+                // Firestore bills listeners per changed document delivered
+                serverReads += snapshot.getDocumentChanges().size();
+            }
+            return initial;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[initial=" + initialDocs + ", reads=" + serverReads
+                    + ", snapshots=" + snapshots + "]";
+        }
+    }
 }
@@ -0,0 +1,177 @@
+package com.messkhata.data.sync;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Schedules sync work on two lanes so user-visible uploads never wait behind
+ * a full sync.
+ * - Interactive lane: single uploads (meal, expense, user, mess). Single
+ *   threaded so writes for the same document reach Firestore in order.
+ * - Bulk lane: full syncs. Only one runs at a time; a request for the same key
+ *   while one is in flight joins it instead of queueing another.
+ * A bulk job cancelled before it starts never runs, so it is told through
+ * its onCancelled callback instead; one cancelled while running sees its
+ * token cancelled and reports that itself.
+ */
+public class SyncCoordinator {
+
+    /**
+     * Work item for the bulk lane
+     */
+    public interface BulkJob {
+        void run(CancellationToken token) throws Exception;
+    }
+
+    /**
+     * Cooperative cancellation flag checked by bulk jobs between phases
+     */
+    public static class CancellationToken {
+        private volatile boolean cancelled;
+
+        public boolean isCancelled() {
+            return cancelled || Thread.currentThread().isInterrupted();
+        }
+
+        public void throwIfCancelled() {
+            if (isCancelled()) {
+                throw new CancellationException("Sync cancelled");
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final ExecutorService interactiveExecutor;
+    private final ExecutorService bulkExecutor;
+
+    // Guarded by this
+    private Future<?> bulkFuture;
+    private String bulkKey;
+    private CancellationToken bulkToken;
+    private AtomicBoolean bulkStarted;
+    private Runnable bulkOnCancelled;
+
+    public SyncCoordinator() {
+        this(Executors.newSingleThreadExecutor(namedThreads("sync-interactive")),
+                Executors.newSingleThreadExecutor(namedThreads("sync-bulk")));
+    }
+
+    public SyncCoordinator(ExecutorService interactiveExecutor, ExecutorService bulkExecutor) {
+        this.interactiveExecutor = interactiveExecutor;
+        this.bulkExecutor = bulkExecutor;
+    }
+
+    /**
+     * Run a small upload on the interactive lane
+     */
+    public void submitInteractive(Runnable task) {
+        interactiveExecutor.execute(task);
+    }
+
+    /**
+     * Run a full sync on the bulk lane
+     * @see #submitBulk(String, BulkJob, Runnable)
+     */
+    public Future<?> submitBulk(String key, BulkJob job) {
+        return submitBulk(key, job, null);
+    }
+
+    /**
+     * Run a full sync on the bulk lane
+     * If a job with the same key is already pending or running, its future is
+     * returned and no new job is started. A job for a different key (e.g. the
+     * user switched mess) cancels the current one.
+     * @param onCancelled Run if the job is cancelled before it starts; may be null
+     * @return Future completing when the (possibly shared) job finishes
+     */
+    public Future<?> submitBulk(String key, BulkJob job, Runnable onCancelled) {
+        Runnable notStarted;
+        Future<?> future;
+        synchronized (this) {
+            if (bulkFuture != null && !bulkFuture.isDone() && key.equals(bulkKey)) {
+                return bulkFuture;
+            }
+            notStarted = cancelBulkLocked();
+
+            CancellationToken token = new CancellationToken();
+            AtomicBoolean started = new AtomicBoolean();
+            bulkKey = key;
+            bulkToken = token;
+            bulkStarted = started;
+            bulkOnCancelled = onCancelled;
+            bulkFuture = bulkExecutor.submit(() -> {
+                // Lost to a cancel that already reported it
+                if (!started.compareAndSet(false, true)) {
+                    return null;
+                }
+                job.run(token);
+                return null;
+            });
+            future = bulkFuture;
+        }
+        if (notStarted != null) {
+            notStarted.run();
+        }
+        return future;
+    }
+
+    /**
+     * Cancel the pending or running bulk job, if any
+     * @return true if a job was cancelled
+     */
+    public boolean cancelBulk() {
+        Runnable notStarted;
+        synchronized (this) {
+            if (bulkFuture == null || bulkFuture.isDone()) {
+                return false;
+            }
+            notStarted = cancelBulkLocked();
+        }
+        if (notStarted != null) {
+            notStarted.run();
+        }
+        return true;
+    }
+
+    /**
+     * Check if a bulk job is pending or running
+     */
+    public synchronized boolean isBulkRunning() {
+        return bulkFuture != null && !bulkFuture.isDone();
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Cancel the current bulk job, if pending or running
+     * @return Its onCancelled callback if it had not started, to run once
+     *         the lock is released; null otherwise
+     */
+    private Runnable cancelBulkLocked() {
+        if (bulkFuture == null || bulkFuture.isDone()) {
+            return null;
+        }
+        bulkToken.cancel();
+        bulkFuture.cancel(true);
+        Runnable notStarted = bulkStarted.compareAndSet(false, true) ? bulkOnCancelled : null;
+        bulkFuture = null;
+        bulkKey = null;
+        bulkToken = null;
+        bulkStarted = null;
+        bulkOnCancelled = null;
+        return notStarted;
+    }
+}
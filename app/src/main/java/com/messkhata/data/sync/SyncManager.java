@@ -13,22 +13,27 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentReference;
 import com.messkhata.data.dao.ExpenseDao;
+import com.messkhata.data.dao.IdMappingDao;
 import com.messkhata.data.dao.MealDao;
 import com.messkhata.data.dao.MessDao;
 import com.messkhata.data.dao.UserDao;
 import com.messkhata.data.model.Expense;
 import com.messkhata.data.model.Meal;
+import com.messkhata.data.model.MealCounters;
 import com.messkhata.data.model.Mess;
 import com.messkhata.data.model.User;
 import com.messkhata.data.sync.model.SyncableExpense;
 import com.messkhata.data.sync.model.SyncableMeal;
 import com.messkhata.data.sync.model.SyncableMess;
 import com.messkhata.data.sync.model.SyncableUser;
+import com.messkhata.utils.PreferenceManager;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 
 /**
  * Manages synchronization between local SQLite database and Firebase Firestore
@@ -46,28 +51,31 @@ public class SyncManager {
     private final Context context;
     private final FirebaseRepository firebaseRepo;
     private final SharedPreferences syncPrefs;
-    private final ExecutorService executor;
+    private final SyncCoordinator coordinator;
+    private final String deviceId;
 
     // DAOs for local database
     private final UserDao userDao;
     private final MessDao messDao;
     private final MealDao mealDao;
     private final ExpenseDao expenseDao;
+    private final IdMappingDao idMappingDao;
 
-    private boolean isSyncing = false;
-    private SyncCallback syncCallback;
+    private final List<SyncCallback> syncCallbacks = new CopyOnWriteArrayList<>();
 
     private SyncManager(Context context) {
         this.context = context.getApplicationContext();
         this.firebaseRepo = FirebaseRepository.getInstance();
         this.syncPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        this.executor = Executors.newSingleThreadExecutor();
+        this.coordinator = new SyncCoordinator();
+        this.deviceId = PreferenceManager.getInstance(context).getDeviceId();
 
         // Initialize DAOs
         this.userDao = new UserDao(context);
         this.messDao = new MessDao(context);
         this.mealDao = new MealDao(context);
         this.expenseDao = new ExpenseDao(context);
+        this.idMappingDao = new IdMappingDao(context);
     }
 
     public static synchronized SyncManager getInstance(Context context) {
@@ -78,10 +86,19 @@ public class SyncManager {
     }
 
     /**
-     * Set callback for sync status updates
+     * Subscribe to sync status updates
      */
-    public void setSyncCallback(SyncCallback callback) {
-        this.syncCallback = callback;
+    public void addSyncCallback(SyncCallback callback) {
+        if (callback != null && !syncCallbacks.contains(callback)) {
+            syncCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Unsubscribe from sync status updates
+     */
+    public void removeSyncCallback(SyncCallback callback) {
+        syncCallbacks.remove(callback);
     }
 
     /**
@@ -135,88 +152,92 @@ public class SyncManager {
      * Check if sync is currently in progress
      */
     public boolean isSyncing() {
-        return isSyncing;
+        return coordinator.isBulkRunning();
     }
 
     /**
      * Perform full sync (upload local changes, download remote changes)
+     * Runs on the bulk lane; a request while a sync for the same mess is in
+     * flight joins that sync instead of starting another.
      *
      * @param messId The mess ID to sync
+     * @return Future for the sync, or null if sync could not start
      */
-    public void performFullSync(int messId) {
+    public Future<?> performFullSync(int messId) {
         if (!isSyncEnabled()) {
             Log.d(TAG, "Sync is disabled");
-            return;
+            return null;
         }
 
         if (!isNetworkAvailable()) {
             Log.d(TAG, "No network connection");
-            if (syncCallback != null) {
-                syncCallback.onSyncFailed("No network connection");
-            }
-            return;
+            notifyFailed("No network connection");
+            return null;
         }
 
         if (!isAuthenticated()) {
             Log.d(TAG, "User not authenticated");
-            if (syncCallback != null) {
-                syncCallback.onSyncFailed("Please sign in to sync");
-            }
-            return;
-        }
-
-        if (isSyncing) {
-            Log.d(TAG, "Sync already in progress");
-            return;
+            notifyFailed("Please sign in to sync");
+            return null;
         }
 
-        isSyncing = true;
-
-        if (syncCallback != null) {
-            syncCallback.onSyncStarted();
-        }
+        return coordinator.submitBulk("full:" + messId, token -> {
+            for (SyncCallback callback : syncCallbacks) {
+                callback.onSyncStarted();
+            }
 
-        executor.execute(() -> {
             try {
+                token.throwIfCancelled();
+
                 // Step 1: Upload local mess data
                 notifyProgress(10, "Syncing mess data...");
                 syncMessToCloud(messId);
+                token.throwIfCancelled();
 
                 // Step 2: Upload local users
                 notifyProgress(25, "Syncing users...");
                 syncUsersToCloud(messId);
+                token.throwIfCancelled();
 
                 // Step 3: Upload local meals
                 notifyProgress(40, "Syncing meals...");
                 syncMealsToCloud(messId);
+                token.throwIfCancelled();
 
                 // Step 4: Upload local expenses
                 notifyProgress(55, "Syncing expenses...");
                 syncExpensesToCloud(messId);
+                token.throwIfCancelled();
 
                 // Step 5: Download remote changes
                 notifyProgress(70, "Downloading updates...");
                 downloadRemoteChanges(messId);
+                token.throwIfCancelled();
 
                 // Step 6: Complete
                 notifyProgress(100, "Sync completed");
                 updateLastSyncTimestamp();
 
-                if (syncCallback != null) {
-                    syncCallback.onSyncCompleted();
+                for (SyncCallback callback : syncCallbacks) {
+                    callback.onSyncCompleted();
                 }
 
                 Log.d(TAG, "Full sync completed successfully");
 
             } catch (Exception e) {
                 Log.e(TAG, "Sync failed", e);
-                if (syncCallback != null) {
-                    syncCallback.onSyncFailed(e.getMessage());
-                }
-            } finally {
-                isSyncing = false;
+                notifyFailed(token.isCancelled() ? "Sync cancelled" : e.getMessage());
+                throw e;
             }
-        });
+        }, () -> notifyFailed("Sync cancelled"));
+    }
+
+    /**
+     * Cancel the running full sync, if any
+     * @return true if a sync was cancelled
+     */
+    public boolean cancelFullSync() {
+        return coordinator.cancelBulk();
     }
 
     /**
@@ -240,9 +261,15 @@ public class SyncManager {
                 SyncableMess syncableMess = new SyncableMess(mess);
                 syncableMess.setFirebaseId(firebaseMessId);
                 syncableMess.setLastModified(System.currentTimeMillis());
+                syncableMess.setRateHistory(messDao.getMealRates(messId));
 
                 Task<DocumentReference> task = firebaseRepo.saveMess(syncableMess);
                 Tasks.await(task);
+                if (firebaseMessId != null) {
+                    // Our write is newer than any push still in flight
+                    idMappingDao.updateVersion(IdMappingDao.ENTITY_MESS, firebaseMessId,
+                            syncableMess.getLastModified());
+                }
 
                 Log.d(TAG, "Mess synced to cloud: " + messId + " with rates: grocery=" 
                         + mess.getGroceryBudgetPerMeal() + ", cooking=" + mess.getCookingChargePerMeal());
@@ -275,6 +302,8 @@ public class SyncManager {
                             cursor.getLong(cursor.getColumnIndexOrThrow("joinedDate")));
 
                     SyncableUser syncableUser = new SyncableUser(user);
+                    syncableUser.setFirebaseId(
+                            idMappingDao.getFirebaseId(IdMappingDao.ENTITY_USER, user.getUserId()));
                     syncableUser.setLastModified(System.currentTimeMillis());
                     // Set firebaseMessId for cross-device sync
                     if (firebaseMessId != null && !firebaseMessId.isEmpty()) {
@@ -284,7 +313,10 @@ public class SyncManager {
                     Log.d(TAG, "Uploading user: " + user.getEmail() + " with firebaseMessId: " + firebaseMessId);
 
                     Task<DocumentReference> task = firebaseRepo.saveUser(syncableUser);
-                    Tasks.await(task);
+                    DocumentReference docRef = Tasks.await(task);
+                    if (docRef != null) {
+                        idMappingDao.saveMapping(IdMappingDao.ENTITY_USER, user.getUserId(), docRef.getId());
+                    }
                     userCount++;
                 }
                 cursor.close();
@@ -324,6 +356,7 @@ public class SyncManager {
                         SyncableMeal syncableMeal = new SyncableMeal(meal);
                         syncableMeal.setLastModified(System.currentTimeMillis());
                         syncableMeal.setUserEmail(userEmail); // For cross-device user matching
+                        syncableMeal.setCounters(getUploadCounters(meal));
                         // Set firebaseMessId for cross-device sync
                         if (firebaseMessId != null && !firebaseMessId.isEmpty()) {
                             syncableMeal.setFirebaseMessId(firebaseMessId);
@@ -337,6 +370,7 @@ public class SyncManager {
                 if (!allMeals.isEmpty()) {
                     Task<Void> task = firebaseRepo.saveMealsBatch(allMeals);
                     Tasks.await(task);
+                    saveUploadedMappings(IdMappingDao.ENTITY_MEAL, allMeals);
                     Log.d(TAG, "Meals synced to cloud: " + allMeals.size());
                 }
             }
@@ -362,6 +396,8 @@ public class SyncManager {
 
             for (Expense expense : expenses) {
                 SyncableExpense syncableExpense = new SyncableExpense(expense);
+                syncableExpense.setFirebaseId(
+                        idMappingDao.getFirebaseId(IdMappingDao.ENTITY_EXPENSE, expense.getExpenseId()));
                 syncableExpense.setLastModified(System.currentTimeMillis());
                 // Set firebaseMessId for cross-device sync
                 if (firebaseMessId != null && !firebaseMessId.isEmpty()) {
@@ -373,6 +409,8 @@ public class SyncManager {
             if (!syncableExpenses.isEmpty()) {
                 Task<Void> task = firebaseRepo.saveExpensesBatch(syncableExpenses);
                 Tasks.await(task);
+                // New expenses were given document IDs by the batch
+                saveUploadedMappings(IdMappingDao.ENTITY_EXPENSE, syncableExpenses);
                 Log.d(TAG, "Expenses synced to cloud: " + syncableExpenses.size());
             }
         } catch (Exception e) {
@@ -407,6 +445,7 @@ public class SyncManager {
                         messId,
                         remoteMess.getGroceryBudgetPerMeal(),
                         remoteMess.getCookingChargePerMeal());
+                messDao.saveMealRates(messId, remoteMess.getRateHistory());
                 Log.d(TAG, "Updated local mess rates from Firebase: grocery=" + 
                         remoteMess.getGroceryBudgetPerMeal() + ", cooking=" + 
                         remoteMess.getCookingChargePerMeal());
@@ -429,7 +468,7 @@ public class SyncManager {
                         ", firebaseMessId: " + user.getFirebaseMessId());
                 // Save to local database - use local messId
                 userDao.addOrUpdateUser(
-                        user.getUserId(),
+                        user.getFirebaseId(),
                         user.getFullName(),
                         user.getEmail(),
                         user.getPhoneNumber(),
@@ -459,28 +498,32 @@ public class SyncManager {
             Task<List<SyncableMeal>> mealsTask = firebaseRepo.getAllMealsByFirebaseMessId(firebaseMessId);
             List<SyncableMeal> remoteMeals = Tasks.await(mealsTask);
 
+            // Many meals share a member; resolve each email only once
+            Map<String, Integer> userIdsByEmail = new HashMap<>();
             for (SyncableMeal meal : remoteMeals) {
                 // Resolve userEmail to local userId
                 int localUserId = meal.getUserId(); // Default to remote userId
                 String userEmail = meal.getUserEmail();
                 if (userEmail != null && !userEmail.isEmpty()) {
-                    Cursor userCursor = userDao.getUserByEmail(userEmail);
-                    if (userCursor != null && userCursor.moveToFirst()) {
-                        localUserId = userCursor.getInt(userCursor.getColumnIndexOrThrow("userId"));
-                        userCursor.close();
+                    Integer cachedUserId = userIdsByEmail.get(userEmail);
+                    if (cachedUserId == null) {
+                        Cursor userCursor = userDao.getUserByEmail(userEmail);
+                        if (userCursor != null) {
+                            if (userCursor.moveToFirst()) {
+                                cachedUserId = userCursor.getInt(userCursor.getColumnIndexOrThrow("userId"));
+                                userIdsByEmail.put(userEmail, cachedUserId);
+                            }
+                            userCursor.close();
+                        }
+                    }
+                    if (cachedUserId != null) {
+                        localUserId = cachedUserId;
                     }
                 }
 
-                // Update local database with remote changes - use local messId and resolved
+                // Merge remote changes into local database - use local messId and resolved
                 // userId
-                mealDao.addOrUpdateMeal(
-                        localUserId,
-                        messId, // Use local messId for local database
-                        meal.getMealDate(),
-                        meal.getBreakfast(),
-                        meal.getLunch(),
-                        meal.getDinner(),
-                        meal.getMealRate());
+                applyRemoteMeal(localUserId, messId, meal);
             }
             Log.d(TAG, "Downloaded " + remoteMeals.size() + " meals from cloud");
         } catch (Exception e) {
@@ -499,7 +542,7 @@ public class SyncManager {
                 Log.d(TAG, "Processing expense: " + expense.getTitle() + ", amount: " + expense.getAmount());
                 // Save to local database - use local messId
                 expenseDao.addOrUpdateExpense(
-                        expense.getExpenseId(),
+                        expense.getFirebaseId(),
                         messId, // Use local messId for local database
                         expense.getAddedBy(),
                         expense.getCategory(),
@@ -527,14 +570,7 @@ public class SyncManager {
             List<SyncableMeal> remoteMeals = Tasks.await(mealsTask);
 
             for (SyncableMeal meal : remoteMeals) {
-                mealDao.addOrUpdateMeal(
-                        meal.getUserId(),
-                        meal.getMessId(),
-                        meal.getMealDate(),
-                        meal.getBreakfast(),
-                        meal.getLunch(),
-                        meal.getDinner(),
-                        meal.getMealRate());
+                applyRemoteMeal(meal.getUserId(), meal.getMessId(), meal);
             }
             Log.d(TAG, "[Legacy] Downloaded " + remoteMeals.size() + " meals from cloud");
 
@@ -544,7 +580,7 @@ public class SyncManager {
 
             for (SyncableExpense expense : remoteExpenses) {
                 expenseDao.addOrUpdateExpense(
-                        expense.getExpenseId(),
+                        expense.getFirebaseId(),
                         expense.getMessId(),
                         expense.getAddedBy(),
                         expense.getCategory(),
@@ -563,7 +599,7 @@ public class SyncManager {
 
             for (SyncableUser user : remoteUsers) {
                 userDao.addOrUpdateUser(
-                        user.getUserId(),
+                        user.getFirebaseId(),
                         user.getFullName(),
                         user.getEmail(),
                         user.getPhoneNumber(),
@@ -602,6 +638,7 @@ public class SyncManager {
         if (user != null && user.getEmail() != null) {
             syncableMeal.setUserEmail(user.getEmail());
         }
+        syncableMeal.setCounters(getUploadCounters(meal));
 
         // If offline, queue the operation
         if (!isNetworkAvailable()) {
@@ -618,10 +655,13 @@ public class SyncManager {
 
         final String finalFirebaseMessId = firebaseMessId;
         final int totalMeals = meal.getBreakfast() + meal.getLunch() + meal.getDinner();
-        executor.execute(() -> {
+        coordinator.submitInteractive(() -> {
             try {
                 Task<DocumentReference> task = firebaseRepo.saveMeal(syncableMeal);
-                Tasks.await(task);
+                DocumentReference docRef = Tasks.await(task);
+                if (docRef != null) {
+                    idMappingDao.saveMapping(IdMappingDao.ENTITY_MEAL, meal.getMealId(), docRef.getId());
+                }
 
                 Log.d(TAG, "Meal synced immediately: " + meal.getMealId());
             } catch (Exception e) {
@@ -638,6 +678,54 @@ public class SyncManager {
         });
     }
 
+    /**
+     * Record the document IDs of a finished batch upload
+     */
+    private void saveUploadedMappings(String entityType, List<? extends SyncableEntity> entities) {
+        Map<Long, String> mappings = new HashMap<>();
+        for (SyncableEntity entity : entities) {
+            String firebaseId = entity instanceof SyncableMeal
+                    ? ((SyncableMeal) entity).getDocumentId()
+                    : entity.getFirebaseId();
+            if (firebaseId != null) {
+                mappings.put(entity.getLocalId(), firebaseId);
+            }
+        }
+        idMappingDao.saveMappings(entityType, mappings);
+    }
+
+    /**
+     * Counters this device may write for a meal: its own entries plus the seed
+     * entry. Other devices' entries are never uploaded from here, since a stale
+     * copy would overwrite their newer values.
+     */
+    private MealCounters getUploadCounters(Meal meal) {
+        MealCounters counters = mealDao.getMealCounters(meal.getUserId(), meal.getMealDate());
+        return counters.retain(deviceId, MealCounters.SEED_REPLICA);
+    }
+
+    /**
+     * Apply a downloaded meal to the local database
+     * Documents carrying counters are merged; legacy full-value documents only
+     * fill in days that have no counters yet.
+     */
+    void applyRemoteMeal(int localUserId, int localMessId, SyncableMeal meal) {
+        MealCounters counters = meal.getCounters();
+        if (counters != null && !counters.isEmpty()) {
+            mealDao.mergeMealCounters(localUserId, localMessId, meal.getMealDate(),
+                    counters, meal.getMealRate());
+        } else if (!mealDao.hasMealCounters(localUserId, meal.getMealDate())) {
+            mealDao.addOrUpdateMeal(
+                    localUserId,
+                    localMessId,
+                    meal.getMealDate(),
+                    meal.getBreakfast(),
+                    meal.getLunch(),
+                    meal.getDinner(),
+                    meal.getMealRate());
+        }
+    }
+
     /**
      * Sync a single expense immediately
      * If offline, queues the operation for later
@@ -649,6 +737,8 @@ public class SyncManager {
 
         // Get sync data ready
         SyncableExpense syncableExpense = new SyncableExpense(expense);
+        syncableExpense.setFirebaseId(
+                idMappingDao.getFirebaseId(IdMappingDao.ENTITY_EXPENSE, expense.getExpenseId()));
         syncableExpense.setLastModified(System.currentTimeMillis());
 
         // Set firebaseMessId for cross-device sync
@@ -671,10 +761,16 @@ public class SyncManager {
         }
 
         final String finalFirebaseMessId = firebaseMessId;
-        executor.execute(() -> {
+        coordinator.submitInteractive(() -> {
             try {
                 Task<DocumentReference> task = firebaseRepo.saveExpense(syncableExpense);
-                Tasks.await(task);
+                DocumentReference docRef = Tasks.await(task);
+                if (docRef != null) {
+                    idMappingDao.saveMapping(IdMappingDao.ENTITY_EXPENSE, expense.getExpenseId(),
+                            docRef.getId());
+                    idMappingDao.updateVersion(IdMappingDao.ENTITY_EXPENSE, docRef.getId(),
+                            syncableExpense.getLastModified());
+                }
 
                 Log.d(TAG, "Expense synced immediately: " + expense.getExpenseId());
             } catch (Exception e) {
@@ -691,6 +787,140 @@ public class SyncManager {
         });
     }
 
+    /**
+     * Upload newly inserted expenses, such as an imported chunk, as one batch
+     * rather than one write per row. If offline or the upload fails, the
+     * batch is queued as a single item.
+     */
+    public void syncExpensesBatch(List<Expense> expenses) {
+        if (expenses.isEmpty() || !isSyncEnabled() || !isAuthenticated()) {
+            return;
+        }
+
+        String firebaseMessId = messDao.getFirebaseMessId(expenses.get(0).getMessId());
+        List<SyncableExpense> syncableExpenses = new ArrayList<>();
+        for (Expense expense : expenses) {
+            SyncableExpense syncableExpense = new SyncableExpense(expense);
+            syncableExpense.setLastModified(System.currentTimeMillis());
+            if (firebaseMessId != null && !firebaseMessId.isEmpty()) {
+                syncableExpense.setFirebaseMessId(firebaseMessId);
+            }
+            syncableExpenses.add(syncableExpense);
+        }
+
+        String batchId = batchId(expenses.get(0).getExpenseId(), expenses.get(expenses.size() - 1).getExpenseId());
+        if (!isNetworkAvailable()) {
+            Log.d(TAG, "Offline - queuing " + expenses.size() + " expenses for later");
+            OfflineQueueManager.getInstance(context).queueOperation(
+                    OfflineQueueManager.OP_CREATE,
+                    OfflineQueueManager.ENTITY_EXPENSE_BATCH,
+                    batchId,
+                    null,
+                    firebaseMessId,
+                    syncableExpenses);
+            return;
+        }
+
+        coordinator.submitInteractive(() -> {
+            try {
+                uploadExpensesBatch(syncableExpenses);
+                Log.d(TAG, "Expense batch synced: " + syncableExpenses.size());
+            } catch (Exception e) {
+                Log.e(TAG, "Error syncing expense batch", e);
+                OfflineQueueManager.getInstance(context).queueOperation(
+                        OfflineQueueManager.OP_CREATE,
+                        OfflineQueueManager.ENTITY_EXPENSE_BATCH,
+                        batchId,
+                        null,
+                        firebaseMessId,
+                        syncableExpenses);
+            }
+        });
+    }
+
+    /**
+     * Upload newly inserted meals, such as an imported chunk, as one batch
+     * @see #syncExpensesBatch(List)
+     */
+    public void syncMealsBatch(List<Meal> meals) {
+        if (meals.isEmpty() || !isSyncEnabled() || !isAuthenticated()) {
+            return;
+        }
+
+        String firebaseMessId = messDao.getFirebaseMessId(meals.get(0).getMessId());
+        Map<Integer, String> emails = new HashMap<>();
+        List<SyncableMeal> syncableMeals = new ArrayList<>();
+        for (Meal meal : meals) {
+            SyncableMeal syncableMeal = new SyncableMeal(meal);
+            syncableMeal.setLastModified(System.currentTimeMillis());
+            if (firebaseMessId != null && !firebaseMessId.isEmpty()) {
+                syncableMeal.setFirebaseMessId(firebaseMessId);
+            }
+            if (!emails.containsKey(meal.getUserId())) {
+                User user = userDao.getUserByIdAsObject(meal.getUserId());
+                emails.put(meal.getUserId(), user != null ? user.getEmail() : null);
+            }
+            if (emails.get(meal.getUserId()) != null) {
+                syncableMeal.setUserEmail(emails.get(meal.getUserId()));
+            }
+            syncableMeal.setCounters(getUploadCounters(meal));
+            syncableMeals.add(syncableMeal);
+        }
+
+        String batchId = batchId(meals.get(0).getMealId(), meals.get(meals.size() - 1).getMealId());
+        if (!isNetworkAvailable()) {
+            Log.d(TAG, "Offline - queuing " + meals.size() + " meals for later");
+            OfflineQueueManager.getInstance(context).queueOperation(
+                    OfflineQueueManager.OP_UPDATE,
+                    OfflineQueueManager.ENTITY_MEAL_BATCH,
+                    batchId,
+                    null,
+                    firebaseMessId,
+                    syncableMeals);
+            return;
+        }
+
+        coordinator.submitInteractive(() -> {
+            try {
+                uploadMealsBatch(syncableMeals);
+                Log.d(TAG, "Meal batch synced: " + syncableMeals.size());
+            } catch (Exception e) {
+                Log.e(TAG, "Error syncing meal batch", e);
+                OfflineQueueManager.getInstance(context).queueOperation(
+                        OfflineQueueManager.OP_UPDATE,
+                        OfflineQueueManager.ENTITY_MEAL_BATCH,
+                        batchId,
+                        null,
+                        firebaseMessId,
+                        syncableMeals);
+            }
+        });
+    }
+
+    /**
+     * Write a batch of expenses and record their document IDs; blocks
+     */
+    void uploadExpensesBatch(List<SyncableExpense> expenses) throws Exception {
+        Tasks.await(firebaseRepo.saveExpensesBatch(expenses));
+        saveUploadedMappings(IdMappingDao.ENTITY_EXPENSE, expenses);
+    }
+
+    /**
+     * Write a batch of meals and record their document IDs; blocks
+     */
+    void uploadMealsBatch(List<SyncableMeal> meals) throws Exception {
+        Tasks.await(firebaseRepo.saveMealsBatch(meals));
+        saveUploadedMappings(IdMappingDao.ENTITY_MEAL, meals);
+    }
+
+    /**
+     * Queue entity ID of a batch; distinct per batch so queue deduplication
+     * never collapses two batches into one
+     */
+    private static String batchId(int firstLocalId, int lastLocalId) {
+        return firstLocalId + "-" + lastLocalId;
+    }
+
     /**
      * Sync a single user immediately (used when joining/creating mess)
      */
@@ -709,9 +939,11 @@ public class SyncManager {
             return;
         }
 
-        executor.execute(() -> {
+        coordinator.submitInteractive(() -> {
             try {
                 SyncableUser syncableUser = new SyncableUser(user);
+                syncableUser.setFirebaseId(
+                        idMappingDao.getFirebaseId(IdMappingDao.ENTITY_USER, user.getUserId()));
                 syncableUser.setLastModified(System.currentTimeMillis());
 
                 // Set firebaseMessId if provided
@@ -723,6 +955,11 @@ public class SyncManager {
 
                 Task<DocumentReference> task = firebaseRepo.saveUser(syncableUser);
                 DocumentReference docRef = Tasks.await(task);
+                if (docRef != null) {
+                    idMappingDao.saveMapping(IdMappingDao.ENTITY_USER, user.getUserId(), docRef.getId());
+                    idMappingDao.updateVersion(IdMappingDao.ENTITY_USER, docRef.getId(),
+                            syncableUser.getLastModified());
+                }
 
                 Log.d(TAG, "User synced immediately: " + user.getUserId() + ", docId: "
                         + (docRef != null ? docRef.getId() : "null"));
@@ -758,6 +995,7 @@ public class SyncManager {
                 SyncableMess syncableMess = new SyncableMess(mess);
                 syncableMess.setFirebaseId(firebaseMessId);
                 syncableMess.setLastModified(System.currentTimeMillis());
+                syncableMess.setRateHistory(messDao.getMealRates(messId));
 
                 OfflineQueueManager.getInstance(context).queueOperation(
                         OfflineQueueManager.OP_UPDATE,
@@ -770,7 +1008,7 @@ public class SyncManager {
             return;
         }
 
-        executor.execute(() -> {
+        coordinator.submitInteractive(() -> {
             try {
                 syncMessToCloud(messId);
                 Log.d(TAG, "Mess synced immediately: " + messId);
@@ -784,8 +1022,17 @@ public class SyncManager {
      * Helper method to notify progress
      */
     private void notifyProgress(int progress, String message) {
-        if (syncCallback != null) {
-            syncCallback.onSyncProgress(progress, message);
+        for (SyncCallback callback : syncCallbacks) {
+            callback.onSyncProgress(progress, message);
+        }
+    }
+
+    /**
+     * Helper method to notify failure
+     */
+    private void notifyFailed(String error) {
+        for (SyncCallback callback : syncCallbacks) {
+            callback.onSyncFailed(error);
         }
     }
 }
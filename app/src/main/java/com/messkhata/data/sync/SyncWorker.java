@@ -12,9 +12,13 @@ import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import com.messkhata.data.importer.CsvImporter;
 import com.messkhata.utils.PreferenceManager;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Background worker for periodic data synchronization with Firebase
@@ -27,6 +31,9 @@ public class SyncWorker extends Worker {
     // Sync interval in hours
     private static final int SYNC_INTERVAL_HOURS = 1;
 
+    // Upper bound for a single blocking sync
+    private static final int SYNC_TIMEOUT_MINUTES = 5;
+
     public SyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
         super(context, params);
     }
@@ -68,6 +75,9 @@ public class SyncWorker extends Worker {
                 return Result.success();
             }
 
+            // Chunks an import committed but never handed over for upload
+            new CsvImporter(context).uploadPendingChunks(messId);
+
             // Perform sync (blocking call in worker)
             performSyncBlocking(syncManager, messId);
 
@@ -82,61 +92,32 @@ public class SyncWorker extends Worker {
 
     /**
      * Perform sync in blocking mode for WorkManager
+     * Waits on the sync's future rather than installing a callback, so UI
+     * subscribers keep receiving progress. Joins a sync already in flight.
      */
-    private void performSyncBlocking(SyncManager syncManager, int messId) {
-        // Create a blocking sync callback
-        final Object lock = new Object();
-        final boolean[] completed = { false };
-        final String[] error = { null };
-
-        syncManager.setSyncCallback(new SyncCallback() {
-            @Override
-            public void onSyncStarted() {
-                Log.d(TAG, "Background sync started");
-            }
-
-            @Override
-            public void onSyncCompleted() {
-                synchronized (lock) {
-                    completed[0] = true;
-                    lock.notify();
-                }
-            }
-
-            @Override
-            public void onSyncFailed(String errorMsg) {
-                synchronized (lock) {
-                    error[0] = errorMsg;
-                    completed[0] = true;
-                    lock.notify();
-                }
-            }
-
-            @Override
-            public void onSyncProgress(int progress, String message) {
-                Log.d(TAG, "Sync progress: " + progress + "% - " + message);
-            }
-        });
-
-        // Start sync
-        syncManager.performFullSync(messId);
-
-        // Wait for completion (with timeout)
-        synchronized (lock) {
-            try {
-                if (!completed[0]) {
-                    lock.wait(5 * 60 * 1000); // 5 minute timeout
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    private void performSyncBlocking(SyncManager syncManager, int messId) throws Exception {
+        Future<?> sync = syncManager.performFullSync(messId);
+        if (sync == null) {
+            throw new IllegalStateException("Sync could not start");
         }
 
-        if (error[0] != null) {
-            throw new RuntimeException("Sync failed: " + error[0]);
+        try {
+            sync.get(SYNC_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (TimeoutException e) {
+            syncManager.cancelFullSync();
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Sync failed: " + e.getCause().getMessage(), e.getCause());
         }
     }
 
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        // WorkManager stopped us (constraints lost); don't leave the sync running
+        SyncManager.getInstance(getApplicationContext()).cancelFullSync();
+    }
+
     /**
      * Schedule periodic sync work
      */
@@ -0,0 +1,186 @@
+package com.messkhata.data.sync.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entity change carried in an FCM data message.
+ *
+ * Payload keys (all strings, as FCM requires):
+ * - type:     expense_added | meal_updated | member_joined | mess_updated
+ * - messId:   Firebase mess ID
+ * - entityId: Firestore document ID of the changed entity
+ * - version:  the document's lastModified (millis)
+ * - fields:   JSON object with the document fields, same keys as toFirebaseMap()
+ *
+ * FCM caps data messages at 4KB, so senders may omit "fields" (or some of
+ * them); such deltas are incomplete and the receiver fetches the document.
+ */
+public class EntityDelta {
+
+    public static final String KEY_ENTITY_ID = "entityId";
+    public static final String KEY_VERSION = "version";
+    public static final String KEY_FIELDS = "fields";
+
+    public static final String TYPE_EXPENSE_ADDED = "expense_added";
+    public static final String TYPE_MEAL_UPDATED = "meal_updated";
+    public static final String TYPE_MEMBER_JOINED = "member_joined";
+    public static final String TYPE_MESS_UPDATED = "mess_updated";
+
+    // Fields needed to apply each type without fetching the document
+    private static final String[] EXPENSE_FIELDS = {
+            "addedBy", "category", "amount", "title", "expenseDate", "memberCountAtTime" };
+    private static final String[] MEAL_FIELDS = { "userEmail", "mealDate", "counters" };
+    private static final String[] USER_FIELDS = { "email", "fullName", "role" };
+    private static final String[] MESS_FIELDS = {
+            "groceryBudgetPerMeal", "cookingChargePerMeal", "rateHistory" };
+
+    private final String type;
+    private final String firebaseMessId;
+    private final String entityId;
+    private final long version;
+    private final Map<String, Object> fields;
+
+    private EntityDelta(String type, String firebaseMessId, String entityId, long version,
+            Map<String, Object> fields) {
+        this.type = type;
+        this.firebaseMessId = firebaseMessId;
+        this.entityId = entityId;
+        this.version = version;
+        this.fields = fields;
+    }
+
+    /**
+     * Parse a data message
+     * @return the delta, or null if the message carries no entity change
+     */
+    public static EntityDelta fromData(Map<String, String> data) {
+        String type = data.get("type");
+        String entityId = data.get(KEY_ENTITY_ID);
+        if (type == null || entityId == null || entityId.isEmpty() || requiredFields(type) == null) {
+            return null;
+        }
+
+        long version = 0;
+        try {
+            String versionValue = data.get(KEY_VERSION);
+            if (versionValue != null) {
+                version = Long.parseLong(versionValue);
+            }
+        } catch (NumberFormatException e) {
+            version = 0;
+        }
+
+        Map<String, Object> fields = Collections.emptyMap();
+        String fieldsJson = data.get(KEY_FIELDS);
+        if (fieldsJson != null && !fieldsJson.isEmpty()) {
+            try {
+                fields = toMap(new JSONObject(fieldsJson));
+            } catch (JSONException e) {
+                // Treat as incomplete; the document will be fetched
+                fields = Collections.emptyMap();
+            }
+        }
+
+        return new EntityDelta(type, data.get("messId"), entityId, version, fields);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getFirebaseMessId() {
+        return firebaseMessId;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    /**
+     * Check if the delta is newer than the version last applied locally
+     * A delta without a version is always applied.
+     * @param appliedVersion 0 if none was applied yet
+     */
+    public boolean isNewerThan(long appliedVersion) {
+        return version <= 0 || version > appliedVersion;
+    }
+
+    /**
+     * Check if the payload can be applied without fetching the document
+     */
+    public boolean isComplete() {
+        if (version <= 0) {
+            return false;
+        }
+        for (String field : requiredFields(type)) {
+            if (fields.get(field) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] requiredFields(String type) {
+        switch (type) {
+            case TYPE_EXPENSE_ADDED:
+                return EXPENSE_FIELDS;
+            case TYPE_MEAL_UPDATED:
+                return MEAL_FIELDS;
+            case TYPE_MEMBER_JOINED:
+                return USER_FIELDS;
+            case TYPE_MESS_UPDATED:
+                return MESS_FIELDS;
+            default:
+                return null;
+        }
+    }
+
+    private static Map<String, Object> toMap(JSONObject json) throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = toValue(json.get(key));
+            // A null field reads as missing, as the fromFirebaseMap() parsers expect
+            if (value != null) {
+                map.put(key, value);
+            }
+        }
+        return map;
+    }
+
+    private static Object toValue(Object value) throws JSONException {
+        if (value == JSONObject.NULL) {
+            return null;
+        }
+        if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                list.add(toValue(array.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+}
@@ -1,6 +1,7 @@
 package com.messkhata.data.sync.model;
 
 import com.messkhata.data.model.Meal;
+import com.messkhata.data.model.MealCounters;
 import com.messkhata.data.sync.SyncStatus;
 import com.messkhata.data.sync.SyncableEntity;
 
@@ -17,6 +18,7 @@ public class SyncableMeal extends Meal implements SyncableEntity {
     private String firebaseId;
     private String firebaseMessId; // Firebase document ID of the mess
     private String userEmail; // Email for cross-device user matching
+    private MealCounters counters; // Replicated slot counters (null for legacy documents)
     private SyncStatus syncStatus = SyncStatus.PENDING_UPLOAD;
     private long lastModified;
 
@@ -82,6 +84,36 @@ public class SyncableMeal extends Meal implements SyncableEntity {
         this.userEmail = userEmail;
     }
 
+    public MealCounters getCounters() {
+        return counters;
+    }
+
+    public void setCounters(MealCounters counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Deterministic document ID for a member's meal on a day, so every device
+     * writes its counters into the same document
+     */
+    public static String documentIdFor(String firebaseMessId, String userEmail, long mealDate) {
+        return firebaseMessId + "_" + userEmail + "_" + mealDate;
+    }
+
+    /**
+     * Document ID to write to, or null when it cannot be derived yet
+     */
+    public String getDocumentId() {
+        if (firebaseId != null && !firebaseId.isEmpty()) {
+            return firebaseId;
+        }
+        if (firebaseMessId != null && !firebaseMessId.isEmpty()
+                && userEmail != null && !userEmail.isEmpty()) {
+            return documentIdFor(firebaseMessId, userEmail, getMealDate());
+        }
+        return null;
+    }
+
     @Override
     public Map<String, Object> toFirebaseMap() {
         Map<String, Object> map = new HashMap<>();
@@ -98,6 +130,10 @@ public class SyncableMeal extends Meal implements SyncableEntity {
         map.put("mealRate", getMealRate());
         map.put("mealExpense", getMealExpense());
         map.put("lastModified", lastModified);
+        if (counters != null && !counters.isEmpty()) {
+            // Written with SetOptions.merge(), so only this device's entries change
+            map.put("counters", counters.toMap());
+        }
         return map;
     }
 
@@ -109,6 +145,7 @@ public class SyncableMeal extends Meal implements SyncableEntity {
     /**
      * Create SyncableMeal from Firebase document
      */
+    @SuppressWarnings("unchecked")
     public static SyncableMeal fromFirebaseMap(String documentId, Map<String, Object> data) {
         SyncableMeal meal = new SyncableMeal();
         meal.setFirebaseId(documentId);
@@ -146,6 +183,9 @@ public class SyncableMeal extends Meal implements SyncableEntity {
         if (data.containsKey("userEmail")) {
             meal.setUserEmail((String) data.get("userEmail"));
         }
+        if (data.get("counters") instanceof Map) {
+            meal.setCounters(MealCounters.fromMap((Map<String, Object>) data.get("counters")));
+        }
 
         meal.setSyncStatus(SyncStatus.SYNCED);
         return meal;
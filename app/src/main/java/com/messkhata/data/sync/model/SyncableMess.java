@@ -1,10 +1,13 @@
 package com.messkhata.data.sync.model;
 
+import com.messkhata.data.model.MealRate;
 import com.messkhata.data.model.Mess;
 import com.messkhata.data.sync.SyncStatus;
 import com.messkhata.data.sync.SyncableEntity;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -18,6 +21,10 @@ public class SyncableMess extends Mess implements SyncableEntity {
     private SyncStatus syncStatus = SyncStatus.PENDING_UPLOAD;
     private long lastModified;
 
+    // Rate history, stored on the mess document as
+    // rateHistory.{effectiveFrom} = {grocery, cooking}
+    private List<MealRate> rateHistory = new ArrayList<>();
+
     public SyncableMess() {
         super();
     }
@@ -29,6 +36,14 @@ public class SyncableMess extends Mess implements SyncableEntity {
         this.lastModified = System.currentTimeMillis();
     }
 
+    public List<MealRate> getRateHistory() {
+        return rateHistory;
+    }
+
+    public void setRateHistory(List<MealRate> rateHistory) {
+        this.rateHistory = rateHistory != null ? rateHistory : new ArrayList<>();
+    }
+
     @Override
     public long getLocalId() {
         return getMessId();
@@ -73,6 +88,17 @@ public class SyncableMess extends Mess implements SyncableEntity {
         map.put("cookingChargePerMeal", getCookingChargePerMeal());
         map.put("createdDate", getCreatedDate());
         map.put("lastModified", lastModified);
+        if (!rateHistory.isEmpty()) {
+            // Saved with merge, so entries written by other devices are kept
+            Map<String, Object> history = new HashMap<>();
+            for (MealRate rate : rateHistory) {
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("grocery", rate.getGrocery());
+                entry.put("cooking", rate.getCooking());
+                history.put(String.valueOf(rate.getEffectiveFrom()), entry);
+            }
+            map.put("rateHistory", history);
+        }
         return map;
     }
 
@@ -106,8 +132,29 @@ public class SyncableMess extends Mess implements SyncableEntity {
         if (data.containsKey("lastModified")) {
             mess.setLastModified(((Number) data.get("lastModified")).longValue());
         }
+        if (data.get("rateHistory") instanceof Map) {
+            Map<?, ?> history = (Map<?, ?>) data.get("rateHistory");
+            for (Map.Entry<?, ?> item : history.entrySet()) {
+                if (!(item.getValue() instanceof Map)) {
+                    continue;
+                }
+                Map<?, ?> entry = (Map<?, ?>) item.getValue();
+                try {
+                    mess.rateHistory.add(new MealRate(mess.getMessId(),
+                            Long.parseLong(String.valueOf(item.getKey())),
+                            toDouble(entry.get("grocery")),
+                            toDouble(entry.get("cooking"))));
+                } catch (NumberFormatException e) {
+                    // Skip malformed entries
+                }
+            }
+        }
 
         mess.setSyncStatus(SyncStatus.SYNCED);
         return mess;
     }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
 }
@@ -0,0 +1,111 @@
+package com.messkhata.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.messkhata.data.dao.BalanceCheckpointDao;
+import com.messkhata.data.dao.LedgerDao;
+import com.messkhata.data.dao.MonthCloseDao;
+import com.messkhata.data.dao.MonthlyStatsDao;
+import com.messkhata.utils.PreferenceManager;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily background job that rebuilds the trigger-maintained summaries
+ * (MessMonthlyStats, MemberLedger and MonthlyBills) from Expenses, Meals and
+ * Payments and repairs rows that drifted, e.g. after the device timezone
+ * changed month boundaries. Also closes last month once it is over, which
+ * checkpoints members' balances at its end, and checkpoints again every
+ * month up to it whose checkpoints a back-dated edit removed.
+ */
+public class ConsistencyCheckWorker extends Worker {
+
+    private static final String TAG = "ConsistencyCheckWorker";
+    public static final String WORK_NAME = "MessKhataConsistencyCheck";
+
+    public ConsistencyCheckWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        String messIdStr = PreferenceManager.getInstance(context).getMessId();
+        if (messIdStr == null || messIdStr.isEmpty()) {
+            Log.d(TAG, "No mess ID found, skipping consistency check");
+            return Result.success();
+        }
+
+        int messId;
+        try {
+            messId = Integer.parseInt(messIdStr);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid mess ID format", e);
+            return Result.success();
+        }
+
+        int statsRepaired = new MonthlyStatsDao(context).reconcile(messId, 0);
+        int ledgerRepaired = new LedgerDao(context).reconcile(messId);
+        if (statsRepaired < 0 || ledgerRepaired < 0) {
+            return Result.retry();
+        }
+        if (statsRepaired > 0) {
+            Log.w(TAG, "Repaired " + statsRepaired + " monthly stats rows");
+        }
+        if (ledgerRepaired > 0) {
+            Log.w(TAG, "Repaired " + ledgerRepaired + " ledger and bill rows");
+        }
+
+        Calendar lastMonth = Calendar.getInstance();
+        lastMonth.add(Calendar.MONTH, -1);
+        int year = lastMonth.get(Calendar.YEAR);
+        int month = lastMonth.get(Calendar.MONTH) + 1;
+        MonthCloseDao monthCloseDao = new MonthCloseDao(context);
+        if (!monthCloseDao.isMonthClosed(messId, month, year)
+                && monthCloseDao.closeMonth(messId, month, year) < 0) {
+            return Result.retry();
+        }
+        int checkpointed = new BalanceCheckpointDao(context).checkpointMissingMonths(messId, month, year);
+        if (checkpointed < 0) {
+            return Result.retry();
+        }
+        if (checkpointed > 0) {
+            Log.w(TAG, "Checkpointed " + checkpointed + " months again");
+        }
+        return Result.success();
+    }
+
+    /**
+     * Schedule the daily consistency check
+     */
+    public static void scheduleDailyCheck(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                ConsistencyCheckWorker.class,
+                1,
+                TimeUnit.DAYS)
+                .setConstraints(constraints)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP,
+                request);
+
+        Log.d(TAG, "Daily consistency check scheduled");
+    }
+}
@@ -1,127 +1,104 @@
 package com.messkhata.service;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.content.SharedPreferences;
+import android.util.Log;
 
 import com.messkhata.data.dao.MealDao;
+import com.messkhata.data.dao.MealScheduleDao;
 import com.messkhata.data.dao.MessDao;
-import com.messkhata.data.database.MessKhataDatabase;
-import com.messkhata.data.model.Meal;
+import com.messkhata.data.model.MealPlan;
 import com.messkhata.data.model.Mess;
 
 import java.util.Calendar;
 
 /**
  * Service for automatic meal charging based on saved preferences
- * This service should be called daily (e.g., via WorkManager or AlarmManager)
- * to automatically charge users for meals based on their saved preferences
+ * Run daily by MealAutoChargeWorker. Each run compiles the mess's meal plan
+ * (preferences, weekday schedules, overrides) for every day since the last
+ * successful run, backfilling days missed while the device was off, and
+ * charges it in one transaction.
  */
 public class MealAutoChargeService {
 
+    private static final String TAG = "MealAutoChargeService";
+    private static final String PREFS_NAME = "meal_auto_charge";
+    private static final String KEY_LAST_CHARGED_DAY = "last_charged_day_";
+
+    // Don't backfill further than this many days
+    private static final int MAX_BACKFILL_DAYS = 62;
+
     private Context context;
     private MealDao mealDao;
     private MessDao messDao;
+    private MealScheduleDao mealScheduleDao;
+    private SharedPreferences prefs;
 
     public MealAutoChargeService(Context context) {
         this.context = context;
         this.mealDao = new MealDao(context);
         this.messDao = new MessDao(context);
+        this.mealScheduleDao = new MealScheduleDao(context);
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
     }
 
     /**
-     * Process automatic meal charging for all users with preferences
-     * This should be called once daily, preferably early morning
-     * 
+     * Charge all members of a mess for today and any missed days
+     *
      * @param messId The mess ID to process auto-charging for
-     * @return Number of users successfully charged
+     * @return Number of meal rows created, or -1 on error
      */
     public int processAutoCharging(int messId) {
-        int chargedCount = 0;
-        
-        try {
-            long todayTimestamp = getTodayTimestamp();
-            
-            // Get all users with meal preferences for this mess
-            Cursor cursor = mealDao.getActivePreferences(messId);
-            
-            while (cursor.moveToNext()) {
-                int userId = cursor.getInt(cursor.getColumnIndexOrThrow("userId"));
-                int breakfast = cursor.getInt(cursor.getColumnIndexOrThrow("breakfast"));
-                int lunch = cursor.getInt(cursor.getColumnIndexOrThrow("lunch"));
-                int dinner = cursor.getInt(cursor.getColumnIndexOrThrow("dinner"));
-                
-                // Only charge if at least one meal is selected
-                if (breakfast > 0 || lunch > 0 || dinner > 0) {
-                    boolean charged = chargeTodayMeal(userId, messId, breakfast, lunch, dinner);
-                    if (charged) {
-                        chargedCount++;
-                    }
-                }
-            }
-            cursor.close();
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        return chargedCount;
-    }
-
-    /**
-     * Charge a specific user for today's meals based on their preference
-     * Only charges if not already charged for today
-     * 
-     * @param userId The user ID to charge
-     * @param messId The mess ID
-     * @param breakfast Breakfast preference (0 or 1)
-     * @param lunch Lunch preference (0 or 1)
-     * @param dinner Dinner preference (0 or 1)
-     * @return true if successfully charged, false if already charged or error
-     */
-    public boolean chargeTodayMeal(int userId, int messId, int breakfast, int lunch, int dinner) {
         try {
-            long todayTimestamp = getTodayTimestamp();
-            
-            // Check if already charged today
-            Meal existingMeal = mealDao.getMealByDate(userId, todayTimestamp);
-            if (existingMeal != null) {
-                return false; // Already charged
-            }
-            
-            // Get mess rate
             Mess mess = messDao.getMessByIdAsObject(messId);
             if (mess == null) {
-                return false; // Mess not found
+                return -1; // Mess not found
             }
-            
             double mealRate = mess.getGroceryBudgetPerMeal() + mess.getCookingChargePerMeal();
-            
-            // Add meal entry with preference values
-            return mealDao.addOrUpdateMeal(
-                userId,
-                messId,
-                todayTimestamp,
-                breakfast,
-                lunch,
-                dinner,
-                mealRate
-            );
+
+            Calendar day = getTodayStart();
+            long todayTimestamp = day.getTimeInMillis() / 1000;
+
+            // First day not yet charged; today on the very first run
+            long lastCharged = prefs.getLong(KEY_LAST_CHARGED_DAY + messId, 0);
+            int dayCount = 1;
+            if (lastCharged > 0 && lastCharged < todayTimestamp) {
+                dayCount = 0;
+                while (day.getTimeInMillis() / 1000 > lastCharged && dayCount < MAX_BACKFILL_DAYS) {
+                    day.add(Calendar.DAY_OF_MONTH, -1);
+                    dayCount++;
+                }
+                day.add(Calendar.DAY_OF_MONTH, 1);
+            } else if (lastCharged >= todayTimestamp) {
+                return 0; // Already charged today
+            }
+
+            MealPlan plan = mealScheduleDao.compilePlan(messId, day.getTimeInMillis() / 1000, dayCount);
+            int inserted = mealDao.chargePlannedMeals(messId, plan, mealRate);
+            if (inserted >= 0) {
+                // Overrides that ended before today can no longer apply
+                mealScheduleDao.pruneOverrides(messId, todayTimestamp);
+                prefs.edit().putLong(KEY_LAST_CHARGED_DAY + messId, todayTimestamp).apply();
+                Log.d(TAG, "Auto-charged " + inserted + " meals over " + dayCount
+                        + " day(s) for mess " + messId);
+            }
+            return inserted;
+
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
+            return -1;
         }
     }
 
     /**
-     * Get today's date timestamp at midnight (00:00:00)
-     * @return Timestamp in seconds
+     * Get today's date at midnight (00:00:00)
      */
-    private long getTodayTimestamp() {
+    private Calendar getTodayStart() {
         Calendar cal = Calendar.getInstance();
         cal.set(Calendar.HOUR_OF_DAY, 0);
         cal.set(Calendar.MINUTE, 0);
         cal.set(Calendar.SECOND, 0);
         cal.set(Calendar.MILLISECOND, 0);
-        return cal.getTimeInMillis() / 1000; // Convert to seconds
+        return cal;
     }
 }
@@ -0,0 +1,92 @@
+package com.messkhata.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.messkhata.utils.PreferenceManager;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily background job that runs meal auto-charging for the user's mess
+ * Missed runs (device off) are made up by the backfill in MealAutoChargeService.
+ */
+public class MealAutoChargeWorker extends Worker {
+
+    private static final String TAG = "MealAutoChargeWorker";
+    public static final String WORK_NAME = "MessKhataMealAutoCharge";
+
+    // Run shortly after midnight
+    private static final int RUN_HOUR = 0;
+    private static final int RUN_MINUTE = 30;
+
+    public MealAutoChargeWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        String messIdStr = PreferenceManager.getInstance(context).getMessId();
+        if (messIdStr == null || messIdStr.isEmpty()) {
+            Log.d(TAG, "No mess ID found, skipping auto-charge");
+            return Result.success();
+        }
+
+        int messId;
+        try {
+            messId = Integer.parseInt(messIdStr);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid mess ID format", e);
+            return Result.success();
+        }
+
+        int charged = new MealAutoChargeService(context).processAutoCharging(messId);
+        if (charged < 0) {
+            return Result.retry();
+        }
+        Log.d(TAG, "Auto-charge finished: " + charged + " meals");
+        return Result.success();
+    }
+
+    /**
+     * Schedule the daily auto-charge job
+     */
+    public static void scheduleDailyCharge(Context context) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                MealAutoChargeWorker.class,
+                1,
+                TimeUnit.DAYS)
+                .setInitialDelay(getDelayUntilNextRun(), TimeUnit.MILLISECONDS)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP,
+                request);
+
+        Log.d(TAG, "Daily meal auto-charge scheduled");
+    }
+
+    private static long getDelayUntilNextRun() {
+        Calendar now = Calendar.getInstance();
+        Calendar next = (Calendar) now.clone();
+        next.set(Calendar.HOUR_OF_DAY, RUN_HOUR);
+        next.set(Calendar.MINUTE, RUN_MINUTE);
+        next.set(Calendar.SECOND, 0);
+        next.set(Calendar.MILLISECOND, 0);
+        if (!next.after(now)) {
+            next.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return next.getTimeInMillis() - now.getTimeInMillis();
+    }
+}
@@ -0,0 +1,289 @@
+package com.messkhata.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.messkhata.data.dao.MealDao;
+import com.messkhata.data.dao.MessDao;
+import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.Meal;
+import com.messkhata.data.model.Mess;
+import com.messkhata.data.sync.SyncManager;
+
+/**
+ * Coalesces a member's meal counter edits for one day
+ * Each +/- edit only updates an in-memory draft, which is also kept in
+ * SharedPreferences so a crash does not lose it. The draft is written to the
+ * database and synced once, after the counters have been idle for
+ * IDLE_WINDOW_MS or when flush() is called (e.g. from onPause).
+ *
+ * The draft holds deltas, not counts, so recovering it never undoes
+ * increments other devices merged in meanwhile. A delta being written is
+ * stored apart from newer edits, with this device's counter writes for the
+ * day from before it (MealDao.getReplicaWrites); if they have grown by
+ * recovery the delta was written and is not applied again.
+ */
+public class MealWriteCoalescer {
+
+    private static final String TAG = "MealWriteCoalescer";
+    private static final String PREFS_NAME = "meal_write_drafts";
+    private static final String KEY_DRAFT = "draft_";
+
+    // Quiet time after the last edit before it is written
+    private static final long IDLE_WINDOW_MS = 1500;
+
+    public interface Listener {
+        /**
+         * Called on the main thread after a draft was written (or failed to be)
+         */
+        void onFlushed(boolean success);
+    }
+
+    private final Context context;
+    private final MealDao mealDao;
+    private final MessDao messDao;
+    private final SharedPreferences prefs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    private final int userId;
+    private final int messId;
+    private final String deviceId;
+    private volatile Listener listener;
+
+    // Counts last written to the database, the delta being written and the
+    // counts shown in the UI; the rest of the difference is pending. Deltas
+    // are written so concurrent edits from other devices are kept.
+    private long mealDate;
+    private final int[] committed = new int[3];
+    private final int[] inFlight = new int[3];
+    private final int[] target = new int[3];
+    private boolean dirty = false;
+    private boolean flushing = false;
+
+    // Replica writes for the day before the delta in flight, -1 until read
+    private long flightWrites = -1;
+
+    public MealWriteCoalescer(Context context, int userId, int messId, String deviceId) {
+        this.context = context.getApplicationContext();
+        this.mealDao = new MealDao(context);
+        this.messDao = new MessDao(context);
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.userId = userId;
+        this.messId = messId;
+        this.deviceId = deviceId;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the counts currently stored for a day
+     * @return false if unsaved edits are pending, in which case the UI should keep its counts
+     */
+    public synchronized boolean setBaseline(long mealDate, int breakfast, int lunch, int dinner) {
+        if (dirty || flushing) {
+            return false;
+        }
+        this.mealDate = mealDate;
+        committed[0] = target[0] = breakfast;
+        committed[1] = target[1] = lunch;
+        committed[2] = target[2] = dinner;
+        return true;
+    }
+
+    /**
+     * Record the counts shown in the UI; written after the idle window
+     */
+    public synchronized void update(int breakfast, int lunch, int dinner) {
+        target[0] = breakfast;
+        target[1] = lunch;
+        target[2] = dinner;
+        dirty = hasPendingDelta();
+
+        handler.removeCallbacks(flushRunnable);
+        saveDraft(false);
+        if (dirty) {
+            handler.postDelayed(flushRunnable, IDLE_WINDOW_MS);
+        }
+    }
+
+    public synchronized boolean hasPendingChanges() {
+        return dirty || flushing;
+    }
+
+    /**
+     * Write pending edits now (the database work runs in the background)
+     * Edits made while a write is running are written after it.
+     */
+    public void flush() {
+        final long date;
+        final int[] delta = new int[3];
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            if (!dirty || flushing) {
+                return;
+            }
+            date = mealDate;
+            for (int i = 0; i < 3; i++) {
+                delta[i] = target[i] - committed[i];
+                inFlight[i] = delta[i];
+            }
+            dirty = false;
+            flushing = true;
+        }
+
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            long writes = mealDao.getReplicaWrites(userId, date, deviceId);
+            if (writes >= 0) {
+                synchronized (this) {
+                    flightWrites = writes;
+                    saveDraft(true); // must reach disk before the delta is written
+                }
+            }
+            boolean success = writes >= 0 && commit(date, delta);
+
+            boolean again;
+            synchronized (this) {
+                for (int i = 0; i < 3; i++) {
+                    if (success) {
+                        committed[i] += inFlight[i];
+                    }
+                    inFlight[i] = 0;
+                }
+                flightWrites = -1;
+                flushing = false;
+                // A failed delta is pending again, for the next flush to retry
+                dirty = hasPendingDelta();
+                saveDraft(false);
+                again = success && dirty;
+            }
+            handler.post(() -> {
+                if (again) {
+                    handler.postDelayed(flushRunnable, IDLE_WINDOW_MS);
+                }
+                Listener current = listener;
+                if (current != null) {
+                    current.onFlushed(success);
+                }
+            });
+        });
+    }
+
+    /**
+     * Write a draft left behind by a previous process (call on a background thread)
+     */
+    public void recoverDraft() {
+        String draft;
+        synchronized (this) {
+            if (dirty || flushing) {
+                return;
+            }
+            draft = prefs.getString(draftKey(), null);
+        }
+        if (draft == null) {
+            return;
+        }
+
+        try {
+            // date, writes before the delta in flight (-1 if not read), that
+            // delta, then the edits after it
+            String[] parts = draft.split(",");
+            long date = Long.parseLong(parts[0]);
+            long writes = Long.parseLong(parts[1]);
+            long writesNow = writes >= 0 ? mealDao.getReplicaWrites(userId, date, deviceId) : writes;
+            if (writesNow < 0 && writes >= 0) {
+                return; // keep the draft for the next try
+            }
+            boolean written = writesNow != writes;
+
+            int[] delta = new int[3];
+            boolean changed = false;
+            for (int i = 0; i < 3; i++) {
+                delta[i] = Integer.parseInt(parts[i + 5]);
+                if (!written) {
+                    delta[i] += Integer.parseInt(parts[i + 2]);
+                }
+                changed |= delta[i] != 0;
+            }
+            if (!changed || commit(date, delta)) {
+                Log.d(TAG, "Recovered meal draft for " + date);
+                synchronized (this) {
+                    if (!dirty && !flushing) {
+                        clearDraft();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            prefs.edit().remove(draftKey()).apply();
+        }
+    }
+
+    private boolean commit(long date, int[] delta) {
+        try {
+            Mess mess = messDao.getMessByIdAsObject(messId);
+            if (mess == null) {
+                return false;
+            }
+            double mealRate = mess.getGroceryBudgetPerMeal() + mess.getCookingChargePerMeal();
+
+            boolean success = mealDao.applyMealDelta(userId, messId, date, deviceId,
+                    delta[0], delta[1], delta[2], mealRate);
+            if (success) {
+                Meal meal = mealDao.getMealByDate(userId, date);
+                if (meal != null) {
+                    SyncManager.getInstance(context).syncMealImmediate(meal);
+                }
+            }
+            return success;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean hasPendingDelta() {
+        for (int i = 0; i < 3; i++) {
+            if (target[i] != committed[i] + inFlight[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keep the unwritten deltas, or clear the draft if there are none
+     * @param sync Write to disk before returning
+     */
+    private void saveDraft(boolean sync) {
+        if (!dirty && !flushing) {
+            clearDraft();
+            return;
+        }
+        StringBuilder draft = new StringBuilder().append(mealDate).append(',').append(flightWrites);
+        for (int i = 0; i < 3; i++) {
+            draft.append(',').append(inFlight[i]);
+        }
+        for (int i = 0; i < 3; i++) {
+            draft.append(',').append(target[i] - committed[i] - inFlight[i]);
+        }
+        SharedPreferences.Editor editor = prefs.edit().putString(draftKey(), draft.toString());
+        if (sync) {
+            editor.commit();
+        } else {
+            editor.apply();
+        }
+    }
+
+    private void clearDraft() {
+        prefs.edit().remove(draftKey()).apply();
+    }
+
+    private String draftKey() {
+        return KEY_DRAFT + userId + "_" + messId;
+    }
+}
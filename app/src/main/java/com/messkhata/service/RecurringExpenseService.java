@@ -0,0 +1,55 @@
+package com.messkhata.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.messkhata.data.dao.RecurringExpenseDao;
+import com.messkhata.data.model.Expense;
+import com.messkhata.data.sync.SyncManager;
+import com.messkhata.utils.DateUtils;
+
+import java.util.List;
+
+/**
+ * Adds the expenses of recurring rules as they fall due
+ * Run daily by RecurringExpenseWorker, and when a rule is created so its
+ * first occurrence shows at once. Each run adds what is due across all the
+ * mess's rules in one transaction and uploads it as one batch.
+ */
+public class RecurringExpenseService {
+
+    private static final String TAG = "RecurringExpenseService";
+
+    private RecurringExpenseDao recurringExpenseDao;
+    private SyncManager syncManager;
+
+    public RecurringExpenseService(Context context) {
+        this.recurringExpenseDao = new RecurringExpenseDao(context);
+        this.syncManager = SyncManager.getInstance(context);
+    }
+
+    /**
+     * Add and upload the recurring expenses due by today
+     *
+     * @param messId The mess ID to process rules for
+     * @return Number of expenses added, or -1 on error
+     */
+    public int processDueExpenses(int messId) {
+        try {
+            long todayStart = DateUtils.getTodayStart() / 1000;
+            List<Expense> added = recurringExpenseDao.addDueExpenses(messId, todayStart);
+            if (added == null) {
+                return -1;
+            }
+            if (!added.isEmpty()) {
+                syncManager.syncExpensesBatch(added);
+                Log.d(TAG, "Added " + added.size() + " recurring expenses for mess " + messId);
+            }
+            return added.size();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.messkhata.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.messkhata.utils.PreferenceManager;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily background job that adds the recurring expenses that fell due
+ * Runs missed while the device was off are made up on the next run, a
+ * bounded number of occurrences per rule at a time (see RecurringExpenseDao).
+ */
+public class RecurringExpenseWorker extends Worker {
+
+    private static final String TAG = "RecurringExpenseWorker";
+    public static final String WORK_NAME = "MessKhataRecurringExpenses";
+
+    // Run shortly after midnight, when the day's occurrences fall due
+    private static final int RUN_HOUR = 0;
+    private static final int RUN_MINUTE = 15;
+
+    public RecurringExpenseWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        String messIdStr = PreferenceManager.getInstance(context).getMessId();
+        if (messIdStr == null || messIdStr.isEmpty()) {
+            Log.d(TAG, "No mess ID found, skipping recurring expenses");
+            return Result.success();
+        }
+
+        int messId;
+        try {
+            messId = Integer.parseInt(messIdStr);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid mess ID format", e);
+            return Result.success();
+        }
+
+        int added = new RecurringExpenseService(context).processDueExpenses(messId);
+        if (added < 0) {
+            return Result.retry();
+        }
+        Log.d(TAG, "Recurring expenses finished: " + added + " added");
+        return Result.success();
+    }
+
+    /**
+     * Schedule the daily recurring expense job
+     */
+    public static void scheduleDaily(Context context) {
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                RecurringExpenseWorker.class,
+                1,
+                TimeUnit.DAYS)
+                .setInitialDelay(getDelayUntilNextRun(), TimeUnit.MILLISECONDS)
+                .build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP,
+                request);
+
+        Log.d(TAG, "Daily recurring expenses scheduled");
+    }
+
+    private static long getDelayUntilNextRun() {
+        Calendar now = Calendar.getInstance();
+        Calendar next = (Calendar) now.clone();
+        next.set(Calendar.HOUR_OF_DAY, RUN_HOUR);
+        next.set(Calendar.MINUTE, RUN_MINUTE);
+        next.set(Calendar.SECOND, 0);
+        next.set(Calendar.MILLISECOND, 0);
+        if (!next.after(now)) {
+            next.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return next.getTimeInMillis() - now.getTimeInMillis();
+    }
+}
@@ -3,7 +3,9 @@ package com.messkhata.ui.activity;
 import android.app.DatePickerDialog;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ProgressBar;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -11,15 +13,19 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
-import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
+import com.google.android.material.textfield.TextInputLayout;
 import com.google.android.material.textfield.TextInputEditText;
 import com.messkhata.R;
 import com.messkhata.data.dao.ExpenseDao;
+import com.messkhata.data.dao.RecurringExpenseDao;
 import com.messkhata.data.dao.UserDao;
 import com.messkhata.data.database.MessKhataDatabase;
 import com.messkhata.data.model.Expense;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.RecurringExpenseRule;
 import com.messkhata.data.sync.SyncManager;
+import com.messkhata.service.RecurringExpenseService;
 import com.messkhata.utils.DateUtils;
 import com.messkhata.utils.PreferenceManager;
 
@@ -30,6 +36,13 @@ import java.util.Calendar;
  */
 public class AddExpenseActivity extends AppCompatActivity {
 
+    // Positions in R.array.repeat_options
+    private static final int REPEAT_NONE = 0;
+    private static final int REPEAT_MONTHLY = 1;
+    private static final int REPEAT_WEEKLY = 2;
+    private static final int REPEAT_DAYS = 3;
+    private static final int MAX_REPEAT_DAYS = 365;
+
     // UI Components
     private TextInputEditText etTitle;
     private TextInputEditText etDescription;
@@ -37,11 +50,15 @@ public class AddExpenseActivity extends AppCompatActivity {
     private TextView tvSelectedDate;
     private MaterialCardView cardDate;
     private ChipGroup chipGroupCategory;
+    private Spinner spinnerRepeat;
+    private TextInputLayout tilRepeatDays;
+    private TextInputEditText etRepeatDays;
     private MaterialButton btnSave;
     private ProgressBar progressBar;
 
     // DAOs
     private ExpenseDao expenseDao;
+    private RecurringExpenseDao recurringExpenseDao;
     private UserDao userDao;
     private SyncManager syncManager;
 
@@ -52,7 +69,7 @@ public class AddExpenseActivity extends AppCompatActivity {
 
     // Selected values
     private long selectedDate;
-    private String selectedCategory = "Grocery"; // Default category
+    private String selectedCategory = ExpenseCategory.GROCERY.getName(); // Default category
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -74,6 +91,9 @@ public class AddExpenseActivity extends AppCompatActivity {
         tvSelectedDate = findViewById(R.id.tvSelectedDate);
         cardDate = findViewById(R.id.cardDate);
         chipGroupCategory = findViewById(R.id.chipGroupCategory);
+        spinnerRepeat = findViewById(R.id.spinnerRepeat);
+        tilRepeatDays = findViewById(R.id.tilRepeatDays);
+        etRepeatDays = findViewById(R.id.etRepeatDays);
         btnSave = findViewById(R.id.btnSave);
         progressBar = findViewById(R.id.progressBar);
 
@@ -84,6 +104,7 @@ public class AddExpenseActivity extends AppCompatActivity {
 
     private void initDAO() {
         expenseDao = new ExpenseDao(this);
+        recurringExpenseDao = new RecurringExpenseDao(this);
         userDao = new UserDao(this);
         syncManager = SyncManager.getInstance(this);
     }
@@ -101,15 +122,21 @@ public class AddExpenseActivity extends AppCompatActivity {
     private void setupCategoryChips() {
         chipGroupCategory.setOnCheckedStateChangeListener((group, checkedIds) -> {
             if (!checkedIds.isEmpty()) {
-                int checkedId = checkedIds.get(0);
-                Chip chip = findViewById(checkedId);
-                if (chip != null) {
-                    selectedCategory = chip.getText().toString();
-                }
+                selectedCategory = categoryForChip(checkedIds.get(0)).getName();
             }
         });
     }
 
+    // Chip labels are for display; the stored category comes from the chip ID
+    private ExpenseCategory categoryForChip(int chipId) {
+        if (chipId == R.id.chipGrocery) return ExpenseCategory.GROCERY;
+        if (chipId == R.id.chipUtility) return ExpenseCategory.UTILITY;
+        if (chipId == R.id.chipGas) return ExpenseCategory.GAS;
+        if (chipId == R.id.chipRent) return ExpenseCategory.RENT;
+        if (chipId == R.id.chipMaintenance) return ExpenseCategory.MAINTENANCE;
+        return ExpenseCategory.OTHER;
+    }
+
     private void showDatePicker() {
         Calendar calendar = Calendar.getInstance();
         calendar.setTimeInMillis(selectedDate);
@@ -132,6 +159,17 @@ public class AddExpenseActivity extends AppCompatActivity {
 
     private void setupListeners() {
         btnSave.setOnClickListener(v -> saveExpense());
+
+        spinnerRepeat.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                tilRepeatDays.setVisibility(position == REPEAT_DAYS ? View.VISIBLE : View.GONE);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
     }
 
     private void saveExpense() {
@@ -177,6 +215,28 @@ public class AddExpenseActivity extends AppCompatActivity {
             return;
         }
 
+        int repeat = spinnerRepeat.getSelectedItemPosition();
+        if (repeat != REPEAT_NONE) {
+            int days = 1;
+            if (repeat == REPEAT_DAYS) {
+                try {
+                    days = Integer.parseInt(getText(etRepeatDays));
+                } catch (NumberFormatException e) {
+                    days = 0;
+                }
+                if (days < 1 || days > MAX_REPEAT_DAYS) {
+                    etRepeatDays.setError("Enter 1 to " + MAX_REPEAT_DAYS + " days");
+                    etRepeatDays.requestFocus();
+                    return;
+                }
+            }
+            String frequency = repeat == REPEAT_MONTHLY ? RecurringExpenseRule.MONTHLY
+                    : repeat == REPEAT_WEEKLY ? RecurringExpenseRule.WEEKLY : RecurringExpenseRule.CUSTOM;
+            saveRecurringExpense(new RecurringExpenseRule(messId, userId, selectedCategory, amount, title,
+                    description.isEmpty() ? null : description, frequency, days, selectedDate / 1000));
+            return;
+        }
+
         // Show loading
         showLoading(true);
 
@@ -231,6 +291,30 @@ public class AddExpenseActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Save a rule and add its occurrences due so far, starting with the
+     * selected date; later ones are added by RecurringExpenseWorker
+     */
+    private void saveRecurringExpense(RecurringExpenseRule rule) {
+        showLoading(true);
+
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            long ruleId = recurringExpenseDao.addRule(rule);
+            int added = ruleId > 0 ? new RecurringExpenseService(this).processDueExpenses(messId) : -1;
+
+            runOnUiThread(() -> {
+                showLoading(false);
+                if (ruleId > 0) {
+                    Toast.makeText(this, added >= 0 ? "Recurring expense added" : "Recurring expense saved",
+                            Toast.LENGTH_SHORT).show();
+                    finish();
+                } else {
+                    Toast.makeText(this, "Failed to add expense", Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+    }
+
     private void showLoading(boolean show) {
         progressBar.setVisibility(show ? View.VISIBLE : View.GONE);
         btnSave.setEnabled(!show);
@@ -239,6 +323,7 @@ public class AddExpenseActivity extends AppCompatActivity {
         etAmount.setEnabled(!show);
         cardDate.setEnabled(!show);
         chipGroupCategory.setEnabled(!show);
+        spinnerRepeat.setEnabled(!show);
     }
 
     private String getText(TextInputEditText editText) {
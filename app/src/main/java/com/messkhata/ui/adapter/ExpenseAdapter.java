@@ -8,35 +8,76 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.chip.Chip;
 import com.messkhata.R;
 import com.messkhata.data.model.Expense;
+import com.messkhata.data.model.ExpenseCategory;
 
+import java.math.RoundingMode;
+import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
 /**
  * Adapter for displaying expense items in RecyclerView
+ * Lists are diffed off the main thread, so a changed expense rebinds only
+ * its own row.
  */
-public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseViewHolder> {
+public class ExpenseAdapter extends ListAdapter<Expense, ExpenseAdapter.ExpenseViewHolder> {
 
-    private List<Expense> expenseList;
-    private OnExpenseActionListener listener;
-    private boolean isAdmin;
+    private static final DiffUtil.ItemCallback<Expense> DIFF_CALLBACK = new DiffUtil.ItemCallback<Expense>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Expense oldItem, @NonNull Expense newItem) {
+            return oldItem.getExpenseId() == newItem.getExpenseId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Expense oldItem, @NonNull Expense newItem) {
+            return oldItem.getAmount() == newItem.getAmount()
+                    && oldItem.getExpenseDate() == newItem.getExpenseDate()
+                    && oldItem.getAddedBy() == newItem.getAddedBy()
+                    && Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && Objects.equals(oldItem.getCategory(), newItem.getCategory())
+                    && Objects.equals(oldItem.getAddedByName(), newItem.getAddedByName());
+        }
+    };
+
+    // Category strip colours, indexed by ExpenseCategory code
+    private static final int[] CATEGORY_COLORS = new int[ExpenseCategory.COUNT];
+
+    static {
+        for (ExpenseCategory category : ExpenseCategory.values()) {
+            CATEGORY_COLORS[category.getCode()] = categoryColor(category);
+        }
+    }
+
+    private final OnExpenseActionListener listener;
+    private final boolean isAdmin;
+
+    // Bound on the main thread only
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
+    private final NumberFormat amountFormat = NumberFormat.getNumberInstance(Locale.getDefault());
+    private final Date date = new Date();
 
     public interface OnExpenseActionListener {
         void onEditExpense(Expense expense);
         void onDeleteExpense(Expense expense);
     }
 
-    public ExpenseAdapter(List<Expense> expenseList, boolean isAdmin, OnExpenseActionListener listener) {
-        this.expenseList = expenseList;
+    public ExpenseAdapter(boolean isAdmin, OnExpenseActionListener listener) {
+        super(DIFF_CALLBACK);
         this.isAdmin = isAdmin;
         this.listener = listener;
+        amountFormat.setMaximumFractionDigits(0);
+        amountFormat.setGroupingUsed(false);
+        amountFormat.setRoundingMode(RoundingMode.HALF_UP);
+        setHasStableIds(true);
     }
 
     @NonNull
@@ -49,18 +90,29 @@ public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseV
 
     @Override
     public void onBindViewHolder(@NonNull ExpenseViewHolder holder, int position) {
-        Expense expense = expenseList.get(position);
-        holder.bind(expense);
+        holder.bind(getItem(position));
     }
 
     @Override
-    public int getItemCount() {
-        return expenseList != null ? expenseList.size() : 0;
+    public long getItemId(int position) {
+        return getItem(position).getExpenseId();
     }
 
-    public void updateExpenses(List<Expense> newExpenses) {
-        this.expenseList = newExpenses;
-        notifyDataSetChanged();
+    private static int categoryColor(ExpenseCategory category) {
+        switch (category) {
+            case GROCERY:
+                return Color.parseColor("#4CAF50"); // Green
+            case UTILITY:
+                return Color.parseColor("#2196F3"); // Blue
+            case MAINTENANCE:
+                return Color.parseColor("#9C27B0"); // Purple
+            case GAS:
+                return Color.parseColor("#FF9800"); // Orange
+            case RENT:
+                return Color.parseColor("#F44336"); // Red
+            default:
+                return Color.parseColor("#9E9E9E"); // Grey
+        }
     }
 
     class ExpenseViewHolder extends RecyclerView.ViewHolder {
@@ -83,94 +135,48 @@ public class ExpenseAdapter extends RecyclerView.Adapter<ExpenseAdapter.ExpenseV
             chipCategory = itemView.findViewById(R.id.chipCategory);
             btnEdit = itemView.findViewById(R.id.btnEdit);
             btnDelete = itemView.findViewById(R.id.btnDelete);
+
+            // Show/hide edit and delete buttons based on admin status
+            btnEdit.setVisibility(isAdmin ? View.VISIBLE : View.GONE);
+            btnDelete.setVisibility(isAdmin ? View.VISIBLE : View.GONE);
+            btnEdit.setOnClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                if (listener != null && position != RecyclerView.NO_POSITION) {
+                    listener.onEditExpense(getItem(position));
+                }
+            });
+            btnDelete.setOnClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                if (listener != null && position != RecyclerView.NO_POSITION) {
+                    listener.onDeleteExpense(getItem(position));
+                }
+            });
         }
 
         public void bind(Expense expense) {
+            ExpenseCategory category = ExpenseCategory.fromName(expense.getCategory());
+
             // Set title, fallback to category if empty
             String title = expense.getTitle();
             if (title == null || title.trim().isEmpty()) {
-                title = getCategoryDisplayName(expense.getCategory());
+                title = category.getName();
             }
             tvTitle.setText(title);
 
             // Format date
-            SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
-            tvDate.setText(dateFormat.format(new Date(expense.getExpenseDate() * 1000)));
+            date.setTime(expense.getExpenseDate() * 1000);
+            tvDate.setText(dateFormat.format(date));
 
             // Set added by
             String addedByText = "Added by " + (expense.getAddedByName() != null ? expense.getAddedByName() : "Unknown");
             tvAddedBy.setText(addedByText);
 
             // Format amount
-            tvAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", expense.getAmount()));
-
-            // Set category
-            chipCategory.setText(getCategoryDisplayName(expense.getCategory()));
-
-            // Set category color
-            int categoryColor = getCategoryColor(expense.getCategory());
-            viewCategory.setBackgroundColor(categoryColor);
+            tvAmount.setText("৳ " + amountFormat.format(expense.getAmount()));
 
-            // Show/hide edit and delete buttons based on admin status
-            if (isAdmin) {
-                btnEdit.setVisibility(View.VISIBLE);
-                btnDelete.setVisibility(View.VISIBLE);
-
-                btnEdit.setOnClickListener(v -> {
-                    if (listener != null) {
-                        listener.onEditExpense(expense);
-                    }
-                });
-
-                btnDelete.setOnClickListener(v -> {
-                    if (listener != null) {
-                        listener.onDeleteExpense(expense);
-                    }
-                });
-            } else {
-                btnEdit.setVisibility(View.GONE);
-                btnDelete.setVisibility(View.GONE);
-            }
-        }
-
-        private String getCategoryDisplayName(String category) {
-            if (category == null) return "Other";
-            switch (category.toLowerCase()) {
-                case "grocery":
-                    return "Grocery";
-                case "utilities":
-                    return "Utilities";
-                case "cleaning":
-                    return "Cleaning";
-                case "gas":
-                    return "Gas";
-                case "rent":
-                    return "Rent";
-                case "miscellaneous":
-                    return "Miscellaneous";
-                default:
-                    return category;
-            }
-        }
-
-        private int getCategoryColor(String category) {
-            if (category == null) return Color.parseColor("#9E9E9E");
-            switch (category.toLowerCase()) {
-                case "grocery":
-                    return Color.parseColor("#4CAF50"); // Green
-                case "utilities":
-                    return Color.parseColor("#2196F3"); // Blue
-                case "cleaning":
-                    return Color.parseColor("#9C27B0"); // Purple
-                case "gas":
-                    return Color.parseColor("#FF9800"); // Orange
-                case "rent":
-                    return Color.parseColor("#F44336"); // Red
-                case "miscellaneous":
-                    return Color.parseColor("#9E9E9E"); // Grey
-                default:
-                    return Color.parseColor("#9E9E9E");
-            }
+            // Set category and its colour
+            chipCategory.setText(category.getName());
+            viewCategory.setBackgroundColor(CATEGORY_COLORS[category.getCode()]);
         }
     }
 }
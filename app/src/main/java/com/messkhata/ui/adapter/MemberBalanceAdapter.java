@@ -21,11 +21,24 @@ import java.util.Locale;
 public class MemberBalanceAdapter extends RecyclerView.Adapter<MemberBalanceAdapter.MemberBalanceViewHolder> {
 
     private List<MemberBalance> memberBalanceList;
+    private OnMemberBalanceClickListener listener;
+
+    public interface OnMemberBalanceClickListener {
+        void onMemberBalanceClick(MemberBalance memberBalance);
+    }
 
     public MemberBalanceAdapter(List<MemberBalance> memberBalanceList) {
         this.memberBalanceList = memberBalanceList;
     }
 
+    /**
+     * Set a listener for taps on a member; without one items are not clickable
+     */
+    public void setOnMemberBalanceClickListener(OnMemberBalanceClickListener listener) {
+        this.listener = listener;
+        notifyDataSetChanged();
+    }
+
     @NonNull
     @Override
     public MemberBalanceViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -84,6 +97,13 @@ public class MemberBalanceAdapter extends RecyclerView.Adapter<MemberBalanceAdap
                 tvBalance.setTextColor(Color.parseColor("#4CAF50")); // Green for paid
             }
             tvBalance.setText(balanceText);
+
+            if (listener != null) {
+                itemView.setOnClickListener(v -> listener.onMemberBalanceClick(memberBalance));
+            } else {
+                itemView.setOnClickListener(null);
+                itemView.setClickable(false);
+            }
         }
     }
 }
@@ -14,17 +14,19 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import com.messkhata.R;
-import com.messkhata.data.dao.ExpenseDao;
+import com.messkhata.data.dao.LedgerDao;
 import com.messkhata.data.dao.MealDao;
 import com.messkhata.data.dao.MessDao;
 import com.messkhata.data.dao.ReportDao;
 import com.messkhata.data.dao.UserDao;
 import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.MemberLedger;
 import com.messkhata.data.model.Mess;
 import com.messkhata.data.model.User;
 import com.messkhata.data.sync.RealtimeSyncManager;
@@ -50,13 +52,15 @@ public class DashboardFragment extends Fragment {
     private TextView tvCurrentMealRate;
     private TextView tvTotalMeals;
     private TextView tvMonthlyExpenses;
+    private TextView tvBalance;
+    private TextView tvBalanceStatus;
     private ImageView ivSync;
 
     // DAOs
     private UserDao userDao;
     private MessDao messDao;
     private MealDao mealDao;
-    private ExpenseDao expenseDao;
+    private LedgerDao ledgerDao;
     private ReportDao reportDao;
 
     // Session data
@@ -103,6 +107,8 @@ public class DashboardFragment extends Fragment {
         tvCurrentMealRate = view.findViewById(R.id.tvCurrentMealRate);
         tvTotalMeals = view.findViewById(R.id.tvTotalMeals);
         tvMonthlyExpenses = view.findViewById(R.id.tvMonthlyExpenses);
+        tvBalance = view.findViewById(R.id.tvBalance);
+        tvBalanceStatus = view.findViewById(R.id.tvBalanceStatus);
         ivSync = view.findViewById(R.id.ivSync);
     }
 
@@ -110,7 +116,7 @@ public class DashboardFragment extends Fragment {
         userDao = new UserDao(requireContext());
         messDao = new MessDao(requireContext());
         mealDao = new MealDao(requireContext());
-        expenseDao = new ExpenseDao(requireContext());
+        ledgerDao = new LedgerDao(requireContext());
         reportDao = new ReportDao(requireContext());
     }
 
@@ -162,20 +168,13 @@ public class DashboardFragment extends Fragment {
                 // Get user's total meals this month (for display)
                 int totalMeals = mealDao.getTotalMealsForMonth((int) userId, currentMonth, currentYear);
 
-                // Get user's joined date
-                long userJoinDate = user != null ? user.getJoinedDate() : 0;
-
                 // ===== FAIR EXPENSE CALCULATION =====
-                // Personal meals: ALL meals the user added (meals are personal, not shared)
-                double cumulativeMealExpense = mealDao.getCumulativeMealExpenseFromJoinDate((int) userId, userJoinDate);
-
-                // Shared expenses: ONLY expenses added AFTER user joined
-                // Uses memberCountAtTime for accurate per-expense division
-                // New members don't pay for old expenses (fair system)
-                double userSharedExpense = expenseDao.getAccurateUserShareOfExpenses(messId, userJoinDate);
-
-                // Total: Personal meals + Share of expenses since joining
-                double totalExpense = cumulativeMealExpense + userSharedExpense;
+                // Running totals kept by the ledger: personal meals (all meals the
+                // user added) plus their share of each expense added after they
+                // joined, split by memberCountAtTime; minus what they have paid
+                MemberLedger ledger = ledgerDao.getLedger((int) userId, messId);
+                double totalExpense = ledger.getTotalCharges();
+                double due = ledger.getDue();
 
                 // Get member count
                 List<User> members = userDao.getMembersByMessId(messId);
@@ -186,8 +185,7 @@ public class DashboardFragment extends Fragment {
 
                 // Update UI on main thread
                 requireActivity().runOnUiThread(() -> {
-                    updateUI(user, mess, totalMeals, cumulativeMealExpense, totalExpense,
-                            memberCount, mealRate);
+                    updateUI(user, mess, totalMeals, totalExpense, due, memberCount, mealRate);
                     swipeRefresh.setRefreshing(false);
                 });
 
@@ -203,8 +201,8 @@ public class DashboardFragment extends Fragment {
         });
     }
 
-    private void updateUI(User user, Mess mess, int totalMeals, double totalMealExpense,
-            double totalExpense, int memberCount, double mealRate) {
+    private void updateUI(User user, Mess mess, int totalMeals, double totalExpense,
+            double due, int memberCount, double mealRate) {
         // Set greeting based on time of day
         Calendar calendar = Calendar.getInstance();
         int hour = calendar.get(Calendar.HOUR_OF_DAY);
@@ -235,6 +233,22 @@ public class DashboardFragment extends Fragment {
         tvTotalMeals.setText(String.valueOf(totalMeals));
         // Show total expense (meal expense + shared expense)
         tvMonthlyExpenses.setText(String.format(Locale.getDefault(), "৳ %.2f", totalExpense));
+
+        // Balance: due (to pay) or advance (to receive)
+        tvBalance.setText(String.format(Locale.getDefault(), "৳ %.2f", Math.abs(due)));
+        int balanceColor;
+        if (due >= 0.005) {
+            tvBalanceStatus.setText(R.string.to_pay);
+            balanceColor = ContextCompat.getColor(requireContext(), R.color.balance_negative);
+        } else if (due <= -0.005) {
+            tvBalanceStatus.setText(R.string.to_receive);
+            balanceColor = ContextCompat.getColor(requireContext(), R.color.balance_positive);
+        } else {
+            tvBalanceStatus.setText(R.string.settled);
+            balanceColor = ContextCompat.getColor(requireContext(), R.color.balance_neutral);
+        }
+        tvBalance.setTextColor(balanceColor);
+        tvBalanceStatus.setTextColor(balanceColor);
     }
 
     @Override
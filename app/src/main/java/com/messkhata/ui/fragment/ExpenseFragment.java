@@ -1,32 +1,50 @@
 package com.messkhata.ui.fragment;
 
+import android.app.AlertDialog;
+import android.app.DatePickerDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.material.button.MaterialButton;
+import com.google.android.material.chip.ChipGroup;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.messkhata.R;
 import com.messkhata.data.dao.ExpenseDao;
+import com.messkhata.data.dao.UserDao;
 import com.messkhata.data.database.MessKhataDatabase;
 import com.messkhata.data.model.Expense;
+import com.messkhata.data.model.ExpenseCategory;
+import com.messkhata.data.model.ExpenseFilter;
+import com.messkhata.data.model.User;
 import com.messkhata.data.sync.RealtimeSyncManager;
 import com.messkhata.ui.activity.AddExpenseActivity;
 import com.messkhata.ui.adapter.ExpenseAdapter;
+import com.messkhata.utils.DateUtils;
+import com.messkhata.utils.MonthLoader;
 import com.messkhata.utils.PreferenceManager;
 
 import java.text.SimpleDateFormat;
@@ -34,12 +52,20 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * Expense Fragment - View and manage expenses
  */
 public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpenseActionListener {
 
+    // Rows per page, and how close to the end scrolling loads the next one
+    private static final int PAGE_SIZE = 50;
+    private static final int LOAD_MORE_THRESHOLD = 15;
+
+    // Typing pause before the search runs
+    private static final long SEARCH_DELAY_MS = 250;
+
     // UI Components
     private TextView tvCurrentMonth;
     private TextView tvTotalAmount;
@@ -48,12 +74,16 @@ public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpens
     private ImageButton btnNextMonth;
     private RecyclerView rvExpenseList;
     private FloatingActionButton fabAddExpense;
+    private EditText etSearch;
+    private ImageButton btnFilters;
+    private ChipGroup chipGroupFilter;
 
     // Adapter
     private ExpenseAdapter expenseAdapter;
 
     // DAOs
     private ExpenseDao expenseDao;
+    private UserDao userDao;
 
     // Session data
     private PreferenceManager prefManager;
@@ -63,8 +93,38 @@ public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpens
     // Current month
     private Calendar currentMonth;
 
-    // Expense list
+    // Loaded rows of the shown month or search, newest first
     private List<Expense> expenseList = new ArrayList<>();
+    private int expenseCount;
+    private boolean loadingMore;
+
+    // Loads the first page of the selected month and prefetches its neighbours
+    private MonthLoader<LoadedExpenses> monthLoader;
+    private Executor mainExecutor;
+
+    // Read by the loader: a reload of the shown month keeps as many rows as
+    // are loaded, so a refresh does not cut the list back to one page
+    private volatile int shownMonthKey;
+    private volatile int shownRows = PAGE_SIZE;
+
+    // While any criterion is set the list shows search results across all
+    // months instead of the selected month. Each search supersedes the last.
+    private final ExpenseFilter searchFilter = new ExpenseFilter();
+    private int searchGeneration;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::loadExpenses;
+
+    // Offered in the filters dialog
+    private List<User> members = new ArrayList<>();
+
+    /**
+     * The first rows of a month or search with its totals
+     */
+    private static class LoadedExpenses {
+        List<Expense> expenses;
+        int count;
+        double total;
+    }
 
     // Broadcast receiver for real-time updates
     private BroadcastReceiver syncReceiver = new BroadcastReceiver() {
@@ -72,6 +132,8 @@ public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpens
         public void onReceive(Context context, Intent intent) {
             // Data updated from cloud - refresh UI
             if (isAdded() && getActivity() != null) {
+                // Prefetched months may predate the update
+                monthLoader.clear();
                 loadExpenses();
             }
         }
@@ -103,13 +165,43 @@ public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpens
         btnNextMonth = view.findViewById(R.id.btnNextMonth);
         rvExpenseList = view.findViewById(R.id.rvExpenses);
         fabAddExpense = view.findViewById(R.id.fabAddExpense);
+        etSearch = view.findViewById(R.id.etSearch);
+        btnFilters = view.findViewById(R.id.btnFilters);
+        chipGroupFilter = view.findViewById(R.id.chipGroupFilter);
 
         // Setup RecyclerView
-        rvExpenseList.setLayoutManager(new LinearLayoutManager(requireContext()));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(requireContext());
+        rvExpenseList.setLayoutManager(layoutManager);
+        rvExpenseList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition() >= expenseList.size() - LOAD_MORE_THRESHOLD) {
+                    loadNextPage();
+                }
+            }
+        });
     }
 
     private void initializeDAO() {
         expenseDao = new ExpenseDao(requireContext());
+        userDao = new UserDao(requireContext());
+        mainExecutor = ContextCompat.getMainExecutor(requireContext());
+        monthLoader = new MonthLoader<>(MessKhataDatabase.databaseWriteExecutor, mainExecutor,
+                this::loadMonth,
+                new MonthLoader.Listener<LoadedExpenses>() {
+                    @Override
+                    public void onMonthLoaded(int monthKey, LoadedExpenses expenses) {
+                        if (!isSearching()) {
+                            showExpenses(expenses);
+                        }
+                    }
+
+                    @Override
+                    public void onMonthLoadFailed(int monthKey, Exception e) {
+                        Toast.makeText(requireContext(), "Error loading expenses",
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 
     private void loadSessionData() {
@@ -132,8 +224,15 @@ public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpens
 
         // Initialize adapter
         boolean isAdmin = "ADMIN".equalsIgnoreCase(userRole);
-        expenseAdapter = new ExpenseAdapter(expenseList, isAdmin, this);
+        expenseAdapter = new ExpenseAdapter(isAdmin, this);
         rvExpenseList.setAdapter(expenseAdapter);
+
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            List<User> messMembers = userDao.getMembersByMessId(messId);
+            if (messMembers != null) {
+                mainExecutor.execute(() -> members = messMembers);
+            }
+        });
     }
 
     private void setupListeners() {
@@ -153,51 +252,303 @@ public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpens
             Intent intent = new Intent(requireContext(), AddExpenseActivity.class);
             startActivity(intent);
         });
+
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchFilter.setText(s.toString());
+                onFilterChanged(SEARCH_DELAY_MS);
+            }
+        });
+
+        chipGroupFilter.setOnCheckedStateChangeListener((group, checkedIds) -> {
+            searchFilter.setCategoryCode(checkedIds.isEmpty()
+                    ? ExpenseFilter.ANY : categoryForChip(checkedIds.get(0)));
+            onFilterChanged(0);
+        });
+
+        btnFilters.setOnClickListener(v -> showFiltersDialog());
+    }
+
+    // Chip labels are for display; the category comes from the chip ID
+    private int categoryForChip(int chipId) {
+        if (chipId == R.id.chipGrocery) return ExpenseCategory.GROCERY.getCode();
+        if (chipId == R.id.chipUtility) return ExpenseCategory.UTILITY.getCode();
+        if (chipId == R.id.chipGas) return ExpenseCategory.GAS.getCode();
+        if (chipId == R.id.chipRent) return ExpenseCategory.RENT.getCode();
+        if (chipId == R.id.chipMaintenance) return ExpenseCategory.MAINTENANCE.getCode();
+        if (chipId == R.id.chipOther) return ExpenseCategory.OTHER.getCode();
+        return ExpenseFilter.ANY;
     }
 
     private void updateMonthDisplay() {
+        boolean searching = isSearching();
+        btnPrevMonth.setVisibility(searching ? View.INVISIBLE : View.VISIBLE);
+        btnNextMonth.setVisibility(searching ? View.INVISIBLE : View.VISIBLE);
+        if (searching) {
+            tvCurrentMonth.setText(R.string.search_results);
+            return;
+        }
         SimpleDateFormat monthFormat = new SimpleDateFormat("MMMM yyyy", Locale.getDefault());
         tvCurrentMonth.setText(monthFormat.format(currentMonth.getTime()));
     }
 
+    private boolean isSearching() {
+        return !searchFilter.isEmpty();
+    }
+
+    /**
+     * Show the results of the changed filter after delayMs, or the selected
+     * month again if the filter is now empty
+     */
+    private void onFilterChanged(long delayMs) {
+        shownRows = PAGE_SIZE;
+        searchGeneration++;  // drop results of the previous filter
+        updateMonthDisplay();
+        searchHandler.removeCallbacks(searchRunnable);
+        if (delayMs > 0 && isSearching()) {
+            searchHandler.postDelayed(searchRunnable, delayMs);
+        } else {
+            loadExpenses();
+        }
+    }
+
+    private void showFiltersDialog() {
+        View view = LayoutInflater.from(requireContext()).inflate(R.layout.dialog_expense_filters, null);
+        EditText etMinAmount = view.findViewById(R.id.etMinAmount);
+        EditText etMaxAmount = view.findViewById(R.id.etMaxAmount);
+        Spinner spinnerMember = view.findViewById(R.id.spinnerMember);
+        MaterialButton btnFromDate = view.findViewById(R.id.btnFromDate);
+        MaterialButton btnToDate = view.findViewById(R.id.btnToDate);
+
+        if (searchFilter.getMinAmount() > 0) {
+            etMinAmount.setText(String.format(Locale.US, "%.0f", searchFilter.getMinAmount()));
+        }
+        if (searchFilter.getMaxAmount() > 0) {
+            etMaxAmount.setText(String.format(Locale.US, "%.0f", searchFilter.getMaxAmount()));
+        }
+
+        List<String> names = new ArrayList<>();
+        names.add(getString(R.string.filter_anyone));
+        int selected = 0;
+        for (int i = 0; i < members.size(); i++) {
+            names.add(members.get(i).getFullName());
+            if (members.get(i).getUserId() == searchFilter.getAddedBy()) {
+                selected = i + 1;
+            }
+        }
+        ArrayAdapter<String> memberAdapter = new ArrayAdapter<>(requireContext(),
+                android.R.layout.simple_spinner_item, names);
+        memberAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spinnerMember.setAdapter(memberAdapter);
+        spinnerMember.setSelection(selected);
+
+        // Seconds; the end is exclusive, so it is the day after the picked one
+        long[] range = {searchFilter.getFromDate(), searchFilter.getToDate()};
+        Runnable showRange = () -> {
+            btnFromDate.setText(getString(R.string.filter_from, range[0] > 0
+                    ? DateUtils.formatDate(range[0] * 1000) : getString(R.string.filter_any_date)));
+            btnToDate.setText(getString(R.string.filter_to, range[1] > 0
+                    ? DateUtils.formatDate((range[1] - 1) * 1000) : getString(R.string.filter_any_date)));
+        };
+        showRange.run();
+        btnFromDate.setOnClickListener(v -> pickDate(range[0], day -> {
+            range[0] = day;
+            showRange.run();
+        }));
+        btnToDate.setOnClickListener(v -> pickDate(range[1] > 0 ? range[1] - 1 : 0, day -> {
+            Calendar next = Calendar.getInstance();
+            next.setTimeInMillis(day * 1000);
+            next.add(Calendar.DAY_OF_MONTH, 1);
+            range[1] = next.getTimeInMillis() / 1000;
+            showRange.run();
+        }));
+
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.search_filters)
+                .setView(view)
+                .setPositiveButton(R.string.filter_apply, (dialog, which) -> {
+                    searchFilter.setMinAmount(parseAmount(etMinAmount));
+                    searchFilter.setMaxAmount(parseAmount(etMaxAmount));
+                    int member = spinnerMember.getSelectedItemPosition();
+                    searchFilter.setAddedBy(member > 0 ? (int) members.get(member - 1).getUserId() : ExpenseFilter.ANY);
+                    searchFilter.setFromDate(range[0]);
+                    searchFilter.setToDate(range[1]);
+                    onFilterChanged(0);
+                })
+                .setNeutralButton(R.string.filter_clear, (dialog, which) -> {
+                    searchFilter.setMinAmount(0);
+                    searchFilter.setMaxAmount(0);
+                    searchFilter.setAddedBy(ExpenseFilter.ANY);
+                    searchFilter.setFromDate(0);
+                    searchFilter.setToDate(0);
+                    onFilterChanged(0);
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private interface DayListener {
+        void onDayPicked(long dayStartSeconds);
+    }
+
+    private void pickDate(long initialSeconds, DayListener listener) {
+        Calendar calendar = Calendar.getInstance();
+        if (initialSeconds > 0) {
+            calendar.setTimeInMillis(initialSeconds * 1000);
+        }
+        DatePickerDialog dialog = new DatePickerDialog(
+                requireContext(),
+                (view, year, month, dayOfMonth) -> {
+                    calendar.set(year, month, dayOfMonth);
+                    listener.onDayPicked(DateUtils.getStartOfDay(calendar.getTimeInMillis()) / 1000);
+                },
+                calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH),
+                calendar.get(Calendar.DAY_OF_MONTH));
+        dialog.getDatePicker().setMaxDate(System.currentTimeMillis());
+        dialog.show();
+    }
+
+    private static double parseAmount(EditText field) {
+        try {
+            return Math.max(0, Double.parseDouble(field.getText().toString().trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     private void loadExpenses() {
         // Check if views are initialized
         if (tvTotalAmount == null || tvExpenseCount == null || expenseAdapter == null) {
             return;
         }
+        if (isSearching()) {
+            loadSearch();
+            return;
+        }
+
+        int monthKey = MonthLoader.monthKey(currentMonth.get(Calendar.YEAR),
+                currentMonth.get(Calendar.MONTH) + 1);
+        if (monthKey != shownMonthKey) {
+            shownMonthKey = monthKey;
+            shownRows = PAGE_SIZE;
+        }
+        monthLoader.show(monthKey);
+    }
+
+    /**
+     * Runs on the background executor
+     */
+    private LoadedExpenses loadMonth(int year, int month) {
+        int limit = MonthLoader.monthKey(year, month) == shownMonthKey
+                ? Math.max(PAGE_SIZE, shownRows) : PAGE_SIZE;
+        double[] summary = expenseDao.getMonthCountAndTotal(messId, month, year);
+
+        LoadedExpenses result = new LoadedExpenses();
+        result.expenses = expenseDao.getExpensePage(messId, month, year, Long.MAX_VALUE, 0, limit);
+        result.count = (int) summary[0];
+        result.total = summary[1];
+        return result;
+    }
+
+    /**
+     * Load the first page of the current search and its totals
+     */
+    private void loadSearch() {
+        int generation = searchGeneration;
+        ExpenseFilter filter = searchFilter.copy();
+        int limit = Math.max(PAGE_SIZE, shownRows);
 
         MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            LoadedExpenses result = new LoadedExpenses();
             try {
-                int year = currentMonth.get(Calendar.YEAR);
-                int month = currentMonth.get(Calendar.MONTH) + 1;
-
-                List<Expense> expenses = expenseDao.getExpensesByMonth(messId, month, year);
-                double totalAmount = 0;
-                if (expenses != null) {
-                    for (Expense expense : expenses) {
-                        totalAmount += expense.getAmount();
-                    }
+                double[] summary = expenseDao.getSearchCountAndTotal(messId, filter);
+                result.expenses = expenseDao.searchExpenses(messId, filter, Long.MAX_VALUE, 0, limit);
+                result.count = (int) summary[0];
+                result.total = summary[1];
+            } catch (Exception e) {
+                e.printStackTrace();
+                return;
+            }
+            mainExecutor.execute(() -> {
+                if (isAdded() && generation == searchGeneration && isSearching()) {
+                    showExpenses(result);
                 }
+            });
+        });
+    }
 
-                double finalTotalAmount = totalAmount;
-                requireActivity().runOnUiThread(() -> {
-                    expenseList.clear();
-                    if (expenses != null) {
-                        expenseList.addAll(expenses);
-                    }
+    private void showExpenses(LoadedExpenses loaded) {
+        expenseList = new ArrayList<>(loaded.expenses);
+        expenseCount = loaded.count;
+        shownRows = expenseList.size();
 
-                    tvTotalAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", finalTotalAmount));
-                    tvExpenseCount.setText(String.valueOf(expenseList.size()));
+        tvTotalAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", loaded.total));
+        tvExpenseCount.setText(String.valueOf(expenseCount));
 
-                    // Update adapter
-                    expenseAdapter.updateExpenses(expenseList);
-                });
+        // Diffed against the shown list; unchanged rows are not rebound
+        expenseAdapter.submitList(expenseList);
+    }
+
+    /**
+     * Append the page after the last loaded row, if the month has more
+     */
+    private void loadNextPage() {
+        if (loadingMore || expenseList.isEmpty() || expenseList.size() >= expenseCount) {
+            return;
+        }
+        loadingMore = true;
+        boolean searching = isSearching();
+        int monthKey = shownMonthKey;
+        int generation = searchGeneration;
+        ExpenseFilter filter = searchFilter.copy();
+        Expense last = expenseList.get(expenseList.size() - 1);
+
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            List<Expense> page = null;
+            try {
+                page = searching
+                        ? expenseDao.searchExpenses(messId, filter,
+                                last.getExpenseDate(), last.getExpenseId(), PAGE_SIZE)
+                        : expenseDao.getExpensePage(messId, monthKey % 100, monthKey / 100,
+                                last.getExpenseDate(), last.getExpenseId(), PAGE_SIZE);
             } catch (Exception e) {
                 e.printStackTrace();
-                requireActivity().runOnUiThread(() -> Toast.makeText(requireContext(),
-                        "Error loading expenses",
-                        Toast.LENGTH_SHORT).show());
             }
+            List<Expense> loaded = page;
+            mainExecutor.execute(() -> {
+                loadingMore = false;
+                boolean stale = searching
+                        ? generation != searchGeneration || !isSearching()
+                        : monthKey != shownMonthKey || isSearching();
+                if (loaded == null || !isAdded() || stale || expenseList.isEmpty()) {
+                    return;
+                }
+                // The list was reloaded meanwhile; its end is no longer this page's start
+                Expense end = expenseList.get(expenseList.size() - 1);
+                if (end.getExpenseId() != last.getExpenseId()) {
+                    return;
+                }
+                if (loaded.isEmpty()) {
+                    expenseCount = expenseList.size(); // rows were deleted meanwhile
+                    return;
+                }
+                List<Expense> expenses = new ArrayList<>(expenseList.size() + loaded.size());
+                expenses.addAll(expenseList);
+                expenses.addAll(loaded);
+                expenseList = expenses;
+                shownRows = expenseList.size();
+                expenseAdapter.submitList(expenseList);
+            });
         });
     }
 
@@ -220,6 +571,15 @@ public class ExpenseFragment extends Fragment implements ExpenseAdapter.OnExpens
         LocalBroadcastManager.getInstance(requireContext()).unregisterReceiver(syncReceiver);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (monthLoader != null) {
+            monthLoader.cancelAll();
+        }
+        searchHandler.removeCallbacks(searchRunnable);
+    }
+
     @Override
     public void onEditExpense(Expense expense) {
         // TODO: Implement edit expense functionality
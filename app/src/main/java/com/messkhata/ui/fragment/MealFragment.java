@@ -1,14 +1,18 @@
 package com.messkhata.ui.fragment;
 
+import android.app.AlertDialog;
+import android.app.DatePickerDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -22,15 +26,22 @@ import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.textfield.TextInputEditText;
 import com.messkhata.R;
 import com.messkhata.data.dao.MealDao;
+import com.messkhata.data.dao.MealScheduleDao;
 import com.messkhata.data.dao.MessDao;
 import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.model.DailyHeadcount;
 import com.messkhata.data.model.Meal;
+import com.messkhata.data.model.MealCounters;
 import com.messkhata.data.model.Mess;
 import com.messkhata.data.sync.RealtimeSyncManager;
 import com.messkhata.data.sync.SyncManager;
+import com.messkhata.service.MealWriteCoalescer;
+import com.messkhata.utils.DateUtils;
 import com.messkhata.utils.PreferenceManager;
 
+import java.text.DateFormatSymbols;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
@@ -62,6 +73,8 @@ public class MealFragment extends Fragment {
     private MaterialButton btnDinnerPlus;
     private TextView tvDinnerPrefCount;
     private MaterialButton btnSavePreference;
+    private MaterialButton btnWeekdaySchedule;
+    private MaterialButton btnPlannedDates;
 
     // UI Components - Admin Meal Rate Section
     private MaterialCardView cardAdminMealRate;
@@ -70,9 +83,14 @@ public class MealFragment extends Fragment {
     private TextInputEditText etCookingCharge;
     private MaterialButton btnUpdateMealRate;
 
+    // UI Components - Cook View (admin only)
+    private MaterialCardView cardCookView;
+    private LinearLayout layoutCookDays;
+
     // DAOs
     private MealDao mealDao;
     private MessDao messDao;
+    private MealScheduleDao mealScheduleDao;
 
     // Session data
     private PreferenceManager prefManager;
@@ -85,6 +103,12 @@ public class MealFragment extends Fragment {
     private int lunchCount = 1;
     private int dinnerCount = 1;
 
+    // Buffers counter edits and writes them once the user stops tapping
+    private MealWriteCoalescer mealWriteCoalescer;
+
+    // Rate of the mess, for the expense shown while editing
+    private double currentMealRate = 0;
+
     // Flag to prevent reloading during local updates
     private volatile boolean isLocalUpdate = false;
 
@@ -93,7 +117,7 @@ public class MealFragment extends Fragment {
         @Override
         public void onReceive(Context context, Intent intent) {
             // Skip reload if we're in the middle of a local update
-            if (isLocalUpdate) {
+            if (isLocalUpdate || (mealWriteCoalescer != null && mealWriteCoalescer.hasPendingChanges())) {
                 android.util.Log.d("MealFragment", "Skipping reload - local update in progress");
                 return;
             }
@@ -106,6 +130,7 @@ public class MealFragment extends Fragment {
                 new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
                     if (isAdded() && getActivity() != null && !isLocalUpdate) {
                         loadTodayMeals();
+                        loadCookView();
                     }
                 }, 300); // 300ms delay to allow sync to complete
             }
@@ -115,6 +140,9 @@ public class MealFragment extends Fragment {
     // Current date
     private Calendar currentDate;
 
+    // Days shown in the cook view, starting today
+    private static final int COOK_VIEW_DAYS = 7;
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
@@ -130,7 +158,6 @@ public class MealFragment extends Fragment {
         initializeDAO();
         loadSessionData();
         setupListeners();
-        loadMealPreference();
         loadTodayMeals();
     }
 
@@ -160,6 +187,8 @@ public class MealFragment extends Fragment {
         tvDinnerPrefCount = view.findViewById(R.id.tvDinnerCount);
 
         btnSavePreference = view.findViewById(R.id.btnSavePreference);
+        btnWeekdaySchedule = view.findViewById(R.id.btnWeekdaySchedule);
+        btnPlannedDates = view.findViewById(R.id.btnPlannedDates);
 
         // Admin meal rate section
         cardAdminMealRate = view.findViewById(R.id.cardAdminMealRate);
@@ -167,11 +196,16 @@ public class MealFragment extends Fragment {
         etGroceryBudget = view.findViewById(R.id.etGroceryBudget);
         etCookingCharge = view.findViewById(R.id.etCookingCharge);
         btnUpdateMealRate = view.findViewById(R.id.btnUpdateMealRate);
+
+        // Cook view
+        cardCookView = view.findViewById(R.id.cardCookView);
+        layoutCookDays = view.findViewById(R.id.layoutCookDays);
     }
 
     private void initializeDAO() {
         mealDao = new MealDao(requireContext());
         messDao = new MessDao(requireContext());
+        mealScheduleDao = new MealScheduleDao(requireContext());
     }
 
     private void loadSessionData() {
@@ -193,9 +227,25 @@ public class MealFragment extends Fragment {
         currentDate = Calendar.getInstance();
         updateDateDisplay();
 
+        mealWriteCoalescer = new MealWriteCoalescer(requireContext(), (int) userId, messId,
+                prefManager.getDeviceId());
+        mealWriteCoalescer.setListener(success -> {
+            if (!success && isAdded()) {
+                Toast.makeText(requireContext(), "Error saving meal", Toast.LENGTH_SHORT).show();
+            } else if (isAdded()) {
+                loadCookView();
+            }
+            // Clear flag after a delay to allow sync to complete
+            new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
+                isLocalUpdate = false;
+                android.util.Log.d("MealFragment", "Local update flag cleared");
+            }, 2000); // 2 seconds to allow Firebase sync
+        });
+
         // Show admin section if user is admin (case-insensitive check)
         if (userRole != null && userRole.equalsIgnoreCase("admin")) {
             cardAdminMealRate.setVisibility(View.VISIBLE);
+            cardCookView.setVisibility(View.VISIBLE);
             loadCurrentMealRates();
         }
     }
@@ -216,6 +266,10 @@ public class MealFragment extends Fragment {
         // Save preference button
         btnSavePreference.setOnClickListener(v -> saveMealPreference());
 
+        // Weekday schedules and date overrides
+        btnWeekdaySchedule.setOnClickListener(v -> showWeekdaySchedule());
+        btnPlannedDates.setOnClickListener(v -> showPlannedDates());
+
         // Admin update meal rate button
         btnUpdateMealRate.setOnClickListener(v -> updateMealRates());
     }
@@ -223,15 +277,15 @@ public class MealFragment extends Fragment {
     private void updateCount(String mealType, int change) {
         switch (mealType) {
             case "breakfast":
-                breakfastCount = Math.max(0, Math.min(5, breakfastCount + change));
+                breakfastCount = MealCounters.clamp(breakfastCount + change);
                 tvBreakfastPrefCount.setText(String.valueOf(breakfastCount));
                 break;
             case "lunch":
-                lunchCount = Math.max(0, Math.min(5, lunchCount + change));
+                lunchCount = MealCounters.clamp(lunchCount + change);
                 tvLunchPrefCount.setText(String.valueOf(lunchCount));
                 break;
             case "dinner":
-                dinnerCount = Math.max(0, Math.min(5, dinnerCount + change));
+                dinnerCount = MealCounters.clamp(dinnerCount + change);
                 tvDinnerPrefCount.setText(String.valueOf(dinnerCount));
                 break;
         }
@@ -243,81 +297,14 @@ public class MealFragment extends Fragment {
     private void updateTotalAndSave() {
         int total = breakfastCount + lunchCount + dinnerCount;
         tvTotalMealsToday.setText(String.valueOf(total));
+        tvMealExpenseToday.setText(String.format(java.util.Locale.getDefault(),
+                "৳ %.2f", total * currentMealRate));
 
-        // Calculate and display meal expense
-        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
-            try {
-                Mess mess = messDao.getMessByIdAsObject(messId);
-                if (mess != null) {
-                    double mealRate = mess.getGroceryBudgetPerMeal() + mess.getCookingChargePerMeal();
-                    double mealExpense = total * mealRate;
-
-                    requireActivity().runOnUiThread(() -> {
-                        tvMealExpenseToday.setText(String.format(java.util.Locale.getDefault(),
-                                "৳ %.2f", mealExpense));
-                    });
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
-
-        // Save meal for today automatically
-        saveTodayMeal();
-    }
-
-    private void saveTodayMeal() {
-        isLocalUpdate = true; // Set flag to prevent broadcast reloads
-        
-        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
-            try {
-                // Get mess rate from Mess table
-                Mess mess = messDao.getMessByIdAsObject(messId);
-                if (mess == null) {
-                    requireActivity().runOnUiThread(() -> {
-                        Toast.makeText(requireContext(), "Error: Mess not found", Toast.LENGTH_SHORT).show();
-                        isLocalUpdate = false;
-                    });
-                    return;
-                }
-
-                double mealRate = mess.getGroceryBudgetPerMeal() + mess.getCookingChargePerMeal();
-                long todayTimestamp = getTodayTimestamp();
-
-                boolean success = mealDao.addOrUpdateMeal(
-                        (int) userId,
-                        messId,
-                        todayTimestamp,
-                        breakfastCount,
-                        lunchCount,
-                        dinnerCount,
-                        mealRate);
-
-                if (success) {
-                    // Sync meal to Firebase immediately
-                    Meal meal = mealDao.getMealByDate((int) userId, todayTimestamp);
-                    if (meal != null) {
-                        com.messkhata.data.sync.SyncManager.getInstance(requireContext()).syncMealImmediate(meal);
-                    }
-                    
-                    // Clear flag after a delay to allow sync to complete
-                    requireActivity().runOnUiThread(() -> {
-                        new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
-                            isLocalUpdate = false;
-                            android.util.Log.d("MealFragment", "Local update flag cleared");
-                        }, 2000); // 2 seconds to allow Firebase sync
-                    });
-                } else {
-                    requireActivity().runOnUiThread(() -> {
-                        Toast.makeText(requireContext(), "Error saving meal", Toast.LENGTH_SHORT).show();
-                        isLocalUpdate = false;
-                    });
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                requireActivity().runOnUiThread(() -> isLocalUpdate = false);
-            }
-        });
+        // Save meal for today once the counters settle
+        mealWriteCoalescer.update(breakfastCount, lunchCount, dinnerCount);
+        if (mealWriteCoalescer.hasPendingChanges()) {
+            isLocalUpdate = true; // Set flag to prevent broadcast reloads
+        }
     }
 
     private void saveMealPreference() {
@@ -350,23 +337,117 @@ public class MealFragment extends Fragment {
         });
     }
 
-    private void loadMealPreference() {
+    /**
+     * Pick weekdays to plan with the counts on screen, or to return to the
+     * preference
+     */
+    private void showWeekdaySchedule() {
         MessKhataDatabase.databaseWriteExecutor.execute(() -> {
             try {
-                int[] preference = mealDao.getMealPreference((int) userId);
+                int[][] schedules = new int[Calendar.SATURDAY + 1][]; // by Calendar weekday
+                Cursor cursor = mealScheduleDao.getWeekdaySchedules((int) userId, messId);
+                while (cursor.moveToNext()) {
+                    schedules[cursor.getInt(0)] = new int[]{cursor.getInt(1), cursor.getInt(2), cursor.getInt(3)};
+                }
+                cursor.close();
 
+                if (!isAdded()) {
+                    return;
+                }
                 requireActivity().runOnUiThread(() -> {
-                    if (preference != null) {
-                        breakfastCount = preference[0];
-                        lunchCount = preference[1];
-                        dinnerCount = preference[2];
+                    if (!isAdded()) {
+                        return;
+                    }
+                    String[] weekdayNames = DateFormatSymbols.getInstance().getWeekdays();
+                    String[] items = new String[7];
+                    for (int i = 0; i < items.length; i++) {
+                        int[] schedule = schedules[Calendar.SUNDAY + i];
+                        String name = weekdayNames[Calendar.SUNDAY + i];
+                        items[i] = schedule == null ? name : getString(R.string.weekday_schedule_item,
+                                name, schedule[0], schedule[1], schedule[2]);
+                    }
+                    boolean[] checked = new boolean[items.length];
+                    new AlertDialog.Builder(requireContext())
+                            .setTitle(R.string.weekday_schedule_title)
+                            .setMultiChoiceItems(items, checked, (dialog, which, isChecked) ->
+                                    checked[which] = isChecked)
+                            .setPositiveButton(R.string.weekday_schedule_save, (dialog, which) ->
+                                    saveWeekdaySchedule(checked, true))
+                            .setNeutralButton(R.string.weekday_schedule_clear, (dialog, which) ->
+                                    saveWeekdaySchedule(checked, false))
+                            .setNegativeButton(R.string.cancel, null)
+                            .show();
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Set the checked weekdays to the counts on screen, or clear them
+     * @param checked Sunday first
+     */
+    private void saveWeekdaySchedule(boolean[] checked, boolean useCounts) {
+        int breakfast = breakfastCount;
+        int lunch = lunchCount;
+        int dinner = dinnerCount;
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            boolean success = true;
+            for (int i = 0; i < checked.length; i++) {
+                if (!checked[i]) {
+                    continue;
+                }
+                if (useCounts) {
+                    success &= mealScheduleDao.saveWeekdaySchedule((int) userId, messId,
+                            Calendar.SUNDAY + i, breakfast, lunch, dinner);
+                } else {
+                    mealScheduleDao.clearWeekdaySchedule((int) userId, messId, Calendar.SUNDAY + i);
+                }
+            }
+            showMealPlanResult(success);
+        });
+    }
 
-                        tvBreakfastPrefCount.setText(String.valueOf(breakfastCount));
-                        tvLunchPrefCount.setText(String.valueOf(lunchCount));
-                        tvDinnerPrefCount.setText(String.valueOf(dinnerCount));
+    /**
+     * List the date overrides that have not ended; tap one to remove it
+     */
+    private void showPlannedDates() {
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            try {
+                List<long[]> overrides = new ArrayList<>(); // id, start, end, breakfast, lunch, dinner
+                Cursor cursor = mealScheduleDao.getUpcomingOverrides((int) userId, messId, getTodayTimestamp());
+                while (cursor.moveToNext()) {
+                    overrides.add(new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getLong(2),
+                            cursor.getInt(3), cursor.getInt(4), cursor.getInt(5)});
+                }
+                cursor.close();
 
-                        updateTotalAndSave();
+                if (!isAdded()) {
+                    return;
+                }
+                requireActivity().runOnUiThread(() -> {
+                    if (!isAdded()) {
+                        return;
                     }
+                    AlertDialog.Builder builder = new AlertDialog.Builder(requireContext())
+                            .setTitle(R.string.planned_dates)
+                            .setPositiveButton(R.string.planned_dates_add, (dialog, which) -> addPlannedDates())
+                            .setNegativeButton(R.string.cancel, null);
+                    if (overrides.isEmpty()) {
+                        builder.setMessage(R.string.planned_dates_none);
+                    } else {
+                        String[] items = new String[overrides.size()];
+                        for (int i = 0; i < items.length; i++) {
+                            long[] override = overrides.get(i);
+                            items[i] = getString(R.string.planned_dates_item,
+                                    DateUtils.formatDate(override[1] * 1000),
+                                    DateUtils.formatDate(override[2] * 1000),
+                                    (int) override[3], (int) override[4], (int) override[5]);
+                        }
+                        builder.setItems(items, (dialog, which) -> confirmDeleteOverride(overrides.get(which)[0]));
+                    }
+                    builder.show();
                 });
             } catch (Exception e) {
                 e.printStackTrace();
@@ -374,22 +455,168 @@ public class MealFragment extends Fragment {
         });
     }
 
+    /**
+     * Pick a first and last day, then whether the member is away or eats the
+     * counts on screen
+     */
+    private void addPlannedDates() {
+        int breakfast = breakfastCount;
+        int lunch = lunchCount;
+        int dinner = dinnerCount;
+        pickDate(getTodayTimestamp(), getTodayTimestamp(), startDate ->
+                pickDate(startDate, startDate, endDate -> {
+                    String[] choices = {getString(R.string.planned_dates_away),
+                            getString(R.string.planned_dates_counts)};
+                    new AlertDialog.Builder(requireContext())
+                            .setTitle(getString(R.string.planned_dates_range, DateUtils.formatDate(startDate * 1000),
+                                    DateUtils.formatDate(endDate * 1000)))
+                            .setItems(choices, (dialog, which) -> {
+                                boolean away = which == 0;
+                                MessKhataDatabase.databaseWriteExecutor.execute(() ->
+                                        showMealPlanResult(mealScheduleDao.addOverride((int) userId, messId,
+                                                startDate, endDate, away ? 0 : breakfast, away ? 0 : lunch,
+                                                away ? 0 : dinner) != -1));
+                            })
+                            .show();
+                }));
+    }
+
+    private void confirmDeleteOverride(long overrideId) {
+        new AlertDialog.Builder(requireContext())
+                .setMessage(R.string.planned_dates_delete)
+                .setPositiveButton(R.string.delete, (dialog, which) ->
+                        MessKhataDatabase.databaseWriteExecutor.execute(() ->
+                                showMealPlanResult(mealScheduleDao.deleteOverride(overrideId))))
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Report a schedule change and refresh the forecast that depends on it
+     * Called on the write executor.
+     */
+    private void showMealPlanResult(boolean success) {
+        if (!isAdded()) {
+            return;
+        }
+        requireActivity().runOnUiThread(() -> {
+            if (!isAdded()) {
+                return;
+            }
+            Toast.makeText(requireContext(), success ? R.string.meal_plan_saved : R.string.meal_plan_error,
+                    Toast.LENGTH_SHORT).show();
+            loadCookView();
+        });
+    }
+
+    private interface DayListener {
+        void onDayPicked(long dayStartSeconds);
+    }
+
+    /**
+     * Pick a day no earlier than minSeconds
+     */
+    private void pickDate(long initialSeconds, long minSeconds, DayListener listener) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(initialSeconds * 1000);
+        DatePickerDialog dialog = new DatePickerDialog(
+                requireContext(),
+                (view, year, month, dayOfMonth) -> {
+                    calendar.set(year, month, dayOfMonth);
+                    listener.onDayPicked(DateUtils.getStartOfDay(calendar.getTimeInMillis()) / 1000);
+                },
+                calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH),
+                calendar.get(Calendar.DAY_OF_MONTH));
+        dialog.getDatePicker().setMinDate(minSeconds * 1000);
+        dialog.show();
+    }
+
     private void loadTodayMeals() {
         MessKhataDatabase.databaseWriteExecutor.execute(() -> {
             try {
+                // Write edits a previous session did not get to save
+                mealWriteCoalescer.recoverDraft();
+
                 long todayTimestamp = getTodayTimestamp();
+                Mess mess = messDao.getMessByIdAsObject(messId);
                 Meal meal = mealDao.getMealByDate((int) userId, todayTimestamp);
+                // No entry yet today: start from the saved preference (not written until edited)
+                int[] preference = meal == null ? mealDao.getMealPreference((int) userId, messId) : null;
 
                 requireActivity().runOnUiThread(() -> {
+                    if (mess != null) {
+                        currentMealRate = mess.getGroceryBudgetPerMeal() + mess.getCookingChargePerMeal();
+                    }
+
+                    int storedBreakfast = meal != null ? meal.getBreakfast() : 0;
+                    int storedLunch = meal != null ? meal.getLunch() : 0;
+                    int storedDinner = meal != null ? meal.getDinner() : 0;
+                    if (!mealWriteCoalescer.setBaseline(todayTimestamp,
+                            storedBreakfast, storedLunch, storedDinner)) {
+                        return; // Keep the unsaved counts on screen
+                    }
+
                     if (meal != null) {
-                        breakfastCount = meal.getBreakfast();
-                        lunchCount = meal.getLunch();
-                        dinnerCount = meal.getDinner();
-
-                        tvBreakfastPrefCount.setText(String.valueOf(breakfastCount));
-                        tvLunchPrefCount.setText(String.valueOf(lunchCount));
-                        tvDinnerPrefCount.setText(String.valueOf(dinnerCount));
-                        tvTotalMealsToday.setText(String.valueOf(meal.getTotalMeals()));
+                        breakfastCount = storedBreakfast;
+                        lunchCount = storedLunch;
+                        dinnerCount = storedDinner;
+                    } else {
+                        if (preference != null) {
+                            breakfastCount = preference[0];
+                            lunchCount = preference[1];
+                            dinnerCount = preference[2];
+                        }
+                    }
+
+                    tvBreakfastPrefCount.setText(String.valueOf(breakfastCount));
+                    tvLunchPrefCount.setText(String.valueOf(lunchCount));
+                    tvDinnerPrefCount.setText(String.valueOf(dinnerCount));
+                    int total = breakfastCount + lunchCount + dinnerCount;
+                    tvTotalMealsToday.setText(String.valueOf(total));
+                    tvMealExpenseToday.setText(String.format(Locale.getDefault(),
+                            "৳ %.2f", total * currentMealRate));
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Show the mess-wide meals to cook for the next days (admin only)
+     */
+    private void loadCookView() {
+        if (cardCookView.getVisibility() != View.VISIBLE) {
+            return;
+        }
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            try {
+                List<DailyHeadcount> headcounts = mealScheduleDao.getHeadcountForecast(
+                        messId, getTodayTimestamp(), COOK_VIEW_DAYS);
+
+                if (!isAdded()) {
+                    return;
+                }
+                requireActivity().runOnUiThread(() -> {
+                    if (!isAdded()) {
+                        return;
+                    }
+                    SimpleDateFormat dayFormat = new SimpleDateFormat("EEE, d MMM", Locale.getDefault());
+                    LayoutInflater inflater = LayoutInflater.from(requireContext());
+                    layoutCookDays.removeAllViews();
+                    for (DailyHeadcount headcount : headcounts) {
+                        View row = inflater.inflate(R.layout.item_cook_day, layoutCookDays, false);
+                        String day = dayFormat.format(headcount.getMealDate() * 1000);
+                        ((TextView) row.findViewById(R.id.tvCookDay)).setText(headcount.isForecast()
+                                ? getString(R.string.forecast_day, day) : day);
+                        ((TextView) row.findViewById(R.id.tvCookBreakfast))
+                                .setText(String.valueOf(headcount.getBreakfast()));
+                        ((TextView) row.findViewById(R.id.tvCookLunch))
+                                .setText(String.valueOf(headcount.getLunch()));
+                        ((TextView) row.findViewById(R.id.tvCookDinner))
+                                .setText(String.valueOf(headcount.getDinner()));
+                        layoutCookDays.addView(row);
                     }
                 });
             } catch (Exception e) {
@@ -473,33 +700,20 @@ public class MealFragment extends Fragment {
             // Update in database
             MessKhataDatabase.databaseWriteExecutor.execute(() -> {
                 try {
-                    android.util.Log.d("MealFragment", "Calling updateMessRates with messId: " + messId);
-                    boolean success = messDao.updateMessRates(messId, grocery, cooking);
+                    // New rates apply from today; earlier meals keep the rate in effect then
+                    long today = DateUtils.getTodayStart() / 1000;
+                    android.util.Log.d("MealFragment", "Changing meal rates for messId: " + messId + " from " + today);
+                    boolean success = messDao.changeMealRates(messId, today, grocery, cooking);
                     android.util.Log.d("MealFragment", "Update result: " + success);
 
                     if (success) {
-                        // Sync mess rate to cloud FIRST (this sets the timestamp)
+                        // One mess document carries the new rates and the rate history
                         try {
                             SyncManager.getInstance(requireContext()).syncMessImmediate(messId);
                             android.util.Log.d("MealFragment", "Synced mess rates to Firebase");
                         } catch (Exception syncEx) {
                             android.util.Log.e("MealFragment", "Mess sync error: " + syncEx.getMessage());
                         }
-
-                        // Update today's and future meal rates for all members
-                        double newRate = grocery + cooking;
-                        int updatedCount = mealDao.updateMealRateForTodayAndFuture(messId, newRate);
-                        android.util.Log.d("MealFragment", "Updated " + updatedCount + " meals to new rate: " + newRate);
-
-                        // Sync all updated meals to Firebase
-                        if (updatedCount > 0) {
-                            List<com.messkhata.data.model.Meal> updatedMeals = mealDao.getMealsForTodayAndFuture(messId);
-                            com.messkhata.data.sync.SyncManager syncManager = com.messkhata.data.sync.SyncManager.getInstance(requireContext());
-                            for (com.messkhata.data.model.Meal meal : updatedMeals) {
-                                syncManager.syncMealImmediate(meal);
-                            }
-                            android.util.Log.d("MealFragment", "Synced " + updatedMeals.size() + " meals to Firebase");
-                        }
                     }
 
                     requireActivity().runOnUiThread(() -> {
@@ -512,6 +726,7 @@ public class MealFragment extends Fragment {
                                     Toast.LENGTH_LONG).show();
 
                             // Refresh meal expense display
+                            currentMealRate = total;
                             updateTotalAndSave();
                         } else {
                             Toast.makeText(requireContext(),
@@ -544,11 +759,16 @@ public class MealFragment extends Fragment {
         LocalBroadcastManager.getInstance(requireContext()).registerReceiver(syncReceiver, filter);
 
         loadTodayMeals();
+        loadCookView();
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        // Write any counter edits still waiting for the idle window
+        if (mealWriteCoalescer != null) {
+            mealWriteCoalescer.flush();
+        }
         // Unregister broadcast receiver
         LocalBroadcastManager.getInstance(requireContext()).unregisterReceiver(syncReceiver);
     }
@@ -1,37 +1,66 @@
 package com.messkhata.ui.fragment;
 
+import android.app.AlertDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
+import android.text.InputType;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.github.mikephil.charting.charts.BarChart;
+import com.github.mikephil.charting.charts.BarLineChartBase;
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.components.YAxis;
+import com.github.mikephil.charting.data.BarData;
+import com.github.mikephil.charting.data.BarDataSet;
+import com.github.mikephil.charting.data.BarEntry;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+import com.github.mikephil.charting.formatter.ValueFormatter;
+import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
+import com.github.mikephil.charting.utils.ColorTemplate;
+import com.google.android.material.button.MaterialButtonToggleGroup;
 import com.messkhata.R;
+import com.messkhata.data.dao.PaymentDao;
 import com.messkhata.data.dao.ReportDao;
 import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.export.LedgerExporter;
+import com.messkhata.data.model.ExpenseCategory;
 import com.messkhata.data.model.MemberBalance;
+import com.messkhata.data.model.MonthlyStats;
+import com.messkhata.data.model.SettlementPlanner;
+import com.messkhata.data.model.TrendReport;
 import com.messkhata.data.sync.RealtimeSyncManager;
 import com.messkhata.ui.adapter.MemberBalanceAdapter;
+import com.messkhata.utils.MonthLoader;
 import com.messkhata.utils.PreferenceManager;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Report Fragment - View member balances and reports
@@ -45,6 +74,8 @@ public class ReportFragment extends Fragment {
     private TextView tvMealRate;
     private ImageButton btnPrevMonth;
     private ImageButton btnNextMonth;
+    private ImageButton btnExport;
+    private Button btnSettleUp;
     private RecyclerView rvMemberBalances;
 
     // Expense breakdown TextViews
@@ -54,11 +85,17 @@ public class ReportFragment extends Fragment {
     private TextView tvRentAmount;
     private TextView tvOtherAmount;
 
+    // Trend charts
+    private MaterialButtonToggleGroup toggleTrendRange;
+    private BarChart chartTrendSpend;
+    private LineChart chartTrendMeals;
+
     // Adapter
     private MemberBalanceAdapter memberBalanceAdapter;
 
     // DAOs
     private ReportDao reportDao;
+    private PaymentDao paymentDao;
 
     // Session data
     private PreferenceManager prefManager;
@@ -71,7 +108,7 @@ public class ReportFragment extends Fragment {
         public void onReceive(Context context, Intent intent) {
             // Data updated from cloud - refresh UI
             if (isAdded() && getActivity() != null) {
-                loadReport();
+                reloadReport();
             }
         }
     };
@@ -82,6 +119,16 @@ public class ReportFragment extends Fragment {
     // Member balance list
     private List<MemberBalance> memberBalances = new ArrayList<>();
 
+    // Months shown in the trend charts, ending with the selected month;
+    // read by month loads on the background executor
+    private volatile int trendMonths = 6;
+
+    // Loads the selected month and prefetches its neighbours
+    private MonthLoader<MonthReport> monthLoader;
+
+    // Longer series are averaged down to this many points per chart
+    private static final int MAX_CHART_POINTS = 12;
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
@@ -107,6 +154,8 @@ public class ReportFragment extends Fragment {
         tvMealRate = view.findViewById(R.id.tvMealRate);
         btnPrevMonth = view.findViewById(R.id.btnPrevMonth);
         btnNextMonth = view.findViewById(R.id.btnNextMonth);
+        btnExport = view.findViewById(R.id.btnExport);
+        btnSettleUp = view.findViewById(R.id.btnSettleUp);
         rvMemberBalances = view.findViewById(R.id.rvBalances);
 
         // Expense breakdown TextViews
@@ -116,12 +165,35 @@ public class ReportFragment extends Fragment {
         tvRentAmount = view.findViewById(R.id.tvRentAmount);
         tvOtherAmount = view.findViewById(R.id.tvOtherAmount);
 
+        // Trend charts
+        toggleTrendRange = view.findViewById(R.id.toggleTrendRange);
+        chartTrendSpend = view.findViewById(R.id.chartTrendSpend);
+        chartTrendMeals = view.findViewById(R.id.chartTrendMeals);
+        setupChart(chartTrendSpend);
+        setupChart(chartTrendMeals);
+        chartTrendMeals.getAxisRight().setEnabled(true); // cost per meal
+
         // Setup RecyclerView
         rvMemberBalances.setLayoutManager(new LinearLayoutManager(requireContext()));
     }
 
     private void initializeDAO() {
         reportDao = new ReportDao(requireContext());
+        paymentDao = new PaymentDao(requireContext());
+        monthLoader = new MonthLoader<>(MessKhataDatabase.databaseWriteExecutor,
+                ContextCompat.getMainExecutor(requireContext()), this::loadMonthReport,
+                new MonthLoader.Listener<MonthReport>() {
+                    @Override
+                    public void onMonthLoaded(int monthKey, MonthReport report) {
+                        showMonthReport(report);
+                    }
+
+                    @Override
+                    public void onMonthLoadFailed(int monthKey, Exception e) {
+                        Toast.makeText(requireContext(), "Error loading report",
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 
     private void loadSessionData() {
@@ -145,6 +217,66 @@ public class ReportFragment extends Fragment {
         // Initialize adapter
         memberBalanceAdapter = new MemberBalanceAdapter(memberBalances);
         rvMemberBalances.setAdapter(memberBalanceAdapter);
+
+        // Admins record payments by tapping a member
+        if ("ADMIN".equalsIgnoreCase(userRole)) {
+            memberBalanceAdapter.setOnMemberBalanceClickListener(this::showRecordPaymentDialog);
+        }
+    }
+
+    private void showRecordPaymentDialog(MemberBalance memberBalance) {
+        EditText etAmount = new EditText(requireContext());
+        etAmount.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        etAmount.setHint(R.string.amount);
+        if (memberBalance.getDueAmount() > 0) {
+            etAmount.setText(String.format(Locale.US, "%.0f", memberBalance.getDueAmount()));
+        }
+
+        new AlertDialog.Builder(requireContext())
+                .setTitle(getString(R.string.record_payment_for, memberBalance.getFullName()))
+                .setView(etAmount)
+                .setPositiveButton(R.string.save, (dialog, which) -> {
+                    double amount;
+                    try {
+                        amount = Double.parseDouble(etAmount.getText().toString().trim());
+                    } catch (NumberFormatException e) {
+                        amount = 0;
+                    }
+                    if (amount <= 0) {
+                        Toast.makeText(requireContext(), R.string.payment_invalid_amount,
+                                Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    recordPayment(memberBalance.getUserId(), amount);
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private void recordPayment(long memberId, double amount) {
+        String recorderIdStr = prefManager.getUserId();
+        recordPayment(memberId, recorderIdStr != null ? Integer.parseInt(recorderIdStr) : (int) memberId, amount);
+    }
+
+    /**
+     * @param recorderId Member who collected the cash
+     */
+    private void recordPayment(long memberId, int recorderId, double amount) {
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            long paymentId = paymentDao.recordPayment((int) memberId, messId, amount,
+                    System.currentTimeMillis() / 1000, recorderId, "Cash", null);
+            if (!isAdded() || getActivity() == null) {
+                return;
+            }
+            requireActivity().runOnUiThread(() -> {
+                if (paymentId != -1) {
+                    Toast.makeText(requireContext(), R.string.payment_recorded, Toast.LENGTH_SHORT).show();
+                    reloadReport();
+                } else {
+                    Toast.makeText(requireContext(), R.string.error_occurred, Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
     }
 
     private void setupListeners() {
@@ -152,6 +284,9 @@ public class ReportFragment extends Fragment {
             currentMonth.add(Calendar.MONTH, -1);
             updateMonthDisplay();
             loadReport();
+            // Months older than the realtime window are downloaded on demand
+            RealtimeSyncManager.getInstance(requireContext()).fetchHistoryMonth(messId,
+                    currentMonth.get(Calendar.YEAR), currentMonth.get(Calendar.MONTH) + 1);
         });
 
         btnNextMonth.setOnClickListener(v -> {
@@ -159,6 +294,122 @@ public class ReportFragment extends Fragment {
             updateMonthDisplay();
             loadReport();
         });
+
+        btnExport.setOnClickListener(v -> showExportDialog());
+
+        btnSettleUp.setOnClickListener(v -> showSettlementPlan());
+
+        toggleTrendRange.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
+            if (!isChecked) {
+                return;
+            }
+            if (checkedId == R.id.btnTrend12) {
+                trendMonths = 12;
+            } else if (checkedId == R.id.btnTrend24) {
+                trendMonths = 24;
+            } else {
+                trendMonths = 6;
+            }
+            reloadReport();
+        });
+    }
+
+    /**
+     * Show who pays whom to settle the selected month; admins record a
+     * transfer by tapping it, as a payment collected by the receiver
+     */
+    private void showSettlementPlan() {
+        int year = currentMonth.get(Calendar.YEAR);
+        int month = currentMonth.get(Calendar.MONTH) + 1;
+
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            SettlementPlanner planner = reportDao.getSettlementPlanner(messId, month, year);
+            List<MemberBalance> members = reportDao.getMemberBalances(messId, month, year);
+            List<SettlementPlanner.Transfer> plan = planner.getPlan();
+            if (!isAdded() || getActivity() == null) {
+                return;
+            }
+            requireActivity().runOnUiThread(() -> {
+                if (!isAdded()) {
+                    return;
+                }
+                Map<Long, String> names = new HashMap<>();
+                for (MemberBalance member : members) {
+                    names.put(member.getUserId(), member.getFullName());
+                }
+                String[] items = new String[plan.size()];
+                for (int i = 0; i < items.length; i++) {
+                    SettlementPlanner.Transfer transfer = plan.get(i);
+                    items[i] = getString(R.string.settle_up_transfer, names.get(transfer.getFromUserId()),
+                            names.get(transfer.getToUserId()), transfer.getAmount());
+                }
+
+                AlertDialog.Builder builder = new AlertDialog.Builder(requireContext())
+                        .setTitle(R.string.settle_up)
+                        .setNegativeButton(R.string.cancel, null);
+                if (items.length == 0) {
+                    builder.setMessage(R.string.settle_up_none);
+                } else if ("ADMIN".equalsIgnoreCase(userRole)) {
+                    builder.setItems(items, (dialog, which) -> {
+                        SettlementPlanner.Transfer transfer = plan.get(which);
+                        recordPayment(transfer.getFromUserId(), (int) transfer.getToUserId(), transfer.getAmount());
+                    });
+                } else {
+                    builder.setItems(items, null);
+                }
+                builder.show();
+            });
+        });
+    }
+
+    /**
+     * Admins export every member's statement or the whole ledger, members
+     * their own statement
+     */
+    private void showExportDialog() {
+        boolean admin = "ADMIN".equalsIgnoreCase(userRole);
+        String[] options = admin
+                ? new String[]{getString(R.string.export_statement_csv), getString(R.string.export_statement_pdf),
+                        getString(R.string.export_ledger_csv), getString(R.string.export_ledger_pdf)}
+                : new String[]{getString(R.string.export_statement_csv), getString(R.string.export_statement_pdf)};
+
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.export)
+                .setItems(options, (dialog, which) -> {
+                    LedgerExporter.Format format = which % 2 == 0
+                            ? LedgerExporter.Format.CSV : LedgerExporter.Format.PDF;
+                    exportReport(which >= 2, format);
+                })
+                .show();
+    }
+
+    private void exportReport(boolean ledger, LedgerExporter.Format format) {
+        LedgerExporter exporter = new LedgerExporter(requireContext());
+        int year = currentMonth.get(Calendar.YEAR);
+        int month = currentMonth.get(Calendar.MONTH) + 1;
+        String userIdStr = prefManager.getUserId();
+        if (!"ADMIN".equalsIgnoreCase(userRole) && userIdStr == null) {
+            Toast.makeText(requireContext(), R.string.export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        int userId = "ADMIN".equalsIgnoreCase(userRole) ? 0 : Integer.parseInt(userIdStr);
+        Toast.makeText(requireContext(), R.string.exporting, Toast.LENGTH_SHORT).show();
+
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            File file = ledger
+                    ? exporter.exportMessLedger(messId, format)
+                    : exporter.exportStatements(messId, userId, month, year, format);
+            if (!isAdded() || getActivity() == null) {
+                return;
+            }
+            requireActivity().runOnUiThread(() -> {
+                if (file != null) {
+                    startActivity(exporter.shareIntent(file, format));
+                } else {
+                    Toast.makeText(requireContext(), R.string.export_failed, Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
     }
 
     private void updateMonthDisplay() {
@@ -166,60 +417,188 @@ public class ReportFragment extends Fragment {
         tvSelectedMonth.setText(monthFormat.format(currentMonth.getTime()));
     }
 
+    /**
+     * Everything the report shows for one month
+     */
+    private static class MonthReport {
+        List<MemberBalance> balances;
+        MonthlyStats stats;
+        double mealRate;
+        TrendReport trend;
+    }
+
     private void loadReport() {
         // Check if views are initialized
         if (tvTotalExpenses == null || tvTotalMeals == null || memberBalanceAdapter == null) {
             return;
         }
+        monthLoader.show(MonthLoader.monthKey(currentMonth.get(Calendar.YEAR),
+                currentMonth.get(Calendar.MONTH) + 1));
+    }
 
-        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
-            try {
-                int year = currentMonth.get(Calendar.YEAR);
-                int month = currentMonth.get(Calendar.MONTH) + 1;
-
-                // Load member balances
-                List<MemberBalance> balances = reportDao.getMemberBalances(messId, year, month);
-
-                // Load summary data
-                double totalExpenses = reportDao.getTotalExpenses(messId, month, year);
-                int totalMeals = reportDao.getTotalMeals(messId, month, year);
-                double mealRate = reportDao.calculateMealRate(messId, month, year);
-
-                // Load expense breakdown by category
-                double groceryAmount = reportDao.getExpenseByCategory(messId, "Grocery", month, year);
-                double utilityAmount = reportDao.getExpenseByCategory(messId, "Utility", month, year);
-                double gasAmount = reportDao.getExpenseByCategory(messId, "Gas", month, year);
-                double rentAmount = reportDao.getExpenseByCategory(messId, "Rent", month, year);
-                double maintenanceAmount = reportDao.getExpenseByCategory(messId, "Maintenance", month, year);
-                double otherAmount = reportDao.getExpenseByCategory(messId, "Other", month, year);
-                double totalOtherAmount = maintenanceAmount + otherAmount;
-
-                requireActivity().runOnUiThread(() -> {
-                    memberBalances.clear();
-                    if (balances != null) {
-                        memberBalances.addAll(balances);
-                    }
-                    tvTotalExpenses.setText(String.format(Locale.getDefault(), "৳ %.2f", totalExpenses));
-                    tvTotalMeals.setText(String.valueOf(totalMeals));
-                    tvMealRate.setText(String.format(Locale.getDefault(), "৳ %.2f", mealRate));
-
-                    // Update expense breakdown
-                    tvGroceryAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", groceryAmount));
-                    tvUtilityAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", utilityAmount));
-                    tvGasAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", gasAmount));
-                    tvRentAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", rentAmount));
-                    tvOtherAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", totalOtherAmount));
-
-                    // Update adapter
-                    memberBalanceAdapter.updateMemberBalances(memberBalances);
-                });
-            } catch (Exception e) {
-                e.printStackTrace();
-                requireActivity().runOnUiThread(() -> Toast.makeText(requireContext(),
-                        "Error loading report",
-                        Toast.LENGTH_SHORT).show());
+    /**
+     * Drop prefetched months, which may predate a write, and load again
+     */
+    private void reloadReport() {
+        if (monthLoader != null) {
+            monthLoader.clear();
+        }
+        loadReport();
+    }
+
+    /**
+     * Runs on the database executor
+     */
+    private MonthReport loadMonthReport(int year, int month) {
+        MonthReport report = new MonthReport();
+        // Load member balances
+        report.balances = reportDao.getMemberBalances(messId, month, year);
+        // Load summary data and expense breakdown from the month's stats row
+        report.stats = reportDao.getMonthlyStats(messId, month, year);
+        report.mealRate = reportDao.calculateMealRate(messId, month, year);
+        report.trend = reportDao.getTrendReport(messId, month, year, trendMonths);
+        return report;
+    }
+
+    private void showMonthReport(MonthReport report) {
+        MonthlyStats stats = report.stats;
+        memberBalances.clear();
+        if (report.balances != null) {
+            memberBalances.addAll(report.balances);
+        }
+        tvTotalExpenses.setText(String.format(Locale.getDefault(), "৳ %.2f", stats.getTotalExpenses()));
+        tvTotalMeals.setText(String.valueOf(stats.getTotalMeals()));
+        tvMealRate.setText(String.format(Locale.getDefault(), "৳ %.2f", report.mealRate));
+
+        // Update expense breakdown
+        tvGroceryAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", stats.getGrocery()));
+        tvUtilityAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", stats.getUtilities()));
+        tvGasAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", stats.getGas()));
+        tvRentAmount.setText(String.format(Locale.getDefault(), "৳ %.0f", stats.getRent()));
+        tvOtherAmount.setText(String.format(Locale.getDefault(), "৳ %.0f",
+                stats.getMaintenance() + stats.getOther()));
+
+        // Update adapter
+        memberBalanceAdapter.updateMemberBalances(memberBalances);
+
+        if (report.trend.getMonthCount() == trendMonths) {
+            showTrend(report.trend);
+        }
+    }
+
+    private void setupChart(BarLineChartBase<?> chart) {
+        int textColor = ContextCompat.getColor(requireContext(), R.color.text_secondary);
+        chart.getDescription().setEnabled(false);
+        chart.setNoDataText(getString(R.string.trend_empty));
+        chart.setNoDataTextColor(textColor);
+        chart.getXAxis().setTextColor(textColor);
+        chart.getXAxis().setGranularity(1f);
+        chart.getLegend().setTextColor(textColor);
+        chart.getLegend().setWordWrapEnabled(true);
+        for (YAxis axis : new YAxis[]{chart.getAxisLeft(), chart.getAxisRight()}) {
+            axis.setTextColor(textColor);
+            axis.setAxisMinimum(0f);
+        }
+        chart.getAxisRight().setEnabled(false);
+    }
+
+    private void showTrend(TrendReport report) {
+        int months = report.getMonthCount();
+        ValueFormatter monthLabels = new ValueFormatter() {
+            private final SimpleDateFormat format = new SimpleDateFormat("MMM yy", Locale.getDefault());
+
+            @Override
+            public String getFormattedValue(float value) {
+                int index = Math.round(value);
+                if (index < 0 || index >= months) {
+                    return "";
+                }
+                int key = report.getMonthKey(index);
+                Calendar calendar = Calendar.getInstance();
+                calendar.set(key / 100, key % 100 - 1, 1);
+                return format.format(calendar.getTime());
             }
-        });
+        };
+
+        // Spend: one stacked bar per month, one stack entry per category
+        ExpenseCategory[] categories = ExpenseCategory.values();
+        double[][][] spend = new double[categories.length][][];
+        for (ExpenseCategory category : categories) {
+            double[] series = new double[months];
+            for (int m = 0; m < months; m++) {
+                series[m] = report.getSpend(m, category);
+            }
+            spend[category.getCode()] = TrendReport.downsample(series, MAX_CHART_POINTS);
+        }
+        List<BarEntry> bars = new ArrayList<>();
+        for (int p = 0; p < spend[0][0].length; p++) {
+            float[] stack = new float[categories.length];
+            for (int c = 0; c < categories.length; c++) {
+                stack[c] = (float) spend[c][1][p];
+            }
+            bars.add(new BarEntry((float) spend[0][0][p], stack));
+        }
+        BarDataSet spendSet = new BarDataSet(bars, "");
+        spendSet.setColors(categoryColors());
+        spendSet.setStackLabels(new String[]{
+                getString(R.string.category_grocery), getString(R.string.category_utility),
+                getString(R.string.category_gas), getString(R.string.category_rent),
+                getString(R.string.category_maintenance), getString(R.string.category_other)});
+        spendSet.setDrawValues(false);
+        BarData barData = new BarData(spendSet);
+        barData.setBarWidth(months > MAX_CHART_POINTS ? 0.8f * months / MAX_CHART_POINTS : 0.8f);
+        chartTrendSpend.getXAxis().setValueFormatter(monthLabels);
+        chartTrendSpend.setData(barData);
+        chartTrendSpend.invalidate();
+
+        // Meals: one line per member, plus the actual cost per meal on the right axis
+        List<ILineDataSet> lines = new ArrayList<>();
+        for (int member = 0; member < report.getMemberCount(); member++) {
+            double[] series = new double[months];
+            for (int m = 0; m < months; m++) {
+                series[m] = report.getMeals(m, member);
+            }
+            LineDataSet set = new LineDataSet(toEntries(TrendReport.downsample(series, MAX_CHART_POINTS)),
+                    report.getMemberName(member));
+            int color = ColorTemplate.MATERIAL_COLORS[member % ColorTemplate.MATERIAL_COLORS.length];
+            set.setColor(color);
+            set.setCircleColor(color);
+            set.setDrawValues(false);
+            lines.add(set);
+        }
+        double[] mealCost = new double[months];
+        for (int m = 0; m < months; m++) {
+            mealCost[m] = report.getActualMealCost(m);
+        }
+        LineDataSet costSet = new LineDataSet(toEntries(TrendReport.downsample(mealCost, MAX_CHART_POINTS)),
+                getString(R.string.trend_meal_cost));
+        costSet.setAxisDependency(YAxis.AxisDependency.RIGHT);
+        costSet.setColor(ContextCompat.getColor(requireContext(), R.color.text_primary));
+        costSet.enableDashedLine(10f, 5f, 0f);
+        costSet.setDrawCircles(false);
+        costSet.setDrawValues(false);
+        lines.add(costSet);
+        chartTrendMeals.getXAxis().setValueFormatter(monthLabels);
+        chartTrendMeals.setData(new LineData(lines));
+        chartTrendMeals.invalidate();
+    }
+
+    private int[] categoryColors() {
+        int[] colorRes = {R.color.category_grocery, R.color.category_utility, R.color.category_gas,
+                R.color.category_rent, R.color.category_maintenance, R.color.category_other};
+        int[] colors = new int[colorRes.length];
+        for (int i = 0; i < colorRes.length; i++) {
+            colors[i] = ContextCompat.getColor(requireContext(), colorRes[i]);
+        }
+        return colors;
+    }
+
+    private static List<Entry> toEntries(double[][] points) {
+        List<Entry> entries = new ArrayList<>();
+        for (int p = 0; p < points[0].length; p++) {
+            entries.add(new Entry((float) points[0][p], (float) points[1][p]));
+        }
+        return entries;
     }
 
     @Override
@@ -242,4 +621,12 @@ public class ReportFragment extends Fragment {
         // Unregister broadcast receiver
         LocalBroadcastManager.getInstance(requireContext()).unregisterReceiver(syncReceiver);
     }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (monthLoader != null) {
+            monthLoader.cancelAll();
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.messkhata.ui.fragment;
 
 import android.app.AlertDialog;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,6 +10,8 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
@@ -18,11 +21,15 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
 import com.messkhata.R;
 import com.messkhata.data.dao.MessDao;
+import com.messkhata.data.dao.RecurringExpenseDao;
 import com.messkhata.data.dao.UserDao;
 import com.messkhata.data.database.MessKhataDatabase;
+import com.messkhata.data.importer.CsvImporter;
 import com.messkhata.data.model.Mess;
+import com.messkhata.data.model.RecurringExpenseRule;
 import com.messkhata.data.model.User;
 import com.messkhata.data.sync.FirebaseAuthHelper;
+import com.messkhata.data.sync.SyncCallback;
 import com.messkhata.data.sync.SyncManager;
 import com.messkhata.data.sync.SyncWorker;
 import com.messkhata.ui.activity.LoginActivity;
@@ -30,6 +37,7 @@ import com.messkhata.ui.activity.MessSetupActivity;
 import com.messkhata.ui.adapter.MemberAdapter;
 import com.messkhata.utils.PreferenceManager;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -52,6 +60,8 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
     // UI Components - Actions
     private MaterialButton btnLogout;
     private MaterialButton btnLeaveMess;
+    private MaterialButton btnImportCsv;
+    private MaterialButton btnRecurringExpenses;
     private View layoutSync;
     private View progressSync;
 
@@ -61,6 +71,7 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
     // DAOs
     private UserDao userDao;
     private MessDao messDao;
+    private RecurringExpenseDao recurringExpenseDao;
     private SyncManager syncManager;
 
     // Session data
@@ -72,6 +83,15 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
     // Member list
     private List<User> memberList = new ArrayList<>();
 
+    // What the picked CSV file holds
+    private CsvImporter.Kind importKind = CsvImporter.Kind.EXPENSES;
+    private final ActivityResultLauncher<String[]> pickCsv = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) {
+                    importCsv(uri, importKind);
+                }
+            });
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
@@ -112,6 +132,8 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
         // Actions
         btnLogout = view.findViewById(R.id.btnLogout);
         btnLeaveMess = view.findViewById(R.id.btnLeaveMess);
+        btnImportCsv = view.findViewById(R.id.btnImportCsv);
+        btnRecurringExpenses = view.findViewById(R.id.btnRecurringExpenses);
         layoutSync = view.findViewById(R.id.layoutSync);
         progressSync = view.findViewById(R.id.progressSync);
     }
@@ -119,6 +141,7 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
     private void initializeDAOs() {
         userDao = new UserDao(requireContext());
         messDao = new MessDao(requireContext());
+        recurringExpenseDao = new RecurringExpenseDao(requireContext());
         syncManager = SyncManager.getInstance(requireContext());
     }
 
@@ -158,6 +181,150 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
         if (layoutSync != null) {
             layoutSync.setOnClickListener(v -> triggerManualSync());
         }
+
+        if (btnImportCsv != null) {
+            btnImportCsv.setOnClickListener(v -> showImportDialog());
+        }
+
+        if (btnRecurringExpenses != null) {
+            btnRecurringExpenses.setOnClickListener(v -> showRecurringExpenses());
+        }
+    }
+
+    private void showImportDialog() {
+        String[] options = {getString(R.string.import_expenses), getString(R.string.import_meals)};
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.import_csv)
+                .setItems(options, (dialog, which) -> {
+                    importKind = which == 0 ? CsvImporter.Kind.EXPENSES : CsvImporter.Kind.MEALS;
+                    pickCsv.launch(new String[]{"text/csv", "text/comma-separated-values", "text/plain"});
+                })
+                .show();
+    }
+
+    /**
+     * Import the picked file; picking the same file again after an
+     * interrupted import resumes it, and after a completed one offers to
+     * import it again from the start
+     */
+    private void importCsv(Uri uri, CsvImporter.Kind kind) {
+        CsvImporter importer = new CsvImporter(requireContext());
+        // Messages are built off the main thread, where the fragment may detach
+        android.content.Context appContext = requireContext().getApplicationContext();
+        String importKey = uri + "#" + kind.name();
+
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            if (!importer.isImported(importKey)) {
+                runImport(importer, appContext, importKey, uri, kind);
+                return;
+            }
+            if (!isAdded() || getActivity() == null) {
+                return;
+            }
+            requireActivity().runOnUiThread(() -> {
+                if (!isAdded()) {
+                    return;
+                }
+                new AlertDialog.Builder(requireContext())
+                        .setTitle(R.string.import_again)
+                        .setMessage(R.string.import_again_confirm)
+                        .setPositiveButton(R.string.import_again, (dialog, which) ->
+                                MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+                                    importer.clearProgress(importKey);
+                                    runImport(importer, appContext, importKey, uri, kind);
+                                }))
+                        .setNegativeButton(R.string.cancel, null)
+                        .show();
+            });
+        });
+    }
+
+    // Runs on the database executor
+    private void runImport(CsvImporter importer, android.content.Context appContext, String importKey,
+            Uri uri, CsvImporter.Kind kind) {
+        android.content.ContentResolver resolver = appContext.getContentResolver();
+
+        CsvImporter.ImportResult result;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            result = importer.importCsv(importKey, in, kind, messId, (int) userId,
+                    progress -> showImportMessage(appContext.getString(R.string.importing, progress.getRecordsDone())));
+        } catch (Exception e) {
+            e.printStackTrace();
+            result = null;
+        }
+
+        if (result == null || !result.isComplete()) {
+            String error = result != null && !result.getErrors().isEmpty() ? "\n" + result.getErrors().get(0) : "";
+            showImportMessage(appContext.getString(R.string.import_failed) + error);
+            return;
+        }
+        String message = appContext.getString(R.string.import_result,
+                result.getImported(), result.getSkipped(), result.getRejected());
+        if (!result.getErrors().isEmpty()) {
+            message += "\n" + result.getErrors().get(0);
+        }
+        showImportMessage(message);
+    }
+
+    private void showImportMessage(String message) {
+        if (!isAdded() || getActivity() == null) {
+            return;
+        }
+        requireActivity().runOnUiThread(() ->
+                Toast.makeText(requireContext(), message, Toast.LENGTH_LONG).show());
+    }
+
+    /**
+     * List the mess's recurring expenses; picking one offers to stop it
+     */
+    private void showRecurringExpenses() {
+        MessKhataDatabase.databaseWriteExecutor.execute(() -> {
+            List<RecurringExpenseRule> rules = recurringExpenseDao.getActiveRules(messId);
+            if (!isAdded() || getActivity() == null) {
+                return;
+            }
+            requireActivity().runOnUiThread(() -> {
+                if (!isAdded()) {
+                    return;
+                }
+                if (rules.isEmpty()) {
+                    Toast.makeText(requireContext(), R.string.recurring_none, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                String[] items = new String[rules.size()];
+                for (int i = 0; i < rules.size(); i++) {
+                    RecurringExpenseRule rule = rules.get(i);
+                    items[i] = getString(R.string.recurring_rule_item, rule.getTitle(), rule.getAmount(),
+                            describeFrequency(rule));
+                }
+                new AlertDialog.Builder(requireContext())
+                        .setTitle(R.string.recurring_expenses)
+                        .setItems(items, (dialog, which) -> confirmStopRule(rules.get(which)))
+                        .show();
+            });
+        });
+    }
+
+    private String describeFrequency(RecurringExpenseRule rule) {
+        switch (rule.getFrequency()) {
+            case RecurringExpenseRule.MONTHLY:
+                return getString(R.string.recurring_monthly);
+            case RecurringExpenseRule.WEEKLY:
+                return getString(R.string.recurring_weekly);
+            default:
+                return getString(R.string.recurring_every_days, rule.getInterval());
+        }
+    }
+
+    private void confirmStopRule(RecurringExpenseRule rule) {
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.stop_repeating)
+                .setMessage(getString(R.string.stop_repeating_confirm, rule.getTitle()))
+                .setPositiveButton(R.string.stop_repeating, (dialog, which) ->
+                        MessKhataDatabase.databaseWriteExecutor.execute(() ->
+                                recurringExpenseDao.stopRule(rule.getRuleId())))
+                .setNegativeButton(R.string.cancel, null)
+                .show();
     }
 
     private void triggerManualSync() {
@@ -167,14 +334,42 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
 
         Toast.makeText(requireContext(), "Syncing...", Toast.LENGTH_SHORT).show();
 
-        // Trigger sync in background
-        SyncWorker.triggerImmediateSync(requireContext());
+        // Runs on the bulk lane; repeated taps join the sync already in flight.
+        // If it cannot start now (offline), hand it to WorkManager to retry.
+        syncManager.addSyncCallback(manualSyncCallback);
+        if (syncManager.performFullSync(messId) == null) {
+            syncManager.removeSyncCallback(manualSyncCallback);
+            if (progressSync != null) {
+                progressSync.setVisibility(View.GONE);
+            }
+            SyncWorker.triggerImmediateSync(requireContext());
+        }
+    }
+
+    // Subscribed only while a manual sync is running
+    private final SyncCallback manualSyncCallback = new SyncCallback() {
+        @Override
+        public void onSyncStarted() {
+        }
 
-        // Also perform sync directly for immediate feedback
-        syncManager.performFullSync(messId);
+        @Override
+        public void onSyncCompleted() {
+            finishManualSync("Sync complete!");
+        }
+
+        @Override
+        public void onSyncFailed(String error) {
+            finishManualSync("Sync failed: " + error);
+        }
 
-        // Refresh data after a delay to allow sync to complete
-        new android.os.Handler(android.os.Looper.getMainLooper()).postDelayed(() -> {
+        @Override
+        public void onSyncProgress(int progress, String message) {
+        }
+    };
+
+    private void finishManualSync(String message) {
+        syncManager.removeSyncCallback(manualSyncCallback);
+        new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
             if (!isAdded())
                 return; // Fragment may be detached
 
@@ -184,10 +379,16 @@ public class SettingsFragment extends Fragment implements MemberAdapter.OnMember
             loadUserProfile();
             loadMessInfo();
             loadMembers();
-            if (isAdded()) {
-                Toast.makeText(requireContext(), "Sync complete!", Toast.LENGTH_SHORT).show();
-            }
-        }, 5000); // Increased to 5 seconds for more time to sync
+            Toast.makeText(requireContext(), message, Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (syncManager != null) {
+            syncManager.removeSyncCallback(manualSyncCallback);
+        }
     }
 
     private void showLeaveMessConfirmation() {
@@ -0,0 +1,69 @@
+package com.messkhata.utils;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+/**
+ * Tracks whether any activity of the app is visible.
+ * Counts started activities, so moving between activities or rotating the
+ * screen does not count as going to the background.
+ */
+public class AppForegroundTracker implements Application.ActivityLifecycleCallbacks {
+
+    public interface Listener {
+        void onAppForeground();
+
+        void onAppBackground();
+    }
+
+    private final Listener listener;
+    private int startedActivities = 0;
+
+    public AppForegroundTracker(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isInForeground() {
+        return startedActivities > 0;
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        startedActivities++;
+        if (startedActivities == 1) {
+            listener.onAppForeground();
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        if (startedActivities == 0) {
+            return;
+        }
+        startedActivities--;
+        if (startedActivities == 0 && !activity.isChangingConfigurations()) {
+            listener.onAppBackground();
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
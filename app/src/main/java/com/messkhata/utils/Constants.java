@@ -14,6 +14,7 @@ public class Constants {
     public static final String PREF_USER_EMAIL = "user_email";
     public static final String PREF_IS_LOGGED_IN = "is_logged_in";
     public static final String PREF_LAST_SYNC = "last_sync";
+    public static final String PREF_DEVICE_ID = "device_id";
 
     // User Roles
     public static final String ROLE_ADMIN = "ADMIN";
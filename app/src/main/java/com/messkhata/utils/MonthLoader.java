@@ -0,0 +1,188 @@
+package com.messkhata.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the data of the month shown by a screen with prev/next navigation
+ *
+ * Each show() supersedes the previous one: loads for months that are no
+ * longer shown or next to the shown one are cancelled if still queued,
+ * skipped if they start late, and never delivered. Once a month is shown,
+ * its neighbours are loaded in the background into a small LRU, so stepping
+ * to them displays at once; the shown month is then reloaded anyway so that
+ * writes made since the prefetch appear.
+ *
+ * show(), clear() and cancelAll() must be called on the main thread, and
+ * the listener is called there too.
+ */
+public class MonthLoader<T> {
+
+    // Shown month, its two neighbours and a few months the user came from
+    private static final int MAX_ENTRIES = 6;
+
+    private static final int NONE = -1;
+
+    /**
+     * Loads one month on the background executor
+     * @param month 1-12
+     */
+    public interface Loader<T> {
+        T load(int year, int month) throws Exception;
+    }
+
+    public interface Listener<T> {
+        void onMonthLoaded(int monthKey, T result);
+
+        void onMonthLoadFailed(int monthKey, Exception e);
+    }
+
+    private final ExecutorService background;
+    private final Executor mainThread;
+    private final Loader<T> loader;
+    private final Listener<T> listener;
+
+    // Main thread only
+    private final Map<Integer, T> results = new LinkedHashMap<Integer, T>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, T> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Map<Integer, Future<?>> pending = new HashMap<>();
+    private int epoch;
+
+    // Read by background tasks to skip loads nobody is waiting for
+    private volatile int shownKey = NONE;
+
+    public MonthLoader(ExecutorService background, Executor mainThread,
+            Loader<T> loader, Listener<T> listener) {
+        this.background = background;
+        this.mainThread = mainThread;
+        this.loader = loader;
+        this.listener = listener;
+    }
+
+    /**
+     * year * 100 + month, the key used for months throughout the app
+     * @param month 1-12
+     */
+    public static int monthKey(int year, int month) {
+        return year * 100 + month;
+    }
+
+    /**
+     * Key of the month delta months away from the given one
+     */
+    public static int addMonths(int monthKey, int delta) {
+        int index = monthIndex(monthKey) + delta;
+        return monthKey(Math.floorDiv(index, 12), Math.floorMod(index, 12) + 1);
+    }
+
+    /**
+     * Show a month: the cached result (if any) is delivered right away, and
+     * a fresh one when it has been loaded
+     */
+    public void show(int monthKey) {
+        shownKey = monthKey;
+
+        Iterator<Map.Entry<Integer, Future<?>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Future<?>> entry = iterator.next();
+            if (!isWanted(entry.getKey())) {
+                entry.getValue().cancel(false);
+                iterator.remove();
+            }
+        }
+
+        T cached = results.get(monthKey);
+        if (cached != null) {
+            listener.onMonthLoaded(monthKey, cached);
+        }
+        // A prefetch still in flight for this month doubles as its reload
+        if (!pending.containsKey(monthKey)) {
+            submit(monthKey);
+        }
+    }
+
+    /**
+     * Forget cached results and in-flight loads, e.g. after the data changed;
+     * call show() afterwards to reload the shown month
+     */
+    public void clear() {
+        epoch++;
+        for (Future<?> future : pending.values()) {
+            future.cancel(false);
+        }
+        pending.clear();
+        results.clear();
+    }
+
+    /**
+     * Stop delivering results, e.g. when the view is destroyed
+     */
+    public void cancelAll() {
+        shownKey = NONE;
+        clear();
+    }
+
+    private void submit(int monthKey) {
+        int submittedEpoch = epoch;
+        Future<?> future = background.submit(() -> {
+            if (!isWanted(monthKey)) {
+                return; // superseded while queued
+            }
+            try {
+                T result = loader.load(monthKey / 100, monthKey % 100);
+                mainThread.execute(() -> onLoaded(monthKey, submittedEpoch, result));
+            } catch (Exception e) {
+                e.printStackTrace();
+                mainThread.execute(() -> onFailed(monthKey, submittedEpoch, e));
+            }
+        });
+        pending.put(monthKey, future);
+    }
+
+    private void onLoaded(int monthKey, int loadEpoch, T result) {
+        if (loadEpoch != epoch) {
+            return; // loaded before clear(), may be out of date
+        }
+        pending.remove(monthKey);
+        results.put(monthKey, result);
+        if (monthKey == shownKey) {
+            listener.onMonthLoaded(monthKey, result);
+            prefetch(addMonths(monthKey, 1));
+            prefetch(addMonths(monthKey, -1));
+        }
+    }
+
+    private void onFailed(int monthKey, int loadEpoch, Exception e) {
+        if (loadEpoch != epoch) {
+            return;
+        }
+        pending.remove(monthKey);
+        if (monthKey == shownKey) {
+            listener.onMonthLoadFailed(monthKey, e);
+        }
+    }
+
+    private void prefetch(int monthKey) {
+        if (!results.containsKey(monthKey) && !pending.containsKey(monthKey)) {
+            submit(monthKey);
+        }
+    }
+
+    private boolean isWanted(int monthKey) {
+        int shown = shownKey;
+        return shown != NONE && Math.abs(monthIndex(monthKey) - monthIndex(shown)) <= 1;
+    }
+
+    private static int monthIndex(int monthKey) {
+        return (monthKey / 100) * 12 + monthKey % 100 - 1;
+    }
+}
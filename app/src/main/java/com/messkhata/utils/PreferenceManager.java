@@ -3,6 +3,8 @@ package com.messkhata.utils;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.UUID;
+
 /**
  * Helper class for managing SharedPreferences.
  */
@@ -116,4 +118,19 @@ public class PreferenceManager {
         return preferences.getString("firebase_mess_id", null);
     }
 
+    /**
+     * Stable per-install identifier, used as this device's replica ID for
+     * replicated meal counters. Survives logout.
+     */
+    public synchronized String getDeviceId() {
+        String deviceId = preferences.getString(Constants.PREF_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            preferences.edit()
+                    .putString(Constants.PREF_DEVICE_ID, deviceId)
+                    .apply();
+        }
+        return deviceId;
+    }
+
 }
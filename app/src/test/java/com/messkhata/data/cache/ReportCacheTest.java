@@ -0,0 +1,77 @@
+package com.messkhata.data.cache;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that cached report results are invalidated only by writes that
+ * can change them.
+ */
+public class ReportCacheTest {
+
+    private static final String TABLE = "Expenses";
+
+    private final DataVersions versions = new DataVersions();
+    private final ReportCache cache = new ReportCache(versions);
+    private int loads;
+
+    private String load(int messId, int monthKey) {
+        return cache.get("total", messId, monthKey, () -> {
+            loads++;
+            return "v" + loads;
+        }, TABLE);
+    }
+
+    private static long dateIn(int year, int month) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(year, month - 1, 15, 12, 0, 0);
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    @Test
+    public void unchangedMonthIsServedFromMemory() {
+        assertEquals("v1", load(1, 202503));
+        assertEquals("v1", load(1, 202503));
+        assertEquals(1, loads);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void writeInvalidatesOnlyItsMonthAndMess() {
+        load(1, 202503);
+        load(1, 202504);
+        load(2, 202503);
+
+        versions.bumpMonth(TABLE, 1, dateIn(2025, 4));
+        assertEquals("v1", load(1, 202503));
+        assertEquals("v3", load(2, 202503));
+        assertEquals("v4", load(1, 202504));
+        assertEquals(4, loads);
+    }
+
+    @Test
+    public void messWideAndTableWritesInvalidateEveryMonth() {
+        load(1, 202503);
+        versions.bumpMess(TABLE, 1);
+        assertEquals("v2", load(1, 202503));
+
+        versions.bumpTable(TABLE);
+        assertEquals("v3", load(1, 202503));
+        versions.bumpTable("Payments");
+        assertEquals("v3", load(1, 202503));
+    }
+
+    @Test
+    public void allMonthsAndAnyMessScopesSeeEveryMonthlyWrite() {
+        load(1, DataVersions.ALL_MONTHS);
+        load(0, 202503);
+
+        versions.bumpMonth(TABLE, 1, dateIn(2025, 3));
+        assertEquals("v3", load(1, DataVersions.ALL_MONTHS));
+        assertEquals("v4", load(0, 202503));
+    }
+}
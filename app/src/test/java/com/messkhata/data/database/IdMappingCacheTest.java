@@ -0,0 +1,71 @@
+package com.messkhata.data.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the bidirectional ID mapping cache
+ */
+public class IdMappingCacheTest {
+
+    @Test
+    public void resolvesBothDirections() {
+        IdMappingCache cache = new IdMappingCache(10);
+        cache.put("expense", 7, "abc");
+
+        assertEquals("abc", cache.getRemote("expense", 7));
+        assertEquals(Long.valueOf(7), cache.getLocal("expense", "abc"));
+        assertNull(cache.getRemote("meal", 7));
+        assertNull(cache.getLocal("meal", "abc"));
+    }
+
+    @Test
+    public void remappingDropsStaleEntries() {
+        IdMappingCache cache = new IdMappingCache(10);
+        cache.put("user", 1, "old");
+        cache.put("user", 1, "new");
+        assertNull(cache.getLocal("user", "old"));
+        assertEquals(Long.valueOf(1), cache.getLocal("user", "new"));
+
+        // Same document now points at another local row
+        cache.put("user", 2, "new");
+        assertNull(cache.getRemote("user", 1));
+        assertEquals("new", cache.getRemote("user", 2));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        IdMappingCache cache = new IdMappingCache(2);
+        cache.put("meal", 1, "a");
+        cache.put("meal", 2, "b");
+        cache.getRemote("meal", 1);
+        cache.getLocal("meal", "a");
+        cache.put("meal", 3, "c");
+
+        assertEquals("a", cache.getRemote("meal", 1));
+        assertNull(cache.getRemote("meal", 2));
+        assertNull(cache.getLocal("meal", "b"));
+        assertEquals("c", cache.getRemote("meal", 3));
+    }
+
+    @Test
+    public void directionsAreEvictedTogether() {
+        IdMappingCache cache = new IdMappingCache(2);
+        cache.put("meal", 1, "a");
+        cache.put("meal", 2, "b");
+        cache.getLocal("meal", "b");
+        cache.getLocal("meal", "a");  // a lookup from either side keeps the mapping
+        cache.put("meal", 3, "c");
+
+        assertEquals(Long.valueOf(1), cache.getLocal("meal", "a"));
+        assertNull(cache.getRemote("meal", 2));
+        assertNull(cache.getLocal("meal", "b"));
+
+        // Remapping an evicted local row leaves no stale reverse entry
+        cache.put("meal", 4, "d");
+        cache.put("meal", 1, "z");
+        assertNull(cache.getLocal("meal", "a"));
+        assertEquals(Long.valueOf(1), cache.getLocal("meal", "z"));
+    }
+}
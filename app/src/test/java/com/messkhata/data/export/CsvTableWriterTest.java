@@ -0,0 +1,53 @@
+package com.messkhata.data.export;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests CSV quoting and table layout
+ */
+public class CsvTableWriterTest {
+
+    @Test
+    public void tablesAreTitledAndSeparated() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvTableWriter writer = new CsvTableWriter(out);
+        writer.startTable("Meals", new String[]{"Date", "Member"});
+        writer.writeRow(new String[]{"2025-03-01", "Rahim"});
+        writer.startTable("Payments", new String[]{"Date", "Amount"});
+        writer.writeRow(new String[]{"2025-03-02", null});
+        writer.close();
+
+        assertEquals("Meals\r\nDate,Member\r\n2025-03-01,Rahim\r\n" +
+                "\r\nPayments\r\nDate,Amount\r\n2025-03-02,\r\n", out.toString());
+    }
+
+    @Test
+    public void cellsAreQuotedOnlyWhenNeeded() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvTableWriter writer = new CsvTableWriter(out);
+        writer.writeRow(new String[]{"plain", "a,b", "say \"hi\"", "two\nlines", "-12.50"});
+        writer.close();
+
+        assertEquals("plain,\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\",-12.50\r\n", out.toString());
+    }
+
+    @Test
+    public void streamOutputIsUtf8WithByteOrderMark() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvTableWriter writer = new CsvTableWriter(out);
+        writer.writeRow(new String[]{"রহিম"});
+        writer.close();
+
+        byte[] bytes = out.toByteArray();
+        assertEquals((byte) 0xEF, bytes[0]);
+        assertEquals((byte) 0xBB, bytes[1]);
+        assertEquals((byte) 0xBF, bytes[2]);
+        assertEquals("\uFEFFরহিম\r\n", new String(bytes, StandardCharsets.UTF_8));
+    }
+}
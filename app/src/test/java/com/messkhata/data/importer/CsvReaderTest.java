@@ -0,0 +1,54 @@
+package com.messkhata.data.importer;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests CSV record parsing
+ */
+public class CsvReaderTest {
+
+    private static List<List<String>> readAll(String csv) throws Exception {
+        List<List<String>> records = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(new StringReader(csv))) {
+            List<String> fields = new ArrayList<>();
+            while (reader.readRecord(fields)) {
+                records.add(new ArrayList<>(fields));
+            }
+        }
+        return records;
+    }
+
+    @Test
+    public void readsQuotedFieldsAcrossLines() throws Exception {
+        List<List<String>> records = readAll("\uFEFFdate,title\r\n" +
+                "2025-03-01,\"Rice, 5kg\"\r\n" +
+                "2025-03-02,\"Said \"\"thanks\"\"\nthen left\"\n");
+
+        assertEquals(3, records.size());
+        assertEquals(Arrays.asList("date", "title"), records.get(0));
+        assertEquals(Arrays.asList("2025-03-01", "Rice, 5kg"), records.get(1));
+        assertEquals(Arrays.asList("2025-03-02", "Said \"thanks\"\nthen left"), records.get(2));
+    }
+
+    @Test
+    public void keepsEmptyFieldsAndCountsRecords() throws Exception {
+        try (CsvReader reader = new CsvReader(new StringReader("a,,\n\nb"))) {
+            List<String> fields = new ArrayList<>();
+            assertTrue(reader.readRecord(fields));
+            assertEquals(Arrays.asList("a", "", ""), fields);
+            assertTrue(reader.readRecord(fields));
+            assertEquals(Arrays.asList(""), fields);
+            assertTrue(reader.readRecord(fields));
+            assertEquals(Arrays.asList("b"), fields);
+            assertFalse(reader.readRecord(fields));
+            assertEquals(3, reader.getRecordNumber());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.messkhata.data.importer;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests validation and normalisation of imported cell values
+ */
+public class ImportValueParserTest {
+
+    private static long midnight(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTimeInMillis();
+    }
+
+    private final ImportValueParser parser = new ImportValueParser(midnight(2025, 6, 15) + 3600_000L);
+
+    @Test
+    public void datesNormaliseToLocalMidnight() {
+        long expected = midnight(2025, 3, 31);
+        assertEquals(expected, parser.parseDate("2025-03-31"));
+        assertEquals(expected, parser.parseDate("31/03/2025"));
+        assertEquals(expected, parser.parseDate(" 31 Mar 2025 "));
+        assertEquals(expected, parser.parseDate("Mar 31, 2025"));
+        assertEquals(expected, parser.parseDate("2025-03-31 14:30"));
+        assertEquals(midnight(2025, 6, 15), parser.parseDate("15/06/2025"));
+    }
+
+    @Test
+    public void invalidAndFutureDatesAreRejected() {
+        assertEquals(ImportValueParser.INVALID_DATE, parser.parseDate("31/02/2025"));
+        assertEquals(ImportValueParser.INVALID_DATE, parser.parseDate("16/06/2025"));
+        assertEquals(ImportValueParser.INVALID_DATE, parser.parseDate("next week"));
+        assertEquals(ImportValueParser.INVALID_DATE, parser.parseDate(""));
+        assertEquals(ImportValueParser.INVALID_DATE, parser.parseDate(null));
+    }
+
+    @Test
+    public void amountsIgnoreCurrencyAndSeparators() {
+        assertEquals(1250.0, parser.parseAmount("Tk 1,250.00"), 0.001);
+        assertEquals(300.0, parser.parseAmount("300 BDT"), 0.001);
+        assertEquals(99.5, parser.parseAmount("\u09F399.5"), 0.001);
+        assertTrue(Double.isNaN(parser.parseAmount("0")));
+        assertTrue(Double.isNaN(parser.parseAmount("-20")));
+        assertTrue(Double.isNaN(parser.parseAmount("free")));
+    }
+
+    @Test
+    public void mealCountsAcceptTickMarks() {
+        assertEquals(0, parser.parseMealCount(""));
+        assertEquals(0, parser.parseMealCount("-"));
+        assertEquals(1, parser.parseMealCount("X"));
+        assertEquals(1, parser.parseMealCount("yes"));
+        assertEquals(2, parser.parseMealCount(" 2 "));
+        assertEquals(ImportValueParser.INVALID_COUNT, parser.parseMealCount("99"));
+        assertEquals(ImportValueParser.INVALID_COUNT, parser.parseMealCount("half"));
+    }
+}
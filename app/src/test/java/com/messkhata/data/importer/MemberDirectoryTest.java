@@ -0,0 +1,32 @@
+package com.messkhata.data.importer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests matching spreadsheet member names and emails to userIds
+ */
+public class MemberDirectoryTest {
+
+    @Test
+    public void matchesNamesAndEmailsLoosely() {
+        MemberDirectory members = new MemberDirectory();
+        members.addMember(7, "Rahim  Uddin", "Rahim@Example.com");
+
+        assertEquals(7, members.resolve(" rahim uddin "));
+        assertEquals(7, members.resolve("rahim@example.com"));
+        assertEquals(MemberDirectory.UNKNOWN, members.resolve("Karim"));
+        assertEquals(MemberDirectory.UNKNOWN, members.resolve(""));
+    }
+
+    @Test
+    public void sharedNamesNeedAnEmail() {
+        MemberDirectory members = new MemberDirectory();
+        members.addMember(1, "Rahim", "rahim1@example.com");
+        members.addMember(2, "Rahim", "rahim2@example.com");
+
+        assertEquals(MemberDirectory.AMBIGUOUS, members.resolve("Rahim"));
+        assertEquals(2, members.resolve("rahim2@example.com"));
+    }
+}
@@ -0,0 +1,38 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for resolving stored category names and codes.
+ */
+public class ExpenseCategoryTest {
+
+    @Test
+    public void legacyNamesResolveToCanonicalCategory() {
+        assertEquals(ExpenseCategory.GROCERY, ExpenseCategory.fromName("grocery"));
+        assertEquals(ExpenseCategory.UTILITY, ExpenseCategory.fromName("utilities"));
+        assertEquals(ExpenseCategory.UTILITY, ExpenseCategory.fromName(" Utility "));
+        assertEquals(ExpenseCategory.MAINTENANCE, ExpenseCategory.fromName("cleaning"));
+        assertEquals(ExpenseCategory.OTHER, ExpenseCategory.fromName("miscellaneous"));
+    }
+
+    @Test
+    public void unknownOrMissingNamesAreOther() {
+        assertEquals(ExpenseCategory.OTHER, ExpenseCategory.fromName("internet"));
+        assertEquals(ExpenseCategory.OTHER, ExpenseCategory.fromName(""));
+        assertEquals(ExpenseCategory.OTHER, ExpenseCategory.fromName(null));
+        assertEquals(ExpenseCategory.OTHER, ExpenseCategory.fromCode(-1));
+        assertEquals(ExpenseCategory.OTHER, ExpenseCategory.fromCode(ExpenseCategory.COUNT));
+    }
+
+    @Test
+    public void codesAreDenseAndRoundTrip() {
+        for (int code = 0; code < ExpenseCategory.COUNT; code++) {
+            ExpenseCategory category = ExpenseCategory.fromCode(code);
+            assertEquals(code, category.getCode());
+            assertEquals(category, ExpenseCategory.fromName(category.getName()));
+        }
+    }
+}
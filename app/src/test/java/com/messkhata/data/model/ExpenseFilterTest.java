@@ -0,0 +1,48 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests turning typed search text into a full-text query
+ */
+public class ExpenseFilterTest {
+
+    @Test
+    public void wordsBecomeLowerCasePrefixTerms() {
+        ExpenseFilter filter = new ExpenseFilter();
+        filter.setText("  Rice, 5kg ");
+        assertEquals("rice* 5kg*", filter.getMatchQuery());
+    }
+
+    @Test
+    public void operatorsAndQuotesAreDropped() {
+        ExpenseFilter filter = new ExpenseFilter();
+        filter.setText("\"gas\" OR -bill* NEAR(x)");
+        assertEquals("gas* or* bill* near* x*", filter.getMatchQuery());
+
+        filter.setText(" \"*-() ");
+        assertNull(filter.getMatchQuery());
+    }
+
+    @Test
+    public void banglaWordsStayWhole() {
+        ExpenseFilter filter = new ExpenseFilter();
+        filter.setText("চাল ডাল");
+        assertEquals("চাল* ডাল*", filter.getMatchQuery());
+    }
+
+    @Test
+    public void emptyOnlyWithoutCriteria() {
+        ExpenseFilter filter = new ExpenseFilter();
+        assertTrue(filter.isEmpty());
+
+        filter.setText("?!");
+        assertTrue(filter.isEmpty());
+
+        filter.setAddedBy(3);
+        assertFalse(filter.isEmpty());
+        assertEquals(3, filter.copy().getAddedBy());
+    }
+}
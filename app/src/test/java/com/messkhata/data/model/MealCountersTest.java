@@ -0,0 +1,163 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Property tests for the replicated meal counters.
+ * Random edits are applied on several replicas and exchanged in random order;
+ * every replica must end up with the same state and the same meal counts.
+ */
+public class MealCountersTest {
+
+    private static final int RUNS = 500;
+    private static final String[] REPLICAS = {"phone-a", "phone-b", "tablet-c"};
+
+    @Test
+    public void replicasConvergeUnderArbitraryInterleavings() {
+        Random random = new Random(26);
+
+        for (int run = 0; run < RUNS; run++) {
+            List<MealCounters> replicas = new ArrayList<>();
+            for (int i = 0; i < REPLICAS.length; i++) {
+                replicas.add(new MealCounters());
+            }
+
+            // Interleave local edits with partial, possibly repeated, exchanges
+            int steps = 1 + random.nextInt(40);
+            for (int step = 0; step < steps; step++) {
+                int i = random.nextInt(REPLICAS.length);
+                if (random.nextBoolean()) {
+                    replicas.get(i).apply(REPLICAS[i],
+                            random.nextInt(5) - 2, random.nextInt(5) - 2, random.nextInt(5) - 2);
+                } else {
+                    int j = random.nextInt(REPLICAS.length);
+                    replicas.get(i).merge(replicas.get(j));
+                }
+            }
+
+            // Final anti-entropy round in a random order
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < REPLICAS.length; i++) {
+                order.add(i);
+            }
+            for (int round = 0; round < 2; round++) {
+                Collections.shuffle(order, random);
+                for (int i : order) {
+                    for (int j : order) {
+                        replicas.get(i).merge(replicas.get(j));
+                    }
+                }
+            }
+
+            MealCounters first = replicas.get(0);
+            for (MealCounters other : replicas) {
+                assertEquals("run " + run, first, other);
+                assertEquals(first.getBreakfast(), other.getBreakfast());
+                assertEquals(first.getLunch(), other.getLunch());
+                assertEquals(first.getDinner(), other.getDinner());
+            }
+        }
+    }
+
+    @Test
+    public void mergeIsCommutativeAssociativeAndIdempotent() {
+        Random random = new Random(2026);
+
+        for (int run = 0; run < RUNS; run++) {
+            MealCounters a = randomCounters(random);
+            MealCounters b = randomCounters(random);
+            MealCounters c = randomCounters(random);
+
+            MealCounters ab = new MealCounters(a);
+            ab.merge(b);
+            MealCounters ba = new MealCounters(b);
+            ba.merge(a);
+            assertEquals(ab, ba);
+
+            MealCounters abThenC = new MealCounters(ab);
+            abThenC.merge(c);
+            MealCounters bc = new MealCounters(b);
+            bc.merge(c);
+            MealCounters aThenBc = new MealCounters(a);
+            aThenBc.merge(bc);
+            assertEquals(abThenC, aThenBc);
+
+            MealCounters twice = new MealCounters(ab);
+            twice.merge(ab);
+            assertEquals(ab, twice);
+        }
+    }
+
+    @Test
+    public void concurrentEditsAreBothKept() {
+        MealCounters member = new MealCounters();
+        MealCounters admin = new MealCounters();
+
+        // Both start from the same converted row
+        member.getSlot(MealCounters.SLOT_LUNCH).mergeReplica(MealCounters.SEED_REPLICA, 1, 0);
+        admin.merge(member);
+
+        member.apply("member-phone", 0, 1, 0);
+        admin.apply("admin-phone", 0, 1, 1);
+
+        member.merge(admin);
+        admin.merge(member);
+
+        assertEquals(3, member.getLunch());
+        assertEquals(1, member.getDinner());
+        assertEquals(member, admin);
+    }
+
+    @Test
+    public void slotValuesAreClampedToAllowedRange() {
+        MealCounters counters = new MealCounters();
+        counters.apply("a", 4, -2, 0);
+        counters.apply("b", 4, 0, 0);
+
+        assertEquals(MealCounters.MAX_PER_SLOT, counters.getBreakfast());
+        assertEquals(0, counters.getLunch());
+    }
+
+    @Test
+    public void editsOutOfRangeMoveTheShownCountByOne() {
+        MealCounters counters = new MealCounters();
+        counters.apply("a", 4, -2, 0);
+        counters.apply("b", 4, 0, 0);  // breakfast 8, shown 5; lunch -2, shown 0
+
+        PNCounter breakfast = counters.getSlot(MealCounters.SLOT_BREAKFAST);
+        breakfast.apply("a", MealCounters.rawDelta(breakfast.value(), -1));
+        assertEquals(4, counters.getBreakfast());
+        breakfast.apply("a", MealCounters.rawDelta(breakfast.value(), -1));
+        assertEquals(3, counters.getBreakfast());
+
+        PNCounter lunch = counters.getSlot(MealCounters.SLOT_LUNCH);
+        lunch.apply("b", MealCounters.rawDelta(lunch.value(), 1));
+        assertEquals(1, counters.getLunch());
+
+        assertEquals(0, MealCounters.rawDelta(8, 0));
+        assertEquals(0, MealCounters.rawDelta(5, 1));  // already at the maximum
+    }
+
+    @Test
+    public void firestoreMapRoundTrips() {
+        MealCounters counters = randomCounters(new Random(7));
+        assertEquals(counters, MealCounters.fromMap(counters.toMap()));
+    }
+
+    private static MealCounters randomCounters(Random random) {
+        MealCounters counters = new MealCounters();
+        int edits = random.nextInt(10);
+        for (int i = 0; i < edits; i++) {
+            counters.apply(REPLICAS[random.nextInt(REPLICAS.length)],
+                    random.nextInt(7) - 3, random.nextInt(7) - 3, random.nextInt(7) - 3);
+        }
+        return counters;
+    }
+}
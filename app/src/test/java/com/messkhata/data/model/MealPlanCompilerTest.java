@@ -0,0 +1,155 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for compiling preferences, weekday schedules and overrides into a meal plan.
+ */
+public class MealPlanCompilerTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Asia/Dhaka");
+
+    // Sunday 2 March 2025, local midnight
+    private static final long SUNDAY = midnight(2025, Calendar.MARCH, 2);
+
+    @Test
+    public void packingRoundTripsEverySlot() {
+        int day = MealPlan.pack(1, 2, 3);
+        assertEquals(1, MealPlan.breakfast(day));
+        assertEquals(2, MealPlan.lunch(day));
+        assertEquals(3, MealPlan.dinner(day));
+        assertEquals(6, MealPlan.total(day));
+
+        long week = 0;
+        for (int weekday = 0; weekday < 7; weekday++) {
+            week = MealPlan.packWeek(week, weekday, MealPlan.pack(weekday % 6, MealPlan.MAX_COUNT, weekday % 3));
+        }
+        for (int weekday = 0; weekday < 7; weekday++) {
+            int packed = MealPlan.dayOfWeek(week, weekday);
+            assertEquals(weekday % 6, MealPlan.breakfast(packed));
+            assertEquals(MealPlan.MAX_COUNT, MealPlan.lunch(packed));
+            assertEquals(weekday % 3, MealPlan.dinner(packed));
+        }
+    }
+
+    @Test
+    public void countsAreClampedToTheMealCounterLimit() {
+        assertEquals(MealCounters.MAX_PER_SLOT, MealPlan.MAX_COUNT);
+        assertEquals(MealPlan.pack(MealCounters.MAX_PER_SLOT, 0, 0), MealPlan.pack(12, -1, 0));
+        assertTrue(MealPlan.MAX_COUNT <= MealPlan.SLOT_MASK);
+    }
+
+    @Test
+    public void weekdayScheduleOverridesPreference() {
+        MealPlan plan = new MealPlanCompiler(SUNDAY, 14, ZONE)
+                .setPreference(1, 1, 1, 1, Long.MIN_VALUE, 0)
+                .setWeekday(1, Calendar.FRIDAY, 0, 2, 2)
+                .compile();
+
+        for (int i = 0; i < 14; i++) {
+            int expected = i % 7 == 5 ? MealPlan.pack(0, 2, 2) : MealPlan.pack(1, 1, 1);
+            assertEquals("day " + i, expected, plan.getDay(1, i));
+        }
+    }
+
+    @Test
+    public void previousPreferenceAppliesBeforeEffectiveFrom() {
+        long wednesday = midnight(2025, Calendar.MARCH, 5);
+        MealPlan plan = new MealPlanCompiler(SUNDAY, 7, ZONE)
+                .setPreference(1, 2, 2, 2, wednesday, MealPlan.pack(1, 0, 1))
+                .compile();
+
+        assertEquals(MealPlan.pack(1, 0, 1), plan.getDay(1, 2));
+        assertEquals(MealPlan.pack(2, 2, 2), plan.getDay(1, 3));
+    }
+
+    @Test
+    public void everyEarlierPreferenceAppliesOnItsOwnDays() {
+        long tuesday = midnight(2025, Calendar.MARCH, 4);
+        long thursday = midnight(2025, Calendar.MARCH, 6);
+        long friday = midnight(2025, Calendar.MARCH, 7);
+        MealPlan plan = new MealPlanCompiler(SUNDAY, 7, ZONE)
+                .setPreference(1, 2, 2, 2, friday, MealPlan.pack(0, 1, 0))
+                .addPreference(1, 1, 1, 1, Long.MIN_VALUE)
+                .addPreference(1, 1, 0, 1, tuesday)
+                .addPreference(1, 0, 0, 0, thursday)
+                .addPreference(1, 0, 1, 0, thursday) // saved again the same day
+                .addPreference(1, 2, 2, 2, friday)
+                .compile();
+
+        assertEquals(MealPlan.pack(1, 1, 1), plan.getDay(1, 1));
+        assertEquals(MealPlan.pack(1, 0, 1), plan.getDay(1, 2));
+        assertEquals(MealPlan.pack(1, 0, 1), plan.getDay(1, 3));
+        assertEquals(MealPlan.pack(0, 1, 0), plan.getDay(1, 4));
+        assertEquals(MealPlan.pack(2, 2, 2), plan.getDay(1, 5));
+        assertEquals(MealPlan.pack(2, 2, 2), plan.getDay(1, 6));
+    }
+
+    @Test
+    public void newestOverrideWinsInsideItsRange() {
+        long away = midnight(2025, Calendar.MARCH, 10);
+        long back = midnight(2025, Calendar.MARCH, 20);
+        long guest = midnight(2025, Calendar.MARCH, 15);
+        MealPlan plan = new MealPlanCompiler(SUNDAY, 31, ZONE)
+                .setPreference(1, 1, 1, 1, Long.MIN_VALUE, 0)
+                .setWeekday(1, Calendar.MONDAY, 1, 2, 1)
+                .addOverride(1, away, back, 0, 0, 0)
+                .addOverride(1, guest, guest, 0, 3, 0)
+                .compile();
+
+        assertEquals(MealPlan.pack(1, 2, 1), plan.getDay(1, 1)); // Monday 3rd
+        for (int i = 0; i < 31; i++) {
+            long day = plan.getDayStart(i);
+            int planned = plan.getDay(1, i);
+            if (day == guest) {
+                assertEquals(MealPlan.pack(0, 3, 0), planned);
+            } else if (day >= away && day <= back) {
+                assertEquals("day " + i, 0, planned);
+            } else {
+                assertNotEquals("day " + i, 0, planned);
+            }
+        }
+    }
+
+    @Test
+    public void headcountSumsMembers() {
+        MealPlan plan = new MealPlanCompiler(SUNDAY, 1, ZONE)
+                .setPreference(1, 1, 1, 1, Long.MIN_VALUE, 0)
+                .setPreference(2, 0, 2, 1, Long.MIN_VALUE, 0)
+                .addMember(3)
+                .compile();
+
+        assertArrayEquals(new int[]{1, 3, 2}, plan.getHeadcount(0));
+        assertEquals(0, plan.getDay(3, 0));
+        assertEquals(0, plan.getDay(99, 0));
+    }
+
+    @Test
+    public void daysStayOnLocalMidnightsAcrossDst() {
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        Calendar calendar = Calendar.getInstance(newYork);
+        calendar.clear();
+        calendar.set(2025, Calendar.MARCH, 7);
+        MealPlan plan = new MealPlanCompiler(calendar.getTimeInMillis() / 1000, 5, newYork)
+                .addMember(1)
+                .compile();
+
+        for (int i = 0; i < plan.getDayCount(); i++) {
+            calendar.setTimeInMillis(plan.getDayStart(i) * 1000);
+            assertEquals(0, calendar.get(Calendar.HOUR_OF_DAY));
+            assertEquals(7 + i, calendar.get(Calendar.DAY_OF_MONTH));
+        }
+    }
+
+    private static long midnight(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance(ZONE);
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis() / 1000;
+    }
+}
@@ -0,0 +1,47 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for member balance arithmetic and drift comparison.
+ */
+public class MemberLedgerTest {
+
+    @Test
+    public void dueIsChargesMinusPayments() {
+        MemberLedger ledger = ledger(1500, 450.5, 1000);
+        assertEquals(1950.5, ledger.getTotalCharges(), 0.0001);
+        assertEquals(950.5, ledger.getDue(), 0.0001);
+
+        ledger.setTotalPaid(2000);
+        assertEquals(-49.5, ledger.getDue(), 0.0001); // paid in advance
+    }
+
+    @Test
+    public void roundingNoiseIsNotDrift() {
+        MemberLedger stored = ledger(1500, 450.5, 1000);
+        stored.setSharedCharges(450.5 + 1e-9);
+        assertTrue(ledger(1500, 450.5, 1000).matches(stored));
+    }
+
+    @Test
+    public void differentTotalsAreDrift() {
+        assertFalse(ledger(1500, 450.5, 1000).matches(ledger(1500, 450.5, 900)));
+        assertFalse(ledger(1500, 450.5, 1000).matches(null));
+
+        MemberLedger stored = ledger(1500, 450.5, 1000);
+        stored.setMealCount(31);
+        assertFalse(ledger(1500, 450.5, 1000).matches(stored));
+    }
+
+    private static MemberLedger ledger(double mealCharges, double sharedCharges, double paid) {
+        MemberLedger ledger = new MemberLedger(7, 1);
+        ledger.setMealCount(30);
+        ledger.setMealCharges(mealCharges);
+        ledger.setSharedCharges(sharedCharges);
+        ledger.setTotalPaid(paid);
+        return ledger;
+    }
+}
@@ -0,0 +1,56 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the month summary totals and drift comparison.
+ */
+public class MonthlyStatsTest {
+
+    @Test
+    public void totalIncludesCategoriesAndMeals() {
+        MonthlyStats stats = new MonthlyStats(1, 2025, 3);
+        stats.setCategoryTotal(ExpenseCategory.GROCERY, 1200);
+        stats.setCategoryTotal(ExpenseCategory.RENT, 5000);
+        stats.setCategoryTotal(ExpenseCategory.OTHER, 35.5);
+        stats.setMealExpenses(900);
+
+        assertEquals(6235.5, stats.getCategoryExpenses(), 0.0001);
+        assertEquals(7135.5, stats.getTotalExpenses(), 0.0001);
+        assertEquals(5000, stats.getRent(), 0.0001);
+    }
+
+    @Test
+    public void roundingNoiseIsNotDrift() {
+        MonthlyStats stored = filled();
+        stored.setCategoryTotal(ExpenseCategory.GAS, 0.1 + 0.2 - 0.3);
+        stored.setMealExpenses(1499.9999999);
+
+        assertTrue(filled().matches(stored));
+    }
+
+    @Test
+    public void changedCountsOrAmountsAreDrift() {
+        MonthlyStats stored = filled();
+        stored.setMealCount(5);
+        assertFalse(filled().matches(stored));
+
+        stored = filled();
+        stored.setCategoryTotal(ExpenseCategory.UTILITY, 250.01);
+        assertFalse(filled().matches(stored));
+
+        assertFalse(filled().matches(null));
+    }
+
+    private static MonthlyStats filled() {
+        MonthlyStats stats = new MonthlyStats(1, 2025, 3);
+        stats.setCategoryTotal(ExpenseCategory.UTILITY, 250);
+        stats.setExpenseCount(2);
+        stats.setTotalMeals(30);
+        stats.setMealExpenses(1500);
+        stats.setMealCount(10);
+        return stats;
+    }
+}
@@ -0,0 +1,65 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests when recurring expense rules fall due
+ */
+public class RecurringExpenseRuleTest {
+
+    private static long day(int year, int month, int dayOfMonth) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, dayOfMonth);
+        return calendar.getTimeInMillis() / 1000;
+    }
+
+    private static RecurringExpenseRule rule(String frequency, int interval, long start) {
+        return new RecurringExpenseRule(1, 1, "Rent", 8000, "Rent", null, frequency, interval, start);
+    }
+
+    @Test
+    public void monthlyRuleKeepsItsDayAfterShortMonths() {
+        RecurringExpenseRule rent = rule(RecurringExpenseRule.MONTHLY, 1, day(2024, 1, 31));
+        assertEquals(day(2024, 1, 31), rent.getOccurrenceDate(0));
+        assertEquals(day(2024, 2, 29), rent.getOccurrenceDate(1));
+        assertEquals(day(2024, 3, 31), rent.getOccurrenceDate(2));
+        assertEquals(day(2024, 4, 30), rent.getOccurrenceDate(3));
+        assertEquals(day(2025, 1, 31), rent.getOccurrenceDate(12));
+    }
+
+    @Test
+    public void weeklyAndCustomRulesCountDays() {
+        RecurringExpenseRule weekly = rule(RecurringExpenseRule.WEEKLY, 1, day(2024, 2, 26));
+        assertEquals(day(2024, 3, 4), weekly.getOccurrenceDate(1));
+
+        RecurringExpenseRule everyTenDays = rule(RecurringExpenseRule.CUSTOM, 10, day(2024, 2, 25));
+        assertEquals(day(2024, 3, 6), everyTenDays.getOccurrenceDate(1));
+        assertEquals(day(2024, 3, 16), everyTenDays.getOccurrenceDate(2));
+    }
+
+    @Test
+    public void dueUntilTheEndDate() {
+        RecurringExpenseRule gas = rule(RecurringExpenseRule.MONTHLY, 1, day(2024, 1, 10));
+        assertTrue(gas.isDue(0, day(2024, 1, 10)));
+        assertFalse(gas.isDue(1, day(2024, 2, 9)));
+        assertTrue(gas.isDue(1, day(2024, 2, 10)));
+        assertFalse(gas.isFinished(5));
+
+        gas.setEndDate(day(2024, 3, 1));
+        assertTrue(gas.isDue(1, day(2024, 6, 1)));
+        assertFalse(gas.isDue(2, day(2024, 6, 1)));
+        assertTrue(gas.isFinished(2));
+    }
+
+    @Test
+    public void intervalIsAtLeastOne() {
+        RecurringExpenseRule rule = rule(RecurringExpenseRule.CUSTOM, 0, day(2024, 1, 1));
+        assertEquals(1, rule.getInterval());
+        assertEquals(day(2024, 1, 2), rule.getOccurrenceDate(1));
+    }
+}
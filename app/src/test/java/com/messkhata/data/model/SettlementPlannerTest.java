@@ -0,0 +1,135 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the settlement planner, including a randomized check that
+ * every plan settles all balances to zero.
+ */
+public class SettlementPlannerTest {
+
+    private static final int[] MESS_SIZES = {10, 50, 100, 500};
+
+    /**
+     * Random balances in minor units that net to zero
+     */
+    private static SettlementPlanner randomMess(Random random, int members) {
+        SettlementPlanner planner = new SettlementPlanner();
+        long total = 0;
+        for (int id = 1; id < members; id++) {
+            long balance = random.nextInt(2_000_001) - 1_000_000;
+            if (random.nextInt(5) == 0) {
+                balance = 0; // some members are already square
+            }
+            planner.setBalance(id, balance);
+            total += balance;
+        }
+        planner.setBalance(members, -total);
+        return planner;
+    }
+
+    private static Map<Long, Long> apply(SettlementPlanner planner, List<SettlementPlanner.Transfer> plan,
+            int members) {
+        Map<Long, Long> balances = new HashMap<>();
+        for (long id = 1; id <= members; id++) {
+            balances.put(id, planner.getBalance(id));
+        }
+        for (SettlementPlanner.Transfer transfer : plan) {
+            assertTrue(transfer.getAmountMinor() > 0);
+            balances.merge(transfer.getFromUserId(), -transfer.getAmountMinor(), Long::sum);
+            balances.merge(transfer.getToUserId(), transfer.getAmountMinor(), Long::sum);
+        }
+        return balances;
+    }
+
+    @Test
+    public void everyPlanSettlesAllBalances() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int members = 2 + random.nextInt(60);
+            SettlementPlanner planner = randomMess(random, members);
+            List<SettlementPlanner.Transfer> plan = planner.getPlan();
+
+            assertEquals(0, planner.getUnsettled());
+            assertTrue("too many transfers: " + plan.size(), plan.size() <= members - 1);
+            for (long balance : apply(planner, plan, members).values()) {
+                assertEquals(0, balance);
+            }
+        }
+    }
+
+    @Test
+    public void simpleMessIsSettledWithFewTransfers() {
+        SettlementPlanner planner = new SettlementPlanner(Arrays.asList(
+                new MemberBalance(1, "A", 30, 3000.50, 0),
+                new MemberBalance(2, "B", 30, 1000, 2500),
+                new MemberBalance(3, "C", 30, 1000, 2500.50)));
+
+        List<SettlementPlanner.Transfer> plan = planner.getPlan();
+        assertEquals(2, plan.size());
+        assertEquals(1, plan.get(0).getFromUserId());
+        assertEquals(3, plan.get(0).getToUserId());
+        assertEquals(1500.50, plan.get(0).getAmount(), 0.001);
+        assertEquals(150000, plan.get(1).getAmountMinor());
+    }
+
+    @Test
+    public void unbalancedMessLeavesTheDifferenceUnsettled() {
+        SettlementPlanner planner = new SettlementPlanner();
+        planner.setBalance(1, 500);
+        planner.setBalance(2, -300);
+
+        assertEquals(200, planner.getUnsettled());
+        assertEquals(1, planner.getPlan().size());
+        assertEquals(300, planner.getPlan().get(0).getAmountMinor());
+    }
+
+    @Test
+    public void paymentsReplanIncrementally() {
+        SettlementPlanner planner = randomMess(new Random(7), 20);
+        List<SettlementPlanner.Transfer> plan = planner.getPlan();
+        int planned = plan.size();
+        SettlementPlanner.Transfer first = plan.get(0);
+        long from = first.getFromUserId();
+        long to = first.getToUserId();
+        long amount = first.getAmountMinor();
+
+        // Half of a planned transfer only shrinks it
+        planner.recordPayment(from, to, amount / 2);
+        assertSame(first, planner.getPlan().get(0));
+        assertEquals(amount - amount / 2, first.getAmountMinor());
+
+        // Paying the rest removes it
+        planner.recordPayment(from, to, amount - amount / 2);
+        assertEquals(planned - 1, planner.getPlan().size());
+
+        // An unplanned payment re-plans, and the plan still settles everyone
+        planner.recordPayment(to, from, 12345);
+        for (long balance : apply(planner, planner.getPlan(), 20).values()) {
+            assertEquals(0, balance);
+        }
+    }
+
+    @Test
+    public void planningScalesToLargeMesses() {
+        Random random = new Random(1);
+        for (int members : MESS_SIZES) {
+            for (int run = 0; run < 5; run++) {
+                SettlementPlanner planner = randomMess(random, members);
+                List<SettlementPlanner.Transfer> plan = planner.getPlan();
+                assertTrue(plan.size() <= members - 1);
+                for (long balance : apply(planner, plan, members).values()) {
+                    assertEquals(0, balance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.messkhata.data.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for trend month ranges, per-meal cost and chart downsampling.
+ */
+public class TrendReportTest {
+
+    @Test
+    public void monthRangeCrossesYearBoundary() {
+        assertArrayEquals(new int[]{202411, 202412, 202501, 202502},
+                TrendReport.monthRange(2025, 2, 4));
+        assertEquals(202403, TrendReport.monthRange(2025, 2, 12)[0]);
+    }
+
+    @Test
+    public void matricesAreDenseAndCostUsesGroceryOnly() {
+        TrendReport report = new TrendReport(1, TrendReport.monthRange(2025, 3, 3),
+                new int[]{7, 9}, new String[]{"A", "B"});
+        int march = report.indexOfMonth(202503);
+        report.addSpend(march, ExpenseCategory.GROCERY, 3000);
+        report.addSpend(march, ExpenseCategory.RENT, 8000);
+        report.addMeals(march, report.indexOfMember(7), 40);
+        report.addMeals(march, report.indexOfMember(9), 20);
+
+        assertEquals(11000, report.getTotalSpend(march), 0.0001);
+        assertEquals(60, report.getTotalMeals(march));
+        assertEquals(50, report.getActualMealCost(march), 0.0001);
+
+        // Months without data are present and zero
+        assertEquals(0, report.getTotalSpend(0), 0.0001);
+        assertEquals(0, report.getActualMealCost(0), 0.0001);
+        assertEquals(-1, report.indexOfMonth(202504));
+        assertEquals(-1, report.indexOfMember(8));
+    }
+
+    @Test
+    public void shortSeriesAreNotDownsampled() {
+        double[][] points = TrendReport.downsample(new double[]{1, 2, 3}, 12);
+        assertArrayEquals(new double[]{0, 1, 2}, points[0], 0.0001);
+        assertArrayEquals(new double[]{1, 2, 3}, points[1], 0.0001);
+    }
+
+    @Test
+    public void longSeriesAreAveragedIntoBuckets() {
+        double[] values = new double[24];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        double[][] points = TrendReport.downsample(values, 12);
+        assertEquals(12, points[0].length);
+        assertEquals(0.5, points[0][0], 0.0001);
+        assertEquals(0.5, points[1][0], 0.0001);
+        assertEquals(22.5, points[1][11], 0.0001);
+
+        // Uneven buckets still cover every value once
+        double[][] uneven = TrendReport.downsample(new double[]{1, 1, 1, 1, 1, 1, 1}, 3);
+        assertEquals(3, uneven[1].length);
+        for (double y : uneven[1]) {
+            assertEquals(1, y, 0.0001);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.messkhata.data.sync;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the two-lane sync coordinator
+ */
+public class SyncCoordinatorTest {
+
+    // Budget for an interactive upload while the bulk lane is busy
+    private static final long INTERACTIVE_BUDGET_MS = 500;
+
+    // How long to wait for something that should happen promptly
+    private static final long TIMEOUT_SECONDS = 1;
+
+    @Test
+    public void interactiveUploadCompletesWhileBulkSyncRuns() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        CountDownLatch bulkStarted = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+
+        Future<?> bulk = coordinator.submitBulk("full:1", token -> {
+            bulkStarted.countDown();
+            never.await();
+        });
+        assertTrue(bulkStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        CountDownLatch uploaded = new CountDownLatch(1);
+        coordinator.submitInteractive(uploaded::countDown);
+
+        assertTrue("interactive upload waited for bulk sync",
+                uploaded.await(INTERACTIVE_BUDGET_MS, TimeUnit.MILLISECONDS));
+        assertTrue(coordinator.isBulkRunning());
+
+        coordinator.cancelBulk();
+        assertTrue(bulk.isCancelled());
+    }
+
+    @Test
+    public void duplicateFullSyncRequestsCollapse() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        SyncCoordinator.BulkJob job = token -> {
+            runs.incrementAndGet();
+            release.await();
+        };
+
+        Future<?> first = coordinator.submitBulk("full:1", job);
+        Future<?> second = coordinator.submitBulk("full:1", job);
+        Future<?> third = coordinator.submitBulk("full:1", job);
+        assertSame(first, second);
+        assertSame(first, third);
+
+        release.countDown();
+        first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(1, runs.get());
+        assertFalse(coordinator.isBulkRunning());
+
+        // A request after completion starts a fresh sync
+        coordinator.submitBulk("full:1", job).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void cancellationStopsRunningSync() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+        AtomicBoolean toldNotStarted = new AtomicBoolean();
+
+        coordinator.submitBulk("full:1", token -> {
+            started.countDown();
+            try {
+                never.await();
+            } finally {
+                stopped.countDown();
+            }
+        }, () -> toldNotStarted.set(true));
+
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(coordinator.cancelBulk());
+        assertTrue(stopped.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(coordinator.isBulkRunning());
+        assertFalse(coordinator.cancelBulk());
+
+        // A running job reports its own cancellation
+        assertFalse(toldNotStarted.get());
+    }
+
+    @Test
+    public void syncCancelledBeforeStartingIsReported() throws Exception {
+        ExecutorService bulkExecutor = Executors.newSingleThreadExecutor();
+        SyncCoordinator coordinator = new SyncCoordinator(Executors.newSingleThreadExecutor(), bulkExecutor);
+        CountDownLatch gate = blockLane(bulkExecutor);
+        AtomicBoolean ran = new AtomicBoolean();
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        Future<?> sync = coordinator.submitBulk("full:1", token -> ran.set(true), cancelled::countDown);
+        assertTrue(coordinator.cancelBulk());
+        assertTrue(cancelled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(sync.isCancelled());
+
+        gate.countDown();
+        bulkExecutor.shutdown();
+        assertTrue(bulkExecutor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void syncForDifferentMessReplacesCurrentOne() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+
+        Future<?> old = coordinator.submitBulk("full:1", token -> {
+            started.countDown();
+            never.await();
+        });
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Future<?> replacement = coordinator.submitBulk("full:2", token -> { });
+        assertTrue(old.isCancelled());
+        replacement.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void pendingSyncReplacedByAnotherMessIsReported() throws Exception {
+        ExecutorService bulkExecutor = Executors.newSingleThreadExecutor();
+        SyncCoordinator coordinator = new SyncCoordinator(Executors.newSingleThreadExecutor(), bulkExecutor);
+        CountDownLatch gate = blockLane(bulkExecutor);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicBoolean replacementCancelled = new AtomicBoolean();
+
+        Future<?> old = coordinator.submitBulk("full:1", token -> fail("replaced sync ran"), cancelled::countDown);
+        Future<?> replacement = coordinator.submitBulk("full:2", token -> { },
+                () -> replacementCancelled.set(true));
+        assertTrue(cancelled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(old.isCancelled());
+
+        gate.countDown();
+        replacement.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertFalse(replacementCancelled.get());
+    }
+
+    @Test
+    public void failuresSurfaceThroughFuture() throws Exception {
+        SyncCoordinator coordinator = new SyncCoordinator();
+        Future<?> sync = coordinator.submitBulk("full:1", token -> {
+            throw new IllegalStateException("network");
+        });
+
+        try {
+            sync.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertEquals("network", e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Occupy a lane's only thread until the returned latch is released, so
+     * jobs submitted meanwhile stay pending
+     */
+    private static CountDownLatch blockLane(ExecutorService executor) throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            blocked.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return gate;
+    }
+}
@@ -0,0 +1,151 @@
+package com.messkhata.data.sync.model;
+
+import com.messkhata.data.model.MealCounters;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests parsing FCM entity deltas, when they are complete enough to apply
+ * without a fetch, and merging them into the local copy
+ */
+public class EntityDeltaTest {
+
+    private static final String EXPENSE_FIELDS = "{\"addedBy\": 3, \"category\": \"Grocery\", " +
+            "\"amount\": 450.5, \"title\": \"Rice\", \"expenseDate\": 1717200000, " +
+            "\"memberCountAtTime\": 4";
+
+    private static Map<String, String> message(String type, String entityId, String version, String fields) {
+        Map<String, String> data = new HashMap<>();
+        data.put("type", type);
+        data.put("messId", "mess1");
+        if (entityId != null) {
+            data.put(EntityDelta.KEY_ENTITY_ID, entityId);
+        }
+        if (version != null) {
+            data.put(EntityDelta.KEY_VERSION, version);
+        }
+        if (fields != null) {
+            data.put(EntityDelta.KEY_FIELDS, fields);
+        }
+        return data;
+    }
+
+    @Test
+    public void parsesIdVersionAndFields() {
+        EntityDelta delta = EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", "1700",
+                EXPENSE_FIELDS + "}"));
+
+        assertEquals(EntityDelta.TYPE_EXPENSE_ADDED, delta.getType());
+        assertEquals("mess1", delta.getFirebaseMessId());
+        assertEquals("exp1", delta.getEntityId());
+        assertEquals(1700, delta.getVersion());
+        assertEquals("Rice", delta.getFields().get("title"));
+        assertTrue(delta.isComplete());
+
+        SyncableExpense expense = SyncableExpense.fromFirebaseMap(delta.getEntityId(), delta.getFields());
+        assertEquals("exp1", expense.getFirebaseId());
+        assertEquals(3, expense.getAddedBy());
+        assertEquals(450.5, expense.getAmount(), 1e-9);
+        assertEquals(1717200000L, expense.getExpenseDate());
+        assertEquals(4, expense.getMemberCountAtTime());
+    }
+
+    @Test
+    public void nestedFieldsBecomeMapsAndLists() {
+        EntityDelta delta = EntityDelta.fromData(message(EntityDelta.TYPE_MESS_UPDATED, "mess1", "5",
+                "{\"groceryBudgetPerMeal\": 40, \"cookingChargePerMeal\": 10, " +
+                        "\"rateHistory\": {\"1717200000\": {\"grocery\": 40, \"cooking\": 10}}, " +
+                        "\"tags\": [1, \"two\", null]}"));
+
+        assertTrue(delta.getFields().get("rateHistory") instanceof Map);
+        List<?> tags = (List<?>) delta.getFields().get("tags");
+        assertEquals(3, tags.size());
+        assertNull(tags.get(2));
+
+        SyncableMess mess = SyncableMess.fromFirebaseMap(delta.getEntityId(), delta.getFields());
+        assertEquals(1, mess.getRateHistory().size());
+        assertEquals(40, mess.getRateHistory().get(0).getGrocery(), 1e-9);
+    }
+
+    @Test
+    public void messagesWithoutAnEntityAreIgnored() {
+        assertNull(EntityDelta.fromData(message(null, "exp1", "1", "{}")));
+        assertNull(EntityDelta.fromData(message("expense_deleted", "exp1", "1", "{}")));
+        assertNull(EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, null, "1", "{}")));
+        assertNull(EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "", "1", "{}")));
+    }
+
+    @Test
+    public void missingFieldsMakeADeltaIncomplete() {
+        // Sender dropped a field to fit the 4KB limit
+        assertFalse(EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", "1",
+                "{\"addedBy\": 3, \"category\": \"Grocery\", \"amount\": 450.5, \"title\": \"Rice\", " +
+                        "\"expenseDate\": 1717200000}")).isComplete());
+        // Or all of them
+        EntityDelta bare = EntityDelta.fromData(message(EntityDelta.TYPE_MEMBER_JOINED, "user1", "1", null));
+        assertTrue(bare.getFields().isEmpty());
+        assertFalse(bare.isComplete());
+        // Unreadable fields are treated as missing
+        assertFalse(EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", "1",
+                EXPENSE_FIELDS)).isComplete());
+        // Without a version the delta cannot be ordered, so the document is fetched
+        assertFalse(EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", null,
+                EXPENSE_FIELDS + "}")).isComplete());
+        assertFalse(EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", "soon",
+                EXPENSE_FIELDS + "}")).isComplete());
+    }
+
+    @Test
+    public void nullFieldsReadAsMissing() {
+        EntityDelta cleared = EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", "2",
+                EXPENSE_FIELDS + ", \"description\": null, \"createdAt\": null}"));
+        assertFalse(cleared.getFields().containsKey("createdAt"));
+        assertTrue(cleared.isComplete());
+        SyncableExpense expense = SyncableExpense.fromFirebaseMap(cleared.getEntityId(), cleared.getFields());
+        assertNull(expense.getDescription());
+
+        EntityDelta withoutTitle = EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", "3",
+                EXPENSE_FIELDS + ", \"title\": null}"));
+        assertFalse(withoutTitle.isComplete());
+    }
+
+    @Test
+    public void onlyNewerVersionsApply() {
+        EntityDelta delta = EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", "1700",
+                EXPENSE_FIELDS + "}"));
+        assertTrue(delta.isNewerThan(0));
+        assertTrue(delta.isNewerThan(1699));
+        assertFalse(delta.isNewerThan(1700));  // redelivered
+        assertFalse(delta.isNewerThan(1800));  // arrived after a later change
+
+        EntityDelta unversioned = EntityDelta.fromData(message(EntityDelta.TYPE_EXPENSE_ADDED, "exp1", null,
+                EXPENSE_FIELDS + "}"));
+        assertTrue(unversioned.isNewerThan(1800));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void mealCountersMergeOnceHoweverOftenDelivered() {
+        EntityDelta delta = EntityDelta.fromData(message(EntityDelta.TYPE_MEAL_UPDATED, "meal1", "9",
+                "{\"userEmail\": \"a@example.com\", \"mealDate\": 1717200000, \"counters\": {" +
+                        "\"breakfast\": {\"p\": {\"phoneA\": 1}, \"n\": {}}, " +
+                        "\"lunch\": {\"p\": {\"phoneA\": 1, \"phoneB\": 1}, \"n\": {\"phoneB\": 1}}}}"));
+        assertTrue(delta.isComplete());
+
+        MealCounters local = new MealCounters();
+        local.apply("phoneB", 0, 1, 1);
+        MealCounters remote = MealCounters.fromMap((Map<String, Object>) delta.getFields().get("counters"));
+        local.merge(remote);
+        local.merge(remote);
+
+        assertEquals(1, local.getBreakfast());
+        assertEquals(1, local.getLunch());   // phoneB's lunch was taken back
+        assertEquals(1, local.getDinner());  // not in the delta, kept
+    }
+}
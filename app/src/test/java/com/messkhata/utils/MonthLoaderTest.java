@@ -0,0 +1,127 @@
+package com.messkhata.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that month loads are superseded by newer ones and that neighbours
+ * are prefetched. Results are posted to a queue standing in for the main
+ * thread, and drained by the test thread.
+ */
+public class MonthLoaderTest {
+
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+    private final LinkedBlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+    private final List<Integer> loaded = new ArrayList<>();
+    private final List<String> delivered = new ArrayList<>();
+
+    private final MonthLoader<String> loader = new MonthLoader<>(background, mainQueue::add,
+            (year, month) -> {
+                synchronized (loaded) {
+                    loaded.add(MonthLoader.monthKey(year, month));
+                }
+                return year + "-" + month;
+            },
+            new MonthLoader.Listener<String>() {
+                @Override
+                public void onMonthLoaded(int monthKey, String result) {
+                    delivered.add(result);
+                }
+
+                @Override
+                public void onMonthLoadFailed(int monthKey, Exception e) {
+                    fail(e.toString());
+                }
+            });
+
+    @After
+    public void shutdown() {
+        background.shutdownNow();
+    }
+
+    /**
+     * Run main-thread work until the background executor has nothing left
+     */
+    private void drain() throws Exception {
+        while (true) {
+            background.submit(() -> { }).get(1, TimeUnit.SECONDS);
+            Runnable task = mainQueue.poll();
+            if (task == null) {
+                return;
+            }
+            task.run();
+        }
+    }
+
+    @Test
+    public void monthKeysWrapAcrossYears() {
+        assertEquals(202501, MonthLoader.addMonths(202412, 1));
+        assertEquals(202412, MonthLoader.addMonths(202501, -1));
+        assertEquals(202303, MonthLoader.addMonths(202503, -24));
+    }
+
+    @Test
+    public void rapidTapsOnlyLoadTheLastMonth() throws Exception {
+        // Hold the executor so all taps queue up behind it
+        Object gate = new Object();
+        synchronized (gate) {
+            background.execute(() -> {
+                synchronized (gate) {
+                    // released when the taps are done
+                }
+            });
+            for (int month = 1; month <= 12; month++) {
+                loader.show(MonthLoader.monthKey(2025, month));
+            }
+        }
+        drain();
+
+        // The last month and its neighbours, never the months tapped through
+        assertEquals(1, delivered.size());
+        assertEquals("2025-12", delivered.get(0));
+        assertTrue(loaded.contains(202512));
+        assertTrue(loaded.contains(202511));
+        assertTrue(loaded.contains(202601));
+        assertFalse(loaded.contains(202506));
+        assertTrue(loaded.size() <= 4);
+    }
+
+    @Test
+    public void nextMonthIsShownFromThePrefetch() throws Exception {
+        loader.show(202503);
+        drain();
+        assertEquals(3, loaded.size());
+
+        delivered.clear();
+        loader.show(202504);
+        // Delivered before any background work runs
+        assertEquals("2025-4", delivered.get(0));
+
+        drain();
+        // Reloaded once, and only the new neighbour is fetched
+        assertTrue(loaded.contains(202505));
+        assertEquals(5, loaded.size());
+    }
+
+    @Test
+    public void clearDropsCachedMonths() throws Exception {
+        loader.show(202503);
+        drain();
+        loader.clear();
+
+        delivered.clear();
+        loader.show(202504);
+        assertTrue(delivered.isEmpty());
+        drain();
+        assertEquals("2025-4", delivered.get(0));
+    }
+}